@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client;
+
+import com.google.gwt.dom.client.Node;
+
+/**
+ * Walks a DOM subtree in document order without recursion, so that each node of a large document is visited once
+ * without growing the call stack.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public final class DocumentOrder
+{
+    /**
+     * Default constructor.
+     */
+    private DocumentOrder()
+    {
+        // Utility classes must not have a public or default constructor.
+    }
+
+    /**
+     * @param node a descendant of the given root
+     * @param root the root of the traversed DOM subtree
+     * @return the node that follows the given node in document order, inside the given root, or {@code null} if the
+     *         given node is the last one
+     */
+    public static Node getNext(Node node, Node root)
+    {
+        if (node.hasChildNodes()) {
+            return node.getFirstChild();
+        }
+        Node ancestor = node;
+        while (ancestor != root && ancestor.getNextSibling() == null) {
+            ancestor = ancestor.getParentNode();
+        }
+        return ancestor == root ? null : ancestor.getNextSibling();
+    }
+}
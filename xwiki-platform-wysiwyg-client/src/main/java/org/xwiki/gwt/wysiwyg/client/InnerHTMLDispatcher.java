@@ -0,0 +1,175 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.gwt.dom.client.Document;
+import org.xwiki.gwt.dom.client.Element;
+import org.xwiki.gwt.dom.client.InnerHTMLListener;
+
+import com.google.gwt.dom.client.Node;
+
+/**
+ * Dispatches the inner HTML changes of a DOM document to the {@link InnerHTMLVisitor}s interested in the nodes of the
+ * changed subtree. Instead of having each listener look for the nodes it needs, the changed subtree is traversed once
+ * and each node is routed to the visitors registered for its name. This way inserting or reloading large fragments
+ * costs a single traversal.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public final class InnerHTMLDispatcher implements InnerHTMLListener
+{
+    /**
+     * The name of the comment nodes.
+     */
+    public static final String COMMENT = "#comment";
+
+    /**
+     * The property of the document element that holds the dispatcher of its document.
+     */
+    private static final String PROPERTY = "__xwikiInnerHTMLDispatcher";
+
+    /**
+     * The document whose inner HTML changes are dispatched.
+     */
+    private final Document document;
+
+    /**
+     * The registered visitors, in registration order.
+     */
+    private final List<InnerHTMLVisitor> visitors = new ArrayList<InnerHTMLVisitor>();
+
+    /**
+     * Maps node names to the visitors interested in the nodes with that name, in registration order.
+     */
+    private final Map<String, List<InnerHTMLVisitor>> visitorsByNodeName =
+        new HashMap<String, List<InnerHTMLVisitor>>();
+
+    /**
+     * Creates a new dispatcher.
+     *
+     * @param document the document whose inner HTML changes are dispatched
+     */
+    private InnerHTMLDispatcher(Document document)
+    {
+        this.document = document;
+    }
+
+    /**
+     * @param document a DOM document
+     * @return the dispatcher of the inner HTML changes of the given document, created if it doesn't exist
+     */
+    public static InnerHTMLDispatcher get(Document document)
+    {
+        Element documentElement = Element.as(document.getDocumentElement());
+        Object dispatcher = documentElement.getPropertyObject(PROPERTY);
+        if (!(dispatcher instanceof InnerHTMLDispatcher)) {
+            dispatcher = new InnerHTMLDispatcher(document);
+            documentElement.setPropertyObject(PROPERTY, dispatcher);
+        }
+        return (InnerHTMLDispatcher) dispatcher;
+    }
+
+    /**
+     * Registers a visitor for the nodes with the specified names. The visitors are notified in registration order.
+     *
+     * @param visitor the visitor to register
+     * @param nodeNames the names of the nodes the visitor is interested in (e.g. {@code a}, {@code img} or
+     *            {@link #COMMENT}); the element names are case insensitive
+     */
+    public void addVisitor(InnerHTMLVisitor visitor, String... nodeNames)
+    {
+        if (visitors.isEmpty()) {
+            document.addInnerHTMLListener(this);
+        }
+        if (!visitors.contains(visitor)) {
+            visitors.add(visitor);
+        }
+        for (String nodeName : nodeNames) {
+            String key = nodeName.toLowerCase();
+            List<InnerHTMLVisitor> interestedVisitors = visitorsByNodeName.get(key);
+            if (interestedVisitors == null) {
+                interestedVisitors = new ArrayList<InnerHTMLVisitor>();
+                visitorsByNodeName.put(key, interestedVisitors);
+            }
+            if (!interestedVisitors.contains(visitor)) {
+                interestedVisitors.add(visitor);
+            }
+        }
+    }
+
+    /**
+     * Unregisters a visitor.
+     *
+     * @param visitor the visitor to unregister
+     */
+    public void removeVisitor(InnerHTMLVisitor visitor)
+    {
+        if (!visitors.remove(visitor)) {
+            return;
+        }
+        for (List<InnerHTMLVisitor> interestedVisitors : visitorsByNodeName.values()) {
+            interestedVisitors.remove(visitor);
+        }
+        if (visitors.isEmpty()) {
+            visitorsByNodeName.clear();
+            document.removeInnerHTMLListener(this);
+        }
+    }
+
+    @Override
+    public void onInnerHTMLChange(Element element)
+    {
+        if (element.getOwnerDocument() == document) {
+            dispatch(element);
+        }
+    }
+
+    /**
+     * Traverses the descendants of the given element once, routing each node to the visitors interested in it, and
+     * then lets the visitors process the visited nodes.
+     *
+     * @param root the root of the changed subtree
+     */
+    public void dispatch(Element root)
+    {
+        // Copy the list of visitors because they can be unregistered while processing the visited nodes.
+        List<InnerHTMLVisitor> currentVisitors = new ArrayList<InnerHTMLVisitor>(visitors);
+        if (currentVisitors.isEmpty()) {
+            return;
+        }
+        for (Node node = root.getFirstChild(); node != null; node = DocumentOrder.getNext(node, root)) {
+            List<InnerHTMLVisitor> interestedVisitors = visitorsByNodeName.get(node.getNodeName().toLowerCase());
+            if (interestedVisitors != null) {
+                for (InnerHTMLVisitor visitor : interestedVisitors) {
+                    visitor.visit(node);
+                }
+            }
+        }
+        for (InnerHTMLVisitor visitor : currentVisitors) {
+            visitor.endVisit();
+        }
+    }
+}
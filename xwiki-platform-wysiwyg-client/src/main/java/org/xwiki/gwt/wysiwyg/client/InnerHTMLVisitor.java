@@ -0,0 +1,47 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client;
+
+import com.google.gwt.dom.client.Node;
+
+/**
+ * Processes the nodes of a DOM subtree whose inner HTML has changed. The visitors are registered with an
+ * {@link InnerHTMLDispatcher} for the names of the nodes they are interested in, so that the changed subtree is
+ * traversed only once, no matter how many visitors are registered.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public interface InnerHTMLVisitor
+{
+    /**
+     * Visits a node of the changed subtree whose name matches one of the names this visitor was registered for. The
+     * nodes are visited in document order. The visitor must not change the structure of the DOM tree while visiting;
+     * the changes have to be made in {@link #endVisit()}.
+     *
+     * @param node the visited node
+     */
+    void visit(Node node);
+
+    /**
+     * Called after the entire changed subtree has been traversed, in order to process the visited nodes.
+     */
+    void endVisit();
+}
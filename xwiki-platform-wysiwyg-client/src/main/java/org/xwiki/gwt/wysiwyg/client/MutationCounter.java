@@ -0,0 +1,138 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client;
+
+import org.xwiki.gwt.dom.client.Document;
+import org.xwiki.gwt.user.client.ui.rta.RichTextArea;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * Counts the changes made to the DOM document edited by a rich text area, so that we can find out if the edited
+ * content has changed without serializing it. The version is incremented each time the document is modified or
+ * replaced. If the browser doesn't support mutation observers then the version is incremented each time it is read,
+ * meaning that the edited content must be compared in order to determine if it has changed.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class MutationCounter
+{
+    /**
+     * The rich text area whose document is observed.
+     */
+    private final RichTextArea textArea;
+
+    /**
+     * The observed document.
+     */
+    private Document observedDocument;
+
+    /**
+     * The mutation observer attached to {@link #observedDocument}.
+     */
+    private JavaScriptObject observer;
+
+    /**
+     * The current version of the edited document.
+     */
+    private int version;
+
+    /**
+     * Creates a new mutation counter for the given rich text area.
+     *
+     * @param textArea the rich text area whose document is observed
+     */
+    public MutationCounter(RichTextArea textArea)
+    {
+        this.textArea = textArea;
+    }
+
+    /**
+     * @return the current version of the edited document; two equal versions mean that the document hasn't changed
+     */
+    public int getVersion()
+    {
+        Document document = textArea.getDocument();
+        if (document != observedDocument) {
+            // The rich text area has been reloaded.
+            if (observer != null) {
+                disconnect(observer);
+            }
+            observedDocument = document;
+            observer = document != null ? observe(document) : null;
+            version++;
+        } else if (observer == null || takeRecords(observer)) {
+            // Mutation observers are not supported or the document has been modified since the last notification.
+            version++;
+        }
+        return version;
+    }
+
+    /**
+     * Called by the mutation observer when the observed document is modified.
+     */
+    private void onMutation()
+    {
+        version++;
+    }
+
+    /**
+     * Starts observing the changes made to the given document.
+     *
+     * @param document a DOM document
+     * @return the mutation observer, or {@code null} if the browser doesn't support mutation observers
+     */
+    private native JavaScriptObject observe(Document document)
+    /*-{
+        var MutationObserver = $wnd.MutationObserver || $wnd.WebKitMutationObserver;
+        if (!MutationObserver) {
+            return null;
+        }
+        var _this = this;
+        var observer = new MutationObserver(function() {
+            _this.@org.xwiki.gwt.wysiwyg.client.MutationCounter::onMutation()();
+        });
+        observer.observe(document, {childList: true, attributes: true, characterData: true, subtree: true});
+        return observer;
+    }-*/;
+
+    /**
+     * Mutation records are delivered asynchronously. This method retrieves the pending records so that changes made
+     * during the current event are taken into account.
+     *
+     * @param observer a mutation observer
+     * @return {@code true} if there were pending mutation records, {@code false} otherwise
+     */
+    private static native boolean takeRecords(JavaScriptObject observer)
+    /*-{
+        return observer.takeRecords().length > 0;
+    }-*/;
+
+    /**
+     * Stops the given mutation observer.
+     *
+     * @param observer a mutation observer
+     */
+    private static native void disconnect(JavaScriptObject observer)
+    /*-{
+        observer.disconnect();
+    }-*/;
+}
@@ -21,7 +21,6 @@
 
 import org.xwiki.gwt.user.client.ActionEvent;
 import org.xwiki.gwt.user.client.Config;
-import org.xwiki.gwt.user.client.DeferredUpdater;
 import org.xwiki.gwt.user.client.HandlerRegistrationCollection;
 import org.xwiki.gwt.user.client.Updatable;
 import org.xwiki.gwt.user.client.ui.rta.RichTextArea;
@@ -34,6 +33,9 @@
 import org.xwiki.gwt.wysiwyg.client.plugin.internal.DefaultPluginManager;
 import org.xwiki.gwt.wysiwyg.client.syntax.SyntaxValidator;
 
+import com.google.gwt.animation.client.AnimationScheduler;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationCallback;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationHandle;
 import com.google.gwt.core.client.Scheduler;
 import com.google.gwt.core.client.Scheduler.ScheduledCommand;
 import com.google.gwt.event.dom.client.KeyUpEvent;
@@ -100,9 +102,24 @@ public class RichTextEditorController implements Updatable, MouseUpHandler, KeyU
     private final SyntaxValidator syntaxValidator;
 
     /**
-     * Schedules updates and executes only the most recent one.
+     * Updates the editor on the next animation frame.
      */
-    private final DeferredUpdater updater = new DeferredUpdater(this);
+    private final AnimationCallback updateCallback = new AnimationCallback()
+    {
+        @Override
+        public void execute(double timestamp)
+        {
+            updateHandle = null;
+            if (canUpdate()) {
+                update();
+            }
+        }
+    };
+
+    /**
+     * The pending update request, if any. All the updates requested before the next animation frame are coalesced.
+     */
+    private AnimationHandle updateHandle;
 
     /**
      * The collection of handler registrations used by this editor.
@@ -152,7 +169,7 @@ public void onMouseUp(MouseUpEvent event)
         // We listen to mouse up events instead of clicks because if the user selects text and the end points of the
         // selection are in different DOM nodes the click events are not triggered.
         if (event.getSource() == richTextEditor.getTextArea()) {
-            updater.deferUpdate();
+            deferUpdate();
         }
     }
 
@@ -160,7 +177,7 @@ public void onMouseUp(MouseUpEvent event)
     public void onKeyUp(KeyUpEvent event)
     {
         if (event.getSource() == richTextEditor.getTextArea()) {
-            updater.deferUpdate();
+            deferUpdate();
         }
     }
 
@@ -175,7 +192,8 @@ public boolean onBeforeCommand(CommandManager sender, Command command, String pa
     public void onCommand(CommandManager sender, Command command, String param)
     {
         if (sender == richTextEditor.getTextArea().getCommandManager()) {
-            updater.deferUpdate();
+            toolBarController.invalidate();
+            deferUpdate();
         }
     }
 
@@ -253,6 +271,16 @@ public void update()
         toolBarController.update(richTextEditor.getTextArea(), syntaxValidator);
     }
 
+    /**
+     * Schedules an update on the next animation frame, unless there's already one scheduled.
+     */
+    private void deferUpdate()
+    {
+        if (updateHandle == null) {
+            updateHandle = AnimationScheduler.get().requestAnimationFrame(updateCallback);
+        }
+    }
+
     @Override
     public boolean canUpdate()
     {
@@ -293,6 +321,10 @@ protected void saveRegistration(HandlerRegistration registration)
      */
     public void destroy()
     {
+        if (updateHandle != null) {
+            updateHandle.cancel();
+            updateHandle = null;
+        }
         menuBarController.destroy();
         toolBarController.destroy();
         // Unload all the plug-ins.
@@ -24,6 +24,8 @@
 import java.util.List;
 import java.util.Map;
 
+import org.xwiki.gwt.dom.client.Range;
+import org.xwiki.gwt.dom.client.Selection;
 import org.xwiki.gwt.user.client.Cache;
 import org.xwiki.gwt.user.client.Config;
 import org.xwiki.gwt.user.client.Console;
@@ -34,6 +36,7 @@
 import org.xwiki.gwt.wysiwyg.client.plugin.separator.ToolBarSeparator;
 import org.xwiki.gwt.wysiwyg.client.syntax.SyntaxValidator;
 
+import com.google.gwt.dom.client.Node;
 import com.google.gwt.user.client.ui.Widget;
 
 /**
@@ -68,6 +71,22 @@
      */
     private final Map<String, UIExtension> toolBarFeatures = new HashMap<String, UIExtension>();
 
+    /**
+     * The rich text area used by the last update.
+     */
+    private RichTextArea updatedTextArea;
+
+    /**
+     * Used to detect the changes made to the document edited by {@link #updatedTextArea}.
+     */
+    private MutationCounter mutationCounter;
+
+    /**
+     * The state of the rich text area (document version and selection) that determined the last update, or
+     * {@code null} if the tool bar has to be updated.
+     */
+    private List<Object> updatedContext;
+
     /**
      * Creates a new tool bar controller.
      * 
@@ -88,6 +107,7 @@ public void fill(Config config, PluginManager pluginManager)
     {
         toolBar.clear();
         toolBarFeatures.clear();
+        invalidate();
         for (String featureName : split(config.getParameter(TOOLBAR_ROLE, DEFAULT_TOOLBAR_FEATURES), pluginManager)) {
             UIExtension extension = pluginManager.getUIExtension(TOOLBAR_ROLE, featureName);
             toolBarFeatures.put(featureName, extension);
@@ -98,6 +118,9 @@ public void fill(Config config, PluginManager pluginManager)
     /**
      * Updates the tool bar state, i.e. disables/enables tool bar features, based on the given set of rules and the
      * current state of the rich text area.
+     * <p>
+     * The features are validated only if the edited document or the selection context changed since the last update,
+     * and a feature is enabled or disabled only if its state changed.
      * 
      * @param richTextArea the rich text area whose state is used to determine if a feature must be enabled or disabled
      * @param syntaxValidator the object used to assert if a feature must be enabled or disabled in the current state of
@@ -105,16 +128,77 @@ public void fill(Config config, PluginManager pluginManager)
      */
     public void update(RichTextArea richTextArea, SyntaxValidator syntaxValidator)
     {
+        if (richTextArea != updatedTextArea) {
+            updatedTextArea = richTextArea;
+            mutationCounter = new MutationCounter(richTextArea);
+            invalidate();
+        }
+        List<Object> context = getContext(richTextArea);
+        if (context.equals(updatedContext)) {
+            return;
+        }
+
         Cache selectionCache = new Cache(richTextArea.getElement());
         selectionCache.clear(false);
         for (Map.Entry<String, UIExtension> entry : toolBarFeatures.entrySet()) {
             try {
-                entry.getValue().setEnabled(entry.getKey(), syntaxValidator.isValid(entry.getKey(), richTextArea));
+                boolean enabled = syntaxValidator.isValid(entry.getKey(), richTextArea);
+                if (entry.getValue().isEnabled(entry.getKey()) != enabled) {
+                    entry.getValue().setEnabled(entry.getKey(), enabled);
+                }
             } catch (Exception e) {
                 Console.getInstance().error(e, "Failed to update tool bar: " + entry.getKey());
             }
         }
         selectionCache.clear(true);
+        updatedContext = context;
+    }
+
+    /**
+     * Forces the next update to validate all the tool bar features. This should be called when the state of the tool
+     * bar features can change without modifying the edited document or the selection (e.g. after a command).
+     */
+    public void invalidate()
+    {
+        updatedContext = null;
+    }
+
+    /**
+     * The state of the tool bar features depends only on the edited document and on the selection context, i.e. the
+     * nodes containing the selection boundaries. Moving the caret inside a text node doesn't change the ancestors
+     * (inline style, block, list, table, macro) of the selection so the tool bar doesn't need to be updated.
+     * 
+     * @param richTextArea a rich text area
+     * @return the objects that determine the state of the tool bar features
+     */
+    private List<Object> getContext(RichTextArea richTextArea)
+    {
+        List<Object> context = new ArrayList<Object>();
+        context.add(mutationCounter.getVersion());
+        Selection selection = richTextArea.getDocument().getSelection();
+        for (int i = 0; i < selection.getRangeCount(); i++) {
+            Range range = selection.getRangeAt(i);
+            context.add(range.isCollapsed());
+            addBoundary(context, range.getStartContainer(), range.getStartOffset());
+            addBoundary(context, range.getEndContainer(), range.getEndOffset());
+        }
+        return context;
+    }
+
+    /**
+     * Adds a selection boundary to the given context.
+     * 
+     * @param context the list of objects that determine the state of the tool bar features
+     * @param container the node containing the selection boundary
+     * @param offset the offset of the selection boundary inside the container
+     */
+    private void addBoundary(List<Object> context, Node container, int offset)
+    {
+        context.add(container);
+        if (container.getNodeType() != Node.TEXT_NODE) {
+            // The offset indicates the selected child nodes (e.g. a selected image or macro).
+            context.add(offset);
+        }
     }
 
     /**
@@ -161,5 +245,8 @@ public List<String> split(String toolBar, PluginManager pluginManager)
     public void destroy()
     {
         toolBarFeatures.clear();
+        invalidate();
+        updatedTextArea = null;
+        mutationCounter = null;
     }
 }
@@ -22,6 +22,7 @@
 import org.xwiki.gwt.dom.client.Element;
 import org.xwiki.gwt.user.client.Config;
 import org.xwiki.gwt.user.client.StringUtils;
+import org.xwiki.gwt.user.client.ui.rta.RichTextArea;
 import org.xwiki.gwt.wysiwyg.client.plugin.PluginFactoryManager;
 import org.xwiki.gwt.wysiwyg.client.syntax.SyntaxValidator;
 import org.xwiki.gwt.wysiwyg.client.syntax.SyntaxValidatorManager;
@@ -204,6 +205,14 @@ public void onSelection(SelectionEvent<Integer> event)
         }));
         saveRegistration(tabs.addSelectionHandler(switcher));
 
+        if (config.getSourceConversionDelay() > 0) {
+            // Convert the edited content to source in the background while the user is idle.
+            RichTextArea textArea = getRichTextEditor().getTextArea();
+            saveRegistration(textArea.addKeyDownHandler(switcher));
+            saveRegistration(textArea.addPasteHandler(switcher));
+            textArea.getCommandManager().addCommandListener(switcher);
+        }
+
         return tabs;
     }
 
@@ -261,6 +270,9 @@ public WysiwygEditorConfig getConfig()
     @Override
     public void destroy()
     {
+        getRichTextEditor().getTextArea().getCommandManager().removeCommandListener(switcher);
+        switcher.destroy();
+
         super.destroy();
 
         // Detach the user interface.
@@ -41,6 +41,12 @@ public class WysiwygEditorConfig implements ClosingHandler
      */
     public static final String DEFAULT_SYNTAX = "xhtml/1.0";
 
+    /**
+     * The default number of milliseconds the user has to be idle on the WYSIWYG tab before the edited content is
+     * converted to source in the background.
+     */
+    public static final String DEFAULT_SOURCE_CONVERSION_DELAY = "3000";
+
     /**
      * WYWISYWG tab index in the TabPanel.
      */
@@ -174,6 +180,16 @@ public String getTemplateURL()
         return config.getParameter("inputURL");
     }
 
+    /**
+     * @return the number of milliseconds the user has to be idle on the WYSIWYG tab before the edited content is
+     *         converted to source in the background, in order to speed up the switch to the source tab; a value that is
+     *         not positive disables the background conversion
+     */
+    public int getSourceConversionDelay()
+    {
+        return Integer.parseInt(config.getParameter("sourceConversionDelay", DEFAULT_SOURCE_CONVERSION_DELAY));
+    }
+
     /**
      * @return {@code true} if the WYSIWYG editor is in debug mode, {@code false} otherwise
      */
@@ -20,39 +20,63 @@
 
 package org.xwiki.gwt.wysiwyg.client;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.xwiki.gwt.dom.client.PasteEvent;
+import org.xwiki.gwt.dom.client.PasteHandler;
 import org.xwiki.gwt.user.client.ActionEvent;
 import org.xwiki.gwt.user.client.CancelableAsyncCallback;
 import org.xwiki.gwt.user.client.Console;
 import org.xwiki.gwt.user.client.ui.rta.Reloader;
 import org.xwiki.gwt.user.client.ui.rta.SelectionPreserver;
 import org.xwiki.gwt.user.client.ui.rta.cmd.Command;
+import org.xwiki.gwt.user.client.ui.rta.cmd.CommandListener;
+import org.xwiki.gwt.user.client.ui.rta.cmd.CommandManager;
+import org.xwiki.gwt.wysiwyg.client.converter.ConversionChannel;
 import org.xwiki.gwt.wysiwyg.client.converter.HTMLConverter;
 import org.xwiki.gwt.wysiwyg.client.converter.HTMLConverterAsync;
 
 import com.google.gwt.core.client.GWT;
 import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.event.dom.client.KeyDownEvent;
+import com.google.gwt.event.dom.client.KeyDownHandler;
 import com.google.gwt.event.logical.shared.BeforeSelectionEvent;
 import com.google.gwt.event.logical.shared.BeforeSelectionHandler;
 import com.google.gwt.event.logical.shared.SelectionEvent;
 import com.google.gwt.event.logical.shared.SelectionHandler;
+import com.google.gwt.user.client.Random;
+import com.google.gwt.user.client.Timer;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 import com.google.gwt.user.client.ui.TabPanel;
 
 /**
  * {@link WysiwygEditor} tab-switch handler.
+ * <p>
+ * When registered as a listener of the rich text area, this handler also converts the submitted content to source in the
+ * background (e.g. after the rich text area looses the focus), so that switching to the source tab doesn't have to wait
+ * for the server if the content doesn't change in the mean time. The background conversion doesn't submit the content
+ * itself because submitting fixes the edited document (which can move the caret) and notifies all the command
+ * listeners.
  * 
  * @version $Id$
  */
-public class WysiwygEditorTabSwitchHandler implements SelectionHandler<Integer>, BeforeSelectionHandler<Integer>
+public class WysiwygEditorTabSwitchHandler implements SelectionHandler<Integer>, BeforeSelectionHandler<Integer>,
+    KeyDownHandler, PasteHandler, CommandListener
 {
     /**
      * The command used to store the value of the rich text area before submitting the including form.
      */
     private static final Command SUBMIT = new Command("submit");
 
+    /**
+     * The commands that don't modify the edited content.
+     */
+    private static final List<Command> IGNORED_COMMANDS =
+        Arrays.asList(SUBMIT, Command.UPDATE, Command.RESET, Command.ENABLE);
+
     /**
      * The underlying WYSIWYG editor instance.
      */
@@ -63,6 +87,11 @@ public class WysiwygEditorTabSwitchHandler implements SelectionHandler<Integer>,
      */
     private final HTMLConverterAsync converter = GWT.create(HTMLConverter.class);
 
+    /**
+     * The channel used to send only the changes made to the converted content, instead of the full content.
+     */
+    private final ConversionChannel conversionChannel;
+
     /**
      * The object used to reload the rich text area.
      */
@@ -109,6 +138,43 @@ public class WysiwygEditorTabSwitchHandler implements SelectionHandler<Integer>,
      */
     private int[] sourceRange = new int[2];
 
+    /**
+     * Converts the submitted content to source in the background, shortly after it is submitted.
+     */
+    private final Timer backgroundConversionTimer = new Timer()
+    {
+        @Override
+        public void run()
+        {
+            convertInBackground();
+        }
+    };
+
+    /**
+     * The object notified when the response for the background conversion from HTML to source is received.
+     */
+    private CancelableAsyncCallback<String> backgroundCallback;
+
+    /**
+     * The HTML that has been converted to source in the background.
+     */
+    private String backgroundConvertedHTML;
+
+    /**
+     * The result of converting {@link #backgroundConvertedHTML} to source.
+     */
+    private String backgroundConvertedSource;
+
+    /**
+     * Used to find out if the edited content has changed since it was last submitted.
+     */
+    private final MutationCounter mutationCounter;
+
+    /**
+     * The version of the edited document that was last submitted.
+     */
+    private int submittedVersion;
+
     /**
      * Creates a new tab-switch handler for the given WYSIWYG editor.
      * 
@@ -121,6 +187,9 @@ public class WysiwygEditorTabSwitchHandler implements SelectionHandler<Integer>,
         reloader = templateURL == null ? null : new Reloader(editor.getRichTextEditor().getTextArea(), templateURL);
         sourceSyntax = editor.getConfig().getSyntax();
         domSelectionPreserver = new SelectionPreserver(editor.getRichTextEditor().getTextArea());
+        conversionChannel =
+            new ConversionChannel(converter, editor.getConfig().getHook().getId() + '_' + Random.nextInt());
+        mutationCounter = new MutationCounter(editor.getRichTextEditor().getTextArea());
     }
 
     @Override
@@ -174,6 +243,7 @@ public void onSelection(SelectionEvent<Integer> event)
      */
     private void switchToSource()
     {
+        cancelBackgroundConversion();
         // If the rich text editor is loading then there's no HTML to convert to source.
         if (editor.getRichTextEditor().isLoading()) {
             // The plain text area lost the focus while it was hidden. We have to restore its selection.
@@ -183,7 +253,14 @@ private void switchToSource()
             // See #onBeforeSelection(BeforeSelectionEvent)
             String currentHTML = editor.getRichTextEditor().getTextArea().getCommandManager().getStringValue(SUBMIT);
             // If the HTML didn't change then there's no point in doing the conversion again.
-            if (!currentHTML.equals(lastConvertedHTML)) {
+            if (currentHTML.equals(backgroundConvertedHTML) && !currentHTML.equals(lastConvertedHTML)
+                && sourceCallback == null) {
+                // The HTML has been converted in the background.
+                lastConvertedHTML = currentHTML;
+                sourceRange[0] = 0;
+                sourceRange[1] = 0;
+                onSwitchToSourceSuccess(backgroundConvertedSource);
+            } else if (!currentHTML.equals(lastConvertedHTML)) {
                 convertFromHTML(currentHTML);
             } else if (!editor.getPlainTextEditor().isLoading()) {
                 enableSourceTab();
@@ -227,7 +304,7 @@ public void onSuccess(String result)
             }
         });
         // Make the request to convert the HTML to source syntax.
-        converter.fromHTML(html, sourceSyntax, sourceCallback);
+        conversionChannel.fromHTML(html, sourceSyntax, sourceCallback);
     }
 
     /**
@@ -412,7 +489,7 @@ public void onSuccess(String result)
             }
         });
         // Make the request to convert the source text to HTML.
-        converter.toHTML(source, sourceSyntax, wysiwygCallback);
+        conversionChannel.toHTML(source, sourceSyntax, wysiwygCallback);
     }
 
     /**
@@ -488,4 +565,108 @@ private void restoreDOMSelection()
         // called both when the rich text area is reloaded and when it is just redisplayed.
         ActionEvent.fire(editor.getRichTextEditor().getTextArea(), "showWysiwyg");
     }
+
+    @Override
+    public void onKeyDown(KeyDownEvent event)
+    {
+        if (event.getSource() == editor.getRichTextEditor().getTextArea()) {
+            cancelBackgroundConversion();
+        }
+    }
+
+    @Override
+    public void onPaste(PasteEvent event)
+    {
+        if (event.getSource() == editor.getRichTextEditor().getTextArea()) {
+            cancelBackgroundConversion();
+        }
+    }
+
+    @Override
+    public boolean onBeforeCommand(CommandManager sender, Command command, String param)
+    {
+        return false;
+    }
+
+    @Override
+    public void onCommand(CommandManager sender, Command command, String param)
+    {
+        if (sender != editor.getRichTextEditor().getTextArea().getCommandManager()) {
+            return;
+        }
+        if (SUBMIT.equals(command)) {
+            // The submitted value is up to date with the edited content, so it can be converted without submitting it
+            // again.
+            submittedVersion = mutationCounter.getVersion();
+            scheduleBackgroundConversion();
+        } else if (!IGNORED_COMMANDS.contains(command)) {
+            cancelBackgroundConversion();
+        }
+    }
+
+    /**
+     * Cancels the background conversion in progress, if any, and schedules a new one after the configured delay.
+     */
+    private void scheduleBackgroundConversion()
+    {
+        cancelBackgroundConversion();
+        backgroundConversionTimer.schedule(editor.getConfig().getSourceConversionDelay());
+    }
+
+    /**
+     * Cancels the scheduled background conversion and the one in progress, if any.
+     */
+    private void cancelBackgroundConversion()
+    {
+        backgroundConversionTimer.cancel();
+        if (backgroundCallback != null) {
+            backgroundCallback.setCanceled(true);
+            backgroundCallback = null;
+        }
+    }
+
+    /**
+     * Converts the submitted content to source in the background, if the rich text area is still visible, its content
+     * hasn't changed since it was last submitted and it was not already converted. The edited content is not submitted
+     * here because submitting modifies the edited document.
+     */
+    private void convertInBackground()
+    {
+        if (editor.getSelectedTab() != WysiwygEditorConfig.WYSIWYG_TAB_INDEX || editor.getRichTextEditor().isLoading()
+            || mutationCounter.getVersion() != submittedVersion) {
+            return;
+        }
+        final String html = editor.getRichTextEditor().getTextArea().getCommandManager().getStringValue(SUBMIT);
+        if (html == null || html.equals(lastConvertedHTML) || html.equals(backgroundConvertedHTML)) {
+            return;
+        }
+        backgroundCallback = new CancelableAsyncCallback<String>(new AsyncCallback<String>()
+        {
+            @Override
+            public void onFailure(Throwable caught)
+            {
+                // The content will be converted when the user switches to the source tab.
+                backgroundCallback = null;
+            }
+
+            @Override
+            public void onSuccess(String result)
+            {
+                backgroundCallback = null;
+                backgroundConvertedHTML = html;
+                backgroundConvertedSource = result;
+            }
+        });
+        conversionChannel.fromHTML(html, sourceSyntax, backgroundCallback);
+    }
+
+    /**
+     * Stops the background conversion and releases the memory used by its result.
+     */
+    public void destroy()
+    {
+        cancelBackgroundConversion();
+        backgroundConvertedHTML = null;
+        backgroundConvertedSource = null;
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client.converter;
+
+import com.google.gwt.user.client.rpc.IsSerializable;
+
+/**
+ * A change made to a text, expressed as the replacement of the text found between an unchanged prefix and an unchanged
+ * suffix. It is used to transfer only the modified part of the converted content between the client and the server.
+ * <p>
+ * The change holds the hash code of the text it was computed from, so that it is not applied to a different text that
+ * happens to be long enough (e.g. when the server lost the revision the change is based on and reused its number).
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class ContentChange implements IsSerializable
+{
+    /**
+     * The revision of the conversion session this change is based on, or the revision produced by this change.
+     */
+    private int revision;
+
+    /**
+     * The hash code of the text this change was computed from.
+     */
+    private int baseHash;
+
+    /**
+     * The length of the unchanged prefix.
+     */
+    private int prefixLength;
+
+    /**
+     * The length of the unchanged suffix.
+     */
+    private int suffixLength;
+
+    /**
+     * The text that replaces the text found between the unchanged prefix and the unchanged suffix.
+     */
+    private String text;
+
+    /**
+     * Default constructor, needed for serialization.
+     */
+    public ContentChange()
+    {
+    }
+
+    /**
+     * Creates the change that transforms the previous text into the current text.
+     *
+     * @param revision the revision the change is based on or the revision it produces
+     * @param previous the previous text
+     * @param current the current text
+     */
+    public ContentChange(int revision, String previous, String current)
+    {
+        this.revision = revision;
+        baseHash = previous.hashCode();
+        int maxLength = Math.min(previous.length(), current.length());
+        while (prefixLength < maxLength && previous.charAt(prefixLength) == current.charAt(prefixLength)) {
+            prefixLength++;
+        }
+        // Don't split surrogate pairs because a lone surrogate is replaced when the change is transferred.
+        if (prefixLength > 0 && Character.isHighSurrogate(current.charAt(prefixLength - 1))) {
+            prefixLength--;
+        }
+        maxLength -= prefixLength;
+        int previousEnd = previous.length() - 1;
+        int currentEnd = current.length() - 1;
+        while (suffixLength < maxLength
+            && previous.charAt(previousEnd - suffixLength) == current.charAt(currentEnd - suffixLength)) {
+            suffixLength++;
+        }
+        if (suffixLength > 0 && Character.isLowSurrogate(current.charAt(current.length() - suffixLength))) {
+            suffixLength--;
+        }
+        text = current.substring(prefixLength, current.length() - suffixLength);
+    }
+
+    /**
+     * Applies this change to the given text.
+     *
+     * @param previous the text this change was computed from
+     * @return the changed text, or {@code null} if this change can't be applied to the given text, e.g. because it was
+     *         computed from a different text
+     */
+    public String apply(String previous)
+    {
+        if (previous == null || prefixLength + suffixLength > previous.length() || previous.hashCode() != baseHash) {
+            return null;
+        }
+        return previous.substring(0, prefixLength) + text + previous.substring(previous.length() - suffixLength);
+    }
+
+    /**
+     * @return the revision of the conversion session this change is based on, or the revision produced by this change
+     */
+    public int getRevision()
+    {
+        return revision;
+    }
+
+    /**
+     * @return the hash code of the text this change was computed from
+     */
+    public int getBaseHash()
+    {
+        return baseHash;
+    }
+
+    /**
+     * @return the length of the unchanged prefix
+     */
+    public int getPrefixLength()
+    {
+        return prefixLength;
+    }
+
+    /**
+     * @return the length of the unchanged suffix
+     */
+    public int getSuffixLength()
+    {
+        return suffixLength;
+    }
+
+    /**
+     * @return the text that replaces the text found between the unchanged prefix and the unchanged suffix
+     */
+    public String getText()
+    {
+        return text;
+    }
+}
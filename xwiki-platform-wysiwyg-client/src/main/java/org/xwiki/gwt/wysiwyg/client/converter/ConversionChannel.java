@@ -0,0 +1,172 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client.converter;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Converts HTML to/from a specified syntax within a conversion session, sending to the server only the changes made
+ * to the content since the last conversion and receiving only the changes of the conversion result. The full content
+ * is sent when the server doesn't have the last conversion anymore (e.g. when the HTTP session expired).
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class ConversionChannel
+{
+    /**
+     * The component used to convert the content.
+     */
+    private final HTMLConverterAsync converter;
+
+    /**
+     * Identifies the conversion session.
+     */
+    private final String sessionId;
+
+    /**
+     * The last conversion revision known by this channel. The revision {@code 0} has empty HTML and source.
+     */
+    private int revision;
+
+    /**
+     * The HTML of the last conversion.
+     */
+    private String lastHTML = "";
+
+    /**
+     * The source of the last conversion.
+     */
+    private String lastSource = "";
+
+    /**
+     * Creates a new conversion channel.
+     *
+     * @param converter the component used to convert the content
+     * @param sessionId identifies the conversion session
+     */
+    public ConversionChannel(HTMLConverterAsync converter, String sessionId)
+    {
+        this.converter = converter;
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * Converts the given source text from the specified syntax to HTML.
+     *
+     * @param source the text to be converted
+     * @param syntaxId the syntax identifier
+     * @param callback the object notified with the HTML result of the conversion
+     */
+    public void toHTML(String source, String syntaxId, AsyncCallback<String> callback)
+    {
+        convert(false, source, syntaxId, callback, revision);
+    }
+
+    /**
+     * Converts the given HTML fragment to the specified syntax.
+     *
+     * @param html the HTML text to be converted
+     * @param syntaxId the syntax identifier
+     * @param callback the object notified with the result of the conversion
+     */
+    public void fromHTML(String html, String syntaxId, AsyncCallback<String> callback)
+    {
+        convert(true, html, syntaxId, callback, revision);
+    }
+
+    /**
+     * Sends the change made to the input of the specified revision and applies the change received to the output of
+     * that revision.
+     *
+     * @param fromHTML {@code true} to convert from HTML to source, {@code false} to convert from source to HTML
+     * @param input the content to be converted
+     * @param syntaxId the syntax identifier
+     * @param callback the object notified with the result of the conversion
+     * @param baseRevision the revision the sent change is based on
+     */
+    private void convert(final boolean fromHTML, final String input, final String syntaxId,
+        final AsyncCallback<String> callback, final int baseRevision)
+    {
+        String baseInput = "";
+        String previousOutput = "";
+        if (baseRevision > 0) {
+            baseInput = fromHTML ? lastHTML : lastSource;
+            previousOutput = fromHTML ? lastSource : lastHTML;
+        }
+        final String baseOutput = previousOutput;
+        AsyncCallback<ContentChange> changeCallback = new AsyncCallback<ContentChange>()
+        {
+            @Override
+            public void onFailure(Throwable caught)
+            {
+                callback.onFailure(caught);
+            }
+
+            @Override
+            public void onSuccess(ContentChange result)
+            {
+                String output = result != null ? result.apply(baseOutput) : null;
+                if (output == null) {
+                    if (baseRevision > 0) {
+                        // The server doesn't have the base revision anymore. Send the full content.
+                        convert(fromHTML, input, syntaxId, callback, 0);
+                    } else {
+                        callback.onFailure(new IllegalStateException("Failed to apply the conversion result."));
+                    }
+                    return;
+                }
+                update(result.getRevision(), baseRevision == 0, fromHTML ? input : output, fromHTML ? output : input);
+                callback.onSuccess(output);
+            }
+        };
+        ContentChange change = new ContentChange(baseRevision, baseInput, input);
+        if (fromHTML) {
+            converter.fromHTML(sessionId, change, syntaxId, changeCallback);
+        } else {
+            converter.toHTML(sessionId, change, syntaxId, changeCallback);
+        }
+    }
+
+    /**
+     * Updates the last conversion known by this channel.
+     *
+     * @param newRevision the revision of the conversion result
+     * @param fullContent whether the full content was sent, in which case the server may have started a new
+     *            conversion session whose revision numbers are lower than the last revision known by this channel
+     * @param newHTML the converted HTML
+     * @param newSource the source corresponding to the converted HTML
+     */
+    private void update(int newRevision, boolean fullContent, String newHTML, String newSource)
+    {
+        if (newRevision == 0) {
+            // The server couldn't store the conversion result so we'll have to send the full content next time.
+            revision = 0;
+            lastHTML = "";
+            lastSource = "";
+        } else if (fullContent || newRevision > revision) {
+            // The responses can be received in a different order than the requests were made. Accepting an older
+            // revision is safe because the changes are checked against the content they were computed from.
+            revision = newRevision;
+            lastHTML = newHTML;
+            lastSource = newSource;
+        }
+    }
+}
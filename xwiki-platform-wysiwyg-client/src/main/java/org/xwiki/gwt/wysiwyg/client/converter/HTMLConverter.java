@@ -51,6 +51,34 @@ public interface HTMLConverter extends RemoteService
      */
     String fromHTML(String html, String syntaxId);
 
+    /**
+     * Converts the source text obtained by applying the given change to a previous revision of the specified conversion
+     * session, from the specified syntax to HTML.
+     * 
+     * @param sessionId identifies the conversion session (e.g. an editor instance)
+     * @param sourceChange the change made to the source text of the revision it is based on; use the revision
+     *            {@code 0}, whose source text is empty, in order to send the full source text
+     * @param syntaxId the syntax identifier
+     * @return the change made to the HTML of the revision the given change is based on, holding the number of the new
+     *         revision, or {@code null} if the revision the given change is based on is not available anymore
+     * @since 9.7RC1
+     */
+    ContentChange toHTML(String sessionId, ContentChange sourceChange, String syntaxId);
+
+    /**
+     * Cleans and converts the HTML obtained by applying the given change to a previous revision of the specified
+     * conversion session, to the specified syntax.
+     * 
+     * @param sessionId identifies the conversion session (e.g. an editor instance)
+     * @param htmlChange the change made to the HTML of the revision it is based on; use the revision {@code 0}, whose
+     *            HTML is empty, in order to send the full HTML
+     * @param syntaxId the syntax identifier
+     * @return the change made to the source text of the revision the given change is based on, holding the number of
+     *         the new revision, or {@code null} if the revision the given change is based on is not available anymore
+     * @since 9.7RC1
+     */
+    ContentChange fromHTML(String sessionId, ContentChange htmlChange, String syntaxId);
+
     /**
      * Parses the given HTML fragment and renders the result in annotated XHTML syntax.
      * 
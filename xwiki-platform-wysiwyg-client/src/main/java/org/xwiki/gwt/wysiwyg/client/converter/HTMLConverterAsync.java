@@ -47,6 +47,28 @@
      */
     void fromHTML(String html, String syntaxId, AsyncCallback<String> callback);
 
+    /**
+     * Makes a request to the server to convert the source text obtained by applying the given change to a previous
+     * revision of the specified conversion session, from the specified syntax to HTML.
+     * 
+     * @param sessionId identifies the conversion session
+     * @param sourceChange the change made to the source text of the revision it is based on
+     * @param syntaxId the syntax identifier
+     * @param callback the object used to notify the caller when the server response is received
+     */
+    void toHTML(String sessionId, ContentChange sourceChange, String syntaxId, AsyncCallback<ContentChange> callback);
+
+    /**
+     * Makes a request to the server to convert the HTML obtained by applying the given change to a previous revision of
+     * the specified conversion session, to the specified syntax.
+     * 
+     * @param sessionId identifies the conversion session
+     * @param htmlChange the change made to the HTML of the revision it is based on
+     * @param syntaxId the syntax identifier
+     * @param callback the object used to notify the caller when the server response is received
+     */
+    void fromHTML(String sessionId, ContentChange htmlChange, String syntaxId, AsyncCallback<ContentChange> callback);
+
     /**
      * Makes a request to the server to parse the given HTML fragment and render the result in annotated XHTML syntax.
      * 
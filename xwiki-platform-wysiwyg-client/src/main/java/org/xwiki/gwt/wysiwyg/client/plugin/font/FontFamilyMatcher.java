@@ -19,12 +19,24 @@
  */
 package org.xwiki.gwt.wysiwyg.client.plugin.font;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.xwiki.gwt.dom.client.Style;
 
+import com.google.gwt.core.client.JavaScriptObject;
 import com.google.gwt.dom.client.Style.Unit;
 
 /**
  * Matches values of the font-family CSS property.
+ * <p>
+ * The font families are compared by measuring a test text with a canvas, which doesn't require a layout of the
+ * document, and the results are cached. The test elements are measured only if the browser doesn't support canvas.
+ * <p>
+ * The results are not cached while web fonts are loading, because the fallback font would be measured instead, and the
+ * cache is cleared each time the document finishes loading fonts.
  * 
  * @version $Id$
  */
@@ -45,12 +57,51 @@ public class FontFamilyMatcher extends AbstractFontMatcher
      */
     public static final String SANS_SERIF_SUFFIX = ",sans-serif";
 
+    /**
+     * The text used to compare font families. It contains both narrow and wide characters.
+     */
+    private static final String TEST_TEXT = "mmmmmmmmmwwwwwww";
+
+    /**
+     * The font set on the canvas before each measurement, in order to detect the font values that are not valid.
+     */
+    private static final String RESET_FONT = "1px serif";
+
+    /**
+     * The maximum number of font family comparison results that are cached.
+     */
+    static final int MAX_CACHED_MATCHES = 256;
+
+    /**
+     * The result of the previous font family comparisons. The key is the pair of compared font family values. The least
+     * recently used results are evicted when the maximum size is reached.
+     */
+    private static final Map<List<String>, Boolean> MATCHES = new LinkedHashMap<List<String>, Boolean>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<String>, Boolean> eldest)
+        {
+            return size() > MAX_CACHED_MATCHES;
+        }
+    };
+
+    static {
+        observeFontLoading();
+    }
+
+    /**
+     * The canvas context used to measure the test text, or {@code null} if the browser doesn't support canvas.
+     */
+    private final JavaScriptObject context = createContext();
+
     /**
      * Creates a new font family matcher.
      */
     public FontFamilyMatcher()
     {
-        super("mmmmmmmmmwwwwwww");
+        super(TEST_TEXT);
 
         left.getStyle().setFontSize(TEST_FONT_SIZE, Unit.PX);
         right.getStyle().setFontSize(TEST_FONT_SIZE, Unit.PX);
@@ -61,24 +112,133 @@ public boolean match(String leftValue, String rightValue)
     {
         if (super.match(leftValue, rightValue)) {
             return true;
-        } else {
-            // If both values are not supported by the browser then the font-family property is defaulted to the same
-            // value causing a false positive result. To prevent this we add different suffixes to make sure the font
-            // family defaults to different values.
-            left.getStyle().setProperty(Style.FONT_FAMILY.getJSName(), leftValue + SANS_SERIF_SUFFIX);
-            right.getStyle().setProperty(Style.FONT_FAMILY.getJSName(), rightValue + SERIF_SUFFIX);
-            if (left.getOffsetWidth() != right.getOffsetWidth() || left.getOffsetHeight() != right.getOffsetHeight()) {
-                return false;
-            } else {
-                // Event if the values passed the previous test we are still not 100% sure they match. We can have:
-                // left: unsupported1,serif + ,sans-serif
-                // right: unsupported2 + ,serif
-                // By switching the suffixes we can exclude this rare case.
-                left.getStyle().setProperty(Style.FONT_FAMILY.getJSName(), leftValue + SERIF_SUFFIX);
-                right.getStyle().setProperty(Style.FONT_FAMILY.getJSName(), rightValue + SANS_SERIF_SUFFIX);
-                return left.getOffsetWidth() == right.getOffsetWidth()
-                    && left.getOffsetHeight() == right.getOffsetHeight();
+        } else if (leftValue == null || rightValue == null) {
+            return false;
+        }
+        List<String> key = Arrays.asList(leftValue.toLowerCase(), rightValue.toLowerCase());
+        Boolean match = MATCHES.get(key);
+        if (match == null) {
+            match = context != null ? measureMatch(leftValue, rightValue) : null;
+            if (match == null) {
+                match = layoutMatch(leftValue, rightValue);
+            }
+            if (!isLoadingFonts()) {
+                MATCHES.put(key, match);
             }
         }
+        return match;
     }
+
+    /**
+     * Clears the cached font family comparison results.
+     */
+    static void clearMatches()
+    {
+        MATCHES.clear();
+    }
+
+    /**
+     * @return the number of cached font family comparison results
+     */
+    static int getCachedMatchCount()
+    {
+        return MATCHES.size();
+    }
+
+    /**
+     * Compares the given font families by measuring the test text with a canvas.
+     * 
+     * @param leftValue the first font family
+     * @param rightValue the second font family
+     * @return whether the given font families match, or {@code null} if the font families can't be measured
+     */
+    private Boolean measureMatch(String leftValue, String rightValue)
+    {
+        // See #layoutMatch(String, String) for the reason we add the suffixes.
+        String fontSize = TEST_FONT_SIZE + Unit.PX.getType() + ' ';
+        double[] widths = new double[] {measureText(context, fontSize + leftValue + SANS_SERIF_SUFFIX, TEST_TEXT),
+            measureText(context, fontSize + rightValue + SERIF_SUFFIX, TEST_TEXT),
+            measureText(context, fontSize + leftValue + SERIF_SUFFIX, TEST_TEXT),
+            measureText(context, fontSize + rightValue + SANS_SERIF_SUFFIX, TEST_TEXT)};
+        for (double width : widths) {
+            if (width < 0) {
+                return null;
+            }
+        }
+        return widths[0] == widths[1] && widths[2] == widths[3];
+    }
+
+    /**
+     * Compares the given font families by measuring the test elements, which forces a layout of the document.
+     * 
+     * @param leftValue the first font family
+     * @param rightValue the second font family
+     * @return whether the given font families match
+     */
+    private boolean layoutMatch(String leftValue, String rightValue)
+    {
+        // If both values are not supported by the browser then the font-family property is defaulted to the same
+        // value causing a false positive result. To prevent this we add different suffixes to make sure the font
+        // family defaults to different values.
+        left.getStyle().setProperty(Style.FONT_FAMILY.getJSName(), leftValue + SANS_SERIF_SUFFIX);
+        right.getStyle().setProperty(Style.FONT_FAMILY.getJSName(), rightValue + SERIF_SUFFIX);
+        if (left.getOffsetWidth() != right.getOffsetWidth() || left.getOffsetHeight() != right.getOffsetHeight()) {
+            return false;
+        } else {
+            // Event if the values passed the previous test we are still not 100% sure they match. We can have:
+            // left: unsupported1,serif + ,sans-serif
+            // right: unsupported2 + ,serif
+            // By switching the suffixes we can exclude this rare case.
+            left.getStyle().setProperty(Style.FONT_FAMILY.getJSName(), leftValue + SERIF_SUFFIX);
+            right.getStyle().setProperty(Style.FONT_FAMILY.getJSName(), rightValue + SANS_SERIF_SUFFIX);
+            return left.getOffsetWidth() == right.getOffsetWidth()
+                && left.getOffsetHeight() == right.getOffsetHeight();
+        }
+    }
+
+    /**
+     * @return a canvas context used to measure text, or {@code null} if the browser doesn't support canvas
+     */
+    private static native JavaScriptObject createContext()
+    /*-{
+        var canvas = $doc.createElement('canvas');
+        return canvas.getContext ? canvas.getContext('2d') : null;
+    }-*/;
+
+    /**
+     * Clears the cached comparison results each time the document finishes loading fonts, because the results computed
+     * before may have measured a fallback font.
+     */
+    private static native void observeFontLoading()
+    /*-{
+        if ($doc.fonts && $doc.fonts.addEventListener) {
+            $doc.fonts.addEventListener('loadingdone', $entry(function() {
+                @org.xwiki.gwt.wysiwyg.client.plugin.font.FontFamilyMatcher::clearMatches()();
+            }), false);
+        }
+    }-*/;
+
+    /**
+     * @return {@code true} if the document is loading fonts, {@code false} otherwise
+     */
+    private static native boolean isLoadingFonts()
+    /*-{
+        return !!$doc.fonts && $doc.fonts.status == 'loading';
+    }-*/;
+
+    /**
+     * Measures the width of the given text.
+     * 
+     * @param context a canvas context
+     * @param font the value of the font CSS property
+     * @param text the text to measure
+     * @return the width of the given text, or {@code -1} if the given font is not valid
+     */
+    private static native double measureText(JavaScriptObject context, String font, String text)
+    /*-{
+        context.font = @org.xwiki.gwt.wysiwyg.client.plugin.font.FontFamilyMatcher::RESET_FONT;
+        context.font = font;
+        return context.font == @org.xwiki.gwt.wysiwyg.client.plugin.font.FontFamilyMatcher::RESET_FONT ? -1
+            : context.measureText(text).width;
+    }-*/;
 }
@@ -54,6 +54,11 @@
  */
 public class HistoryPlugin extends AbstractPlugin implements ClickHandler
 {
+    /**
+     * The default maximum number of bytes used by the history entries (4MB).
+     */
+    private static final String DEFAULT_HISTORY_BUDGET = "4194304";
+
     /**
      * The association between tool bar buttons and the commands that are executed when these buttons are clicked.
      */
@@ -76,7 +81,9 @@ public void init(RichTextArea textArea, Config config)
 
         // Register custom executables.
         int historySize = Integer.parseInt(config.getParameter("historySize", "10"));
-        History history = new DefaultHistory(textArea, Math.max(historySize, 1));
+        // The maximum number of bytes used by the history entries.
+        int historyBudget = Integer.parseInt(config.getParameter("historyBudget", DEFAULT_HISTORY_BUDGET));
+        History history = new DefaultHistory(textArea, Math.max(historySize, 1), historyBudget);
         getTextArea().getCommandManager().registerCommand(Command.REDO, new RedoExecutable(history));
         getTextArea().getCommandManager().registerCommand(Command.UNDO, new UndoExecutable(history));
 
@@ -34,6 +34,7 @@
 import org.xwiki.gwt.user.client.ui.rta.cmd.Command;
 import org.xwiki.gwt.user.client.ui.rta.cmd.CommandListener;
 import org.xwiki.gwt.user.client.ui.rta.cmd.CommandManager;
+import org.xwiki.gwt.wysiwyg.client.MutationCounter;
 import org.xwiki.gwt.wysiwyg.client.plugin.history.History;
 
 import com.google.gwt.dom.client.Node;
@@ -66,6 +67,22 @@ public class DefaultHistory implements History, KeyDownHandler, PasteHandler, Co
      */
     private final int capacity;
 
+    /**
+     * The maximum number of bytes the history entries can use. While the budget is exceeded, the oldest entries are
+     * removed.
+     */
+    private final int budget;
+
+    /**
+     * The estimated number of bytes used by the stored history entries.
+     */
+    private int size;
+
+    /**
+     * The number of stored history entries.
+     */
+    private int entryCount;
+
     /**
      * The oldest stored history entry.
      */
@@ -76,6 +93,22 @@ public class DefaultHistory implements History, KeyDownHandler, PasteHandler, Co
      */
     private Entry currentEntry;
 
+    /**
+     * The HTML content of the {@link #currentEntry}. The history entries store only the changes so the content of the
+     * other entries is computed from this one.
+     */
+    private String currentContent;
+
+    /**
+     * Used to detect the changes made to the edited content without serializing it.
+     */
+    private final MutationCounter mutationCounter;
+
+    /**
+     * The version of the edited document that matches the {@link #currentContent}.
+     */
+    private int currentVersion;
+
     /**
      * The previous keyboard action done by the user. The history is updated whenever the user changes the type of
      * keyboard action he does on the edited content.
@@ -90,11 +123,27 @@ public class DefaultHistory implements History, KeyDownHandler, PasteHandler, Co
      * @param capacity the maximum number of history entries that can be stored.
      */
     public DefaultHistory(RichTextArea textArea, int capacity)
+    {
+        this(textArea, capacity, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Starts to record the history of the given rich text area. At each moment the number of history entries stored is
+     * at most the specified capacity and they use at most the specified number of bytes, except for the current entry
+     * which is always kept.
+     * 
+     * @param textArea the rich text area for which to record the history.
+     * @param capacity the maximum number of history entries that can be stored.
+     * @param budget the maximum number of bytes the history entries can use
+     */
+    public DefaultHistory(RichTextArea textArea, int capacity, int budget)
     {
         assert (capacity > 1);
         this.capacity = capacity;
+        this.budget = budget;
 
         this.textArea = textArea;
+        this.mutationCounter = new MutationCounter(textArea);
         textArea.addPasteHandler(this);
         textArea.addKeyDownHandler(this);
         textArea.getCommandManager().addCommandListener(this);
@@ -118,7 +167,8 @@ public boolean canUndo()
     public void redo()
     {
         if (canRedo()) {
-            load(currentEntry.getNextEntry());
+            Entry nextEntry = currentEntry.getNextEntry();
+            load(nextEntry, nextEntry.apply(currentContent));
         }
     }
 
@@ -129,24 +179,19 @@ public void undo()
             if (!canRedo()) {
                 save();
             }
-            load(currentEntry.getPreviousEntry());
+            // The previous entry could have been removed to fit the history budget.
+            Entry previousEntry = currentEntry.getPreviousEntry();
+            if (previousEntry != null) {
+                load(previousEntry, currentEntry.revert(currentContent));
+            }
         }
     }
 
     /**
-     * NOTE: the number of stored entries is computed each time because the history length can drop significantly if the
-     * user reverts and continues editing.
-     * 
      * @return true if the number of history entries stored is equal or exceeds the {@link #capacity}.
      */
     private boolean isFull()
     {
-        int entryCount = 0;
-        Entry entry = oldestEntry;
-        while (entry != null) {
-            entryCount++;
-            entry = entry.getNextEntry();
-        }
         return entryCount >= capacity;
     }
 
@@ -164,18 +209,34 @@ private boolean isEmpty()
      */
     private boolean isDirty()
     {
-        return currentEntry != null && !currentEntry.getContent().equals(textArea.getHTML());
+        if (currentEntry == null) {
+            return false;
+        }
+        int version = mutationCounter.getVersion();
+        if (version == currentVersion) {
+            return false;
+        }
+        // The document has been modified but the changes could have been reverted or they could be invisible in the
+        // serialized content (e.g. the selection markers).
+        if (currentContent.equals(textArea.getHTML())) {
+            currentVersion = version;
+            return false;
+        }
+        return true;
     }
 
     /**
      * @param entry the history entry to load in the rich text area.
+     * @param content the HTML content of the given history entry
      */
-    private void load(Entry entry)
+    private void load(Entry entry, String content)
     {
         currentEntry = entry;
+        currentContent = content;
 
-        textArea.setHTML(entry.getContent());
+        textArea.setHTML(content);
         Document doc = textArea.getDocument();
+        currentVersion = mutationCounter.getVersion();
 
         Range range = doc.createRange();
         range.setStart(getNode(doc, entry.getStartPath()), entry.getStartPath().get(0));
@@ -248,7 +309,12 @@ private static Node getNode(Document doc, List<Integer> path)
      */
     private void save()
     {
-        if ((!isEmpty() && !isDirty()) || textArea.getDocument() == null) {
+        if (textArea.getDocument() == null) {
+            return;
+        }
+        // Serialize the edited content only if the document has been modified since the current entry was recorded.
+        int version = mutationCounter.getVersion();
+        if (!isEmpty() && version == currentVersion) {
             return;
         }
 
@@ -261,17 +327,33 @@ private void save()
         List<Integer> startPath = getPath(range.getStartContainer(), range.getStartOffset());
         List<Integer> endPath = getPath(range.getEndContainer(), range.getEndOffset());
 
-        Entry newestEntry = new Entry(textArea.getHTML(), startPath, endPath);
+        String html = textArea.getHTML();
+        if (!isEmpty() && html.equals(currentContent)) {
+            currentVersion = version;
+            return;
+        }
+        Entry newestEntry = new Entry(currentEntry != null ? currentContent : html, html, startPath, endPath);
         if (currentEntry != null) {
+            // Drop the entries that were undone.
+            for (Entry entry = currentEntry.getNextEntry(); entry != null; entry = entry.getNextEntry()) {
+                size -= entry.getSize();
+                entryCount--;
+            }
             currentEntry.setNextEntry(newestEntry);
         }
         newestEntry.setPreviousEntry(currentEntry);
         currentEntry = newestEntry;
+        currentContent = html;
+        currentVersion = version;
+        size += newestEntry.getSize();
+        entryCount++;
         if (oldestEntry == null) {
             oldestEntry = currentEntry;
         }
 
-        if (isFull()) {
+        while (oldestEntry != currentEntry && (size > budget || isFull())) {
+            size -= oldestEntry.getSize();
+            entryCount--;
             oldestEntry = oldestEntry.getNextEntry();
             oldestEntry.setPreviousEntry(null);
         }
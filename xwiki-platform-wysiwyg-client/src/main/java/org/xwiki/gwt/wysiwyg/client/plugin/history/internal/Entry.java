@@ -22,10 +22,13 @@
 import java.util.List;
 
 /**
- * History entry. Stores the HTML content and the boundary points of the selection as they were when the entry has been
- * saved into the history. A boundary point is stored as the path from its container to the root of the DOM document.
- * The first token in the path is the offset within the container of the boundary point while the rest represent the
- * sibling-index of each of the ancestors of the container up to the root of the document.<br/>
+ * History entry. Stores the change of the HTML content and the boundary points of the selection as they were when the
+ * entry has been saved into the history. A boundary point is stored as the path from its container to the root of the
+ * DOM document. The first token in the path is the offset within the container of the boundary point while the rest
+ * represent the sibling-index of each of the ancestors of the container up to the root of the document.<br/>
+ * The HTML content is not stored entirely. Instead, each entry stores the range of the HTML content that changed
+ * relative to the previous (older) entry, before and after the change. This way the content of an entry can be computed
+ * from the content of any of its neighbours.<br/>
  * The history mechanism has been implemented like a double-linked list, thus each entry knows the its next (newer) and
  * previous (older) entry.
  * 
@@ -34,7 +37,37 @@
 public class Entry
 {
     /**
-     * The HTML content when this entry was saved.
+     * The estimated number of bytes used by an entry, besides the stored content.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /**
+     * The estimated number of bytes used by a character.
+     */
+    private static final int CHARACTER_SIZE = 2;
+
+    /**
+     * The estimated number of bytes used by a token of a selection path.
+     */
+    private static final int PATH_TOKEN_SIZE = 16;
+
+    /**
+     * The length of the HTML content prefix that didn't change relative to the previous entry.
+     */
+    private final int prefixLength;
+
+    /**
+     * The length of the HTML content suffix that didn't change relative to the previous entry.
+     */
+    private final int suffixLength;
+
+    /**
+     * The HTML content that has been replaced, relative to the previous entry.
+     */
+    private final String previousContent;
+
+    /**
+     * The HTML content that replaced {@link #previousContent}.
      */
     private final String content;
 
@@ -61,23 +94,57 @@
     /**
      * Creates a new history entry.
      * 
-     * @param content the HTML content.
+     * @param previousHTML the HTML content of the previous entry, or the given HTML content if this is the first entry
+     * @param html the HTML content of this entry
      * @param startPath the DOM path to the start point of the selection.
      * @param endPath the DOM path to the end point of the selection.
      */
-    public Entry(String content, List<Integer> startPath, List<Integer> endPath)
+    public Entry(String previousHTML, String html, List<Integer> startPath, List<Integer> endPath)
     {
-        this.content = content;
+        int maxLength = Math.min(previousHTML.length(), html.length());
+        int prefix = 0;
+        while (prefix < maxLength && previousHTML.charAt(prefix) == html.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < maxLength - prefix
+            && previousHTML.charAt(previousHTML.length() - suffix - 1) == html.charAt(html.length() - suffix - 1)) {
+            suffix++;
+        }
+        this.prefixLength = prefix;
+        this.suffixLength = suffix;
+        this.previousContent = previousHTML.substring(prefix, previousHTML.length() - suffix);
+        this.content = html.substring(prefix, html.length() - suffix);
         this.startPath = startPath;
         this.endPath = endPath;
     }
 
     /**
-     * @return The HTML content stored by this history entry.
+     * @param previousHTML the HTML content of the previous entry
+     * @return the HTML content of this entry
+     */
+    public String apply(String previousHTML)
+    {
+        return previousHTML.substring(0, prefixLength) + content
+            + previousHTML.substring(previousHTML.length() - suffixLength);
+    }
+
+    /**
+     * @param html the HTML content of this entry
+     * @return the HTML content of the previous entry
+     */
+    public String revert(String html)
+    {
+        return html.substring(0, prefixLength) + previousContent + html.substring(html.length() - suffixLength);
+    }
+
+    /**
+     * @return the estimated number of bytes used by this history entry
      */
-    public String getContent()
+    public int getSize()
     {
-        return content;
+        return ENTRY_OVERHEAD + CHARACTER_SIZE * (previousContent.length() + content.length())
+            + PATH_TOKEN_SIZE * (startPath.size() + endPath.size());
     }
 
     /**
@@ -19,12 +19,16 @@
  */
 package org.xwiki.gwt.wysiwyg.client.plugin.image;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.xwiki.gwt.dom.client.DOMUtils;
 import org.xwiki.gwt.dom.client.Document;
 import org.xwiki.gwt.dom.client.DocumentFragment;
 import org.xwiki.gwt.dom.client.Element;
 import org.xwiki.gwt.dom.client.InnerHTMLListener;
 import org.xwiki.gwt.dom.client.Text;
+import org.xwiki.gwt.wysiwyg.client.InnerHTMLVisitor;
 
 import com.google.gwt.dom.client.Node;
 import com.google.gwt.dom.client.NodeList;
@@ -35,19 +39,45 @@
  * 
  * @version $Id$
  */
-public class ImageMetaDataExtractor implements InnerHTMLListener
+public class ImageMetaDataExtractor implements InnerHTMLListener, InnerHTMLVisitor
 {
+    /**
+     * The name of the elements processed by this extractor.
+     */
+    public static final String TAG_NAME = "img";
+
+    /**
+     * The elements visited since the last call to {@link #endVisit()}.
+     */
+    private final List<Element> visitedImgs = new ArrayList<Element>();
+
     @Override
     public void onInnerHTMLChange(Element parent)
     {
         // look up all images in this subtree
-        NodeList<com.google.gwt.dom.client.Element> imgs = parent.getElementsByTagName("img");
+        NodeList<com.google.gwt.dom.client.Element> imgs = parent.getElementsByTagName(TAG_NAME);
         for (int i = 0; i < imgs.getLength(); i++) {
             Element img = (Element) imgs.getItem(i);
             processElement(img);
         }
     }
 
+    @Override
+    public void visit(Node node)
+    {
+        visitedImgs.add((Element) node);
+    }
+
+    @Override
+    public void endVisit()
+    {
+        // Process the elements after the traversal because the processing changes the DOM tree.
+        for (Element img : visitedImgs) {
+            processElement(img);
+        }
+        visitedImgs.clear();
+    }
+
     /**
      * Processes the passed image element: tests if it is a valid image generated by the image plugin and creates the
      * metafragment, removing the neighbouring comments.
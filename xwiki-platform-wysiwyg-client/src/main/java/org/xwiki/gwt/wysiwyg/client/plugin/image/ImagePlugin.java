@@ -25,6 +25,7 @@
 import org.xwiki.gwt.user.client.ui.rta.cmd.Command;
 import org.xwiki.gwt.user.client.ui.wizard.Wizard;
 import org.xwiki.gwt.user.client.ui.wizard.WizardListener;
+import org.xwiki.gwt.wysiwyg.client.InnerHTMLDispatcher;
 import org.xwiki.gwt.wysiwyg.client.Images;
 import org.xwiki.gwt.wysiwyg.client.Strings;
 import org.xwiki.gwt.wysiwyg.client.plugin.image.exec.InsertImageExecutable;
@@ -143,7 +144,8 @@ public void execute()
         metaDataExtractor = new ImageMetaDataExtractor();
         // do the initial extracting on the loaded document
         metaDataExtractor.onInnerHTMLChange((Element) getTextArea().getDocument().getDocumentElement());
-        getTextArea().getDocument().addInnerHTMLListener(metaDataExtractor);
+        InnerHTMLDispatcher.get(getTextArea().getDocument()).addVisitor(metaDataExtractor,
+            ImageMetaDataExtractor.TAG_NAME);
 
         // Create an image behavior adjuster for this text area
         behaviorAdjuster = new ImageBehaviorAdjuster();
@@ -169,7 +171,7 @@ public void destroy()
 
         // If a metadata extractor was created and setup, remove it
         if (metaDataExtractor != null) {
-            getTextArea().getDocument().removeInnerHTMLListener(metaDataExtractor);
+            InnerHTMLDispatcher.get(getTextArea().getDocument()).removeVisitor(metaDataExtractor);
             metaDataExtractor = null;
         }
         behaviorAdjuster = null;
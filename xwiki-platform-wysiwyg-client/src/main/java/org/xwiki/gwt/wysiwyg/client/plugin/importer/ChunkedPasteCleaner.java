@@ -0,0 +1,173 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client.plugin.importer;
+
+import java.util.Map;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Cleans large paste content on the server side by uploading it in chunks and by retrieving the cleaned content in
+ * segments, in order to avoid hitting the request size limits.
+ * 
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class ChunkedPasteCleaner
+{
+    /**
+     * The maximum number of characters sent to the server with a single request.
+     */
+    public static final int CHUNK_SIZE = 512 * 1024;
+
+    /**
+     * The component used to clean the paste content on the server side.
+     */
+    private final ImportServiceAsync importService;
+
+    /**
+     * Role hint for which cleaner to be used.
+     */
+    private final String cleanerHint;
+
+    /**
+     * Additional parameters to be used when cleaning.
+     */
+    private final Map<String, String> cleaningParameters;
+
+    /**
+     * Creates a new cleaner.
+     * 
+     * @param importService the component used to clean the paste content on the server side
+     * @param cleanerHint role hint for which cleaner to be used
+     * @param cleaningParameters additional parameters to be used when cleaning
+     */
+    public ChunkedPasteCleaner(ImportServiceAsync importService, String cleanerHint,
+        Map<String, String> cleaningParameters)
+    {
+        this.importService = importService;
+        this.cleanerHint = cleanerHint;
+        this.cleaningParameters = cleaningParameters;
+    }
+
+    /**
+     * Cleans the given paste content.
+     * 
+     * @param pasteContent the paste content to be cleaned
+     * @param callback the object notified when the clean content is available
+     */
+    public void clean(String pasteContent, AsyncCallback<String> callback)
+    {
+        upload(null, pasteContent, 0, callback);
+    }
+
+    /**
+     * Uploads the next chunk of the paste content.
+     * 
+     * @param uploadId the upload identifier, {@code null} if no chunk has been uploaded yet
+     * @param pasteContent the paste content
+     * @param offset the offset of the next chunk
+     * @param callback the object notified when the clean content is available
+     */
+    private void upload(String uploadId, final String pasteContent, int offset, final AsyncCallback<String> callback)
+    {
+        int chunkEnd = Math.min(offset + CHUNK_SIZE, pasteContent.length());
+        if (chunkEnd < pasteContent.length() && Character.isHighSurrogate(pasteContent.charAt(chunkEnd - 1))) {
+            // Don't split a surrogate pair because the browser would replace each half with the replacement character.
+            chunkEnd--;
+        }
+        final int end = chunkEnd;
+        importService.uploadOfficeHTML(uploadId, pasteContent.substring(offset, end), new AsyncCallback<String>()
+        {
+            @Override
+            public void onFailure(Throwable caught)
+            {
+                callback.onFailure(caught);
+            }
+
+            @Override
+            public void onSuccess(String result)
+            {
+                if (end < pasteContent.length()) {
+                    upload(result, pasteContent, end, callback);
+                } else {
+                    clean(result, callback);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cleans the uploaded paste content.
+     * 
+     * @param uploadId the upload identifier
+     * @param callback the object notified when the clean content is available
+     */
+    private void clean(final String uploadId, final AsyncCallback<String> callback)
+    {
+        importService.cleanUploadedOfficeHTML(uploadId, cleanerHint, cleaningParameters, new AsyncCallback<Integer>()
+        {
+            @Override
+            public void onFailure(Throwable caught)
+            {
+                callback.onFailure(caught);
+            }
+
+            @Override
+            public void onSuccess(Integer result)
+            {
+                download(uploadId, 0, result, new StringBuilder(), callback);
+            }
+        });
+    }
+
+    /**
+     * Retrieves the next segment of the clean content.
+     * 
+     * @param uploadId the upload identifier
+     * @param segment the index of the next segment
+     * @param segmentCount the number of segments
+     * @param output the clean content retrieved so far
+     * @param callback the object notified when the clean content is available
+     */
+    private void download(final String uploadId, final int segment, final int segmentCount,
+        final StringBuilder output, final AsyncCallback<String> callback)
+    {
+        importService.getCleanedOfficeHTML(uploadId, segment, new AsyncCallback<String>()
+        {
+            @Override
+            public void onFailure(Throwable caught)
+            {
+                callback.onFailure(caught);
+            }
+
+            @Override
+            public void onSuccess(String result)
+            {
+                output.append(result);
+                if (segment + 1 < segmentCount) {
+                    download(uploadId, segment + 1, segmentCount, output, callback);
+                } else {
+                    callback.onSuccess(output.toString());
+                }
+            }
+        });
+    }
+}
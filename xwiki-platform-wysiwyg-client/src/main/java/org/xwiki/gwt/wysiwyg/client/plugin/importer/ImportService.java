@@ -47,6 +47,40 @@ public interface ImportService extends RemoteService
      */
     String cleanOfficeHTML(String htmlPaste, String cleanerHint, Map<String, String> cleaningParams);
 
+    /**
+     * Uploads a chunk of dirty HTML content to be cleaned. Use this method instead of
+     * {@link #cleanOfficeHTML(String, String, Map)} when the content to be cleaned is too large to be sent with a
+     * single request.
+     * 
+     * @param uploadId the identifier returned when the first chunk was uploaded, or {@code null} to start a new upload
+     * @param chunk the chunk of dirty HTML to append to the uploaded content
+     * @return the upload identifier
+     * @since 9.7RC1
+     */
+    String uploadOfficeHTML(String uploadId, String chunk);
+
+    /**
+     * Cleans the dirty HTML content uploaded with {@link #uploadOfficeHTML(String, String)}. The cleaned content is
+     * kept on the server, split in segments that can be retrieved with {@link #getCleanedOfficeHTML(String, int)}.
+     * 
+     * @param uploadId the upload identifier
+     * @param cleanerHint role hint for which cleaner to be used
+     * @param cleaningParams additional parameters to be used when cleaning
+     * @return the number of segments of the cleaned content
+     * @since 9.7RC1
+     */
+    int cleanUploadedOfficeHTML(String uploadId, String cleanerHint, Map<String, String> cleaningParams);
+
+    /**
+     * Retrieves a segment of the cleaned content. The upload is discarded after the last segment is retrieved.
+     * 
+     * @param uploadId the upload identifier
+     * @param segment the segment index
+     * @return the specified segment of the cleaned content
+     * @since 9.7RC1
+     */
+    String getCleanedOfficeHTML(String uploadId, int segment);
+
     /**
      * Imports the given office attachment into XHTML 1.0. This method returns the resulting XHTML content while if
      * there are non-textual content in the office attachment, they will be attached to the owner wiki page. Note that
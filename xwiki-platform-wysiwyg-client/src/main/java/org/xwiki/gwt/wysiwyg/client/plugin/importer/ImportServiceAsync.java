@@ -44,6 +44,35 @@
     void cleanOfficeHTML(String htmlPaste, String cleanerHint, Map<String, String> cleaningParams,
         AsyncCallback<String> async);
 
+    /**
+     * Uploads a chunk of dirty HTML content to be cleaned.
+     * 
+     * @param uploadId the identifier returned when the first chunk was uploaded, or {@code null} to start a new upload
+     * @param chunk the chunk of dirty HTML to append to the uploaded content
+     * @param async the call-back to be used for notifying the caller after receiving the response from the server
+     */
+    void uploadOfficeHTML(String uploadId, String chunk, AsyncCallback<String> async);
+
+    /**
+     * Cleans the dirty HTML content that has been uploaded.
+     * 
+     * @param uploadId the upload identifier
+     * @param cleanerHint role hint for which cleaner to be used
+     * @param cleaningParams additional parameters to be used when cleaning
+     * @param async the call-back to be used for notifying the caller after receiving the response from the server
+     */
+    void cleanUploadedOfficeHTML(String uploadId, String cleanerHint, Map<String, String> cleaningParams,
+        AsyncCallback<Integer> async);
+
+    /**
+     * Retrieves a segment of the cleaned content.
+     * 
+     * @param uploadId the upload identifier
+     * @param segment the segment index
+     * @param async the call-back to be used for notifying the caller after receiving the response from the server
+     */
+    void getCleanedOfficeHTML(String uploadId, int segment, AsyncCallback<String> async);
+
     /**
      * Imports the given office attachment into XHTML 1.0.
      * 
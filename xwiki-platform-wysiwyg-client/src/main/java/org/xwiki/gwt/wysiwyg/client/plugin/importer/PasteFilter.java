@@ -19,19 +19,80 @@
  */
 package org.xwiki.gwt.wysiwyg.client.plugin.importer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.xwiki.gwt.dom.client.Style;
+
+import com.google.gwt.core.client.JsArrayString;
 import com.google.gwt.dom.client.Document;
 import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.Node;
 
 /**
  * Filters the DOM tree generated from the text pasted into a right text area.
  * <p>
  * Note: The purpose of this filter is not to clean the pasted text but to adjust the DOM tree so that its HTML
- * serialization can be cleaned on the server side.
+ * serialization can be cleaned on the server side. Simple and safe HTML (e.g. content copied from a web page) can be
+ * cleaned on the client side though, using {@link #clean(Element)}, in order to avoid the server round trip.
  * 
  * @version $Id$
  */
 public class PasteFilter
 {
+    /**
+     * The maximum number of nodes the paste content can have in order to be cleaned on the client side. Larger paste
+     * content is cleaned on the server side.
+     */
+    private static final int MAX_CLEAN_NODE_COUNT = 1000;
+
+    /**
+     * The elements that are kept when the paste content is cleaned on the client side.
+     */
+    private static final Set<String> ALLOWED_ELEMENTS = new HashSet<String>(Arrays.asList("a", "abbr", "b",
+        "blockquote", "br", "caption", "cite", "code", "dd", "del", "div", "dl", "dt", "em", "h1", "h2", "h3", "h4",
+        "h5", "h6", "hr", "i", "img", "ins", "li", "ol", "p", "pre", "q", "s", "strike", "strong", "sub", "sup",
+        "table", "tbody", "td", "tfoot", "th", "thead", "tr", "tt", "u", "ul"));
+
+    /**
+     * The elements that are replaced by their child nodes when the paste content is cleaned on the client side.
+     */
+    private static final Set<String> UNWRAPPED_ELEMENTS = new HashSet<String>(Arrays.asList("font", "span"));
+
+    /**
+     * The elements that are removed, along with their child nodes, when the paste content is cleaned on the client
+     * side.
+     */
+    private static final Set<String> REMOVED_ELEMENTS = new HashSet<String>(Arrays.asList("link", "meta", "script",
+        "style", "title"));
+
+    /**
+     * The attributes that are kept when the paste content is cleaned on the client side.
+     */
+    private static final Set<String> ALLOWED_ATTRIBUTES = new HashSet<String>(Arrays.asList("alt", "colspan", "href",
+        "height", "rowspan", "src", "title", "width"));
+
+    /**
+     * The attributes whose value is an URL.
+     */
+    private static final Set<String> URL_ATTRIBUTES = new HashSet<String>(Arrays.asList("href", "src"));
+
+    /**
+     * The URL schemes that are allowed when the paste content is cleaned on the client side. Relative URLs are allowed
+     * too.
+     */
+    private static final Set<String> ALLOWED_URL_SCHEMES = new HashSet<String>(Arrays.asList("http", "https",
+        "mailto"));
+
+    /**
+     * The characters that separate the path, the query string and the fragment of an URL. A colon that follows one of
+     * them doesn't end an URL scheme.
+     */
+    private static final String URL_SEPARATORS = "/?#";
+
     /**
      * Filters the given DOM document.
      * 
@@ -51,4 +112,166 @@ public void filter(Element element)
     {
         // No filtering is done by default. Browser specific implementations may overwrite this method.
     }
+
+    /**
+     * Tries to clean the content of the given element on the client side. Only simple and safe HTML is cleaned: the
+     * content is left untouched if it has Office markers (e.g. conditional comments, name-spaced elements or Office
+     * specific styles), unknown elements, comments (e.g. wiki syntax meta data) or too many nodes. In this case the
+     * content has to be cleaned on the server side.
+     * 
+     * @param element the element whose content should be cleaned
+     * @return {@code true} if the content of the given element has been cleaned, {@code false} if it has to be cleaned
+     *         on the server side
+     */
+    public boolean clean(Element element)
+    {
+        List<Node> removed = new ArrayList<Node>();
+        List<Element> unwrapped = new ArrayList<Element>();
+        List<Element> filtered = new ArrayList<Element>();
+
+        // Check first if the content can be cleaned on the client side, without modifying it.
+        int count = 0;
+        Node node = element.getFirstChild();
+        while (node != null) {
+            if (++count > MAX_CLEAN_NODE_COUNT) {
+                return false;
+            }
+            boolean skipChildren = false;
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                Element child = Element.as(node);
+                String tagName = child.getNodeName().toLowerCase();
+                if (REMOVED_ELEMENTS.contains(tagName)) {
+                    removed.add(child);
+                    skipChildren = true;
+                } else if (!ALLOWED_ELEMENTS.contains(tagName) && !UNWRAPPED_ELEMENTS.contains(tagName)) {
+                    // Unknown element, including Office name-spaced elements like o:p.
+                    return false;
+                } else if (!checkAttributes(child, filtered)) {
+                    return false;
+                } else if (UNWRAPPED_ELEMENTS.contains(tagName)) {
+                    unwrapped.add(child);
+                }
+            } else if (node.getNodeType() != Node.TEXT_NODE) {
+                // Comments can be Office conditional comments or wiki syntax meta data.
+                return false;
+            }
+            node = getNextNode(node, element, skipChildren);
+        }
+
+        // Clean the content.
+        for (Node toRemove : removed) {
+            toRemove.removeFromParent();
+        }
+        for (Element toFilter : filtered) {
+            JsArrayString attributeNames = getAttributeNames(toFilter);
+            for (int i = 0; i < attributeNames.length(); i++) {
+                if (!ALLOWED_ATTRIBUTES.contains(attributeNames.get(i).toLowerCase())) {
+                    toFilter.removeAttribute(attributeNames.get(i));
+                }
+            }
+        }
+        for (Element toUnwrap : unwrapped) {
+            while (toUnwrap.getFirstChild() != null) {
+                toUnwrap.getParentNode().insertBefore(toUnwrap.getFirstChild(), toUnwrap);
+            }
+            toUnwrap.removeFromParent();
+        }
+        return true;
+    }
+
+    /**
+     * Checks the attributes of the given element.
+     * 
+     * @param element the element whose attributes are checked
+     * @param filtered the list of elements that have attributes which need to be removed
+     * @return {@code false} if the given element has Office markers or unsafe URLs, {@code true} otherwise
+     */
+    private boolean checkAttributes(Element element, List<Element> filtered)
+    {
+        JsArrayString attributeNames = getAttributeNames(element);
+        boolean filter = false;
+        for (int i = 0; i < attributeNames.length(); i++) {
+            String attributeName = attributeNames.get(i).toLowerCase();
+            String value = String.valueOf(element.getAttribute(attributeName)).toLowerCase();
+            if (attributeName.startsWith("xmlns") || (URL_ATTRIBUTES.contains(attributeName) && !isSafeURL(value))
+                || ("class".equals(attributeName) && value.contains("mso"))
+                || (Style.STYLE_ATTRIBUTE.equals(attributeName) && value.contains("mso-"))) {
+                // Office markers (e.g. class="MsoNormal", style="mso-list:l0") or unsafe links.
+                return false;
+            }
+            filter |= !ALLOWED_ATTRIBUTES.contains(attributeName);
+        }
+        if (filter) {
+            filtered.add(element);
+        }
+        return true;
+    }
+
+    /**
+     * Browsers ignore the white spaces and the control characters inside URLs, so {@code java&#x09;script:} is a
+     * JavaScript URL. We remove them before looking at the URL scheme.
+     * 
+     * @param url an URL, in lower case
+     * @return {@code true} if the given URL is relative or uses one of the {@link #ALLOWED_URL_SCHEMES}, {@code false}
+     *         otherwise
+     */
+    private boolean isSafeURL(String url)
+    {
+        StringBuilder normalizedURL = new StringBuilder();
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c > ' ' && (c < '\u007F' || c > '\u009F')) {
+                normalizedURL.append(c);
+            }
+        }
+        int colonIndex = normalizedURL.indexOf(":");
+        if (colonIndex < 0) {
+            return true;
+        }
+        for (int i = 0; i < colonIndex; i++) {
+            if (URL_SEPARATORS.indexOf(normalizedURL.charAt(i)) >= 0) {
+                // Relative URL.
+                return true;
+            }
+        }
+        return ALLOWED_URL_SCHEMES.contains(normalizedURL.substring(0, colonIndex));
+    }
+
+    /**
+     * @param node a descendant of the given root
+     * @param root the root of the traversed tree
+     * @param skipChildren whether to skip the child nodes of the given node
+     * @return the node following the given node in depth-first pre-order, or {@code null} if there's no such node
+     *         inside the given root
+     */
+    private Node getNextNode(Node node, Node root, boolean skipChildren)
+    {
+        if (!skipChildren && node.hasChildNodes()) {
+            return node.getFirstChild();
+        }
+        Node ancestor = node;
+        while (ancestor != root) {
+            if (ancestor.getNextSibling() != null) {
+                return ancestor.getNextSibling();
+            }
+            ancestor = ancestor.getParentNode();
+        }
+        return null;
+    }
+
+    /**
+     * @param element a DOM element
+     * @return the names of the attributes specified on the given element
+     */
+    private native JsArrayString getAttributeNames(Element element)
+    /*-{
+        var attributeNames = [];
+        for (var i = 0; i < element.attributes.length; i++) {
+            // Older browsers list all the supported attributes, not only the specified ones.
+            if (element.attributes[i].specified) {
+                attributeNames.push(element.attributes[i].nodeName);
+            }
+        }
+        return attributeNames;
+    }-*/;
 }
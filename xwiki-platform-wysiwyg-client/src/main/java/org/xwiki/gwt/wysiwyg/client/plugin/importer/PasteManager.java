@@ -59,6 +59,11 @@ public class PasteManager implements PasteHandler, CopyHandler
      */
     private static final String DEFAULT_CONTENT_KEY = "__defaultContent";
 
+    /**
+     * The hint of the component used to clean the paste content on the server side.
+     */
+    private static final String CLEANER_HINT = "wysiwyg";
+
     /**
      * The object used to filter the pasted content before cleaning it on the server.
      */
@@ -206,9 +211,16 @@ protected void centerPasteContainer(Element pasteContainer)
     private void onAfterPaste(Element pasteContainer)
     {
         String pasteContent = "";
+        boolean requiresCleaning = false;
         if (hasContentBeenPastedIn(pasteContainer)) {
             pasteFilter.filter(pasteContainer);
             pasteContent = pasteContainer.xGetInnerHTML();
+            requiresCleaning = requiresCleaning(pasteContent);
+            // Avoid the server round trip if the paste content is simple enough to be cleaned on the client side.
+            if (requiresCleaning && pasteFilter.clean(pasteContainer)) {
+                pasteContent = pasteContainer.xGetInnerHTML();
+                requiresCleaning = false;
+            }
         }
 
         pasteContainer.removeProperty(DEFAULT_CONTENT_KEY);
@@ -216,7 +228,7 @@ private void onAfterPaste(Element pasteContainer)
 
         selectionPreserver.restoreSelection();
 
-        if (requiresCleaning(pasteContent)) {
+        if (requiresCleaning) {
             cleanPasteContent(pasteContent);
         } else if (pasteContent.length() > 0) {
             paste(pasteContent);
@@ -273,7 +285,7 @@ private void cleanPasteContent(final String pasteContent)
         Map<String, String> cleaningParameters = new HashMap<String, String>();
         cleaningParameters.put("filterStyles", "strict");
         cleaningParameters.put("namespacesAware", Boolean.toString(false));
-        importService.cleanOfficeHTML(pasteContent, "wysiwyg", cleaningParameters, new AsyncCallback<String>()
+        AsyncCallback<String> callback = new AsyncCallback<String>()
         {
             @Override
             public void onFailure(Throwable caught)
@@ -289,7 +301,14 @@ public void onSuccess(String result)
                 textArea.setFocus(true);
                 paste(result);
             }
-        });
+        };
+
+        if (pasteContent.length() > ChunkedPasteCleaner.CHUNK_SIZE) {
+            // Large paste content has to be sent in multiple requests.
+            new ChunkedPasteCleaner(importService, CLEANER_HINT, cleaningParameters).clean(pasteContent, callback);
+        } else {
+            importService.cleanOfficeHTML(pasteContent, CLEANER_HINT, cleaningParameters, callback);
+        }
     }
 
     /**
@@ -28,6 +28,7 @@
 import org.xwiki.gwt.user.client.ui.wizard.AbstractInteractiveWizardStep;
 import org.xwiki.gwt.user.client.ui.wizard.NavigationListener.NavigationDirection;
 import org.xwiki.gwt.wysiwyg.client.Strings;
+import org.xwiki.gwt.wysiwyg.client.plugin.importer.ChunkedPasteCleaner;
 import org.xwiki.gwt.wysiwyg.client.plugin.importer.ImportServiceAsync;
 import org.xwiki.gwt.wysiwyg.client.plugin.importer.PasteFilter;
 
@@ -50,6 +51,11 @@
  */
 public class ImportOfficePasteWizardStep extends AbstractInteractiveWizardStep implements LoadHandler
 {
+    /**
+     * The hint of the component used to clean the office HTML on the server side.
+     */
+    private static final String CLEANER_HINT = "wysiwyg";
+
     /**
      * The text area where the user can paste his content.
      */
@@ -152,7 +158,7 @@ public void onSubmit(final AsyncCallback<Boolean> async)
         if (officeHTML.trim().equals("")) {
             async.onSuccess(false);
         } else {
-            importService.cleanOfficeHTML(officeHTML, "wysiwyg", getHTMLCleaningParams(), new AsyncCallback<String>()
+            AsyncCallback<String> callback = new AsyncCallback<String>()
             {
                 @Override
                 public void onSuccess(String result)
@@ -166,7 +172,13 @@ public void onFailure(Throwable thrown)
                 {
                     async.onFailure(thrown);
                 }
-            });
+            };
+            if (officeHTML.length() > ChunkedPasteCleaner.CHUNK_SIZE) {
+                new ChunkedPasteCleaner(importService, CLEANER_HINT, getHTMLCleaningParams()).clean(officeHTML,
+                    callback);
+            } else {
+                importService.cleanOfficeHTML(officeHTML, CLEANER_HINT, getHTMLCleaningParams(), callback);
+            }
         }
     }
 
@@ -37,6 +37,8 @@
 import org.xwiki.gwt.user.client.ui.rta.cmd.CommandListener;
 import org.xwiki.gwt.user.client.ui.rta.cmd.CommandManager;
 import org.xwiki.gwt.wysiwyg.client.plugin.internal.AbstractPlugin;
+import org.xwiki.gwt.wysiwyg.client.plugin.submit.SubmitPipeline;
+import org.xwiki.gwt.wysiwyg.client.plugin.submit.SubmitVisitor;
 
 import com.google.gwt.dom.client.Node;
 import com.google.gwt.dom.client.NodeList;
@@ -48,7 +50,7 @@
  * 
  * @version $Id$
  */
-public class LinePlugin extends AbstractPlugin implements CommandListener
+public class LinePlugin extends AbstractPlugin implements CommandListener, SubmitVisitor
 {
     /**
      * The command that stores the value of the rich text area in an HTML form field.
@@ -107,6 +109,21 @@ public class LinePlugin extends AbstractPlugin implements CommandListener
      */
     protected final DOMUtils domUtils = DOMUtils.getInstance();
 
+    /**
+     * The BRs visited before submit that could be spacers, waiting for the next leaf from their block container.
+     */
+    private final List<Element> pendingBRs = new ArrayList<Element>();
+
+    /**
+     * The nearest block container of the {@link #pendingBRs}.
+     */
+    private Node pendingContainer;
+
+    /**
+     * The BRs marked as {@link #SPACER} before submit, whose mark has to be removed after submit.
+     */
+    private final List<Element> spacers = new ArrayList<Element>();
+
     /**
      * The object used to handle keyboard events.
      */
@@ -127,6 +144,7 @@ public void init(RichTextArea textArea, Config config)
         saveRegistration(getTextArea().addKeyUpHandler(keyboardAdaptor));
         saveRegistration(getTextArea().addKeyPressHandler(keyboardAdaptor));
         getTextArea().getCommandManager().addCommandListener(this);
+        SubmitPipeline.get(getTextArea()).addVisitor(this);
 
         // Adjust the initial content of the rich text area.
         onReset();
@@ -136,6 +154,7 @@ public void init(RichTextArea textArea, Config config)
     public void destroy()
     {
         getTextArea().getCommandManager().removeCommandListener(this);
+        SubmitPipeline.get(getTextArea()).removeVisitor(this);
 
         super.destroy();
     }
@@ -162,74 +181,89 @@ protected void handleRepeatableKey(Event event)
     @Override
     public boolean onBeforeCommand(CommandManager sender, Command command, String param)
     {
-        if (SUBMIT.equals(command)) {
-            // The edited content might be submitted so we have to mark the BRs that have been added to allow the user
-            // to edit the empty block elements. These BRs will be removed from rich text area's HTML output on the
-            // server side.
-            markSpacers();
-        }
         return false;
     }
 
     @Override
     public void onCommand(CommandManager sender, Command command, String param)
     {
-        if (SUBMIT.equals(command)) {
-            // Revert the changes made on before submit command in order avoid conflicts with the rich text area's
-            // history mechanism.
-            unMarkSpacers();
-        } else if (RESET.equals(command)) {
+        if (RESET.equals(command)) {
             onReset();
         }
     }
 
     /**
-     * Marks the BRs that have been added as spacers during the editing. These BRs were added to overcome a Mozilla bug
-     * that prevents us from typing inside an empty block level element.
+     * {@inheritDoc}
+     * <p>
+     * The edited content might be submitted so we have to mark the BRs that have been added to allow the user to edit
+     * the empty block elements. These BRs were added to overcome a Mozilla bug that prevents us from typing inside an
+     * empty block level element and they will be removed from rich text area's HTML output on the server side. A BR is
+     * a spacer if there's no visible leaf after it in its block container, so we wait for the next leaves in document
+     * order instead of looking ahead from each BR.
      */
-    protected void markSpacers()
+    @Override
+    public void visit(Node node)
     {
-        Document document = getTextArea().getDocument();
-        NodeList<com.google.gwt.dom.client.Element> brs = document.getBody().getElementsByTagName(BR);
-        for (int i = 0; i < brs.getLength(); i++) {
-            Element br = brs.getItem(i).cast();
-            // Ignore the BRs that have been there from the beginning.
-            if (LINE_BREAK.equals(br.getClassName())) {
-                continue;
-            }
-            Node container = domUtils.getNearestBlockContainer(br);
-            Node leaf = domUtils.getNextLeaf(br);
-            boolean emptyLine = true;
-            // Look if there is any visible element on the new line, taking care to remain in the current block
-            // container.
-            while (leaf != null && container == domUtils.getNearestBlockContainer(leaf)) {
-                if (needsSpace(leaf)) {
-                    emptyLine = false;
-                    break;
-                }
-                leaf = domUtils.getNextLeaf(leaf);
+        if (node.hasChildNodes()) {
+            return;
+        }
+        Node container = null;
+        if (!pendingBRs.isEmpty()) {
+            container = domUtils.getNearestBlockContainer(node);
+            if (container != pendingContainer) {
+                // The new line of the pending BRs ends without any visible element.
+                markPendingBRs(true);
+            } else if (needsSpace(node)) {
+                markPendingBRs(false);
             }
-            if (emptyLine) {
-                br.setClassName(SPACER);
-            } else {
-                br.removeAttribute(CLASS_NAME);
+        }
+        // Ignore the BRs that have been there from the beginning.
+        if (node.getNodeType() == Node.ELEMENT_NODE && BR.equalsIgnoreCase(node.getNodeName())
+            && !LINE_BREAK.equals(Element.as(node).getClassName())) {
+            pendingBRs.add(Element.as(node));
+            pendingContainer = container != null ? container : domUtils.getNearestBlockContainer(node);
+        }
+    }
+
+    @Override
+    public void beforeSerialize()
+    {
+        // The BRs at the end of the document are followed by empty lines.
+        markPendingBRs(true);
+    }
+
+    @Override
+    public void afterSerialize()
+    {
+        // Revert the changes made before submit in order to avoid conflicts with the rich text area's history
+        // mechanism.
+        pendingBRs.clear();
+        pendingContainer = null;
+        for (Element spacer : spacers) {
+            if (SPACER.equals(spacer.getClassName())) {
+                spacer.removeAttribute(CLASS_NAME);
             }
         }
+        spacers.clear();
     }
 
     /**
-     * @see #markSpacers()
+     * Marks the {@link #pendingBRs} depending on whether they are followed by an empty line or not.
+     * 
+     * @param emptyLine {@code true} if the pending BRs are followed by an empty line, {@code false} otherwise
      */
-    protected void unMarkSpacers()
+    private void markPendingBRs(boolean emptyLine)
     {
-        Document document = getTextArea().getDocument();
-        NodeList<com.google.gwt.dom.client.Element> brs = document.getBody().getElementsByTagName(BR);
-        for (int i = 0; i < brs.getLength(); i++) {
-            Element br = (Element) brs.getItem(i);
-            if (SPACER.equals(br.getClassName())) {
+        for (Element br : pendingBRs) {
+            if (emptyLine) {
+                br.setClassName(SPACER);
+                spacers.add(br);
+            } else {
                 br.removeAttribute(CLASS_NAME);
             }
         }
+        pendingBRs.clear();
+        pendingContainer = null;
     }
 
     /**
@@ -32,6 +32,7 @@
 import org.xwiki.gwt.user.client.ui.rta.cmd.Command;
 import org.xwiki.gwt.user.client.ui.rta.cmd.CommandListener;
 import org.xwiki.gwt.user.client.ui.rta.cmd.CommandManager;
+import org.xwiki.gwt.wysiwyg.client.plugin.submit.SubmitVisitor;
 
 import com.google.gwt.dom.client.AnchorElement;
 import com.google.gwt.dom.client.Element;
@@ -40,11 +41,13 @@
 
 /**
  * Client side empty link cleaner, to delete all links without content before the content is submitted. This is to
- * prevent the links which are not visible in the wysiwyg to get submitted as wysiwyg content.
+ * prevent the links which are not visible in the wysiwyg to get submitted as wysiwyg content. The filter can be
+ * registered either as a command listener or as a submit visitor, in which case it only collects the anchors while the
+ * edited document is traversed.
  * 
  * @version $Id$
  */
-public class EmptyLinkFilter implements CommandListener
+public class EmptyLinkFilter implements CommandListener, SubmitVisitor
 {
     /**
      * The submit rich text area command.
@@ -56,11 +59,21 @@ public class EmptyLinkFilter implements CommandListener
      */
     private static final NodeFilter HIDDEN = new HiddenElements();
 
+    /**
+     * The name of the anchor element.
+     */
+    private static final String ANCHOR = "a";
+
     /**
      * The rich text area for which this command listener cleans the empty listener.
      */
     private RichTextArea rta;
 
+    /**
+     * The anchors visited before submit.
+     */
+    private final List<Element> visitedAnchors = new ArrayList<Element>();
+
     /**
      * Creates an empty link filter to handle links on the passed rich text area.
      * 
@@ -74,30 +87,61 @@ public EmptyLinkFilter(RichTextArea rta)
     @Override
     public boolean onBeforeCommand(CommandManager sender, Command command, String param)
     {
-        // We can assert if a link is visible only if the rich text area is visible.
-        if (SUBMIT.equals(command) && rta.isAttached() && rta.getElement().getOffsetWidth() > 0) {
-            for (Element anchor : getEmptyAnchors()) {
-                anchor.getParentNode().removeChild(anchor);
+        if (SUBMIT.equals(command)) {
+            List<Element> anchors = new ArrayList<Element>();
+            NodeList<Element> anchorsList = rta.getDocument().getElementsByTagName(ANCHOR);
+            for (int i = 0; i < anchorsList.getLength(); i++) {
+                anchors.add(anchorsList.getItem(i));
             }
+            removeEmptyAnchors(anchors);
         }
         return false;
     }
 
+    @Override
+    public void visit(Node node)
+    {
+        if (Element.is(node) && ANCHOR.equalsIgnoreCase(Element.as(node).getTagName())) {
+            visitedAnchors.add(Element.as(node));
+        }
+    }
+
+    @Override
+    public void beforeSerialize()
+    {
+        List<Element> anchors = new ArrayList<Element>(visitedAnchors);
+        visitedAnchors.clear();
+        removeEmptyAnchors(anchors);
+    }
+
+    @Override
+    public void afterSerialize()
+    {
+        // The empty anchors are not restored.
+        visitedAnchors.clear();
+    }
+
     /**
-     * @return the list of empty anchors
-     * @see #isEmpty(Element)
+     * Removes the empty anchors from the given list.
+     * 
+     * @param anchors a list of anchors from the edited document
+     * @see #isEmpty(AnchorElement)
      */
-    private List<Element> getEmptyAnchors()
+    private void removeEmptyAnchors(List<Element> anchors)
     {
+        // We can assert if a link is visible only if the rich text area is visible.
+        if (!rta.isAttached() || rta.getElement().getOffsetWidth() <= 0) {
+            return;
+        }
         List<Element> emptyAnchors = new ArrayList<Element>();
-        NodeList<Element> anchorsList = rta.getDocument().getElementsByTagName("a");
-        for (int i = 0; i < anchorsList.getLength(); i++) {
-            Element anchor = anchorsList.getItem(i);
+        for (Element anchor : anchors) {
             if (isEmpty(AnchorElement.as(anchor))) {
                 emptyAnchors.add(anchor);
             }
         }
-        return emptyAnchors;
+        for (Element anchor : emptyAnchors) {
+            anchor.getParentNode().removeChild(anchor);
+        }
     }
 
     /**
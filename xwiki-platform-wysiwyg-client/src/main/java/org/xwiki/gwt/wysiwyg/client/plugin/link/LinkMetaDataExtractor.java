@@ -19,12 +19,16 @@
  */
 package org.xwiki.gwt.wysiwyg.client.plugin.link;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.xwiki.gwt.dom.client.DOMUtils;
 import org.xwiki.gwt.dom.client.Document;
 import org.xwiki.gwt.dom.client.DocumentFragment;
 import org.xwiki.gwt.dom.client.Element;
 import org.xwiki.gwt.dom.client.InnerHTMLListener;
 import org.xwiki.gwt.dom.client.Text;
+import org.xwiki.gwt.wysiwyg.client.InnerHTMLVisitor;
 import org.xwiki.gwt.wysiwyg.client.plugin.link.LinkConfig.LinkType;
 
 import com.google.gwt.dom.client.Node;
@@ -36,19 +40,45 @@
  * 
  * @version $Id$
  */
-public class LinkMetaDataExtractor implements InnerHTMLListener
+public class LinkMetaDataExtractor implements InnerHTMLListener, InnerHTMLVisitor
 {
+    /**
+     * The name of the elements processed by this extractor.
+     */
+    public static final String TAG_NAME = "a";
+
+    /**
+     * The elements visited since the last call to {@link #endVisit()}.
+     */
+    private final List<Element> visitedAnchors = new ArrayList<Element>();
+
     @Override
     public void onInnerHTMLChange(Element parent)
     {
         // look up all images in this subtree
-        NodeList<com.google.gwt.dom.client.Element> anchors = parent.getElementsByTagName("a");
+        NodeList<com.google.gwt.dom.client.Element> anchors = parent.getElementsByTagName(TAG_NAME);
         for (int i = 0; i < anchors.getLength(); i++) {
             Element anchor = (Element) anchors.getItem(i);
             processElement(anchor);
         }
     }
 
+    @Override
+    public void visit(Node node)
+    {
+        visitedAnchors.add((Element) node);
+    }
+
+    @Override
+    public void endVisit()
+    {
+        // Process the elements after the traversal because the processing changes the DOM tree.
+        for (Element anchor : visitedAnchors) {
+            processElement(anchor);
+        }
+        visitedAnchors.clear();
+    }
+
     /**
      * Processes the passed anchor looking for the wrapping span and neighbor comments to encapsulate it all in a meta
      * fragment and leave only the anchor in the tree.
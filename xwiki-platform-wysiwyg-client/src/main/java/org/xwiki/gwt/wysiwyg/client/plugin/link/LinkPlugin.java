@@ -29,11 +29,13 @@
 import org.xwiki.gwt.user.client.ui.rta.cmd.Executable;
 import org.xwiki.gwt.user.client.ui.wizard.Wizard;
 import org.xwiki.gwt.user.client.ui.wizard.WizardListener;
+import org.xwiki.gwt.wysiwyg.client.InnerHTMLDispatcher;
 import org.xwiki.gwt.wysiwyg.client.plugin.internal.AbstractPlugin;
 import org.xwiki.gwt.wysiwyg.client.plugin.link.exec.CreateLinkExecutable;
 import org.xwiki.gwt.wysiwyg.client.plugin.link.exec.UnlinkExecutable;
 import org.xwiki.gwt.wysiwyg.client.plugin.link.ui.LinkWizard;
 import org.xwiki.gwt.wysiwyg.client.plugin.link.ui.LinkWizard.LinkWizardStep;
+import org.xwiki.gwt.wysiwyg.client.plugin.submit.SubmitPipeline;
 import org.xwiki.gwt.wysiwyg.client.wiki.WikiServiceAsync;
 
 import com.google.gwt.core.client.Scheduler;
@@ -133,11 +135,12 @@ public void execute()
         metaDataExtractor = new LinkMetaDataExtractor();
         // Do the initial extracting on the loaded document.
         metaDataExtractor.onInnerHTMLChange((Element) getTextArea().getDocument().getDocumentElement());
-        getTextArea().getDocument().addInnerHTMLListener(metaDataExtractor);
+        InnerHTMLDispatcher.get(getTextArea().getDocument()).addVisitor(metaDataExtractor,
+            LinkMetaDataExtractor.TAG_NAME);
 
-        // Create an empty link handler and add it to the command manager
+        // Create an empty link handler and add it to the submit pipeline.
         linkFilter = new EmptyLinkFilter(getTextArea());
-        getTextArea().getCommandManager().addCommandListener(linkFilter);
+        SubmitPipeline.get(getTextArea()).addVisitor(linkFilter);
 
         // Initialize the link configuration factory.
         linkConfigFactory = new LinkConfigFactory(textArea);
@@ -154,12 +157,12 @@ public void destroy()
         }
 
         if (metaDataExtractor != null) {
-            getTextArea().getDocument().removeInnerHTMLListener(metaDataExtractor);
+            InnerHTMLDispatcher.get(getTextArea().getDocument()).removeVisitor(metaDataExtractor);
             metaDataExtractor = null;
         }
 
-        // Remove the empty link filter from the text area.
-        getTextArea().getCommandManager().removeCommandListener(linkFilter);
+        // Remove the empty link filter from the submit pipeline.
+        SubmitPipeline.get(getTextArea()).removeVisitor(linkFilter);
 
         // Destroy menu extension.
         menuExtension.clearFeatures();
@@ -0,0 +1,214 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client.plugin.macro;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xwiki.gwt.dom.client.Element;
+import org.xwiki.gwt.user.client.Console;
+import org.xwiki.gwt.wysiwyg.client.InnerHTMLDispatcher;
+import org.xwiki.gwt.wysiwyg.client.InnerHTMLVisitor;
+import org.xwiki.gwt.wysiwyg.client.wiki.WikiPageReference;
+
+import com.google.gwt.dom.client.Node;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Requests the output of the macros whose rendering has been deferred by the server because they are slow to execute,
+ * and replaces their place-holders with the received output. This way the editor is usable before all the macros are
+ * rendered. The output of the macros collapsed by the user is requested only when they are expanded.
+ * <p>
+ * The deferred macros are detected while the {@link InnerHTMLDispatcher} traverses the changed subtree for the
+ * {@link MacroDisplayer}, so the subtree is not traversed again.
+ * 
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class DeferredMacroLoader implements InnerHTMLVisitor
+{
+    /**
+     * The object used to detect and replace the deferred macros.
+     */
+    private final MacroDisplayer displayer;
+
+    /**
+     * The service used to render the deferred macros.
+     */
+    private final MacroServiceAsync macroService;
+
+    /**
+     * The storage syntax.
+     */
+    private final String syntaxId;
+
+    /**
+     * The wiki page that is being edited.
+     */
+    private final WikiPageReference documentReference;
+
+    /**
+     * The elements that follow the start macro comments visited since the last call to {@link #endVisit()}, i.e. the
+     * place-holders of the deferred macros or the macro containers that are already displayed.
+     */
+    private final List<Element> visitedMacroElements = new ArrayList<Element>();
+
+    /**
+     * Creates a new loader for the deferred macros displayed by the given displayer. The deferred macros that are
+     * already present in the rich text area are loaded right away.
+     * 
+     * @param displayer the object used to detect and replace the deferred macros
+     * @param macroService the service used to render the deferred macros
+     * @param syntaxId the storage syntax
+     * @param documentReference the wiki page that is being edited
+     */
+    public DeferredMacroLoader(MacroDisplayer displayer, MacroServiceAsync macroService, String syntaxId,
+        WikiPageReference documentReference)
+    {
+        this.displayer = displayer;
+        this.macroService = macroService;
+        this.syntaxId = syntaxId;
+        this.documentReference = documentReference;
+
+        InnerHTMLDispatcher.get(displayer.getTextArea().getDocument()).addVisitor(this, InnerHTMLDispatcher.COMMENT);
+
+        loadAll(displayer.getMacroContainers(Element.as(displayer.getTextArea().getDocument().getBody())));
+    }
+
+    /**
+     * Destroys this loader.
+     */
+    public void destroy()
+    {
+        InnerHTMLDispatcher.get(displayer.getTextArea().getDocument()).removeVisitor(this);
+    }
+
+    @Override
+    public void visit(Node node)
+    {
+        Node nextSibling = node.getNextSibling();
+        if (node.getNodeValue().startsWith(MacroDisplayer.START_MACRO_COMMENT_PREFIX) && Element.is(nextSibling)) {
+            Element element = Element.as(nextSibling);
+            if (element.hasClassName(MacroDisplayer.DEFERRED_MACRO_STYLE_NAME) || displayer.isMacroContainer(element)) {
+                visitedMacroElements.add(element);
+            }
+        }
+    }
+
+    @Override
+    public void endVisit()
+    {
+        // The macro containers are created at the end of the traversal. Make sure they exist no matter the order in
+        // which the visitors are notified.
+        displayer.displayVisitedMacros();
+        List<Element> containers = new ArrayList<Element>();
+        for (Element element : visitedMacroElements) {
+            Element container = displayer.getMacroContainer(element);
+            if (container != null && !containers.contains(container)) {
+                containers.add(container);
+            }
+        }
+        visitedMacroElements.clear();
+        loadAll(containers);
+    }
+
+    /**
+     * Requests the output of the given macros, if their rendering has been deferred.
+     * 
+     * @param containers macro containers
+     */
+    private void loadAll(List<Element> containers)
+    {
+        for (Element container : containers) {
+            if (displayer.isDeferred(container) && !displayer.isLazy(container)) {
+                load(container);
+            }
+        }
+    }
+
+    /**
+     * Collapses or expands the given macros and remembers the choice of the user for the edited page, so that the
+     * output of the collapsed macros is not sent to the editor anymore. The output of the expanded macros is loaded if
+     * needed.
+     * 
+     * @param containers the macros to collapse or expand
+     * @param collapsed {@code true} to collapse the given macros, {@code false} to expand them
+     */
+    public void setCollapsed(List<Element> containers, boolean collapsed)
+    {
+        List<String> macroCalls = new ArrayList<String>();
+        for (Element container : containers) {
+            displayer.setCollapsed(container, collapsed);
+            // Macros without output are always displayed collapsed.
+            if (displayer.hasOutput(container)) {
+                macroCalls.add(displayer.getSerializedMacroCall(container));
+                if (!collapsed && displayer.isDeferred(container)) {
+                    load(container);
+                }
+            }
+        }
+        if (macroCalls.isEmpty()) {
+            return;
+        }
+        macroService.setCollapsed(macroCalls, collapsed, documentReference, new AsyncCallback<Void>()
+        {
+            @Override
+            public void onFailure(Throwable caught)
+            {
+                Console.getInstance().error(caught.getLocalizedMessage());
+            }
+
+            @Override
+            public void onSuccess(Void result)
+            {
+                // Nothing to do.
+            }
+        });
+    }
+
+    /**
+     * Requests the output of the specified deferred macro.
+     * 
+     * @param container the container of a deferred macro
+     */
+    private void load(final Element container)
+    {
+        final String macroCall = displayer.getSerializedMacroCall(container);
+        boolean inline = displayer.isInLineCall(container);
+        macroService.render(macroCall, inline, syntaxId, documentReference, new AsyncCallback<String>()
+        {
+            @Override
+            public void onFailure(Throwable caught)
+            {
+                Console.getInstance().error(caught.getLocalizedMessage());
+            }
+
+            @Override
+            public void onSuccess(String result)
+            {
+                // Make sure the macro is still in the edited document and that it wasn't modified in the mean time.
+                if (result != null && displayer.getTextArea().getDocument().getBody().isOrHasChild(container)
+                    && macroCall.equals(displayer.getSerializedMacroCall(container))) {
+                    displayer.replace(container, result);
+                }
+            }
+        });
+    }
+}
@@ -27,8 +27,9 @@
 import org.xwiki.gwt.dom.client.Document;
 import org.xwiki.gwt.dom.client.DocumentFragment;
 import org.xwiki.gwt.dom.client.Element;
-import org.xwiki.gwt.dom.client.InnerHTMLListener;
 import org.xwiki.gwt.user.client.ui.rta.RichTextArea;
+import org.xwiki.gwt.wysiwyg.client.InnerHTMLDispatcher;
+import org.xwiki.gwt.wysiwyg.client.InnerHTMLVisitor;
 
 import com.google.gwt.dom.client.Node;
 
@@ -37,7 +38,7 @@
  * 
  * @version $Id$
  */
-public class MacroDisplayer implements InnerHTMLListener
+public class MacroDisplayer implements InnerHTMLVisitor
 {
     /**
      * The CSS class name used on the text box containing the output of a macro.
@@ -69,6 +70,18 @@ public class MacroDisplayer implements InnerHTMLListener
      */
     public static final String MACRO_PLACEHOLDER_STYLE_NAME = "macro-placeholder";
 
+    /**
+     * The CSS class name used on the place-holder that is displayed, inside the macro output, while the rendering of a
+     * slow macro is deferred.
+     */
+    public static final String DEFERRED_MACRO_STYLE_NAME = MACRO_STYLE_NAME + "-deferred";
+
+    /**
+     * The CSS class name used on the place-holder that replaces the output of a macro collapsed by the user. The
+     * output of such a macro is loaded when the macro is expanded.
+     */
+    public static final String LAZY_MACRO_STYLE_NAME = MACRO_STYLE_NAME + "-lazy";
+
     /**
      * The prefix of the start macro comment node.
      */
@@ -89,6 +102,16 @@ public class MacroDisplayer implements InnerHTMLListener
      */
     private final RichTextArea textArea;
 
+    /**
+     * The start macro comment nodes of the top level macros visited since the last call to {@link #endVisit()}.
+     */
+    private final List<Node> visitedStartMacroComments = new ArrayList<Node>();
+
+    /**
+     * The number of macros opened and not yet closed in the visited subtree.
+     */
+    private int visitedOpenedMacrosCount;
+
     /**
      * Creates a new macro displayer for the given rich text area.
      * 
@@ -99,7 +122,7 @@ public MacroDisplayer(RichTextArea textArea)
         this.textArea = textArea;
 
         // Listen to rich text area's inner HTML changes to detect new macros.
-        textArea.getDocument().addInnerHTMLListener(this);
+        InnerHTMLDispatcher.get(textArea.getDocument()).addVisitor(this, InnerHTMLDispatcher.COMMENT);
 
         // Display the current macros.
         display(getStartMacroCommentNodes(textArea.getDocument().getBody()));
@@ -110,7 +133,7 @@ public MacroDisplayer(RichTextArea textArea)
      */
     public void destroy()
     {
-        textArea.getDocument().removeInnerHTMLListener(this);
+        InnerHTMLDispatcher.get(textArea.getDocument()).removeVisitor(this);
     }
 
     /**
@@ -138,8 +161,9 @@ private void display(List<Node> startMacroComments)
      * Displays the macro identified by the given start comment node which contains meta data about the macro call.
      * 
      * @param start the start comment node identifying the macro to be displayed
+     * @return the macro container, or {@code null} if the stop macro comment node is missing
      */
-    private void display(Node start)
+    private Element display(Node start)
     {
         // Look for the stop macro comment.
         Node stop = start.getNextSibling();
@@ -163,7 +187,7 @@ private void display(Node start)
             siblingCount++;
         }
         if (stop == null) {
-            return;
+            return null;
         }
 
         Element container;
@@ -173,8 +197,8 @@ private void display(Node start)
         } else {
             // Put macro output inside a read only text box.
             container = createMacroContainer(start, stop, siblingCount);
-            // Expand the macro by default.
-            setCollapsed(container, false);
+            // Expand the macro by default, unless its output is loaded on demand.
+            setCollapsed(container, hasPlaceHolderOutput(container, LAZY_MACRO_STYLE_NAME));
         }
 
         // Hide macro meta data.
@@ -183,6 +207,8 @@ private void display(Node start)
         // We have to display the macro as unselected to ensure the selected state is changed only from the
         // MacroSelector.
         setSelected(container, false);
+
+        return container;
     }
 
     /**
@@ -257,6 +283,16 @@ private boolean isInLine(Node start, Node stop, int siblingCount)
         }
     }
 
+    /**
+     * @param node a macro container or a macro marker
+     * @return {@code true} if the macro is called in-line, i.e. its parent can't contain block-level elements, like a
+     *         paragraph, {@code false} if the macro call is standalone
+     */
+    public boolean isInLineCall(Node node)
+    {
+        return !domUtils.isFlowContainer(node.getParentNode());
+    }
+
     /**
      * @param inLine {@code true} if the read-only box is going to displayed in-line, {@code false} otherwise
      * @return an element whose contents cannot be edited inside the rich text area
@@ -283,20 +319,34 @@ private List<Node> getStartMacroCommentNodes(Node root)
         while (iterator.hasNext()) {
             Node node = iterator.next();
             if (node.getNodeType() == DOMUtils.COMMENT_NODE) {
-                if (node.getNodeValue().startsWith(START_MACRO_COMMENT_PREFIX)) {
-                    // Include only the top level macros.
-                    if (openedMacrosCount == 0) {
-                        startMacroComments.add(node);
-                    }
-                    openedMacrosCount++;
-                } else if (STOP_MACRO_COMMENT_VALUE.equals(node.getNodeValue())) {
-                    openedMacrosCount--;
-                }
+                openedMacrosCount = collectStartMacroComment(node, startMacroComments, openedMacrosCount);
             }
         }
         return startMacroComments;
     }
 
+    /**
+     * Adds the given comment node to the list of start macro comment nodes if it marks the start of a top level macro.
+     * 
+     * @param comment a comment node
+     * @param startMacroComments the list of start macro comment nodes for the top level macros found so far
+     * @param openedMacrosCount the number of macros opened and not yet closed before the given comment node
+     * @return the number of macros opened and not yet closed after the given comment node
+     */
+    private int collectStartMacroComment(Node comment, List<Node> startMacroComments, int openedMacrosCount)
+    {
+        if (comment.getNodeValue().startsWith(START_MACRO_COMMENT_PREFIX)) {
+            // Include only the top level macros.
+            if (openedMacrosCount == 0) {
+                startMacroComments.add(comment);
+            }
+            return openedMacrosCount + 1;
+        } else if (STOP_MACRO_COMMENT_VALUE.equals(comment.getNodeValue())) {
+            return openedMacrosCount - 1;
+        }
+        return openedMacrosCount;
+    }
+
     /**
      * Creates a place holder for an empty macro.
      * 
@@ -432,6 +482,20 @@ public List<Element> getMacroContainers(Element root)
         return containers;
     }
 
+    /**
+     * @param node a DOM node
+     * @return the macro container that includes the given node, or {@code null} if the given node is not part of a
+     *         macro
+     */
+    public Element getMacroContainer(Node node)
+    {
+        Node ancestor = node;
+        while (ancestor != null && !isMacroContainer(ancestor)) {
+            ancestor = ancestor.getParentNode();
+        }
+        return ancestor == null ? null : Element.as(ancestor);
+    }
+
     /**
      * Collapses or expands the specified macro.
      * 
@@ -479,6 +543,90 @@ public boolean hasOutput(Element container)
         return getOutput(container) != null;
     }
 
+    /**
+     * @param container a macro container
+     * @return {@code true} if the output of the specified macro is a place-holder because the macro rendering has been
+     *         deferred, {@code false} otherwise
+     */
+    public boolean isDeferred(Element container)
+    {
+        return hasPlaceHolderOutput(container, DEFERRED_MACRO_STYLE_NAME);
+    }
+
+    /**
+     * @param container a macro container
+     * @return {@code true} if the output of the specified macro is a place-holder because the macro was collapsed by
+     *         the user, {@code false} otherwise
+     */
+    public boolean isLazy(Element container)
+    {
+        return hasPlaceHolderOutput(container, LAZY_MACRO_STYLE_NAME);
+    }
+
+    /**
+     * @param container a macro container
+     * @param styleName the CSS class name of the place-holder
+     * @return {@code true} if the output of the specified macro is a place-holder with the given CSS class name,
+     *         {@code false} otherwise
+     */
+    private boolean hasPlaceHolderOutput(Element container, String styleName)
+    {
+        Element output = getOutput(container);
+        if (output == null) {
+            return false;
+        }
+        Element firstChild = Element.as(output.getFirstChildElement());
+        return firstChild != null && firstChild.hasClassName(styleName);
+    }
+
+    /**
+     * Replaces the specified macro with the result of rendering a macro call. The collapsed state of the macro is
+     * preserved.
+     * 
+     * @param container the container of the macro to be replaced
+     * @param html the annotated XHTML result of rendering a macro call, including the macro meta data
+     * @return the container of the new macro, or {@code null} if the given HTML doesn't hold a macro
+     */
+    public Element replace(Element container, String html)
+    {
+        boolean collapsed = isCollapsed(container);
+        Element newContainer = replace(container, container, html);
+        if (newContainer != null) {
+            setCollapsed(newContainer, collapsed);
+        }
+        return newContainer;
+    }
+
+    /**
+     * Replaces the given range of sibling nodes (e.g. the markers of a macro that has just been inserted) with the
+     * result of rendering a macro call. The nodes are left untouched if the given HTML doesn't hold a macro.
+     * 
+     * @param first the first node to be replaced
+     * @param last the last node to be replaced, a next sibling of the first node or the first node itself
+     * @param html the annotated XHTML result of rendering a macro call, including the macro meta data
+     * @return the container of the new macro, or {@code null} if the given HTML doesn't hold a macro
+     */
+    public Element replace(Node first, Node last, String html)
+    {
+        Element wrapper = Element.as(textArea.getDocument().createDivElement());
+        wrapper.setInnerHTML(html);
+        List<Node> startMacroComments = getStartMacroCommentNodes(wrapper);
+        if (startMacroComments.isEmpty()) {
+            return null;
+        }
+
+        Node parent = first.getParentNode();
+        parent.insertBefore(domUtils.extractNodeContents(wrapper, 0, domUtils.getLength(wrapper)), first);
+        Element newContainer = display(startMacroComments.get(0));
+        Node node = first;
+        while (node != null) {
+            Node nextSibling = node == last ? null : node.getNextSibling();
+            parent.removeChild(node);
+            node = nextSibling;
+        }
+        return newContainer;
+    }
+
     /**
      * @param container a macro container
      * @return the macro place holder from the given macro container
@@ -493,11 +641,30 @@ protected Element getPlaceHolder(Element container)
     }
 
     @Override
-    public void onInnerHTMLChange(Element element)
+    public void visit(Node node)
     {
-        if (element.getOwnerDocument() == textArea.getDocument()) {
-            display(getStartMacroCommentNodes(element));
-        }
+        visitedOpenedMacrosCount = collectStartMacroComment(node, visitedStartMacroComments, visitedOpenedMacrosCount);
+    }
+
+    @Override
+    public void endVisit()
+    {
+        displayVisitedMacros();
+    }
+
+    /**
+     * Displays the top level macros visited since the last call to this method. The other visitors that need the
+     * macro containers (e.g. {@link DeferredMacroLoader}) call this method from their {@link #endVisit()}, so that
+     * they don't depend on the order in which the visitors are notified. Calling this method again, before a new
+     * traversal, has no effect.
+     */
+    public void displayVisitedMacros()
+    {
+        // Display the macros after the traversal because displaying a macro changes the DOM tree.
+        List<Node> startMacroComments = new ArrayList<Node>(visitedStartMacroComments);
+        visitedStartMacroComments.clear();
+        visitedOpenedMacrosCount = 0;
+        display(startMacroComments);
     }
 
     /**
@@ -28,6 +28,7 @@
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.exec.CollapseExecutable;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.exec.InsertExecutable;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.exec.RefreshExecutable;
+import org.xwiki.gwt.wysiwyg.client.wiki.WikiPageReference;
 
 import com.google.gwt.core.client.Scheduler;
 import com.google.gwt.core.client.Scheduler.ScheduledCommand;
@@ -64,6 +65,11 @@ public class MacroPlugin extends AbstractPlugin
      */
     private MacroDisplayer displayer;
 
+    /**
+     * Requests the output of the macros whose rendering has been deferred.
+     */
+    private DeferredMacroLoader deferredMacroLoader;
+
     /**
      * Controls the currently selected macros.
      */
@@ -117,6 +123,10 @@ public void init(RichTextArea textArea, Config config)
         super.init(textArea, config);
 
         displayer = new MacroDisplayer(getTextArea());
+        WikiPageReference editedPage = new WikiPageReference(config.getParameter("wiki"),
+            config.getParameter("space"), config.getParameter("page"));
+        deferredMacroLoader =
+            new DeferredMacroLoader(displayer, macroService, config.getParameter("syntax"), editedPage);
         selector = new MacroSelector(displayer);
         wizard = new MacroWizard(displayer, config, macroService);
 
@@ -124,8 +134,10 @@ public void init(RichTextArea textArea, Config config)
         if (!StringUtils.isEmpty(templateURL)) {
             getTextArea().getCommandManager().registerCommand(REFRESH, new RefreshExecutable(textArea, templateURL));
         }
-        getTextArea().getCommandManager().registerCommand(COLLAPSE, new CollapseExecutable(selector, true));
-        getTextArea().getCommandManager().registerCommand(EXPAND, new CollapseExecutable(selector, false));
+        getTextArea().getCommandManager().registerCommand(COLLAPSE,
+            new CollapseExecutable(selector, true, deferredMacroLoader));
+        getTextArea().getCommandManager().registerCommand(EXPAND,
+            new CollapseExecutable(selector, false, deferredMacroLoader));
         getTextArea().getCommandManager().registerCommand(INSERT, new InsertExecutable(selector, macroService, config));
 
         saveRegistrations(shortcutKeyManager.addHandlers(getTextArea()));
@@ -165,6 +177,9 @@ public void destroy()
         selector.destroy();
         selector = null;
 
+        deferredMacroLoader.destroy();
+        deferredMacroLoader = null;
+
         displayer.destroy();
         displayer = null;
 
@@ -22,6 +22,7 @@
 import java.util.List;
 
 import org.xwiki.component.annotation.Role;
+import org.xwiki.gwt.wysiwyg.client.wiki.WikiPageReference;
 
 import com.google.gwt.user.client.rpc.RemoteService;
 import com.google.gwt.user.client.rpc.RemoteServiceRelativePath;
@@ -64,4 +65,30 @@ public interface MacroService extends RemoteService
      * @return the list of all the macro descriptors for the specified syntax
      */
     List<MacroDescriptor> getMacroDescriptors(String syntaxId);
+
+    /**
+     * Executes the specified macro call in the context of the given wiki page and renders the result in annotated XHTML
+     * syntax. This method is used to get the output of the macros whose rendering has been deferred because they are
+     * slow to execute and to refresh only the macro that has been inserted or edited.
+     * 
+     * @param macroCall the serialized macro call, i.e. the value of the start macro comment node
+     * @param inline {@code true} if the macro is called in-line (e.g. inside a paragraph), {@code false} if the macro
+     *            call is standalone
+     * @param syntaxId the storage syntax identifier
+     * @param documentReference the wiki page that is being edited
+     * @return the annotated XHTML result of rendering the specified macro call, including the macro meta data
+     * @since 9.7RC1
+     */
+    String render(String macroCall, boolean inline, String syntaxId, WikiPageReference documentReference);
+
+    /**
+     * Remembers that the given macro calls have been collapsed or expanded on the specified wiki page. The output of
+     * the collapsed macro calls is not sent to the editor until they are expanded.
+     * 
+     * @param macroCalls the serialized macro calls, i.e. the values of the start macro comment nodes
+     * @param collapsed {@code true} if the macro calls have been collapsed, {@code false} if they have been expanded
+     * @param documentReference the wiki page that is being edited
+     * @since 9.7RC1
+     */
+    void setCollapsed(List<String> macroCalls, boolean collapsed, WikiPageReference documentReference);
 }
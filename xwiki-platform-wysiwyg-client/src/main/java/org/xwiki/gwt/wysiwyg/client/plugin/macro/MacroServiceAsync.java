@@ -21,6 +21,8 @@
 
 import java.util.List;
 
+import org.xwiki.gwt.wysiwyg.client.wiki.WikiPageReference;
+
 import com.google.gwt.user.client.rpc.AsyncCallback;
 
 /**
@@ -68,4 +70,32 @@
      * @param async the call-back to be used for notifying the caller after receiving the response from the server
      */
     void getMacroDescriptors(String syntaxId, AsyncCallback<List<MacroDescriptor>> async);
+
+    /**
+     * Makes a request to the server to execute the specified macro call and render the result in annotated XHTML
+     * syntax.
+     * 
+     * @param macroCall the serialized macro call, i.e. the value of the start macro comment node
+     * @param inline {@code true} if the macro is called in-line (e.g. inside a paragraph), {@code false} if the macro
+     *            call is standalone
+     * @param syntaxId the storage syntax identifier
+     * @param documentReference the wiki page that is being edited
+     * @param async the call-back to be used for notifying the caller after receiving the response from the server
+     * @since 9.7RC1
+     */
+    void render(String macroCall, boolean inline, String syntaxId, WikiPageReference documentReference,
+        AsyncCallback<String> async);
+
+    /**
+     * Makes a request to the server to remember that the given macro calls have been collapsed or expanded on the
+     * specified wiki page.
+     * 
+     * @param macroCalls the serialized macro calls, i.e. the values of the start macro comment nodes
+     * @param collapsed {@code true} if the macro calls have been collapsed, {@code false} if they have been expanded
+     * @param documentReference the wiki page that is being edited
+     * @param async the call-back to be used for notifying the caller after receiving the response from the server
+     * @since 9.7RC1
+     */
+    void setCollapsed(List<String> macroCalls, boolean collapsed, WikiPageReference documentReference,
+        AsyncCallback<Void> async);
 }
@@ -23,6 +23,8 @@
 import java.util.List;
 import java.util.Map;
 
+import org.xwiki.gwt.wysiwyg.client.wiki.WikiPageReference;
+
 import com.google.gwt.user.client.rpc.AsyncCallback;
 
 /**
@@ -165,4 +167,19 @@ public void getMacroDescriptors(final String syntaxId, final AsyncCallback<List<
     {
         getMacroDescriptors(syntaxId, null, async);
     }
+
+    @Override
+    public void render(String macroCall, boolean inline, String syntaxId, WikiPageReference documentReference,
+        AsyncCallback<String> async)
+    {
+        // The macro output is not cached because it can change between calls.
+        service.render(macroCall, inline, syntaxId, documentReference, async);
+    }
+
+    @Override
+    public void setCollapsed(List<String> macroCalls, boolean collapsed, WikiPageReference documentReference,
+        AsyncCallback<Void> async)
+    {
+        service.setCollapsed(macroCalls, collapsed, documentReference, async);
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client.plugin.macro;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The macros whose output depends on the rest of the edited content (e.g. the table of contents) or on the state left
+ * by the previous macros (e.g. the script macros). A macro can't be rendered alone, without the rest of the edited
+ * content, if it is one of these macros or if the edited content contains one of these macros.
+ * 
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class StatefulMacros
+{
+    /**
+     * The configuration parameter that lists the stateful macros, separated by white spaces. Its value is set by the
+     * server, which always executes these macros when the edited content is refreshed.
+     */
+    public static final String CONFIG_PARAMETER = "statefulMacros";
+
+    /**
+     * The stateful macro names, {@code null} if they are not known, in which case all the macros are stateful.
+     */
+    private final Set<String> macroNames;
+
+    /**
+     * Creates a new set of stateful macros.
+     * 
+     * @param macroNames the stateful macro names, separated by white spaces, {@code null} if they are not known
+     */
+    public StatefulMacros(String macroNames)
+    {
+        if (macroNames != null) {
+            this.macroNames = new HashSet<String>(Arrays.asList(macroNames.trim().split("\\s+")));
+        } else {
+            this.macroNames = null;
+        }
+    }
+
+    /**
+     * @param macroCall a serialized macro call
+     * @return {@code true} if the given macro call is stateful, {@code false} otherwise
+     */
+    public boolean isStateful(String macroCall)
+    {
+        return macroNames == null || macroNames.contains(new MacroCall(macroCall).getName());
+    }
+
+    /**
+     * @param macroCall the serialized macro call that has been inserted or edited
+     * @param otherMacroCalls the other serialized macro calls from the edited content, including the previous version
+     *            of the edited macro call
+     * @return {@code true} if the given macro call can't be rendered alone, {@code false} otherwise
+     */
+    public boolean requiresRefresh(String macroCall, List<String> otherMacroCalls)
+    {
+        if (isStateful(macroCall)) {
+            return true;
+        }
+        for (String otherMacroCall : otherMacroCalls) {
+            if (isStateful(otherMacroCall)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -24,6 +24,7 @@
 
 import org.xwiki.gwt.dom.client.Element;
 import org.xwiki.gwt.user.client.ui.rta.cmd.internal.AbstractSelectionExecutable;
+import org.xwiki.gwt.wysiwyg.client.plugin.macro.DeferredMacroLoader;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroSelector;
 
 /**
@@ -44,17 +45,24 @@ public class CollapseExecutable extends AbstractSelectionExecutable
      */
     private final boolean collapse;
 
+    /**
+     * The object used to remember the collapsed macros and to load the output of the expanded macros.
+     */
+    private final DeferredMacroLoader loader;
+
     /**
      * Creates a new executable.
      * 
      * @param selector {@link #selector}
      * @param collapse {@code true} to collapse all macros, {@code false} to expand all macros
+     * @param loader {@link #loader}
      */
-    public CollapseExecutable(MacroSelector selector, boolean collapse)
+    public CollapseExecutable(MacroSelector selector, boolean collapse, DeferredMacroLoader loader)
     {
         super(selector.getDisplayer().getTextArea());
         this.selector = selector;
         this.collapse = collapse;
+        this.loader = loader;
     }
 
     /**
@@ -78,9 +86,7 @@ private List<Element> getMacros()
     @Override
     public boolean execute(String param)
     {
-        for (Element macro : getMacros()) {
-            selector.getDisplayer().setCollapsed(macro, collapse);
-        }
+        loader.setCollapsed(getMacros(), collapse);
         return true;
     }
 
@@ -19,18 +19,26 @@
  */
 package org.xwiki.gwt.wysiwyg.client.plugin.macro.exec;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.xwiki.gwt.dom.client.DocumentFragment;
 import org.xwiki.gwt.dom.client.Element;
+import org.xwiki.gwt.user.client.Console;
 import org.xwiki.gwt.user.client.Config;
 import org.xwiki.gwt.user.client.ui.rta.cmd.Executable;
 import org.xwiki.gwt.user.client.ui.rta.cmd.internal.InsertBlockHTMLExecutable;
 import org.xwiki.gwt.user.client.ui.rta.cmd.internal.InsertHTMLExecutable;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroCall;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroDescriptor;
+import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroDisplayer;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroPlugin;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroSelector;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroServiceAsync;
+import org.xwiki.gwt.wysiwyg.client.plugin.macro.StatefulMacros;
+import org.xwiki.gwt.wysiwyg.client.wiki.WikiPageReference;
 
+import com.google.gwt.dom.client.Node;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 
 /**
@@ -40,6 +48,16 @@
  */
 public class InsertExecutable extends InsertHTMLExecutable
 {
+    /**
+     * The configuration parameter that specifies the current wiki.
+     */
+    private static final String WIKI = "wiki";
+
+    /**
+     * The configuration parameter that specifies the syntax of the edited content.
+     */
+    private static final String SYNTAX = "syntax";
+
     /**
      * Used to query the currently selected macros.
      */
@@ -60,10 +78,15 @@ public class InsertExecutable extends InsertHTMLExecutable
     private final InsertBlockHTMLExecutable insertBlockHTMLExecutable;
 
     /**
-     * The configuration object used to get the syntax of the edited content.
+     * The configuration object used to get the syntax of the edited content and the edited page.
      */
     private final Config config;
 
+    /**
+     * The macros that can't be rendered alone, without the rest of the edited content.
+     */
+    private final StatefulMacros statefulMacros;
+
     /**
      * Creates a new executable.
      * 
@@ -77,11 +100,12 @@ public InsertExecutable(MacroSelector selector, MacroServiceAsync macroService,
         this.selector = selector;
         this.macroService = macroService;
         this.config = config;
+        statefulMacros = new StatefulMacros(config.getParameter(StatefulMacros.CONFIG_PARAMETER));
         insertBlockHTMLExecutable = new InsertBlockHTMLExecutable(rta);
     }
 
     @Override
-    public boolean execute(String param)
+    public boolean execute(final String param)
     {
         // Prepare the macro markers.
         final DocumentFragment markers = rta.getDocument().createDocumentFragment();
@@ -94,29 +118,35 @@ public boolean execute(String param)
         separator.setAttribute(Element.META_DATA_ATTR, "");
         markers.appendChild(separator);
         markers.appendChild(rta.getDocument().createComment("stopmacro"));
-        // Note: We refresh the rich text area after inserting the macro without going through the command manager
-        // because we don't want to trigger the history mechanism.
-        final Executable refresh = rta.getCommandManager().getExecutable(MacroPlugin.REFRESH);
+        final Node start = markers.getFirstChild();
+        final Node stop = markers.getLastChild();
+        // Collect the macro calls before modifying the edited content, including the previous version of the edited
+        // macro call.
+        final List<String> macroCalls = new ArrayList<String>();
+        MacroDisplayer displayer = selector.getDisplayer();
+        for (Element container : displayer.getMacroContainers(rta.getDocument().getBody())) {
+            macroCalls.add(displayer.getSerializedMacroCall(container));
+        }
         if (selector.getMacroCount() > 0) {
             // Edit selected macro.
             Element selectedMacro = selector.getMacro(0);
             selectedMacro.getParentNode().replaceChild(markers, selectedMacro);
-            return refresh.execute(null);
+            return render(param, macroCalls, start, stop);
         } else {
             // Insert a new macro.
             // Determine if the macro supports in-line mode. Even if the service call appears asynchronous it will
             // return immediately because the macro descriptor was cached before this code is executed (the insert macro
             // wizard requires the macro descriptor).
             final boolean[] success = new boolean[] {true};
-            String currentWikiId = config.getParameter("wiki");
-            macroService.getMacroDescriptor(new MacroCall(param).getName(), config.getParameter("syntax"),
+            String currentWikiId = config.getParameter(WIKI);
+            macroService.getMacroDescriptor(new MacroCall(param).getName(), config.getParameter(SYNTAX),
                 currentWikiId, new AsyncCallback<MacroDescriptor>()
                 {
                     @Override
                     public void onFailure(Throwable caught)
                     {
                         // Fall back on in-line insert.
-                        success[0] = InsertExecutable.super.execute(markers) && refresh.execute(null);
+                        success[0] = InsertExecutable.super.execute(markers) && render(param, macroCalls, start, stop);
                     }
 
                     @Override
@@ -124,13 +154,72 @@ public void onSuccess(MacroDescriptor result)
                     {
                         success[0] =
                             (result.isSupportingInlineMode() ? InsertExecutable.super.execute(markers)
-                                : insertBlockHTMLExecutable.execute(markers)) && refresh.execute(null);
+                                : insertBlockHTMLExecutable.execute(markers)) && render(param, macroCalls, start, stop);
                     }
                 });
             return success[0];
         }
     }
 
+    /**
+     * Renders the given macro call on the server and replaces its markers with the result, leaving the rest of the
+     * edited document untouched. The entire rich text area is refreshed if the macro call can't be rendered alone,
+     * i.e. if the macro depends on the rest of the edited document or if the other macros depend on it, or if the
+     * macro call can't be rendered.
+     * 
+     * @param macroCall the serialized macro call
+     * @param macroCalls the serialized macro calls found in the edited document before the macro was inserted or edited
+     * @param start the start macro marker
+     * @param stop the stop macro marker
+     * @return {@code true}, because the macro is rendered asynchronously
+     */
+    private boolean render(String macroCall, List<String> macroCalls, final Node start, final Node stop)
+    {
+        if (statefulMacros.requiresRefresh(macroCall, macroCalls)) {
+            refresh();
+            return true;
+        }
+
+        WikiPageReference editedPage =
+            new WikiPageReference(config.getParameter(WIKI), config.getParameter("space"), config.getParameter("page"));
+        boolean inline = selector.getDisplayer().isInLineCall(start);
+        macroService.render(macroCall, inline, config.getParameter(SYNTAX), editedPage, new AsyncCallback<String>()
+        {
+            @Override
+            public void onFailure(Throwable caught)
+            {
+                Console.getInstance().error(caught.getLocalizedMessage());
+                refresh();
+            }
+
+            @Override
+            public void onSuccess(String result)
+            {
+                // Make sure the macro markers are still in the edited document.
+                if (!rta.getDocument().getBody().isOrHasChild(start) || start.getParentNode() != stop.getParentNode()) {
+                    return;
+                }
+                if (result == null || selector.getDisplayer().replace(start, stop, result) == null) {
+                    refresh();
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Reloads the entire rich text area.
+     */
+    private void refresh()
+    {
+        // Note: We refresh the rich text area without going through the command manager because we don't want to
+        // trigger the history mechanism.
+        Executable refresh = rta.getCommandManager().getExecutable(MacroPlugin.REFRESH);
+        if (refresh != null) {
+            refresh.execute(null);
+        }
+    }
+
     @Override
     public String getParameter()
     {
@@ -19,7 +19,8 @@
  */
 package org.xwiki.gwt.wysiwyg.client.plugin.macro.exec;
 
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.xwiki.gwt.user.client.Console;
 import org.xwiki.gwt.user.client.ui.LoadingPanel;
@@ -30,6 +31,7 @@
 import org.xwiki.gwt.user.client.ui.rta.cmd.CommandManager;
 import org.xwiki.gwt.user.client.ui.rta.cmd.internal.AbstractSelectionExecutable;
 
+import com.google.gwt.user.client.Random;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 
 /**
@@ -64,6 +66,12 @@ public class RefreshExecutable extends AbstractSelectionExecutable implements As
      */
     private final SelectionPreserver selectionPreserver;
 
+    /**
+     * Identifies the editing session on the server, which re-executes only the macro calls that changed since the
+     * previous refresh.
+     */
+    private final String sessionToken = System.currentTimeMillis() + "-" + Random.nextInt(Integer.MAX_VALUE);
+
     /**
      * Creates a new executable that can be used to refresh the specified rich text area. We use a {@link Reloader} to
      * submit the content of the rich text area to the given URL and then use the response to reset the content of the
@@ -105,7 +113,10 @@ public boolean execute(String param)
      */
     private void refresh(String html)
     {
-        reloader.reload(Collections.singletonMap("html", html), this);
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("html", html);
+        params.put("sessionToken", sessionToken);
+        reloader.reload(params, this);
     }
 
     @Override
@@ -0,0 +1,132 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client.plugin.submit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xwiki.gwt.dom.client.Element;
+import org.xwiki.gwt.user.client.ui.rta.RichTextArea;
+import org.xwiki.gwt.wysiwyg.client.DocumentOrder;
+
+import com.google.gwt.dom.client.Node;
+
+/**
+ * Prepares the content of a rich text area for submit. Instead of having each plugin walk the edited document before
+ * the content is submitted, the plugins register {@link SubmitVisitor}s that are notified during a single traversal of
+ * the edited document. The edited content is then serialized once.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public final class SubmitPipeline
+{
+    /**
+     * The property of the rich text area element that holds its submit pipeline.
+     */
+    private static final String PROPERTY = "__xwikiSubmitPipeline";
+
+    /**
+     * The rich text area whose content is submitted.
+     */
+    private final RichTextArea textArea;
+
+    /**
+     * The registered visitors, in registration order.
+     */
+    private final List<SubmitVisitor> visitors = new ArrayList<SubmitVisitor>();
+
+    /**
+     * Creates a new submit pipeline.
+     *
+     * @param textArea the rich text area whose content is submitted
+     */
+    private SubmitPipeline(RichTextArea textArea)
+    {
+        this.textArea = textArea;
+    }
+
+    /**
+     * @param textArea a rich text area
+     * @return the submit pipeline of the given rich text area, created if it doesn't exist
+     */
+    public static SubmitPipeline get(RichTextArea textArea)
+    {
+        Object pipeline = textArea.getElement().getPropertyObject(PROPERTY);
+        if (!(pipeline instanceof SubmitPipeline)) {
+            pipeline = new SubmitPipeline(textArea);
+            textArea.getElement().setPropertyObject(PROPERTY, pipeline);
+        }
+        return (SubmitPipeline) pipeline;
+    }
+
+    /**
+     * Registers a visitor. The visitors are notified in registration order.
+     *
+     * @param visitor the visitor to register
+     */
+    public void addVisitor(SubmitVisitor visitor)
+    {
+        if (!visitors.contains(visitor)) {
+            visitors.add(visitor);
+        }
+    }
+
+    /**
+     * Unregisters a visitor.
+     *
+     * @param visitor the visitor to unregister
+     */
+    public void removeVisitor(SubmitVisitor visitor)
+    {
+        visitors.remove(visitor);
+    }
+
+    /**
+     * Traverses the edited document once, notifying all the registered visitors, and then serializes the edited
+     * content.
+     *
+     * @return the HTML content to be submitted
+     */
+    public String serialize()
+    {
+        Element body = Element.as(textArea.getDocument().getBody());
+        // Copy the list of visitors because they can be unregistered while the content is submitted.
+        List<SubmitVisitor> currentVisitors = new ArrayList<SubmitVisitor>(visitors);
+        if (!currentVisitors.isEmpty()) {
+            for (Node node = body.getFirstChild(); node != null; node = DocumentOrder.getNext(node, body)) {
+                for (SubmitVisitor visitor : currentVisitors) {
+                    visitor.visit(node);
+                }
+            }
+            for (SubmitVisitor visitor : currentVisitors) {
+                visitor.beforeSerialize();
+            }
+        }
+        try {
+            // Use the special xGetInnerHTML method which expands element meta data.
+            return body.xGetInnerHTML();
+        } finally {
+            for (SubmitVisitor visitor : currentVisitors) {
+                visitor.afterSerialize();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client.plugin.submit;
+
+import com.google.gwt.dom.client.Node;
+
+/**
+ * Fixes the edited content before it is submitted. The visitors registered with a {@link SubmitPipeline} are notified
+ * during a single traversal of the edited document, which is followed by a single serialization of the edited content.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public interface SubmitVisitor
+{
+    /**
+     * Visits a node of the edited document. The nodes are visited in document order. The visitor must not change the
+     * structure of the DOM tree while visiting; the changes have to be made in {@link #beforeSerialize()}.
+     *
+     * @param node the visited node
+     */
+    void visit(Node node);
+
+    /**
+     * Called after all the nodes of the edited document have been visited, right before the edited content is
+     * serialized.
+     */
+    void beforeSerialize();
+
+    /**
+     * Called after the edited content has been serialized, in order to revert the temporary changes made to the edited
+     * document.
+     */
+    void afterSerialize();
+}
@@ -22,6 +22,8 @@
 import org.xwiki.gwt.dom.client.Element;
 import org.xwiki.gwt.user.client.ui.rta.RichTextArea;
 import org.xwiki.gwt.user.client.ui.rta.cmd.internal.AbstractRichTextAreaExecutable;
+import org.xwiki.gwt.wysiwyg.client.MutationCounter;
+import org.xwiki.gwt.wysiwyg.client.plugin.submit.SubmitPipeline;
 
 import com.google.gwt.dom.client.Document;
 
@@ -42,6 +44,21 @@ public class SubmitExecutable extends AbstractRichTextAreaExecutable
      */
     private final String fieldId;
 
+    /**
+     * Used to detect the changes made to the edited content since the last submit, without serializing it.
+     */
+    private final MutationCounter mutationCounter;
+
+    /**
+     * The version of the edited document that was last submitted.
+     */
+    private int submittedVersion;
+
+    /**
+     * The last submitted value.
+     */
+    private String submittedValue;
+
     /**
      * Creates a new submit executable that bind a rich text area to the specified form field.
      * 
@@ -52,6 +69,7 @@ public SubmitExecutable(RichTextArea rta, String fieldId)
     {
         super(rta);
         this.fieldId = fieldId;
+        this.mutationCounter = new MutationCounter(rta);
     }
 
     @Override
@@ -59,8 +77,17 @@ public boolean execute(String param)
     {
         Element field = (Element) Document.get().getElementById(fieldId);
         if (field != null) {
-            // Use the special xGetInnerHTML method which expands element meta data.
-            field.setPropertyString(VALUE, Element.as(rta.getDocument().getBody()).xGetInnerHTML());
+            // Serialize the edited content only if it has been modified since the last submit or if the form field has
+            // been overwritten in the mean time.
+            int version = mutationCounter.getVersion();
+            if (submittedValue == null || version != submittedVersion
+                || !submittedValue.equals(field.getPropertyString(VALUE))) {
+                // Fix the edited content in a single pass and serialize it.
+                submittedValue = SubmitPipeline.get(rta).serialize();
+                field.setPropertyString(VALUE, submittedValue);
+                // Take into account the changes made while preparing the content for submit.
+                submittedVersion = mutationCounter.getVersion();
+            }
             return true;
         }
         return false;
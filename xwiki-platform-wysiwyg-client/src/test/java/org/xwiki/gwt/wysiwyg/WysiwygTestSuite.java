@@ -22,6 +22,7 @@
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
+import org.xwiki.gwt.wysiwyg.client.InnerHTMLDispatcherTest;
 import org.xwiki.gwt.wysiwyg.client.ToolBarControllerTest;
 import org.xwiki.gwt.wysiwyg.client.plugin.color.ColorConverterTest;
 import org.xwiki.gwt.wysiwyg.client.plugin.format.exec.FormatBlockExecutableTest;
@@ -31,6 +32,7 @@
 import org.xwiki.gwt.wysiwyg.client.plugin.image.ImageConfigJSONSerializerTest;
 import org.xwiki.gwt.wysiwyg.client.plugin.image.ImageMetaDataExtractorTest;
 import org.xwiki.gwt.wysiwyg.client.plugin.image.exec.InsertImageExecutableTest;
+import org.xwiki.gwt.wysiwyg.client.plugin.importer.PasteFilterTest;
 import org.xwiki.gwt.wysiwyg.client.plugin.indent.exec.IndentExecutableTest;
 import org.xwiki.gwt.wysiwyg.client.plugin.indent.exec.OutdentExecutableTest;
 import org.xwiki.gwt.wysiwyg.client.plugin.line.LinePluginTest;
@@ -42,6 +44,8 @@
 import org.xwiki.gwt.wysiwyg.client.plugin.style.StyleDescriptorJSONParserTest;
 import org.xwiki.gwt.wysiwyg.client.plugin.style.exec.BlockStyleNameExecutableTest;
 import org.xwiki.gwt.wysiwyg.client.plugin.style.exec.InlineStyleNameExecutableTest;
+import org.xwiki.gwt.wysiwyg.client.plugin.submit.SubmitPipelineTest;
+import org.xwiki.gwt.wysiwyg.client.plugin.submit.exec.SubmitExecutableTest;
 import org.xwiki.gwt.wysiwyg.client.syntax.internal.DefaultSyntaxValidatorManagerTest;
 import org.xwiki.gwt.wysiwyg.client.syntax.internal.DefaultSyntaxValidatorTest;
 import org.xwiki.gwt.wysiwyg.client.syntax.internal.DefaultValidationRuleTest;
@@ -110,5 +114,9 @@ private static void addPluginTests(TestSuite suite)
         suite.addTestSuite(StyleDescriptorJSONParserTest.class);
         suite.addTestSuite(BlockStyleNameExecutableTest.class);
         suite.addTestSuite(InlineStyleNameExecutableTest.class);
+        suite.addTestSuite(PasteFilterTest.class);
+        suite.addTestSuite(SubmitPipelineTest.class);
+        suite.addTestSuite(SubmitExecutableTest.class);
+        suite.addTestSuite(InnerHTMLDispatcherTest.class);
     }
 }
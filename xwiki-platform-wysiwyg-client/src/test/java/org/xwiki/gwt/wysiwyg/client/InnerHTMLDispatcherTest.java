@@ -0,0 +1,285 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xwiki.gwt.dom.client.Document;
+import org.xwiki.gwt.dom.client.Element;
+import org.xwiki.gwt.wysiwyg.client.plugin.image.ImageMetaDataExtractor;
+import org.xwiki.gwt.wysiwyg.client.plugin.link.LinkMetaDataExtractor;
+import org.xwiki.gwt.wysiwyg.client.plugin.macro.DeferredMacroLoader;
+import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroDescriptor;
+import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroDisplayer;
+import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroServiceAsync;
+import org.xwiki.gwt.wysiwyg.client.wiki.WikiPageReference;
+
+import com.google.gwt.dom.client.Node;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Unit tests for {@link InnerHTMLDispatcher}.
+ * 
+ * @version $Id$
+ */
+public class InnerHTMLDispatcherTest extends RichTextAreaTestCase
+{
+    /**
+     * The name of the image tag.
+     */
+    private static final String IMG = "img";
+
+    /**
+     * The document in which we run the tests.
+     */
+    private Document document;
+
+    /**
+     * The DOM element in which we run the tests.
+     */
+    private Element container;
+
+    /**
+     * The dispatcher being tested.
+     */
+    private InnerHTMLDispatcher dispatcher;
+
+    /**
+     * Records the visited comment nodes and anchors.
+     */
+    private RecordingVisitor commentAndAnchorVisitor;
+
+    /**
+     * Records the visited images.
+     */
+    private RecordingVisitor imageVisitor;
+
+    @Override
+    protected void gwtSetUp() throws Exception
+    {
+        super.gwtSetUp();
+        document = Document.get().cast();
+        container = document.createDivElement().cast();
+        document.getBody().appendChild(container);
+        dispatcher = InnerHTMLDispatcher.get(document);
+        commentAndAnchorVisitor = new RecordingVisitor();
+        imageVisitor = new RecordingVisitor();
+        dispatcher.addVisitor(commentAndAnchorVisitor, InnerHTMLDispatcher.COMMENT, LinkMetaDataExtractor.TAG_NAME);
+        dispatcher.addVisitor(imageVisitor, IMG.toUpperCase());
+    }
+
+    @Override
+    protected void gwtTearDown() throws Exception
+    {
+        dispatcher.removeVisitor(commentAndAnchorVisitor);
+        dispatcher.removeVisitor(imageVisitor);
+        super.gwtTearDown();
+        container.getParentNode().removeChild(container);
+    }
+
+    /**
+     * Tests that the dispatcher is shared by all the listeners of a document.
+     */
+    public void testGet()
+    {
+        assertSame(dispatcher, InnerHTMLDispatcher.get(document));
+    }
+
+    /**
+     * Tests that each node of the changed subtree is routed only to the visitors interested in it, in document order.
+     */
+    public void testDispatch()
+    {
+        container.setInnerHTML("<!--x--><p>a<a href=\"#y\">b<img/></a><em><!--z--></em></p><img/>");
+        dispatcher.dispatch(container);
+
+        assertEquals(3, commentAndAnchorVisitor.visitedNodes.size());
+        assertEquals("x", commentAndAnchorVisitor.visitedNodes.get(0).getNodeValue());
+        assertEquals(LinkMetaDataExtractor.TAG_NAME,
+            commentAndAnchorVisitor.visitedNodes.get(1).getNodeName().toLowerCase());
+        assertEquals("z", commentAndAnchorVisitor.visitedNodes.get(2).getNodeValue());
+        assertEquals(1, commentAndAnchorVisitor.endVisitCount);
+
+        assertEquals(2, imageVisitor.visitedNodes.size());
+        assertEquals(IMG, imageVisitor.visitedNodes.get(0).getNodeName().toLowerCase());
+        assertSame(container.getLastChild(), imageVisitor.visitedNodes.get(1));
+        assertEquals(1, imageVisitor.endVisitCount);
+    }
+
+    /**
+     * Tests that the visitors are not notified anymore after they are unregistered.
+     */
+    public void testRemoveVisitor()
+    {
+        dispatcher.removeVisitor(imageVisitor);
+        container.setInnerHTML("<img/><!--x-->");
+        dispatcher.dispatch(container);
+
+        assertEquals(0, imageVisitor.visitedNodes.size());
+        assertEquals(0, imageVisitor.endVisitCount);
+        assertEquals(1, commentAndAnchorVisitor.visitedNodes.size());
+    }
+
+    /**
+     * Tests that the link and image meta data are extracted during the same traversal of the changed subtree.
+     */
+    public void testExtractMetaData()
+    {
+        LinkMetaDataExtractor linkExtractor = new LinkMetaDataExtractor();
+        ImageMetaDataExtractor imageExtractor = new ImageMetaDataExtractor();
+        dispatcher.addVisitor(linkExtractor, LinkMetaDataExtractor.TAG_NAME);
+        dispatcher.addVisitor(imageExtractor, ImageMetaDataExtractor.TAG_NAME);
+        try {
+            container.setInnerHTML("<!--startwikilink:Space.Page--><span class=\"wikilink\"><a href=\"#\">label</a>"
+                + "</span><!--stopwikilink--><!--startimage:Space.Page@my.png--><img/><!--stopimage-->");
+            dispatcher.dispatch(container);
+
+            assertEquals(2, container.getChildNodes().getLength());
+            assertNotNull(((Element) container.getFirstChild()).getMetaData());
+            assertNotNull(((Element) container.getLastChild()).getMetaData());
+        } finally {
+            dispatcher.removeVisitor(linkExtractor);
+            dispatcher.removeVisitor(imageExtractor);
+        }
+    }
+
+    /**
+     * Tests that the deferred macros are detected during the traversal made for the macro displayer, no matter the
+     * order in which the two visitors are registered.
+     */
+    public void testLoadDeferredMacros()
+    {
+        deferTest(new com.google.gwt.user.client.Command()
+        {
+            public void execute()
+            {
+                doTestLoadDeferredMacros();
+            }
+        });
+    }
+
+    /**
+     * Tests that the deferred macros are detected during the traversal made for the macro displayer.
+     */
+    private void doTestLoadDeferredMacros()
+    {
+        RecordingMacroService macroService = new RecordingMacroService();
+        MacroDisplayer displayer = new MacroDisplayer(rta);
+        DeferredMacroLoader loader = new DeferredMacroLoader(displayer, macroService, "xwiki/2.1",
+            new WikiPageReference("wiki", "Space", "Page"));
+        // Notify the loader before the displayer.
+        InnerHTMLDispatcher rtaDispatcher = InnerHTMLDispatcher.get(rta.getDocument());
+        rtaDispatcher.removeVisitor(displayer);
+        rtaDispatcher.addVisitor(displayer, InnerHTMLDispatcher.COMMENT);
+        try {
+            Element root = rta.getDocument().createDivElement().cast();
+            getBody().appendChild(root);
+            root.xSetInnerHTML("<p>a</p><!--startmacro:slow|-||-|--><span class=\""
+                + MacroDisplayer.DEFERRED_MACRO_STYLE_NAME + "\"></span><!--stopmacro-->"
+                + "<!--startmacro:info|-||-|b--><span>b</span><!--stopmacro-->");
+
+            assertEquals(2, displayer.getMacroContainers(root).size());
+            assertEquals(1, macroService.renderedMacroCalls.size());
+            assertEquals("startmacro:slow|-||-|", macroService.renderedMacroCalls.get(0));
+        } finally {
+            loader.destroy();
+            displayer.destroy();
+        }
+    }
+
+    /**
+     * Records the macro calls that are rendered.
+     */
+    private static final class RecordingMacroService implements MacroServiceAsync
+    {
+        /**
+         * The macro calls that are rendered, in the order they were requested.
+         */
+        private final List<String> renderedMacroCalls = new ArrayList<String>();
+
+        @Override
+        public void getMacroDescriptor(String macroId, String syntaxId, String wikiId,
+            AsyncCallback<MacroDescriptor> async)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void getMacroDescriptor(String macroId, String syntaxId, AsyncCallback<MacroDescriptor> async)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void getMacroDescriptors(String syntaxId, String wikiId, AsyncCallback<List<MacroDescriptor>> async)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void getMacroDescriptors(String syntaxId, AsyncCallback<List<MacroDescriptor>> async)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void render(String macroCall, boolean inline, String syntaxId, WikiPageReference documentReference,
+            AsyncCallback<String> async)
+        {
+            renderedMacroCalls.add(macroCall);
+        }
+
+        @Override
+        public void setCollapsed(List<String> macroCalls, boolean collapsed, WikiPageReference documentReference,
+            AsyncCallback<Void> async)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Records the visited nodes.
+     */
+    private static final class RecordingVisitor implements InnerHTMLVisitor
+    {
+        /**
+         * The visited nodes, in the order they were visited.
+         */
+        private final List<Node> visitedNodes = new ArrayList<Node>();
+
+        /**
+         * The number of times {@link #endVisit()} was called.
+         */
+        private int endVisitCount;
+
+        @Override
+        public void visit(Node node)
+        {
+            visitedNodes.add(node);
+        }
+
+        @Override
+        public void endVisit()
+        {
+            endVisitCount++;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client.plugin.font;
+
+import org.xwiki.gwt.wysiwyg.client.WysiwygTestCase;
+
+/**
+ * Unit tests for {@link FontFamilyMatcher}.
+ * 
+ * @version $Id$
+ */
+public class FontFamilyMatcherTest extends WysiwygTestCase
+{
+    /**
+     * The object being tested.
+     */
+    private FontFamilyMatcher matcher;
+
+    @Override
+    protected void gwtSetUp() throws Exception
+    {
+        super.gwtSetUp();
+
+        matcher = new FontFamilyMatcher();
+        FontFamilyMatcher.clearMatches();
+    }
+
+    /**
+     * Tests that the same font family values match without being measured or cached.
+     */
+    public void testSameValuesMatch()
+    {
+        assertTrue(matcher.match("Arial", "arial"));
+        assertFalse(matcher.match("Arial", null));
+        assertEquals(0, FontFamilyMatcher.getCachedMatchCount());
+    }
+
+    /**
+     * Tests that the comparison results are cached and that the cache doesn't grow past its maximum size.
+     */
+    public void testCacheIsBounded()
+    {
+        assertTrue(matcher.match("serif", "serif,monospace"));
+        assertEquals(1, FontFamilyMatcher.getCachedMatchCount());
+        assertTrue(matcher.match("SERIF", "Serif,Monospace"));
+        assertEquals(1, FontFamilyMatcher.getCachedMatchCount());
+
+        for (int i = 0; i <= FontFamilyMatcher.MAX_CACHED_MATCHES; i++) {
+            matcher.match("serif", "font" + i);
+        }
+        assertEquals(FontFamilyMatcher.MAX_CACHED_MATCHES, FontFamilyMatcher.getCachedMatchCount());
+    }
+
+    /**
+     * Tests that the comparison results are not cached while fonts are loading and that the cache is cleared when the
+     * fonts finish loading.
+     */
+    public void testCacheIsClearedWhenFontsAreLoaded()
+    {
+        if (!setFontsLoading(true)) {
+            // The browser doesn't support the CSS font loading API.
+            return;
+        }
+        try {
+            matcher.match("serif", "monospace");
+            assertEquals(0, FontFamilyMatcher.getCachedMatchCount());
+        } finally {
+            setFontsLoading(false);
+        }
+
+        matcher.match("serif", "monospace");
+        assertEquals(1, FontFamilyMatcher.getCachedMatchCount());
+
+        fireFontLoadingDone();
+        assertEquals(0, FontFamilyMatcher.getCachedMatchCount());
+    }
+
+    /**
+     * Overwrites the font loading status of the document.
+     * 
+     * @param loading {@code true} to pretend that the document is loading fonts, {@code false} to restore the actual
+     *            status
+     * @return {@code true} if the browser supports the CSS font loading API, {@code false} otherwise
+     */
+    private static native boolean setFontsLoading(boolean loading)
+    /*-{
+        if (!$doc.fonts || !$doc.fonts.dispatchEvent) {
+            return false;
+        }
+        if (loading) {
+            Object.defineProperty($doc.fonts, 'status', {value: 'loading', configurable: true});
+        } else {
+            delete $doc.fonts.status;
+        }
+        return true;
+    }-*/;
+
+    /**
+     * Notifies the listeners that the document finished loading fonts.
+     */
+    private static native void fireFontLoadingDone()
+    /*-{
+        var event = $doc.createEvent('Event');
+        event.initEvent('loadingdone', false, false);
+        $doc.fonts.dispatchEvent(event);
+    }-*/;
+}
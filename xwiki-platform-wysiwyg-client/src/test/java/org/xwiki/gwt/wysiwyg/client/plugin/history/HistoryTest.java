@@ -27,6 +27,8 @@
 import org.xwiki.gwt.wysiwyg.client.plugin.history.internal.DefaultHistory;
 import org.xwiki.gwt.wysiwyg.client.plugin.text.exec.BoldExecutable;
 
+import com.google.gwt.dom.client.Node;
+
 
 /**
  * Unit tests for any implementation of {@link History}.
@@ -160,4 +162,98 @@ private void doTestUndoInsideParagraph()
         assertEquals(selectedText, rta.getDocument().getSelection().toString());
         assertEquals(html, clean(rta.getHTML()));
     }
+
+    /**
+     * Tests if successive undo and redo operations restore the content, which is stored as changes between history
+     * entries.
+     */
+    public void testUndoRedoRestoresContent()
+    {
+        deferTest(new com.google.gwt.user.client.Command()
+        {
+            @Override
+            public void execute()
+            {
+                doTestUndoRedoRestoresContent();
+            }
+        });
+    }
+
+    /**
+     * Tests if successive undo and redo operations restore the content, which is stored as changes between history
+     * entries.
+     */
+    private void doTestUndoRedoRestoresContent()
+    {
+        String html = "<p>xyz</p><p>abc</p>";
+        rta.setHTML(html);
+
+        Range range = rta.getDocument().getSelection().getRangeAt(0);
+        range.setEnd(getBody().getFirstChild().getFirstChild(), 2);
+        range.setStart(getBody().getFirstChild().getFirstChild(), 1);
+        select(range);
+        assertTrue(rta.getCommandManager().execute(Command.BOLD));
+        String firstChange = clean(rta.getHTML());
+
+        range = rta.getDocument().getSelection().getRangeAt(0);
+        range.selectNodeContents(getBody().getLastChild());
+        select(range);
+        assertTrue(rta.getCommandManager().execute(Command.BOLD));
+        String secondChange = clean(rta.getHTML());
+        assertFalse(firstChange.equals(secondChange));
+
+        assertTrue(rta.getCommandManager().execute(Command.UNDO));
+        assertEquals(firstChange, clean(rta.getHTML()));
+        assertTrue(rta.getCommandManager().execute(Command.UNDO));
+        assertEquals(html, clean(rta.getHTML()));
+
+        assertTrue(rta.getCommandManager().execute(Command.REDO));
+        assertEquals(firstChange, clean(rta.getHTML()));
+        assertTrue(rta.getCommandManager().execute(Command.REDO));
+        assertEquals(secondChange, clean(rta.getHTML()));
+    }
+
+    /**
+     * Tests if the changes made directly to the DOM are detected and if the changes that are reverted don't prevent
+     * redo.
+     */
+    public void testDetectDirectChanges()
+    {
+        deferTest(new com.google.gwt.user.client.Command()
+        {
+            @Override
+            public void execute()
+            {
+                doTestDetectDirectChanges();
+            }
+        });
+    }
+
+    /**
+     * Tests if the changes made directly to the DOM are detected and if the changes that are reverted don't prevent
+     * redo.
+     */
+    private void doTestDetectDirectChanges()
+    {
+        String html = "<p>abc</p>";
+        rta.setHTML(html);
+
+        Range range = rta.getDocument().getSelection().getRangeAt(0);
+        range.setEnd(getBody().getFirstChild().getFirstChild(), 2);
+        range.setStart(getBody().getFirstChild().getFirstChild(), 1);
+        select(range);
+        assertTrue(rta.getCommandManager().execute(Command.BOLD));
+        getBody().getFirstChild().appendChild(rta.getDocument().createTextNode("d"));
+        String change = clean(rta.getHTML());
+
+        assertTrue(rta.getCommandManager().execute(Command.UNDO));
+        assertEquals(html, clean(rta.getHTML()));
+
+        Node node = getBody().appendChild(rta.getDocument().createTextNode("e"));
+        getBody().removeChild(node);
+        assertTrue(rta.getCommandManager().isEnabled(Command.REDO));
+
+        assertTrue(rta.getCommandManager().execute(Command.REDO));
+        assertEquals(change, clean(rta.getHTML()));
+    }
 }
@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client.plugin.importer;
+
+import org.xwiki.gwt.wysiwyg.client.WysiwygTestCase;
+
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+
+/**
+ * Unit tests for {@link PasteFilter}.
+ * 
+ * @version $Id$
+ */
+public class PasteFilterTest extends WysiwygTestCase
+{
+    /**
+     * The object being tested.
+     */
+    private PasteFilter pasteFilter;
+
+    /**
+     * The element where the paste content is inserted.
+     */
+    private Element container;
+
+    @Override
+    protected void gwtSetUp() throws Exception
+    {
+        super.gwtSetUp();
+
+        pasteFilter = new PasteFilter();
+        container = Document.get().createDivElement();
+    }
+
+    /**
+     * Tests that simple HTML is cleaned on the client side.
+     */
+    public void testCleanSimpleHTML()
+    {
+        container.setInnerHTML("<p class=\"intro\" style=\"color:red\"><span style=\"font-weight:bold\">a</span>"
+            + "<a href=\"http://www.xwiki.org\" target=\"_blank\">b</a></p><script>alert(1)</script>");
+
+        assertTrue(pasteFilter.clean(container));
+        assertEquals("<p>a<a href=\"http://www.xwiki.org\">b</a></p>", container.getInnerHTML().toLowerCase());
+    }
+
+    /**
+     * Tests that the paste content copied from Office documents is left for the server side cleaning.
+     */
+    public void testOfficeContentIsNotCleaned()
+    {
+        String html = "<p class=\"MsoNormal\">a</p>";
+        container.setInnerHTML(html);
+        assertFalse(pasteFilter.clean(container));
+        assertEquals(html.toLowerCase(), container.getInnerHTML().toLowerCase());
+
+        container.setInnerHTML("<p style=\"mso-list:l0 level1 lfo1\">a</p>");
+        assertFalse(pasteFilter.clean(container));
+
+        container.setInnerHTML("<!--[if gte mso 9]><xml></xml><![endif]--><p>a</p>");
+        assertFalse(pasteFilter.clean(container));
+    }
+
+    /**
+     * Tests that the paste content with unknown elements or unsafe attributes is left for the server side cleaning.
+     */
+    public void testUnsafeContentIsNotCleaned()
+    {
+        container.setInnerHTML("<p>a<iframe src=\"http://www.xwiki.org\"></iframe></p>");
+        assertFalse(pasteFilter.clean(container));
+
+        container.setInnerHTML("<a href=\"javascript:alert(1)\">a</a>");
+        assertFalse(pasteFilter.clean(container));
+    }
+
+    /**
+     * Tests that the paste content with URLs that are not relative and don't use a safe scheme is left for the server
+     * side cleaning, even when the URL scheme is obfuscated.
+     */
+    public void testUnsafeURLsAreNotCleaned()
+    {
+        String[] unsafeURLs =
+            new String[] {"java&#x09;script:alert(1)", "java&#x0A;script:alert(1)", "java\nscript:alert(1)",
+                "&#x01; javascript:alert(1)", "JavaScript:alert(1)", "vbscript:msgbox(1)",
+                "data:text/html;base64,PHNjcmlwdD5hbGVydCgxKTwvc2NyaXB0Pg==", "jav&#x0D;ascript&#x09;:alert(1)"};
+        for (String unsafeURL : unsafeURLs) {
+            container.setInnerHTML("<a href=\"" + unsafeURL + "\">a</a>");
+            assertFalse(unsafeURL, pasteFilter.clean(container));
+
+            container.setInnerHTML("<img src=\"" + unsafeURL + "\"/>");
+            assertFalse(unsafeURL, pasteFilter.clean(container));
+        }
+    }
+
+    /**
+     * Tests that the paste content with relative URLs or URLs that use a safe scheme is cleaned on the client side.
+     */
+    public void testSafeURLsAreCleaned()
+    {
+        String[] safeURLs =
+            new String[] {"http://www.xwiki.org", "HTTPS://www.xwiki.org", "mailto:user@example.com", "/xwiki/bin/view/",
+                "Page", "#anchor", "?query=a:b", "path/to:page", "//www.xwiki.org/logo.png"};
+        for (String safeURL : safeURLs) {
+            container.setInnerHTML("<a href=\"" + safeURL + "\"><img src=\"" + safeURL + "\"/></a>");
+            assertTrue(safeURL, pasteFilter.clean(container));
+        }
+    }
+
+    /**
+     * Tests that large paste content is left for the server side cleaning.
+     */
+    public void testLargeContentIsNotCleaned()
+    {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            html.append("<p>a</p>");
+        }
+        container.setInnerHTML(html.toString());
+        assertFalse(pasteFilter.clean(container));
+    }
+}
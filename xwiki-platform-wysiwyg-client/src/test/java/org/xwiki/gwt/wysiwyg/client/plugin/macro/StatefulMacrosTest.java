@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client.plugin.macro;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.gwt.wysiwyg.client.WysiwygTestCase;
+
+/**
+ * Unit tests for {@link StatefulMacros}.
+ * 
+ * @version $Id$
+ */
+public class StatefulMacrosTest extends WysiwygTestCase
+{
+    /**
+     * A macro call whose output doesn't depend on the rest of the edited content.
+     */
+    private static final String INFO = "startmacro:info|-||-|Hello";
+
+    /**
+     * No other macro calls in the edited content.
+     */
+    private static final List<String> NONE = Collections.emptyList();
+
+    /**
+     * The stateful macros, as sent by the server.
+     */
+    private final StatefulMacros statefulMacros =
+        new StatefulMacros("velocity groovy python ruby php script toc footnote putFootnotes include display id");
+
+    /**
+     * Tests that a macro that doesn't depend on the rest of the edited content is rendered alone.
+     */
+    public void testRenderAlone()
+    {
+        assertFalse(statefulMacros.requiresRefresh(INFO, NONE));
+        assertFalse(statefulMacros.requiresRefresh(INFO, Arrays.asList("startmacro:warning|-||-|Hi", INFO)));
+    }
+
+    /**
+     * Tests that the macros whose output depends on the rest of the edited content trigger a full refresh.
+     */
+    public void testRefreshStatefulMacro()
+    {
+        assertTrue(statefulMacros.requiresRefresh("startmacro:toc|-||-|", NONE));
+        assertTrue(statefulMacros.requiresRefresh("startmacro:putFootnotes|-||-|", NONE));
+        assertTrue(statefulMacros.requiresRefresh("startmacro:velocity|-||-|$foo", NONE));
+    }
+
+    /**
+     * Tests that inserting or editing a macro in a content that has stateful macros triggers a full refresh, because
+     * the stateful macros (e.g. the table of contents) may depend on the inserted or edited macro.
+     */
+    public void testRefreshWhenContentHasStatefulMacros()
+    {
+        assertTrue(statefulMacros.requiresRefresh(INFO, Arrays.asList(INFO, "startmacro:toc|-||-|")));
+        // The script macro has been replaced by an info macro. The macros that follow may depend on the script.
+        assertTrue(statefulMacros.requiresRefresh(INFO, Collections.singletonList("startmacro:groovy|-||-|")));
+    }
+
+    /**
+     * Tests that the stateful macros can be configured.
+     */
+    public void testConfiguredStatefulMacros()
+    {
+        StatefulMacros custom = new StatefulMacros(" info\tchart ");
+        assertTrue(custom.requiresRefresh(INFO, NONE));
+        assertTrue(custom.requiresRefresh("startmacro:warning|-||-|",
+            Collections.singletonList("startmacro:chart|-||-|")));
+        assertFalse(custom.requiresRefresh("startmacro:toc|-||-|", NONE));
+    }
+
+    /**
+     * Tests that all the macros are stateful if the server didn't send the stateful macros.
+     */
+    public void testUnknownStatefulMacros()
+    {
+        assertTrue(new StatefulMacros(null).requiresRefresh(INFO, NONE));
+    }
+}
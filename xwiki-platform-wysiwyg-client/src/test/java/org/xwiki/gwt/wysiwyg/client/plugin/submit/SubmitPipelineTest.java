@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client.plugin.submit;
+
+import org.xwiki.gwt.wysiwyg.client.RichTextAreaTestCase;
+import org.xwiki.gwt.wysiwyg.client.plugin.line.LinePlugin;
+import org.xwiki.gwt.wysiwyg.client.plugin.link.EmptyLinkFilter;
+
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.NodeList;
+import com.google.gwt.event.dom.client.LoadEvent;
+import com.google.gwt.user.client.Command;
+
+/**
+ * Unit tests for {@link SubmitPipeline}.
+ * 
+ * @version $Id$
+ */
+public class SubmitPipelineTest extends RichTextAreaTestCase
+{
+    /**
+     * The number of paragraphs of the large document.
+     */
+    private static final int PARAGRAPH_COUNT = 5000;
+
+    /**
+     * The name of the line break HTML element.
+     */
+    private static final String BR = "br";
+
+    /**
+     * The line plug-in, which marks the spacer line breaks before submit.
+     */
+    private LinePlugin plugin;
+
+    /**
+     * The filter that removes the empty links before submit.
+     */
+    private EmptyLinkFilter linkFilter;
+
+    @Override
+    public void onLoad(LoadEvent event)
+    {
+        super.onLoad(event);
+
+        plugin = GWT.create(LinePlugin.class);
+        plugin.init(rta, null);
+        linkFilter = new EmptyLinkFilter(rta);
+        SubmitPipeline.get(rta).addVisitor(linkFilter);
+    }
+
+    @Override
+    protected void gwtTearDown() throws Exception
+    {
+        SubmitPipeline.get(rta).removeVisitor(linkFilter);
+        plugin.destroy();
+
+        super.gwtTearDown();
+    }
+
+    /**
+     * Tests that the spacer line breaks are marked only in the submitted content.
+     */
+    public void testMarkSpacers()
+    {
+        deferTest(new Command()
+        {
+            public void execute()
+            {
+                rta.setHTML("<p>a<br></p><p>b<br>c</p>");
+
+                String html = SubmitPipeline.get(rta).serialize().toLowerCase();
+                assertEquals(html.indexOf(LinePlugin.SPACER), html.lastIndexOf(LinePlugin.SPACER));
+                assertTrue(html.indexOf(LinePlugin.SPACER) > 0);
+                assertTrue(html.indexOf(LinePlugin.SPACER) < html.indexOf("</p>"));
+                assertEquals(0, countSpacers());
+            }
+        });
+    }
+
+    /**
+     * Tests that the empty links are removed before submit.
+     */
+    public void testRemoveEmptyLinks()
+    {
+        deferTest(new Command()
+        {
+            public void execute()
+            {
+                rta.setHTML("<p>1<a href=\"http://www.xwiki.org\"></a>2<a href=\"http://www.xwiki.com\">3</a></p>");
+
+                SubmitPipeline.get(rta).serialize();
+                NodeList<Element> anchors = rta.getDocument().getElementsByTagName("a");
+                assertEquals(1, anchors.getLength());
+                assertEquals("3", anchors.getItem(0).getInnerText());
+            }
+        });
+    }
+
+    /**
+     * Measures the time needed to submit a large document.
+     */
+    public void testSubmitLargeDocument()
+    {
+        deferTest(new Command()
+        {
+            public void execute()
+            {
+                StringBuilder html = new StringBuilder();
+                for (int i = 0; i < PARAGRAPH_COUNT; i++) {
+                    html.append("<p>paragraph ").append(i).append("<br></p>");
+                }
+                rta.setHTML(html.toString());
+
+                Duration duration = new Duration();
+                String submittedHTML = SubmitPipeline.get(rta).serialize();
+                GWT.log("Submitted " + PARAGRAPH_COUNT + " paragraphs in " + duration.elapsedMillis() + "ms.");
+
+                assertEquals(PARAGRAPH_COUNT, submittedHTML.split(LinePlugin.SPACER, -1).length - 1);
+                assertEquals(0, countSpacers());
+            }
+        });
+    }
+
+    /**
+     * @return the number of line breaks marked as spacers in the edited document
+     */
+    private int countSpacers()
+    {
+        int count = 0;
+        NodeList<Element> brs = rta.getDocument().getElementsByTagName(BR);
+        for (int i = 0; i < brs.getLength(); i++) {
+            if (LinePlugin.SPACER.equals(brs.getItem(i).getClassName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.gwt.wysiwyg.client.plugin.submit.exec;
+
+import org.xwiki.gwt.wysiwyg.client.RichTextAreaTestCase;
+import org.xwiki.gwt.wysiwyg.client.plugin.submit.SubmitPipeline;
+import org.xwiki.gwt.wysiwyg.client.plugin.submit.SubmitVisitor;
+
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.InputElement;
+import com.google.gwt.dom.client.Node;
+import com.google.gwt.user.client.Command;
+
+/**
+ * Unit tests for {@link SubmitExecutable}.
+ * 
+ * @version $Id$
+ */
+public class SubmitExecutableTest extends RichTextAreaTestCase
+{
+    /**
+     * The identifier of the form field that stores the submitted content.
+     */
+    private static final String FIELD_ID = "submitExecutableTestField";
+
+    /**
+     * The form field that stores the submitted content.
+     */
+    private InputElement field;
+
+    /**
+     * The executable being tested.
+     */
+    private SubmitExecutable executable;
+
+    /**
+     * The number of times the edited content has been serialized.
+     */
+    private int serializationCount;
+
+    /**
+     * Counts the serializations of the edited content.
+     */
+    private final SubmitVisitor counter = new SubmitVisitor()
+    {
+        @Override
+        public void visit(Node node)
+        {
+            // Nothing to do.
+        }
+
+        @Override
+        public void beforeSerialize()
+        {
+            serializationCount++;
+        }
+
+        @Override
+        public void afterSerialize()
+        {
+            // Nothing to do.
+        }
+    };
+
+    @Override
+    protected void gwtSetUp() throws Exception
+    {
+        super.gwtSetUp();
+
+        field = Document.get().createHiddenInputElement();
+        field.setId(FIELD_ID);
+        Document.get().getBody().appendChild(field);
+        executable = new SubmitExecutable(rta, FIELD_ID);
+        SubmitPipeline.get(rta).addVisitor(counter);
+    }
+
+    @Override
+    protected void gwtTearDown() throws Exception
+    {
+        SubmitPipeline.get(rta).removeVisitor(counter);
+        field.removeFromParent();
+
+        super.gwtTearDown();
+    }
+
+    /**
+     * Tests that the edited content is serialized only if it has been modified since the last submit.
+     */
+    public void testSkipUnchangedContent()
+    {
+        deferTest(new Command()
+        {
+            public void execute()
+            {
+                doTestSkipUnchangedContent();
+            }
+        });
+    }
+
+    /**
+     * Tests that the edited content is serialized only if it has been modified since the last submit.
+     */
+    private void doTestSkipUnchangedContent()
+    {
+        rta.setHTML("<p>one</p>");
+        assertTrue(executable.execute(null));
+        assertEquals("<p>one</p>", clean(field.getValue()));
+        assertEquals(1, serializationCount);
+
+        // Nothing changed.
+        assertTrue(executable.execute(null));
+        assertEquals("<p>one</p>", clean(field.getValue()));
+        if (isMutationObserverSupported()) {
+            assertEquals(1, serializationCount);
+        }
+
+        // The edited content is modified.
+        getBody().getFirstChild().getFirstChild().setNodeValue("two");
+        assertTrue(executable.execute(null));
+        assertEquals("<p>two</p>", clean(field.getValue()));
+
+        // The form field is overwritten.
+        field.setValue("");
+        assertTrue(executable.execute(null));
+        assertEquals("<p>two</p>", clean(field.getValue()));
+    }
+
+    /**
+     * @return {@code true} if the browser supports mutation observers, {@code false} otherwise
+     */
+    private native boolean isMutationObserverSupported()
+    /*-{
+        return !!($wnd.MutationObserver || $wnd.WebKitMutationObserver);
+    }-*/;
+}
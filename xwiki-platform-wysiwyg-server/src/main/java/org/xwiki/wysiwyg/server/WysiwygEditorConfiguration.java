@@ -19,7 +19,10 @@
  */
 package org.xwiki.wysiwyg.server;
 
+import java.util.List;
+
 import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
 
 /**
  * WYSIWYG editor configuration properties.
@@ -105,4 +108,13 @@
      *         otherwise (the user can trigger the clean manually using the tool bar icon)
      */
     Boolean isPasteContentCleanedAutomatically();
+
+    /**
+     * @return the macros whose output depends on the rest of the edited content (e.g. the table of contents) or on the
+     *         state left by the previous macros (e.g. the script macros), and which are thus always executed when the
+     *         edited content is refreshed
+     * @since 9.7RC1
+     */
+    @Unstable
+    List<String> getStatefulMacros();
 }
@@ -19,6 +19,8 @@
  */
 package org.xwiki.wysiwyg.server;
 
+import java.util.Map;
+
 import org.xwiki.component.annotation.Role;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.script.service.ScriptService;
@@ -54,12 +56,30 @@ public interface WysiwygEditorScriptService extends ScriptService
      */
     String parseAndRender(String html, String syntaxId);
 
+    /**
+     * Parses the given HTML fragment and renders the result in annotated XHTML syntax, re-executing only the macro
+     * calls that changed since the last time this method was called for the same editing session. The macros whose
+     * output depends on the rest of the content or on the state left by the previous macros (e.g. script macros) are
+     * always executed.
+     * 
+     * @param html the HTML fragment to be rendered
+     * @param syntaxId the storage syntax identifier
+     * @param sessionToken identifies the editing session; use {@code null} to execute all the macro calls
+     * @return the XHTML result of rendering the given HTML fragment
+     * @since 9.7RC1
+     */
+    @Unstable
+    String parseAndRender(String html, String syntaxId, String sessionToken);
+
     /**
      * Produces the input for the editor by rendering the specified content template as a full HTML page, making sure
      * the skin extension hooks are resolved. The template is rendered in the context of the current document and the
      * Velocity context is not isolated so you can put the data needed by the template in the Velocity context before
      * calling this method. The advantage of using this method to obtain the editor input is that the editor doesn't
      * have to make an additional HTTP request for the content template.
+     * <p>
+     * The rendering result is cached, like with {@link #render(DocumentReference, boolean)}, only for the templates
+     * listed in the {@code wysiwyg.cachedTemplates} configuration property.
      * 
      * @param templateReference specifies the document that serves as the template for the editor content
      * @return the result of rendering the specified content template
@@ -69,6 +89,24 @@ public interface WysiwygEditorScriptService extends ScriptService
     @Unstable
     String render(DocumentReference templateReference);
 
+    /**
+     * Produces the input for the editor by rendering the specified content template as a full HTML page. The rendering
+     * result can be cached per template version, current document version, locale, skin and user. Enable the cache
+     * only for templates whose output doesn't depend on the current request or on the data put in the Velocity
+     * context. The cached results are discarded when the template, the current document or a document included by the
+     * template with the include or display macro is created, modified or deleted. The documents loaded by the template
+     * scripts are not tracked.
+     * 
+     * @param templateReference specifies the document that serves as the template for the editor content
+     * @param cached {@code true} to reuse the result of a previous rendering of the same template in the same
+     *            context, {@code false} to always render the template, like {@link #render(DocumentReference)}
+     * @return the result of rendering the specified content template
+     * @see #render(DocumentReference)
+     * @since 9.7RC1
+     */
+    @Unstable
+    String render(DocumentReference templateReference, boolean cached);
+
     /**
      * Converts the given source text from the specified syntax to annotated XHTML, which can be used as input for the
      * WYSIWYG editor.
@@ -79,6 +117,20 @@ public interface WysiwygEditorScriptService extends ScriptService
      */
     String toAnnotatedXHTML(String source, String syntaxId);
 
+    /**
+     * Converts the given source texts from the specified syntax to annotated XHTML. Use this method instead of
+     * {@link #toAnnotatedXHTML(String, String)} when a page has many rich text fields to edit, because the conversion
+     * environment is set up only once for all the fields.
+     * 
+     * @param sources the texts to be converted, e.g. the values of the rich text fields of a page, by field name
+     * @param syntaxId the syntax identifier
+     * @return the annotated XHTML result of the conversion, by field name; the source text is returned for the fields
+     *         that couldn't be converted
+     * @since 9.7RC1
+     */
+    @Unstable
+    Map<String, String> toAnnotatedXHTML(Map<String, String> sources, String syntaxId);
+
     /**
      * @return the WYSIWYG editor configuration object
      */
@@ -19,18 +19,38 @@
  */
 package org.xwiki.wysiwyg.server.internal;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.context.Execution;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.ModelContext;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.LocalDocumentReference;
 import org.xwiki.model.reference.WikiReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 import org.xwiki.wysiwyg.server.WysiwygEditorConfiguration;
 
 import com.xpn.xwiki.XWiki;
@@ -38,12 +58,15 @@
 
 /**
  * Default WYSIWYG editor configuration source.
+ * <p>
+ * The configuration properties are read once per wiki, merged with the main wiki fall-back values, and kept in an
+ * immutable snapshot that is discarded when the configuration document or the configuration class is modified.
  * 
  * @version $Id$
  */
 @Component
 @Singleton
-public class DefaultWysiwygEditorConfiguration implements WysiwygEditorConfiguration
+public class DefaultWysiwygEditorConfiguration implements WysiwygEditorConfiguration, Initializable, Disposable
 {
     /**
      * The integer number used to determine if a boolean configuration property is set.
@@ -62,6 +85,29 @@ public class DefaultWysiwygEditorConfiguration implements WysiwygEditorConfigura
     private static final LocalDocumentReference CONFIG_LOCAL_DOCUMENT_REFERENCE = new LocalDocumentReference(
         XWiki.SYSTEM_SPACE, "WysiwygEditorConfig");
 
+    /**
+     * The name of the listener that discards the configuration snapshots when the configuration changes.
+     */
+    private static final String LISTENER_NAME = "WysiwygEditorConfigurationListener";
+
+    /**
+     * The names of the configuration properties.
+     */
+    private static final List<String> PROPERTY_NAMES = Arrays.asList("attachmentSelectionLimited", "cleanPaste",
+        "colorPalette", "colorsPerRow", "externalImages", "fontNames", "fontSizes", "historySize",
+        "imageSelectionLimited", "menuBar", "plugins", "sourceEditorEnabled", "styleNames", "toolBar");
+
+    /**
+     * The configuration property that lists the macros that are always executed when the edited content is refreshed.
+     */
+    private static final String STATEFUL_MACROS_PROPERTY = "wysiwyg.converter.refresh.statefulMacros";
+
+    /**
+     * The macros that are always executed when the edited content is refreshed, if not configured.
+     */
+    private static final List<String> DEFAULT_STATEFUL_MACROS = Arrays.asList("velocity", "groovy", "python", "ruby",
+        "php", "script", "toc", "footnote", "putFootnotes", "include", "display", "id");
+
     /**
      * The component used to access documents. This is temporary till XWiki model is moved into components.
      */
@@ -78,6 +124,65 @@ public class DefaultWysiwygEditorConfiguration implements WysiwygEditorConfigura
     @Inject
     private Execution execution;
 
+    /**
+     * Used to read the configuration properties that are not stored in the wiki.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * Used to discard the configuration snapshots when the configuration changes.
+     */
+    @Inject
+    private ObservationManager observationManager;
+
+    /**
+     * The configuration snapshots, by wiki.
+     */
+    private final Map<String, Map<String, Object>> snapshots = new ConcurrentHashMap<String, Map<String, Object>>();
+
+    /**
+     * Incremented each time the configuration snapshots are discarded, in order to detect the snapshots that were
+     * computed while the configuration was being modified.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    @Override
+    public void initialize()
+    {
+        this.observationManager.addListener(new AbstractEventListener(LISTENER_NAME, new DocumentCreatedEvent(),
+            new DocumentUpdatedEvent(), new DocumentDeletedEvent())
+        {
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                LocalDocumentReference documentReference =
+                    new LocalDocumentReference(((DocumentModelBridge) source).getDocumentReference());
+                if (CONFIG_LOCAL_DOCUMENT_REFERENCE.equals(documentReference)
+                    || CONFIG_CLASS_REFERENCE.equals(documentReference)) {
+                    // The main wiki configuration is used as fall-back by all the other wikis.
+                    invalidate();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.observationManager.removeListener(LISTENER_NAME);
+    }
+
+    /**
+     * Discards all the configuration snapshots.
+     */
+    private void invalidate()
+    {
+        this.generation.incrementAndGet();
+        this.snapshots.clear();
+    }
+
     /**
      * @param propertyName the property name
      * @return the value of the specified property of the {@link #CONFIG_CLASS_REFERENCE} object attached to
@@ -86,14 +191,34 @@ public class DefaultWysiwygEditorConfiguration implements WysiwygEditorConfigura
     private Object getProperty(String propertyName)
     {
         String currentWiki = modelContext.getCurrentEntityReference().extractReference(EntityType.WIKI).getName();
-        Object value = getProperty(propertyName, currentWiki);
-        if (value == null) {
-            String mainWiki = getMainWiki();
-            if (!StringUtils.equals(currentWiki, mainWiki)) {
+        Map<String, Object> snapshot = this.snapshots.get(currentWiki);
+        if (snapshot == null) {
+            long currentGeneration = this.generation.get();
+            snapshot = loadSnapshot(currentWiki);
+            // Don't cache the snapshot if the configuration has been modified in the mean time.
+            if (currentGeneration == this.generation.get()) {
+                this.snapshots.put(currentWiki, snapshot);
+            }
+        }
+        return snapshot.get(propertyName);
+    }
+
+    /**
+     * @param wiki the name of a wiki
+     * @return the configuration of the specified wiki, merged with the main wiki configuration
+     */
+    private Map<String, Object> loadSnapshot(String wiki)
+    {
+        String mainWiki = getMainWiki();
+        Map<String, Object> snapshot = new HashMap<String, Object>();
+        for (String propertyName : PROPERTY_NAMES) {
+            Object value = getProperty(propertyName, wiki);
+            if (value == null && !StringUtils.equals(wiki, mainWiki)) {
                 value = getProperty(propertyName, mainWiki);
             }
+            snapshot.put(propertyName, value);
         }
-        return value;
+        return Collections.unmodifiableMap(snapshot);
     }
 
     /**
@@ -206,4 +331,20 @@ public Boolean isPasteContentCleanedAutomatically()
         Integer cleanPaste = (Integer) getProperty("cleanPaste");
         return cleanPaste == null ? null : ONE.equals(cleanPaste);
     }
+
+    @Override
+    public List<String> getStatefulMacros()
+    {
+        List<?> macros = this.configuration.getProperty(STATEFUL_MACROS_PROPERTY, List.class);
+        List<String> statefulMacros = new ArrayList<String>();
+        if (macros != null) {
+            for (Object macro : macros) {
+                String macroId = StringUtils.trim(String.valueOf(macro));
+                if (!StringUtils.isEmpty(macroId)) {
+                    statefulMacros.add(macroId);
+                }
+            }
+        }
+        return statefulMacros.isEmpty() ? DEFAULT_STATEFUL_MACROS : statefulMacros;
+    }
 }
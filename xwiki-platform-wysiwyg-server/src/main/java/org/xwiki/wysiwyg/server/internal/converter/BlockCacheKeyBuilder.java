@@ -0,0 +1,183 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.BulletedListBlock;
+import org.xwiki.rendering.block.DefinitionDescriptionBlock;
+import org.xwiki.rendering.block.DefinitionListBlock;
+import org.xwiki.rendering.block.DefinitionTermBlock;
+import org.xwiki.rendering.block.EmptyLinesBlock;
+import org.xwiki.rendering.block.FormatBlock;
+import org.xwiki.rendering.block.GroupBlock;
+import org.xwiki.rendering.block.HeaderBlock;
+import org.xwiki.rendering.block.HorizontalLineBlock;
+import org.xwiki.rendering.block.IdBlock;
+import org.xwiki.rendering.block.ListItemBlock;
+import org.xwiki.rendering.block.MacroBlock;
+import org.xwiki.rendering.block.MetaDataBlock;
+import org.xwiki.rendering.block.NewLineBlock;
+import org.xwiki.rendering.block.NumberedListBlock;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.QuotationBlock;
+import org.xwiki.rendering.block.QuotationLineBlock;
+import org.xwiki.rendering.block.RawBlock;
+import org.xwiki.rendering.block.SpaceBlock;
+import org.xwiki.rendering.block.SpecialSymbolBlock;
+import org.xwiki.rendering.block.TableBlock;
+import org.xwiki.rendering.block.TableCellBlock;
+import org.xwiki.rendering.block.TableHeadCellBlock;
+import org.xwiki.rendering.block.TableRowBlock;
+import org.xwiki.rendering.block.VerbatimBlock;
+import org.xwiki.rendering.block.WordBlock;
+
+/**
+ * Builds the keys used to memoize the rendering of the top level blocks of a parsed XDOM, before the XDOM is
+ * transformed. The key of a block lists the type, the parameters and the data of the block and of all its descendants,
+ * so it is computed in a single walk of the block, without rendering it.
+ * <p>
+ * Only the blocks whose rendering depends exclusively on their key can be memoized. A block can't be memoized if it
+ * contains:
+ * <ul>
+ * <li>links or images, because their rendering depends on whether their target exists or not</li>
+ * <li>macro calls that are not context-free, i.e. whose output depends on the rest of the content</li>
+ * <li>blocks of an unknown type, whose data can't be added to the key</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class BlockCacheKeyBuilder
+{
+    /**
+     * The types of blocks that hold no data besides their parameters and their child blocks.
+     */
+    private static final Set<Class<? extends Block>> STRUCTURAL_BLOCKS = new HashSet<Class<? extends Block>>(
+        Arrays.<Class<? extends Block>>asList(ParagraphBlock.class, GroupBlock.class, SpaceBlock.class,
+            NewLineBlock.class, HorizontalLineBlock.class, BulletedListBlock.class, NumberedListBlock.class,
+            ListItemBlock.class, DefinitionListBlock.class, DefinitionTermBlock.class, DefinitionDescriptionBlock.class,
+            QuotationBlock.class, QuotationLineBlock.class, TableBlock.class, TableRowBlock.class,
+            TableCellBlock.class, TableHeadCellBlock.class));
+
+    /**
+     * The macros whose output doesn't depend on the rest of the content.
+     */
+    private final Set<String> contextFreeMacros;
+
+    /**
+     * Creates a new key builder.
+     *
+     * @param contextFreeMacros the macros whose output doesn't depend on the rest of the content
+     */
+    public BlockCacheKeyBuilder(Set<String> contextFreeMacros)
+    {
+        this.contextFreeMacros = contextFreeMacros;
+    }
+
+    /**
+     * @param block a top level block, before the XDOM is transformed
+     * @return the key used to memoize the rendering of the given block, or {@code null} if its rendering can't be
+     *         memoized
+     */
+    public List<Object> getKey(Block block)
+    {
+        List<Object> key = new ArrayList<Object>();
+        return append(block, key) ? key : null;
+    }
+
+    /**
+     * Appends the type, the parameters and the data of the given block and of its descendants to the given key.
+     *
+     * @param block the block to add to the key
+     * @param key the key being built
+     * @return {@code true} if the given block can be memoized, {@code false} otherwise
+     */
+    private boolean append(Block block, List<Object> key)
+    {
+        key.add(block.getClass());
+        // The block parameters are exposed as a live view.
+        Map<String, String> parameters = block.getParameters();
+        key.add(parameters.isEmpty() ? Collections.emptyMap() : new HashMap<String, String>(parameters));
+        if (!appendData(block, key)) {
+            return false;
+        }
+        // The number of child blocks makes the key unambiguous.
+        key.add(block.getChildren().size());
+        for (Block child : block.getChildren()) {
+            if (!append(child, key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param block a block
+     * @param key the key being built
+     * @return {@code true} if the data of the given block has been added to the key, {@code false} if the rendering of
+     *         the given block can't be memoized
+     */
+    private boolean appendData(Block block, List<Object> key)
+    {
+        if (block instanceof WordBlock) {
+            key.add(((WordBlock) block).getWord());
+        } else if (block instanceof SpecialSymbolBlock) {
+            key.add(((SpecialSymbolBlock) block).getSymbol());
+        } else if (block instanceof FormatBlock) {
+            key.add(((FormatBlock) block).getFormat());
+        } else if (block instanceof HeaderBlock) {
+            key.add(((HeaderBlock) block).getLevel());
+            key.add(((HeaderBlock) block).getId());
+        } else if (block instanceof VerbatimBlock) {
+            key.add(((VerbatimBlock) block).getProtectedString());
+            key.add(((VerbatimBlock) block).isInline());
+        } else if (block instanceof RawBlock) {
+            key.add(((RawBlock) block).getRawContent());
+            key.add(((RawBlock) block).getSyntax());
+        } else if (block instanceof EmptyLinesBlock) {
+            key.add(((EmptyLinesBlock) block).getEmptyLinesCount());
+        } else if (block instanceof IdBlock) {
+            key.add(((IdBlock) block).getName());
+        } else if (block instanceof MetaDataBlock) {
+            key.add(new HashMap<String, Object>(((MetaDataBlock) block).getMetaData().getMetaData()));
+        } else if (block instanceof MacroBlock) {
+            MacroBlock macroBlock = (MacroBlock) block;
+            if (!this.contextFreeMacros.contains(macroBlock.getId())) {
+                return false;
+            }
+            key.add(macroBlock.getId());
+            key.add(macroBlock.getContent());
+            key.add(macroBlock.isInline());
+        } else {
+            // Links, images and unknown blocks.
+            return STRUCTURAL_BLOCKS.contains(block.getClass());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Memoizes the result of rendering the top level blocks of the edited content, so that the blocks that didn't change
+ * since the last conversion are not rendered again. The cache is bounded by the total number of cached characters and
+ * the least recently used entries are evicted first. The number of cache hits and misses is kept in order to measure
+ * the effectiveness of the cache.
+ * <p>
+ * The conversion keys are structural copies of the converted blocks, as large as the blocks themselves, so the cache
+ * indexes the entries by a SHA-256 digest of the key instead of keeping the key.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class BlockConversionCache
+{
+    /**
+     * The initial capacity of the cache index.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The load factor of the cache index.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The number of characters used by the key of a cache entry, i.e. the length of a hex encoded SHA-256 digest.
+     */
+    private static final int KEY_SIZE = 64;
+
+    /**
+     * The maximum number of cached characters.
+     */
+    private final int maxSize;
+
+    /**
+     * The cached conversion results, in access order.
+     */
+    private final Map<String, String> entries = new LinkedHashMap<String, String>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    /**
+     * The total number of cached characters.
+     */
+    private long size;
+
+    /**
+     * The number of lookups that found the conversion result in the cache.
+     */
+    private long hitCount;
+
+    /**
+     * The number of lookups that didn't find the conversion result in the cache.
+     */
+    private long missCount;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize the maximum number of cached characters
+     */
+    public BlockConversionCache(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param key the conversion key
+     * @return the cached conversion result, or {@code null} if it's not cached
+     */
+    public String get(List<Object> key)
+    {
+        String digest = getDigest(key);
+        synchronized (this) {
+            return get(digest);
+        }
+    }
+
+    /**
+     * @param digest the digest of the conversion key
+     * @return the cached conversion result, or {@code null} if it's not cached
+     */
+    private String get(String digest)
+    {
+        String output = this.entries.get(digest);
+        if (output == null) {
+            this.missCount++;
+        } else {
+            this.hitCount++;
+        }
+        return output;
+    }
+
+    /**
+     * Caches the given conversion result. The result is not cached if it's larger than the cache.
+     *
+     * @param key the conversion key
+     * @param output the conversion result
+     */
+    public void put(List<Object> key, String output)
+    {
+        long outputSize = getSize(output);
+        if (outputSize > this.maxSize) {
+            return;
+        }
+        String digest = getDigest(key);
+        synchronized (this) {
+            put(digest, output, outputSize);
+        }
+    }
+
+    /**
+     * Caches the given conversion result.
+     *
+     * @param digest the digest of the conversion key
+     * @param output the conversion result
+     * @param outputSize the number of characters used by the cache entry
+     */
+    private void put(String digest, String output, long outputSize)
+    {
+        String previousOutput = this.entries.put(digest, output);
+        if (previousOutput != null) {
+            this.size -= getSize(previousOutput);
+        }
+        this.size += outputSize;
+
+        Iterator<String> iterator = this.entries.values().iterator();
+        while (this.size > this.maxSize && iterator.hasNext()) {
+            this.size -= getSize(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return the total number of cached characters, including the size of the keys
+     */
+    public synchronized long getSize()
+    {
+        return this.size;
+    }
+
+    /**
+     * @return the number of lookups that found the conversion result in the cache
+     */
+    public synchronized long getHitCount()
+    {
+        return this.hitCount;
+    }
+
+    /**
+     * @return the number of lookups that didn't find the conversion result in the cache
+     */
+    public synchronized long getMissCount()
+    {
+        return this.missCount;
+    }
+
+    /**
+     * @return the ratio between the number of cache hits and the total number of lookups, {@code 0} if there were no
+     *         lookups
+     */
+    public synchronized double getHitRate()
+    {
+        long lookupCount = this.hitCount + this.missCount;
+        return lookupCount == 0 ? 0 : (double) this.hitCount / lookupCount;
+    }
+
+    /**
+     * @param output a conversion result
+     * @return the number of characters used by a cache entry holding the given conversion result
+     */
+    private long getSize(String output)
+    {
+        return KEY_SIZE + output.length();
+    }
+
+    /**
+     * @param key a conversion key
+     * @return the hex encoded SHA-256 digest of the given key
+     */
+    private String getDigest(List<Object> key)
+    {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        update(digest, key);
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Adds the given key element to the digest. Each value is prefixed by its length and by its type so that two keys
+     * have the same digest only if they are equal. The map entries are added in the order of their keys because the
+     * iteration order of equal maps can differ.
+     *
+     * @param digest the digest being computed
+     * @param element a key element
+     */
+    private void update(MessageDigest digest, Object element)
+    {
+        if (element instanceof List) {
+            List<?> list = (List<?>) element;
+            update(digest, "list:" + list.size());
+            for (Object item : list) {
+                update(digest, item);
+            }
+        } else if (element instanceof Map) {
+            Map<?, ?> map = new TreeMap<Object, Object>((Map<?, ?>) element);
+            update(digest, "map:" + map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                update(digest, entry.getKey());
+                update(digest, entry.getValue());
+            }
+        } else if (element == null) {
+            update(digest, "null");
+        } else {
+            update(digest, element.getClass().getName());
+            update(digest, element.toString());
+        }
+    }
+
+    /**
+     * Adds the given value to the digest, prefixed by its length.
+     *
+     * @param digest the digest being computed
+     * @param value the value to add
+     */
+    private void update(MessageDigest digest, String value)
+    {
+        digest.update((value.length() + ":" + value).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+
+/**
+ * Renders a large XDOM in chunks of consecutive top level blocks, concurrently on a fork-join pool, and then stitches
+ * the results together. This works only for XDOMs that are not transformed anymore (e.g. the result of parsing the
+ * edited HTML), because the top level blocks are then independent.
+ * <p>
+ * The separator that the renderer writes between two top level blocks (e.g. the empty line between two paragraphs in
+ * wiki syntax) is computed for each chunk boundary by rendering the two adjacent blocks together. If the separator
+ * can't be determined this way then the XDOM is rendered sequentially.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class ChunkedXDOMRenderer
+{
+    /**
+     * The number of chunks per pool thread, greater than one in order to balance the load when the chunks don't take
+     * the same time to render.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * The factory used to create the renderer for the target syntax.
+     */
+    private final PrintRendererFactory rendererFactory;
+
+    /**
+     * Used to access the caller's execution context and to set the execution context of the worker threads.
+     */
+    private final Execution execution;
+
+    /**
+     * Used to clone the caller's execution context.
+     */
+    private final ExecutionContextManager executionContextManager;
+
+    /**
+     * The pool used to render the chunks.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a new renderer.
+     *
+     * @param rendererFactory the factory used to create the renderer for the target syntax
+     * @param execution used to access the execution context
+     * @param executionContextManager used to clone the execution context
+     * @param pool the pool used to render the chunks
+     */
+    public ChunkedXDOMRenderer(PrintRendererFactory rendererFactory, Execution execution,
+        ExecutionContextManager executionContextManager, ForkJoinPool pool)
+    {
+        this.rendererFactory = rendererFactory;
+        this.execution = execution;
+        this.executionContextManager = executionContextManager;
+        this.pool = pool;
+    }
+
+    /**
+     * Renders the given XDOM.
+     *
+     * @param xdom the XDOM to render
+     * @return the result of rendering the given XDOM, the same as if it was rendered sequentially
+     * @throws Exception if rendering the XDOM fails
+     */
+    public String render(XDOM xdom) throws Exception
+    {
+        List<Block> blocks = xdom.getChildren();
+        int chunkCount = Math.min(blocks.size(), this.pool.getParallelism() * CHUNKS_PER_THREAD);
+        // The chunks can't be stitched together if the renderer writes something around the blocks.
+        if (chunkCount < 2 || !render(Collections.<Block>emptyList(), xdom.getMetaData()).isEmpty()) {
+            return render(blocks, xdom.getMetaData());
+        }
+
+        List<List<Block>> chunks = new ArrayList<List<Block>>(chunkCount);
+        int offset = 0;
+        for (int i = 1; i <= chunkCount; i++) {
+            int end = (int) ((long) blocks.size() * i / chunkCount);
+            chunks.add(blocks.subList(offset, end));
+            offset = end;
+        }
+
+        ExecutionContext context = this.execution.getContext();
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        for (List<Block> chunk : chunks) {
+            tasks.add(createRenderTask(chunk, xdom.getMetaData(), context));
+        }
+        for (int i = 1; i < chunkCount; i++) {
+            List<Block> previousChunk = chunks.get(i - 1);
+            tasks.add(createSeparatorTask(previousChunk.get(previousChunk.size() - 1), chunks.get(i).get(0),
+                xdom.getMetaData(), context));
+        }
+
+        List<String> results = new ArrayList<String>(tasks.size());
+        for (Future<String> result : this.pool.invokeAll(tasks)) {
+            try {
+                results.add(result.get());
+            } catch (ExecutionException e) {
+                throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            }
+        }
+        if (results.subList(chunkCount, results.size()).contains(null)) {
+            return render(blocks, xdom.getMetaData());
+        }
+
+        StringBuilder output = new StringBuilder(results.get(0));
+        for (int i = 1; i < chunkCount; i++) {
+            output.append(results.get(chunkCount + i - 1)).append(results.get(i));
+        }
+        return output.toString();
+    }
+
+    /**
+     * @param blocks the blocks to render
+     * @param metaData the XDOM meta data
+     * @param context the caller's execution context
+     * @return a task that renders the given blocks in a clone of the caller's execution context
+     */
+    private Callable<String> createRenderTask(final List<Block> blocks, final MetaData metaData,
+        ExecutionContext context)
+    {
+        final ExecutionContext taskContext = this.executionContextManager.clone(context);
+        return new Callable<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                execution.setContext(taskContext);
+                try {
+                    return render(blocks, metaData);
+                } finally {
+                    execution.removeContext();
+                }
+            }
+        };
+    }
+
+    /**
+     * @param previous the last block of a chunk
+     * @param next the first block of the following chunk
+     * @param metaData the XDOM meta data
+     * @param context the caller's execution context
+     * @return a task that computes the separator written by the renderer between the given blocks, or {@code null} if
+     *         the separator can't be determined
+     */
+    private Callable<String> createSeparatorTask(final Block previous, final Block next, final MetaData metaData,
+        ExecutionContext context)
+    {
+        final ExecutionContext taskContext = this.executionContextManager.clone(context);
+        return new Callable<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                execution.setContext(taskContext);
+                try {
+                    String first = render(Collections.singletonList(previous), metaData);
+                    String second = render(Collections.singletonList(next), metaData);
+                    String both = render(Arrays.asList(previous, next), metaData);
+                    if (both.length() >= first.length() + second.length() && both.startsWith(first)
+                        && both.endsWith(second)) {
+                        return both.substring(first.length(), both.length() - second.length());
+                    }
+                    return null;
+                } finally {
+                    execution.removeContext();
+                }
+            }
+        };
+    }
+
+    /**
+     * @param blocks the blocks to render
+     * @param metaData the XDOM meta data
+     * @return the result of rendering the given blocks as a document
+     */
+    private String render(List<Block> blocks, MetaData metaData)
+    {
+        // Don't modify the given XDOM (e.g. the parent of its child blocks).
+        List<Block> copy = new ArrayList<Block>(blocks.size());
+        for (Block block : blocks) {
+            copy.add(block.clone());
+        }
+        WikiPrinter printer = new DefaultWikiPrinter();
+        new XDOM(copy, metaData).traverse(this.rendererFactory.createRenderer(printer));
+        return printer.toString();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpSession;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Remembers, for each edited page, the macro calls that the user has collapsed in the editor. The output of these
+ * macro calls is not sent to the editor until the user expands them.
+ * <p>
+ * The preferences are kept only in the HTTP session of the current user and are lost when the session expires. They
+ * are not saved as user preferences because a collapsed macro call is identified by its serialization, which changes
+ * as soon as the macro is edited, so the saved preferences would grow with entries that are never used again. Only the
+ * preferences of the most recently edited pages are remembered.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+@Component(roles = CollapsedMacroPreferences.class)
+@Singleton
+public class CollapsedMacroPreferences
+{
+    /**
+     * The HTTP session attribute that holds the collapsed macro calls of each edited page.
+     */
+    private static final String SESSION_ATTRIBUTE = CollapsedMacroPreferences.class.getName();
+
+    /**
+     * The maximum number of collapsed macro calls remembered for a page. The oldest ones are forgotten first.
+     */
+    private static final int MAX_COLLAPSED_MACROS = 1000;
+
+    /**
+     * The maximum number of pages whose collapsed macro calls are remembered. The least recently edited pages are
+     * forgotten first.
+     */
+    private static final int MAX_PAGES = 50;
+
+    /**
+     * The initial capacity of the map that holds the collapsed macro calls of each edited page.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The load factor of the map that holds the collapsed macro calls of each edited page.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The collapsed macro calls of the most recently edited pages. This is a static class so that it can be serialized
+     * with the HTTP session.
+     */
+    private static final class Preferences extends LinkedHashMap<DocumentReference, Set<String>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates a new map, in access order.
+         */
+        Preferences()
+        {
+            super(INITIAL_CAPACITY, LOAD_FACTOR, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<DocumentReference, Set<String>> eldest)
+        {
+            return size() > MAX_PAGES;
+        }
+    }
+
+    /**
+     * Used to access the HTTP session.
+     */
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * @param documentReference an edited page
+     * @return the macro calls, serialized as start macro comment values, that have been collapsed on the specified page
+     */
+    public Set<String> getCollapsedMacros(DocumentReference documentReference)
+    {
+        Map<DocumentReference, Set<String>> preferences = getPreferences(false);
+        if (preferences == null) {
+            return Collections.emptySet();
+        }
+        synchronized (preferences) {
+            Set<String> macroCalls = preferences.get(documentReference);
+            return macroCalls == null ? Collections.<String>emptySet() : new LinkedHashSet<String>(macroCalls);
+        }
+    }
+
+    /**
+     * Remembers that the given macro calls have been collapsed or expanded on the specified page.
+     *
+     * @param documentReference an edited page
+     * @param macroCalls the macro calls, serialized as start macro comment values
+     * @param collapsed {@code true} if the macro calls have been collapsed, {@code false} if they have been expanded
+     */
+    public void setCollapsed(DocumentReference documentReference, Collection<String> macroCalls, boolean collapsed)
+    {
+        Map<DocumentReference, Set<String>> preferences = getPreferences(collapsed);
+        if (preferences == null) {
+            return;
+        }
+        synchronized (preferences) {
+            Set<String> collapsedMacros = preferences.get(documentReference);
+            if (collapsedMacros == null) {
+                collapsedMacros = new LinkedHashSet<String>();
+                preferences.put(documentReference, collapsedMacros);
+            }
+            if (collapsed) {
+                for (String macroCall : macroCalls) {
+                    // Move the macro call at the end.
+                    collapsedMacros.remove(macroCall);
+                    collapsedMacros.add(macroCall);
+                }
+                while (collapsedMacros.size() > MAX_COLLAPSED_MACROS) {
+                    collapsedMacros.remove(collapsedMacros.iterator().next());
+                }
+            } else {
+                collapsedMacros.removeAll(macroCalls);
+            }
+            if (collapsedMacros.isEmpty()) {
+                preferences.remove(documentReference);
+            }
+        }
+    }
+
+    /**
+     * @param create whether to create the preferences if they don't exist
+     * @return the collapsed macro calls of each edited page, or {@code null} if there are no preferences and they
+     *         were not created
+     */
+    @SuppressWarnings("unchecked")
+    private Map<DocumentReference, Set<String>> getPreferences(boolean create)
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        HttpSession session =
+            xcontext != null && xcontext.getRequest() != null ? xcontext.getRequest().getSession(create) : null;
+        if (session == null) {
+            return null;
+        }
+        synchronized (session) {
+            Map<DocumentReference, Set<String>> preferences =
+                (Map<DocumentReference, Set<String>>) session.getAttribute(SESSION_ATTRIBUTE);
+            if (preferences == null && create) {
+                preferences = new Preferences();
+                session.setAttribute(SESSION_ATTRIBUTE, preferences);
+            }
+            return preferences;
+        }
+    }
+}
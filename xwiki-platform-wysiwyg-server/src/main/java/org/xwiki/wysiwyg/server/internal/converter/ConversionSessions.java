@@ -0,0 +1,282 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpSession;
+
+import org.xwiki.component.annotation.Component;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Keeps the last conversions (the HTML and the corresponding source) of each conversion session, so that the editor
+ * can send only the changes made to the converted content and receive only the changes of the conversion result. A
+ * conversion session usually corresponds to an editor instance. The conversions are kept in the HTTP session of the
+ * current user, so all the stored objects are serializable, and the size of each conversion session is limited.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+@Component(roles = ConversionSessions.class)
+@Singleton
+public class ConversionSessions
+{
+    /**
+     * The HTTP session attribute that holds the conversion sessions.
+     */
+    private static final String SESSION_ATTRIBUTE = ConversionSessions.class.getName();
+
+    /**
+     * The maximum number of conversion sessions kept for a user. The least recently used are forgotten first.
+     */
+    private static final int MAX_SESSIONS = 4;
+
+    /**
+     * The maximum number of revisions kept for a conversion session. Keeping more than one revision allows the editor
+     * to cancel a conversion request without losing the ability to send changes.
+     */
+    private static final int MAX_REVISIONS = 3;
+
+    /**
+     * The maximum number of characters (HTML plus source) kept for a conversion session. The oldest revisions are
+     * forgotten first, and a revision that is larger than this is not kept at all.
+     */
+    private static final int MAX_SESSION_SIZE = 1 << 20;
+
+    /**
+     * The initial capacity of the maps.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * The load factor of the maps.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The revision that is always available, whose HTML and source are empty.
+     */
+    private static final Revision EMPTY_REVISION = new Revision("", "");
+
+    /**
+     * Used to access the HTTP session.
+     */
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * @param sessionId identifies the conversion session
+     * @param revision the revision number
+     * @return the specified revision, or {@code null} if it's not available anymore; the revision {@code 0} is always
+     *         available and has empty HTML and source
+     */
+    public Revision get(String sessionId, int revision)
+    {
+        if (revision == 0) {
+            return EMPTY_REVISION;
+        }
+        Map<String, Session> sessions = getSessions(false);
+        if (sessions == null) {
+            return null;
+        }
+        synchronized (sessions) {
+            Session session = sessions.get(sessionId);
+            return session == null ? null : session.revisions.get(revision);
+        }
+    }
+
+    /**
+     * Adds a new revision to the specified conversion session.
+     *
+     * @param sessionId identifies the conversion session
+     * @param html the converted HTML
+     * @param source the source corresponding to the given HTML
+     * @return the number of the new revision, or {@code 0} if the revision couldn't be stored
+     */
+    public int add(String sessionId, String html, String source)
+    {
+        Revision revision = new Revision(html, source);
+        if (revision.size() > MAX_SESSION_SIZE) {
+            return 0;
+        }
+        Map<String, Session> sessions = getSessions(true);
+        if (sessions == null) {
+            return 0;
+        }
+        synchronized (sessions) {
+            Session session = sessions.get(sessionId);
+            if (session == null) {
+                session = new Session();
+                sessions.put(sessionId, session);
+            }
+            return session.add(revision);
+        }
+    }
+
+    /**
+     * @param create whether to create the conversion sessions if they don't exist
+     * @return the conversion sessions of the current user, or {@code null} if there are no conversion sessions and
+     *         they were not created
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Session> getSessions(boolean create)
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        HttpSession httpSession =
+            xcontext != null && xcontext.getRequest() != null ? xcontext.getRequest().getSession(create) : null;
+        if (httpSession == null) {
+            return null;
+        }
+        synchronized (httpSession) {
+            Map<String, Session> sessions = (Map<String, Session>) httpSession.getAttribute(SESSION_ATTRIBUTE);
+            if (sessions == null && create) {
+                sessions = new Sessions();
+                httpSession.setAttribute(SESSION_ATTRIBUTE, sessions);
+            }
+            return sessions;
+        }
+    }
+
+    /**
+     * A converted HTML and the corresponding source.
+     */
+    public static final class Revision implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The converted HTML.
+         */
+        private final String html;
+
+        /**
+         * The source corresponding to {@link #html}.
+         */
+        private final String source;
+
+        /**
+         * Creates a new revision.
+         *
+         * @param html the converted HTML
+         * @param source the source corresponding to the given HTML
+         */
+        Revision(String html, String source)
+        {
+            this.html = html;
+            this.source = source;
+        }
+
+        /**
+         * @return the converted HTML
+         */
+        public String getHTML()
+        {
+            return this.html;
+        }
+
+        /**
+         * @return the source corresponding to the converted HTML
+         */
+        public String getSource()
+        {
+            return this.source;
+        }
+
+        /**
+         * @return the number of characters of this revision
+         */
+        int size()
+        {
+            return this.html.length() + this.source.length();
+        }
+    }
+
+    /**
+     * The conversion sessions of a user, the least recently used first.
+     */
+    private static final class Sessions extends LinkedHashMap<String, Session>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates a new access-ordered map of conversion sessions.
+         */
+        Sessions()
+        {
+            super(INITIAL_CAPACITY, LOAD_FACTOR, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Session> eldest)
+        {
+            return size() > MAX_SESSIONS;
+        }
+    }
+
+    /**
+     * The last revisions of a conversion session.
+     */
+    private static final class Session implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The number of the last revision.
+         */
+        private int lastRevision;
+
+        /**
+         * The number of characters of the kept revisions.
+         */
+        private int size;
+
+        /**
+         * The last revisions, the oldest first.
+         */
+        private final LinkedHashMap<Integer, Revision> revisions = new LinkedHashMap<Integer, Revision>();
+
+        /**
+         * Adds a new revision and forgets the oldest revisions if there are too many or if they are too large.
+         *
+         * @param revision the revision to add
+         * @return the number of the added revision
+         */
+        int add(Revision revision)
+        {
+            this.lastRevision++;
+            this.revisions.put(this.lastRevision, revision);
+            this.size += revision.size();
+            Iterator<Revision> iterator = this.revisions.values().iterator();
+            while (this.revisions.size() > MAX_REVISIONS || this.size > MAX_SESSION_SIZE) {
+                this.size -= iterator.next().size();
+                iterator.remove();
+            }
+            return this.lastRevision;
+        }
+    }
+}
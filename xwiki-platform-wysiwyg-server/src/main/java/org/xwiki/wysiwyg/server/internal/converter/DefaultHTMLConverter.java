@@ -20,18 +20,51 @@
 package org.xwiki.wysiwyg.server.internal.converter;
 
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.slf4j.Logger;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
 import org.xwiki.gwt.wysiwyg.client.cleaner.HTMLCleaner;
+import org.xwiki.gwt.wysiwyg.client.converter.ContentChange;
 import org.xwiki.gwt.wysiwyg.client.converter.HTMLConverter;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.Block.Axes;
+import org.xwiki.rendering.block.FormatBlock;
+import org.xwiki.rendering.block.GroupBlock;
+import org.xwiki.rendering.block.MacroBlock;
+import org.xwiki.rendering.block.MacroMarkerBlock;
 import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.block.match.BlockMatcher;
+import org.xwiki.rendering.block.match.ClassBlockMatcher;
 import org.xwiki.rendering.internal.transformation.MutableRenderingContext;
+import org.xwiki.rendering.listener.Format;
 import org.xwiki.rendering.listener.MetaData;
 import org.xwiki.rendering.parser.ParseException;
 import org.xwiki.rendering.parser.Parser;
@@ -46,6 +79,10 @@
 import org.xwiki.rendering.transformation.Transformation;
 import org.xwiki.rendering.transformation.TransformationContext;
 import org.xwiki.rendering.transformation.TransformationException;
+import org.xwiki.wysiwyg.server.WysiwygEditorConfiguration;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
  * Converts HTML into/from markup syntax.
@@ -54,10 +91,127 @@
  */
 @Component
 @Singleton
-public class DefaultHTMLConverter implements HTMLConverter
+public class DefaultHTMLConverter implements HTMLConverter, Initializable, Disposable
 {
+    /**
+     * The execution context property used to disable the deferred rendering of the slow macros, e.g. when the output
+     * of a deferred macro is requested.
+     */
+    public static final String DISABLE_DEFERRED_MACROS = "wysiwyg.converter.disableDeferredMacros";
+
+    /**
+     * The CSS class used to mark the place-holder that replaces the output of a macro whose rendering is deferred.
+     */
+    public static final String DEFERRED_MACRO_CLASS = "macro-deferred";
+
+    /**
+     * The CSS class used to mark the place-holder that replaces the output of a macro that has been collapsed by the
+     * user. The output of such a macro is requested only when the macro is expanded.
+     */
+    public static final String LAZY_MACRO_CLASS = "macro-lazy";
+
+    /**
+     * The execution context property that identifies the editing session whose content is refreshed. When set, only
+     * the macro calls that changed since the last refresh of the editing session are executed.
+     */
+    public static final String REFRESH_SESSION = "wysiwyg.converter.refreshSession";
+
     private static final String TRANSFORMATION_ID = "wysiwygtxid";
 
+    /**
+     * The name of the listener that discards the cached macro output when a document is modified.
+     */
+    private static final String LISTENER_NAME = "WysiwygEditorMacroOutputListener";
+
+    /**
+     * The maximum number of editing sessions whose last refresh is remembered.
+     */
+    private static final int MAX_REFRESH_SESSIONS = 100;
+
+    /**
+     * The configuration property that lists the macros that are slow to execute. These macros are not executed when
+     * the edited content is rendered. Instead, they are rendered as place-holders and their output is requested
+     * separately by the editor, so that the editor is usable sooner.
+     */
+    private static final String DEFERRED_MACROS_PROPERTY = "wysiwyg.converter.deferredMacros";
+
+    /**
+     * The name of the block parameter that holds the CSS class.
+     */
+    private static final String CLASS_PARAMETER = "class";
+
+    /**
+     * The configuration property that lists the macros whose output can be cached (e.g. macros that are expensive to
+     * execute and whose output depends only on the macro call and on the edited document).
+     */
+    private static final String CACHEABLE_MACROS_PROPERTY = "wysiwyg.converter.macroCache.macros";
+
+    /**
+     * The configuration property that specifies the maximum number of cached macro output blocks.
+     */
+    private static final String MACRO_CACHE_MAX_SIZE_PROPERTY = "wysiwyg.converter.macroCache.maxSize";
+
+    /**
+     * The default maximum number of cached macro output blocks.
+     */
+    private static final int DEFAULT_MACRO_CACHE_MAX_SIZE = 100000;
+
+    /**
+     * The configuration property that specifies the number of threads used to convert large HTML documents to source
+     * syntax. The conversion is sequential if the value is less than 2. Defaults to the number of processors.
+     */
+    private static final String FROM_HTML_PARALLELISM_PROPERTY = "wysiwyg.converter.fromHTML.parallelism";
+
+    /**
+     * The configuration property that specifies the length of the HTML (number of characters) from which the
+     * conversion to source syntax is done concurrently.
+     */
+    private static final String FROM_HTML_PARALLEL_THRESHOLD_PROPERTY = "wysiwyg.converter.fromHTML.parallelThreshold";
+
+    /**
+     * The default length of the HTML from which the conversion to source syntax is done concurrently.
+     */
+    private static final int DEFAULT_FROM_HTML_PARALLEL_THRESHOLD = 1000000;
+
+    /**
+     * The configuration property that specifies the maximum number of characters used to memoize the rendering to HTML
+     * of the top level blocks of the edited content, so that the blocks that didn't change are not rendered again. The
+     * memoization is disabled if the value is not positive, which is the default.
+     */
+    private static final String BLOCK_CACHE_MAX_SIZE_PROPERTY = "wysiwyg.converter.blockCache.maxSize";
+
+    /**
+     * The syntax of the HTML produced by the conversion from source syntax.
+     */
+    private static final String ANNOTATED_XHTML_SYNTAX = "annotatedxhtml/1.0";
+
+    /**
+     * The CSS class used to mark the output of macros that failed to execute.
+     */
+    private static final String RENDERING_ERROR_CLASS = "xwikirenderingerror";
+
+    /**
+     * Matches the macro output that contains execution errors.
+     */
+    private static final BlockMatcher ERROR_MATCHER = new CSSClassBlockMatcher(RENDERING_ERROR_CLASS);
+
+    /**
+     * Matches the macro output that is deferred.
+     */
+    private static final BlockMatcher DEFERRED_MATCHER = new CSSClassBlockMatcher(DEFERRED_MACRO_CLASS);
+
+    /**
+     * Matches the macro output that must not be reused on refresh.
+     */
+    private static final BlockMatcher NOT_REUSABLE_MATCHER = new BlockMatcher()
+    {
+        @Override
+        public boolean match(Block block)
+        {
+            return ERROR_MATCHER.match(block) || DEFERRED_MATCHER.match(block);
+        }
+    };
+
     /**
      * Logger.
      */
@@ -125,6 +279,130 @@ public class DefaultHTMLConverter implements HTMLConverter
     @Named("context")
     private ComponentManager contextComponentManager;
 
+    /**
+     * Used to read the macro output cache configuration.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * Used to get the macros that are always executed when the content is refreshed.
+     */
+    @Inject
+    private WysiwygEditorConfiguration editorConfiguration;
+
+    /**
+     * Used to compute the macro output cache keys.
+     */
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * Used to check if the deferred rendering of the slow macros is disabled.
+     */
+    @Inject
+    private Execution execution;
+
+    /**
+     * Used to get the macro calls that the user has collapsed on the edited page.
+     */
+    @Inject
+    private CollapsedMacroPreferences collapsedMacroPreferences;
+
+    /**
+     * Used to clone the execution context for the threads that convert large HTML documents to source syntax.
+     */
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    /**
+     * The last conversions of each conversion session.
+     */
+    @Inject
+    private ConversionSessions conversionSessions;
+
+    /**
+     * Used to discard the cached macro output when a document is modified.
+     */
+    @Inject
+    private ObservationManager observationManager;
+
+    /**
+     * The cached macro output.
+     */
+    private MacroOutputCache macroOutputCache;
+
+    /**
+     * Incremented each time a document is created, modified or deleted, because the output of a macro can depend on
+     * other documents than the edited one (e.g. the included documents).
+     */
+    private final AtomicLong documentGeneration = new AtomicLong();
+
+    /**
+     * The output of the macros rendered during the last refresh of each editing session.
+     */
+    private final MacroRefreshSessions refreshSessions = new MacroRefreshSessions(MAX_REFRESH_SESSIONS);
+
+    /**
+     * The memoized rendering to HTML of the top level blocks, {@code null} if the memoization is disabled.
+     */
+    private BlockConversionCache blockConversionCache;
+
+    /**
+     * The pool used to convert large HTML documents to source syntax, {@code null} if the conversion is sequential.
+     */
+    private ForkJoinPool fromHTMLPool;
+
+    /**
+     * The length of the HTML from which the conversion to source syntax is done concurrently.
+     */
+    private int fromHTMLParallelThreshold;
+
+    @Override
+    public void initialize()
+    {
+        Integer macroCacheMaxSize = this.configuration.getProperty(MACRO_CACHE_MAX_SIZE_PROPERTY, Integer.class);
+        this.macroOutputCache =
+            new MacroOutputCache(macroCacheMaxSize != null ? macroCacheMaxSize : DEFAULT_MACRO_CACHE_MAX_SIZE);
+
+        Integer blockCacheMaxSize = this.configuration.getProperty(BLOCK_CACHE_MAX_SIZE_PROPERTY, Integer.class);
+        if (blockCacheMaxSize != null && blockCacheMaxSize > 0) {
+            this.blockConversionCache = new BlockConversionCache(blockCacheMaxSize);
+        }
+
+        Integer parallelism = this.configuration.getProperty(FROM_HTML_PARALLELISM_PROPERTY, Integer.class);
+        if (parallelism == null) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        if (parallelism > 1) {
+            this.fromHTMLPool = new ForkJoinPool(parallelism);
+        }
+        Integer threshold = this.configuration.getProperty(FROM_HTML_PARALLEL_THRESHOLD_PROPERTY, Integer.class);
+        this.fromHTMLParallelThreshold = threshold != null ? threshold : DEFAULT_FROM_HTML_PARALLEL_THRESHOLD;
+
+        this.observationManager.addListener(new AbstractEventListener(LISTENER_NAME, new DocumentCreatedEvent(),
+            new DocumentUpdatedEvent(), new DocumentDeletedEvent())
+        {
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                // We don't know which documents the macros depend on.
+                documentGeneration.incrementAndGet();
+                macroOutputCache.clear();
+            }
+        });
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.observationManager.removeListener(LISTENER_NAME);
+        if (this.fromHTMLPool != null) {
+            this.fromHTMLPool.shutdownNow();
+        }
+    }
+
     @Override
     public String fromHTML(String dirtyHTML, String syntaxId)
     {
@@ -134,9 +412,15 @@ public String fromHTML(String dirtyHTML, String syntaxId)
 
             // Parse & Render
             // Note that transformations are not executed when converting XHTML to source syntax.
-            WikiPrinter printer = new DefaultWikiPrinter();
             PrintRendererFactory printRendererFactory =
                 this.contextComponentManager.getInstance(PrintRendererFactory.class, syntaxId);
+            if (this.fromHTMLPool != null && html.length() >= this.fromHTMLParallelThreshold) {
+                // The top level blocks are independent so large documents can be rendered in chunks concurrently.
+                XDOM xdom = this.xhtmlParser.parse(new StringReader(html));
+                return new ChunkedXDOMRenderer(printRendererFactory, this.execution, this.executionContextManager,
+                    this.fromHTMLPool).render(xdom);
+            }
+            WikiPrinter printer = new DefaultWikiPrinter();
             this.xhtmlStreamParser.parse(new StringReader(html), printRendererFactory.createRenderer(printer));
 
             return printer.toString();
@@ -153,11 +437,30 @@ public String toHTML(String source, String syntaxId)
             // Parse
             Parser parser = this.contextComponentManager.getInstance(Parser.class, syntaxId);
             XDOM xdom = parser.parse(new StringReader(source));
+            Syntax syntax = this.syntaxFactory.createSyntaxFromIdString(syntaxId);
+            // The keys have to be computed before the macros are executed.
+            List<List<Object>> keys = this.blockConversionCache != null ? getToHTMLBlockCacheKeys(xdom, syntax) : null;
 
             // Execute the macro transformation
-            executeMacroTransformation(xdom, this.syntaxFactory.createSyntaxFromIdString(syntaxId));
+            executeMacroTransformation(xdom, syntax);
 
             // Render
+            if (keys != null && keys.size() == xdom.getChildren().size()) {
+                // Render only the top level blocks that changed since the last conversion.
+                for (int i = 0; i < keys.size(); i++) {
+                    // Don't reuse the rendering of failed, deferred or collapsed macros.
+                    if (keys.get(i) != null && xdom.getChildren().get(i).getFirstBlock(NOT_REUSABLE_MATCHER,
+                        Axes.DESCENDANT_OR_SELF) != null) {
+                        keys.set(i, null);
+                    }
+                }
+                PrintRendererFactory xhtmlRendererFactory =
+                    this.contextComponentManager.getInstance(PrintRendererFactory.class, ANNOTATED_XHTML_SYNTAX);
+                String html = renderMemoized(xdom, keys, xhtmlRendererFactory);
+                if (html != null) {
+                    return html;
+                }
+            }
             WikiPrinter printer = new DefaultWikiPrinter();
             this.xhtmlRenderer.render(xdom, printer);
 
@@ -168,6 +471,32 @@ public String toHTML(String source, String syntaxId)
         }
     }
 
+    @Override
+    public ContentChange toHTML(String sessionId, ContentChange sourceChange, String syntaxId)
+    {
+        ConversionSessions.Revision base = this.conversionSessions.get(sessionId, sourceChange.getRevision());
+        String source = base == null ? null : sourceChange.apply(base.getSource());
+        if (source == null) {
+            return null;
+        }
+        String html = toHTML(source, syntaxId);
+        int revision = this.conversionSessions.add(sessionId, html, source);
+        return new ContentChange(revision, base.getHTML(), html);
+    }
+
+    @Override
+    public ContentChange fromHTML(String sessionId, ContentChange htmlChange, String syntaxId)
+    {
+        ConversionSessions.Revision base = this.conversionSessions.get(sessionId, htmlChange.getRevision());
+        String html = base == null ? null : htmlChange.apply(base.getHTML());
+        if (html == null) {
+            return null;
+        }
+        String source = fromHTML(html, syntaxId);
+        int revision = this.conversionSessions.add(sessionId, html, source);
+        return new ContentChange(revision, base.getSource(), source);
+    }
+
     @Override
     public String parseAndRender(String dirtyHTML, String syntaxId)
     {
@@ -198,6 +527,56 @@ public String parseAndRender(String dirtyHTML, String syntaxId)
         }
     }
 
+    /**
+     * The rendering of a top level block to HTML can be memoized only if it doesn't depend on the rest of the content
+     * or on the state of the wiki (see {@link BlockCacheKeyBuilder}). The keys are built from the parsed blocks, in a
+     * single walk, without rendering them.
+     * 
+     * @param xdom the XDOM to be transformed
+     * @param syntax the syntax of the source content
+     * @return the keys used to memoize the rendering of the top level blocks to HTML, {@code null} for the blocks whose
+     *         rendering can't be memoized
+     */
+    private List<List<Object>> getToHTMLBlockCacheKeys(XDOM xdom, Syntax syntax)
+    {
+        // The output of the macros depends also on the edited document, the current user and locale.
+        List<Object> prefix = getMacroCacheKeyPrefix(syntax);
+        Set<String> contextFreeMacros = Collections.emptySet();
+        if (prefix == null) {
+            prefix = Collections.<Object>singletonList(syntax);
+        } else {
+            contextFreeMacros = getMacros(CACHEABLE_MACROS_PROPERTY);
+        }
+        BlockCacheKeyBuilder keyBuilder = new BlockCacheKeyBuilder(contextFreeMacros);
+        List<List<Object>> keys = new ArrayList<List<Object>>();
+        for (Block block : xdom.getChildren()) {
+            List<Object> blockKey = keyBuilder.getKey(block);
+            List<Object> key = null;
+            if (blockKey != null) {
+                key = new ArrayList<Object>(prefix);
+                key.add(blockKey);
+            }
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    /**
+     * Renders the given XDOM reusing the memoized rendering of its top level blocks.
+     * 
+     * @param xdom the XDOM to render
+     * @param keys the block cache keys of the top level blocks, {@code null} for the blocks that can't be memoized
+     * @param printRendererFactory the factory used to create the renderer for the target syntax
+     * @return the result of rendering the given XDOM, or {@code null} if the rendering can't be memoized
+     */
+    private String renderMemoized(XDOM xdom, List<List<Object>> keys, PrintRendererFactory printRendererFactory)
+    {
+        String output = new MemoizedXDOMRenderer(printRendererFactory, this.blockConversionCache).render(xdom, keys);
+        this.logger.debug("Block conversion cache hit rate [{}], size [{}].", this.blockConversionCache.getHitRate(),
+            this.blockConversionCache.getSize());
+        return output;
+    }
+
     private void executeMacroTransformation(XDOM xdom, Syntax syntax) throws TransformationException, ParseException
     {
         TransformationContext txContext = new TransformationContext();
@@ -209,6 +588,279 @@ private void executeMacroTransformation(XDOM xdom, Syntax syntax) throws Transfo
         // in the first one...
         txContext.setId(TRANSFORMATION_ID);
 
+        Set<String> statefulMacros = new HashSet<String>(this.editorConfiguration.getStatefulMacros());
+
+        if (!isDeferredMacrosDisabled()) {
+            collapseMacros(xdom, statefulMacros);
+        }
+
+        List<Object> refreshSessionKey = getRefreshSessionKey(syntax);
+        if (refreshSessionKey != null) {
+            this.refreshSessions.reuse(refreshSessionKey, xdom, statefulMacros);
+        }
+
+        Set<String> cacheableMacros = getMacros(CACHEABLE_MACROS_PROPERTY);
+        List<Object> cacheKeyPrefix = cacheableMacros.isEmpty() ? null : getMacroCacheKeyPrefix(syntax);
+        if (cacheKeyPrefix != null) {
+            useCachedMacroOutput(xdom, cacheableMacros, cacheKeyPrefix);
+        }
+
+        if (!isDeferredMacrosDisabled()) {
+            deferMacros(xdom, getMacros(DEFERRED_MACROS_PROPERTY));
+        }
+
         ((MutableRenderingContext) this.renderingContext).transformInContext(this.macroTransformation, txContext, xdom);
+
+        if (cacheKeyPrefix != null) {
+            cacheMacroOutput(xdom, cacheableMacros, cacheKeyPrefix);
+        }
+
+        if (refreshSessionKey != null) {
+            this.refreshSessions.store(refreshSessionKey, xdom, statefulMacros, NOT_REUSABLE_MATCHER);
+        }
+    }
+
+    /**
+     * The editing session is identified by a token sent by the editor, but the macro output depends also on the edited
+     * document, the current user (access rights) and the current locale.
+     * 
+     * @param syntax the syntax of the macro content
+     * @return the key of the editing session whose content is refreshed, or {@code null} if the macro calls must all
+     *         be executed
+     */
+    private List<Object> getRefreshSessionKey(Syntax syntax)
+    {
+        ExecutionContext context = this.execution.getContext();
+        Object sessionToken = context != null ? context.getProperty(REFRESH_SESSION) : null;
+        List<Object> prefix = sessionToken != null ? getMacroCacheKeyPrefix(syntax) : null;
+        if (prefix == null) {
+            return null;
+        }
+        List<Object> key = new ArrayList<Object>(prefix);
+        key.add(sessionToken);
+        return key;
+    }
+
+    /**
+     * @param property a configuration property that holds a list of macros
+     * @return the identifiers of the macros listed by the specified configuration property
+     */
+    private Set<String> getMacros(String property)
+    {
+        List<?> macros = this.configuration.getProperty(property, List.class);
+        if (macros == null || macros.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> macroIds = new HashSet<String>();
+        for (Object macro : macros) {
+            macroIds.add(String.valueOf(macro).trim());
+        }
+        return macroIds;
+    }
+
+    /**
+     * @return {@code true} if the slow macros must be executed right away, {@code false} if their rendering can be
+     *         deferred
+     */
+    private boolean isDeferredMacrosDisabled()
+    {
+        ExecutionContext context = this.execution.getContext();
+        return context != null && Boolean.TRUE.equals(context.getProperty(DISABLE_DEFERRED_MACROS));
+    }
+
+    /**
+     * Replaces the calls to the specified macros with macro marker blocks that wrap a place-holder, so that they are
+     * not executed by the macro transformation. The editor recognizes the place-holder and requests the macro output
+     * separately.
+     * 
+     * @param xdom the XDOM to be transformed
+     * @param deferredMacros the macros whose rendering is deferred
+     */
+    private void deferMacros(XDOM xdom, Set<String> deferredMacros)
+    {
+        if (deferredMacros.isEmpty()) {
+            return;
+        }
+        List<MacroBlock> macroBlocks = xdom.getBlocks(new ClassBlockMatcher(MacroBlock.class), Axes.DESCENDANT);
+        for (MacroBlock macroBlock : macroBlocks) {
+            if (deferredMacros.contains(macroBlock.getId())) {
+                replaceWithPlaceHolder(macroBlock, DEFERRED_MACRO_CLASS);
+            }
+        }
+    }
+
+    /**
+     * Replaces the macro calls that the user has collapsed on the edited page with macro marker blocks that wrap a
+     * place-holder, so that their output is not sent to the editor. The editor requests the macro output when the
+     * user expands the macro. Stateful macros are always executed because the following macros may depend on them.
+     * 
+     * @param xdom the XDOM to be transformed
+     * @param statefulMacros the macros that are always executed
+     */
+    private void collapseMacros(XDOM xdom, Set<String> statefulMacros)
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        XWikiDocument document = xcontext != null ? xcontext.getDoc() : null;
+        if (document == null) {
+            return;
+        }
+        Set<List<Object>> collapsedCalls = new HashSet<List<Object>>();
+        for (String macroCall : this.collapsedMacroPreferences.getCollapsedMacros(document.getDocumentReference())) {
+            try {
+                XDOM macroCallXDOM =
+                    this.xhtmlParser.parse(new StringReader(String.format("<!--%s--><!--stopmacro-->", macroCall)));
+                MacroBlock macroBlock =
+                    macroCallXDOM.getFirstBlock(new ClassBlockMatcher(MacroBlock.class), Axes.DESCENDANT);
+                if (macroBlock != null) {
+                    collapsedCalls.add(
+                        Arrays.<Object>asList(macroBlock.getId(), macroBlock.getParameters(), macroBlock.getContent()));
+                }
+            } catch (ParseException e) {
+                // Ignore the invalid macro calls.
+                this.logger.debug("Failed to parse the collapsed macro call [{}].", macroCall, e);
+            }
+        }
+        if (collapsedCalls.isEmpty()) {
+            return;
+        }
+
+        List<MacroBlock> macroBlocks = xdom.getBlocks(new ClassBlockMatcher(MacroBlock.class), Axes.DESCENDANT);
+        for (MacroBlock macroBlock : macroBlocks) {
+            if (!statefulMacros.contains(macroBlock.getId()) && collapsedCalls.contains(
+                Arrays.<Object>asList(macroBlock.getId(), macroBlock.getParameters(), macroBlock.getContent()))) {
+                replaceWithPlaceHolder(macroBlock, DEFERRED_MACRO_CLASS + ' ' + LAZY_MACRO_CLASS);
+            }
+        }
+    }
+
+    /**
+     * Replaces the given macro call with a macro marker block that wraps a place-holder, so that it is not executed by
+     * the macro transformation.
+     * 
+     * @param macroBlock the macro call to replace
+     * @param cssClass the CSS class of the place-holder
+     */
+    private void replaceWithPlaceHolder(MacroBlock macroBlock, String cssClass)
+    {
+        Map<String, String> placeHolderParameters = Collections.singletonMap(CLASS_PARAMETER, cssClass);
+        Block placeHolder = macroBlock.isInline()
+            ? new FormatBlock(Collections.<Block>emptyList(), Format.NONE, placeHolderParameters)
+            : new GroupBlock(placeHolderParameters);
+        macroBlock.getParent().replaceChild(new MacroMarkerBlock(macroBlock.getId(), macroBlock.getParameters(),
+            macroBlock.getContent(), Collections.singletonList(placeHolder), macroBlock.isInline()), macroBlock);
+    }
+
+    /**
+     * The output of a macro call depends also on the edited document (and its version, since the macro can reference
+     * the document content or objects), on the current user (access rights) and on the current locale. It can depend
+     * on other documents too, so the key includes the {@link #documentGeneration}.
+     * 
+     * @param syntax the syntax of the macro content
+     * @return the common part of the macro cache keys, or {@code null} if the macro output can't be cached
+     */
+    private List<Object> getMacroCacheKeyPrefix(Syntax syntax)
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        if (xcontext == null) {
+            return null;
+        }
+        XWikiDocument document = xcontext.getDoc();
+        return Arrays.<Object>asList(syntax, document != null ? document.getDocumentReference() : null,
+            document != null ? document.getVersion() : null, xcontext.getUserReference(), xcontext.getLocale(),
+            this.documentGeneration.get());
+    }
+
+    /**
+     * @param prefix the common part of the macro cache keys
+     * @param id the macro identifier
+     * @param parameters the macro parameters
+     * @param content the macro content
+     * @param inline whether the macro is called in-line or not
+     * @return the key used to cache the output of the specified macro call
+     */
+    private List<Object> getMacroCacheKey(List<Object> prefix, String id, Map<String, String> parameters,
+        String content, boolean inline)
+    {
+        List<Object> key = new ArrayList<Object>(prefix);
+        // Copy the parameters because the key outlives the macro block.
+        key.addAll(Arrays.asList(id, new LinkedHashMap<String, String>(parameters), content, inline));
+        return key;
+    }
+
+    /**
+     * Replaces the cacheable macro calls whose output is cached with macro marker blocks that wrap the cached output,
+     * so that they are not executed by the macro transformation.
+     * 
+     * @param xdom the XDOM to be transformed
+     * @param cacheableMacros the macros whose output can be cached
+     * @param cacheKeyPrefix the common part of the macro cache keys
+     */
+    private void useCachedMacroOutput(XDOM xdom, Set<String> cacheableMacros, List<Object> cacheKeyPrefix)
+    {
+        List<MacroBlock> macroBlocks = xdom.getBlocks(new ClassBlockMatcher(MacroBlock.class), Axes.DESCENDANT);
+        for (MacroBlock macroBlock : macroBlocks) {
+            if (cacheableMacros.contains(macroBlock.getId())) {
+                List<Block> output = this.macroOutputCache.get(getMacroCacheKey(cacheKeyPrefix, macroBlock.getId(),
+                    macroBlock.getParameters(), macroBlock.getContent(), macroBlock.isInline()));
+                if (output != null) {
+                    macroBlock.getParent().replaceChild(new MacroMarkerBlock(macroBlock.getId(),
+                        macroBlock.getParameters(), macroBlock.getContent(), output, macroBlock.isInline()),
+                        macroBlock);
+                }
+            }
+        }
+    }
+
+    /**
+     * Caches the output of the cacheable macro calls that have been executed without errors. The macros whose
+     * rendering has been deferred are skipped.
+     * 
+     * @param xdom the transformed XDOM
+     * @param cacheableMacros the macros whose output can be cached
+     * @param cacheKeyPrefix the common part of the macro cache keys
+     */
+    private void cacheMacroOutput(XDOM xdom, Set<String> cacheableMacros, List<Object> cacheKeyPrefix)
+    {
+        List<MacroMarkerBlock> markerBlocks =
+            xdom.getBlocks(new ClassBlockMatcher(MacroMarkerBlock.class), Axes.DESCENDANT);
+        for (MacroMarkerBlock markerBlock : markerBlocks) {
+            if (cacheableMacros.contains(markerBlock.getId())) {
+                List<Object> key = getMacroCacheKey(cacheKeyPrefix, markerBlock.getId(), markerBlock.getParameters(),
+                    markerBlock.getContent(), markerBlock.isInline());
+                if (!this.macroOutputCache.contains(key)
+                    && markerBlock.getFirstBlock(ERROR_MATCHER, Axes.DESCENDANT) == null
+                    && markerBlock.getFirstBlock(DEFERRED_MATCHER, Axes.DESCENDANT) == null) {
+                    this.macroOutputCache.put(key, markerBlock.getChildren());
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches the blocks that have the specified CSS class.
+     */
+    private static final class CSSClassBlockMatcher implements BlockMatcher
+    {
+        /**
+         * The CSS class to look for.
+         */
+        private final String cssClass;
+
+        /**
+         * Creates a new matcher.
+         * 
+         * @param cssClass the CSS class to look for
+         */
+        CSSClassBlockMatcher(String cssClass)
+        {
+            this.cssClass = cssClass;
+        }
+
+        @Override
+        public boolean match(Block block)
+        {
+            String classNames = block.getParameter(CLASS_PARAMETER);
+            return classNames != null && classNames.contains(this.cssClass);
+        }
     }
 }
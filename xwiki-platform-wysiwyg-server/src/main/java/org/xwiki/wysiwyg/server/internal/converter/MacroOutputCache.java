@@ -0,0 +1,178 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.Block.Axes;
+import org.xwiki.rendering.block.match.ClassBlockMatcher;
+
+/**
+ * Caches the output of macro calls, i.e. the child blocks of the macro marker blocks produced by the macro
+ * transformation, so that they can be reused when the same macro call is rendered again. The cache is bounded by the
+ * total number of cached blocks and the least recently used entries are evicted first.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class MacroOutputCache
+{
+    /**
+     * The initial capacity of the cache index.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The load factor of the cache index.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * Matches any block.
+     */
+    private static final ClassBlockMatcher ANY_BLOCK_MATCHER = new ClassBlockMatcher(Block.class);
+
+    /**
+     * The maximum number of cached blocks.
+     */
+    private final int maxSize;
+
+    /**
+     * The cached macro output, in access order.
+     */
+    private final Map<List<Object>, List<Block>> entries =
+        new LinkedHashMap<List<Object>, List<Block>>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    /**
+     * The number of blocks of each cache entry.
+     */
+    private final Map<List<Object>, Integer> entrySizes = new LinkedHashMap<List<Object>, Integer>();
+
+    /**
+     * The total number of cached blocks.
+     */
+    private int size;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize the maximum number of cached blocks
+     */
+    public MacroOutputCache(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param key the macro call key
+     * @return a copy of the cached output of the specified macro call, or {@code null} if it's not cached
+     */
+    public synchronized List<Block> get(List<Object> key)
+    {
+        List<Block> output = this.entries.get(key);
+        return output == null ? null : copy(output);
+    }
+
+    /**
+     * @param key the macro call key
+     * @return {@code true} if the output of the specified macro call is cached, {@code false} otherwise
+     */
+    public synchronized boolean contains(List<Object> key)
+    {
+        return this.entries.containsKey(key);
+    }
+
+    /**
+     * Caches a copy of the given macro output. The output is not cached if it's larger than the cache.
+     *
+     * @param key the macro call key
+     * @param output the macro output
+     */
+    public synchronized void put(List<Object> key, List<Block> output)
+    {
+        int outputSize = 0;
+        for (Block block : output) {
+            outputSize += block.getBlocks(ANY_BLOCK_MATCHER, Axes.DESCENDANT_OR_SELF).size();
+        }
+        if (outputSize > this.maxSize) {
+            return;
+        }
+
+        remove(key);
+        this.entries.put(key, copy(output));
+        this.entrySizes.put(key, outputSize);
+        this.size += outputSize;
+
+        Iterator<List<Object>> iterator = this.entries.keySet().iterator();
+        while (this.size > this.maxSize && iterator.hasNext()) {
+            List<Object> eldestKey = iterator.next();
+            iterator.remove();
+            this.size -= this.entrySizes.remove(eldestKey);
+        }
+    }
+
+    /**
+     * Removes all the cache entries.
+     */
+    public synchronized void clear()
+    {
+        this.entries.clear();
+        this.entrySizes.clear();
+        this.size = 0;
+    }
+
+    /**
+     * @return the total number of cached blocks
+     */
+    public synchronized int getSize()
+    {
+        return this.size;
+    }
+
+    /**
+     * Removes the specified cache entry.
+     *
+     * @param key the macro call key
+     */
+    private void remove(List<Object> key)
+    {
+        if (this.entries.remove(key) != null) {
+            this.size -= this.entrySizes.remove(key);
+        }
+    }
+
+    /**
+     * @param blocks a list of blocks
+     * @return a deep copy of the given list of blocks
+     */
+    private List<Block> copy(List<Block> blocks)
+    {
+        List<Block> copy = new ArrayList<Block>(blocks.size());
+        for (Block block : blocks) {
+            copy.add(block.clone());
+        }
+        return copy;
+    }
+}
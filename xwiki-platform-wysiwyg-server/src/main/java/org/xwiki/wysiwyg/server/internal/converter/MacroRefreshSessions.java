@@ -0,0 +1,237 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.Block.Axes;
+import org.xwiki.rendering.block.MacroBlock;
+import org.xwiki.rendering.block.MacroMarkerBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.block.match.BlockMatcher;
+import org.xwiki.rendering.block.match.ClassBlockMatcher;
+
+/**
+ * Keeps the output of the macros rendered during the last refresh of each editing session, so that the next refresh
+ * re-executes only the macro calls that changed.
+ * <p>
+ * A macro call is reused only if it's not stateful and if none of the stateful macro calls changed. Stateful macros
+ * (e.g. script macros, which can define variables used by the following macros, or macros that depend on the rest of
+ * the content, like the table of contents) are always executed.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class MacroRefreshSessions
+{
+    /**
+     * The initial capacity of the session map.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The load factor of the session map.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * Matches the macro blocks.
+     */
+    private static final BlockMatcher MACRO_MATCHER = new ClassBlockMatcher(MacroBlock.class);
+
+    /**
+     * Matches the macro marker blocks.
+     */
+    private static final BlockMatcher MACRO_MARKER_MATCHER = new ClassBlockMatcher(MacroMarkerBlock.class);
+
+    /**
+     * The maximum number of editing sessions to keep.
+     */
+    private final int maxSessions;
+
+    /**
+     * The last refresh of each editing session, in access order.
+     */
+    private final Map<List<Object>, Refresh> sessions =
+        new LinkedHashMap<List<Object>, Refresh>(INITIAL_CAPACITY, LOAD_FACTOR, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Refresh> eldest)
+            {
+                return size() > maxSessions;
+            }
+        };
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxSessions the maximum number of editing sessions to keep
+     */
+    public MacroRefreshSessions(int maxSessions)
+    {
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Replaces the macro calls that didn't change since the last refresh of the specified editing session with macro
+     * marker blocks that wrap a copy of their previous output, so that they are not executed by the macro
+     * transformation.
+     *
+     * @param sessionKey identifies the editing session
+     * @param xdom the XDOM to be transformed
+     * @param statefulMacros the macros that are always executed
+     * @return the number of reused macro calls
+     */
+    public int reuse(List<Object> sessionKey, XDOM xdom, Set<String> statefulMacros)
+    {
+        Refresh previous;
+        synchronized (this.sessions) {
+            previous = this.sessions.get(sessionKey);
+        }
+        List<MacroBlock> macroBlocks = xdom.getBlocks(MACRO_MATCHER, Axes.DESCENDANT);
+        if (previous == null || !previous.statefulCalls.equals(getStatefulCalls(macroBlocks, statefulMacros))) {
+            return 0;
+        }
+
+        int count = 0;
+        for (MacroBlock macroBlock : macroBlocks) {
+            List<Block> output = previous.outputs.get(getKey(macroBlock.getId(), macroBlock.getParameters(),
+                macroBlock.getContent(), macroBlock.isInline()));
+            if (output != null) {
+                macroBlock.getParent().replaceChild(new MacroMarkerBlock(macroBlock.getId(),
+                    macroBlock.getParameters(), macroBlock.getContent(), copy(output), macroBlock.isInline()),
+                    macroBlock);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Remembers the output of the top level macro calls from the given transformed XDOM.
+     *
+     * @param sessionKey identifies the editing session
+     * @param xdom the transformed XDOM
+     * @param statefulMacros the macros that are always executed
+     * @param excludedOutput matches the macro output that must not be reused (e.g. rendering errors)
+     */
+    public void store(List<Object> sessionKey, XDOM xdom, Set<String> statefulMacros, BlockMatcher excludedOutput)
+    {
+        List<List<Object>> statefulCalls = new ArrayList<List<Object>>();
+        Map<List<Object>, List<Block>> outputs = new HashMap<List<Object>, List<Block>>();
+        for (Block block : xdom.getBlocks(MACRO_MARKER_MATCHER, Axes.DESCENDANT)) {
+            MacroMarkerBlock markerBlock = (MacroMarkerBlock) block;
+            if (markerBlock.getFirstBlock(MACRO_MARKER_MATCHER, Axes.ANCESTOR) != null) {
+                // Nested macro call.
+                continue;
+            }
+            List<Object> key = getKey(markerBlock.getId(), markerBlock.getParameters(), markerBlock.getContent(),
+                markerBlock.isInline());
+            if (statefulMacros.contains(markerBlock.getId())) {
+                statefulCalls.add(key);
+            } else if (markerBlock.getFirstBlock(excludedOutput, Axes.DESCENDANT) == null) {
+                // Copy the output in order to not keep a reference to the entire XDOM.
+                outputs.put(key, copy(markerBlock.getChildren()));
+            }
+        }
+        synchronized (this.sessions) {
+            this.sessions.put(sessionKey, new Refresh(statefulCalls, outputs));
+        }
+    }
+
+    /**
+     * @param macroBlocks the macro calls from an XDOM, in document order
+     * @param statefulMacros the macros that are always executed
+     * @return the stateful macro calls, in document order
+     */
+    private List<List<Object>> getStatefulCalls(List<MacroBlock> macroBlocks, Set<String> statefulMacros)
+    {
+        List<List<Object>> statefulCalls = new ArrayList<List<Object>>();
+        for (MacroBlock macroBlock : macroBlocks) {
+            if (statefulMacros.contains(macroBlock.getId())) {
+                statefulCalls.add(getKey(macroBlock.getId(), macroBlock.getParameters(), macroBlock.getContent(),
+                    macroBlock.isInline()));
+            }
+        }
+        return statefulCalls;
+    }
+
+    /**
+     * @param id the macro identifier
+     * @param parameters the macro parameters
+     * @param content the macro content
+     * @param inline whether the macro is called in-line or not
+     * @return the key that identifies the specified macro call
+     */
+    private List<Object> getKey(String id, Map<String, String> parameters, String content, boolean inline)
+    {
+        return Arrays.<Object>asList(id, parameters, content, inline);
+    }
+
+    /**
+     * @param blocks a list of blocks
+     * @return a deep copy of the given list of blocks
+     */
+    private List<Block> copy(List<Block> blocks)
+    {
+        List<Block> copy = new ArrayList<Block>(blocks.size());
+        for (Block block : blocks) {
+            copy.add(block.clone());
+        }
+        return copy;
+    }
+
+    /**
+     * The result of a refresh.
+     */
+    private static final class Refresh
+    {
+        /**
+         * The stateful macro calls, in document order.
+         */
+        private final List<List<Object>> statefulCalls;
+
+        /**
+         * The output of the macro calls that can be reused.
+         */
+        private final Map<List<Object>, List<Block>> outputs;
+
+        /**
+         * Creates a new refresh result.
+         *
+         * @param statefulCalls the stateful macro calls, in document order
+         * @param outputs the output of the macro calls that can be reused
+         */
+        Refresh(List<List<Object>> statefulCalls, Map<List<Object>, List<Block>> outputs)
+        {
+            this.statefulCalls = statefulCalls;
+            this.outputs = outputs;
+        }
+    }
+}
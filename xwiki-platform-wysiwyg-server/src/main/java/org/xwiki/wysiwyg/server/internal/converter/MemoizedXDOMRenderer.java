@@ -0,0 +1,182 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+
+/**
+ * Renders a XDOM by reusing the memoized rendering of its top level blocks, so that only the blocks that changed since
+ * the last conversion are rendered. This works only for XDOMs whose top level blocks are independent (e.g. a transformed
+ * XDOM whose top level blocks don't depend on the rest of the content, see {@link BlockCacheKeyBuilder}).
+ * <p>
+ * The consecutive top level blocks that can't be memoized are rendered together. The separator that the renderer writes
+ * between two top level blocks (e.g. the empty line between two paragraphs in wiki syntax) is computed by rendering
+ * the two adjacent blocks together, like {@link ChunkedXDOMRenderer} does, and it is memoized too when both blocks can
+ * be memoized.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class MemoizedXDOMRenderer
+{
+    /**
+     * Marks the cache keys of the separators.
+     */
+    private static final String SEPARATOR = "separator";
+
+    /**
+     * The factory used to create the renderer for the target syntax.
+     */
+    private final PrintRendererFactory rendererFactory;
+
+    /**
+     * The memoized rendering of the top level blocks.
+     */
+    private final BlockConversionCache cache;
+
+    /**
+     * Creates a new renderer.
+     *
+     * @param rendererFactory the factory used to create the renderer for the target syntax
+     * @param cache the memoized rendering of the top level blocks
+     */
+    public MemoizedXDOMRenderer(PrintRendererFactory rendererFactory, BlockConversionCache cache)
+    {
+        this.rendererFactory = rendererFactory;
+        this.cache = cache;
+    }
+
+    /**
+     * Renders the given XDOM.
+     *
+     * @param xdom the XDOM to render
+     * @param keys the cache keys of the top level blocks of the given XDOM, {@code null} for the blocks whose rendering
+     *            can't be memoized
+     * @return the result of rendering the given XDOM, the same as if it was rendered sequentially, or {@code null} if
+     *         the rendering of the top level blocks can't be stitched together
+     */
+    public String render(XDOM xdom, List<List<Object>> keys)
+    {
+        List<Block> blocks = xdom.getChildren();
+        // The rendering of the blocks can't be stitched together if the renderer writes something around the blocks.
+        if (!render(Collections.<Block>emptyList(), xdom.getMetaData()).isEmpty()) {
+            return null;
+        }
+
+        StringBuilder output = new StringBuilder();
+        // The output of the previous top level block, if it was memoized.
+        String previousOutput = null;
+        int start = 0;
+        while (start < blocks.size()) {
+            List<Object> key = keys.get(start);
+            int end = start + 1;
+            String segmentOutput;
+            if (key != null) {
+                segmentOutput = this.cache.get(key);
+                if (segmentOutput == null) {
+                    segmentOutput = render(Collections.singletonList(blocks.get(start)), xdom.getMetaData());
+                    this.cache.put(key, segmentOutput);
+                }
+            } else {
+                while (end < blocks.size() && keys.get(end) == null) {
+                    end++;
+                }
+                segmentOutput = render(blocks.subList(start, end), xdom.getMetaData());
+            }
+
+            if (start > 0) {
+                String separator = getSeparator(blocks.get(start - 1), keys.get(start - 1), previousOutput,
+                    blocks.get(start), key, key != null ? segmentOutput : null, xdom.getMetaData());
+                if (separator == null) {
+                    return null;
+                }
+                output.append(separator);
+            }
+            output.append(segmentOutput);
+
+            previousOutput = key != null ? segmentOutput : null;
+            start = end;
+        }
+        return output.toString();
+    }
+
+    /**
+     * @param previous a top level block
+     * @param previousKey the cache key of the previous block, {@code null} if it can't be memoized
+     * @param previousOutput the rendering of the previous block, {@code null} if not known
+     * @param next the top level block that follows the previous block
+     * @param nextKey the cache key of the next block, {@code null} if it can't be memoized
+     * @param nextOutput the rendering of the next block, {@code null} if not known
+     * @param metaData the XDOM meta data
+     * @return the separator written by the renderer between the given blocks, or {@code null} if it can't be
+     *         determined
+     */
+    private String getSeparator(Block previous, List<Object> previousKey, String previousOutput, Block next,
+        List<Object> nextKey, String nextOutput, MetaData metaData)
+    {
+        List<Object> separatorKey = null;
+        if (previousKey != null && nextKey != null) {
+            separatorKey = Arrays.<Object>asList(SEPARATOR, previousKey, nextKey);
+            String separator = this.cache.get(separatorKey);
+            if (separator != null) {
+                return separator;
+            }
+        }
+
+        String first = previousOutput != null ? previousOutput : render(Collections.singletonList(previous), metaData);
+        String second = nextOutput != null ? nextOutput : render(Collections.singletonList(next), metaData);
+        String both = render(Arrays.asList(previous, next), metaData);
+        if (both.length() < first.length() + second.length() || !both.startsWith(first) || !both.endsWith(second)) {
+            return null;
+        }
+        String separator = both.substring(first.length(), both.length() - second.length());
+        if (separatorKey != null) {
+            this.cache.put(separatorKey, separator);
+        }
+        return separator;
+    }
+
+    /**
+     * @param blocks the blocks to render
+     * @param metaData the XDOM meta data
+     * @return the result of rendering the given blocks as a document
+     */
+    private String render(List<Block> blocks, MetaData metaData)
+    {
+        // Don't modify the given XDOM (e.g. the parent of its child blocks).
+        List<Block> copy = new ArrayList<Block>(blocks.size());
+        for (Block block : blocks) {
+            copy.add(block.clone());
+        }
+        WikiPrinter printer = new DefaultWikiPrinter();
+        new XDOM(copy, metaData).traverse(this.rendererFactory.createRenderer(printer));
+        return printer.toString();
+    }
+}
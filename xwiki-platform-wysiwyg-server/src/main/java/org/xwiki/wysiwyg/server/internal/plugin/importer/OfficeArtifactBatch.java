@@ -0,0 +1,210 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.plugin.importer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Attaches the artifacts (e.g. images) extracted from an imported office file to the target wiki document using a
+ * single document save. The artifacts that are identical to the attachments already present on the target document are
+ * skipped. The current user must have edit right on the target document.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class OfficeArtifactBatch
+{
+    /**
+     * The document where the artifacts are attached.
+     */
+    private final DocumentReference targetDocumentReference;
+
+    /**
+     * Used to check if the current user is allowed to modify the target document.
+     */
+    private final ContextualAuthorizationManager authorization;
+
+    /**
+     * The XWiki context.
+     */
+    private final XWikiContext xcontext;
+
+    /**
+     * The modified target document, {@code null} as long as no artifact has been attached.
+     */
+    private XWikiDocument document;
+
+    /**
+     * The number of attached artifacts.
+     */
+    private int count;
+
+    /**
+     * Creates a new batch of artifacts.
+     *
+     * @param targetDocumentReference the document where the artifacts are attached
+     * @param authorization used to check if the current user is allowed to modify the target document
+     * @param xcontext the XWiki context
+     */
+    public OfficeArtifactBatch(DocumentReference targetDocumentReference,
+        ContextualAuthorizationManager authorization, XWikiContext xcontext)
+    {
+        this.targetDocumentReference = targetDocumentReference;
+        this.authorization = authorization;
+        this.xcontext = xcontext;
+    }
+
+    /**
+     * Adds an artifact to this batch.
+     *
+     * @param name the artifact name
+     * @param content the artifact content
+     * @return {@code true} if the artifact is attached, {@code false} if the target document already has an identical
+     *         attachment
+     * @throws IOException if reading the artifact content fails
+     * @throws XWikiException if loading the target document fails
+     */
+    public boolean add(String name, byte[] content) throws IOException, XWikiException
+    {
+        XWikiAttachment attachment = getDocument().getAttachment(name);
+        if (attachment != null && attachment.getLongSize() == content.length
+            && isSameContent(attachment, new ByteArrayInputStream(content))) {
+            return false;
+        }
+
+        return attach(name, new ByteArrayInputStream(content));
+    }
+
+    /**
+     * Adds an artifact to this batch. The content is streamed from the given file.
+     *
+     * @param name the artifact name
+     * @param content the file that holds the artifact content
+     * @return {@code true} if the artifact is attached, {@code false} if the target document already has an identical
+     *         attachment
+     * @throws IOException if reading the artifact content fails
+     * @throws XWikiException if loading the target document fails
+     */
+    public boolean add(String name, File content) throws IOException, XWikiException
+    {
+        XWikiAttachment attachment = getDocument().getAttachment(name);
+        if (attachment != null && attachment.getLongSize() == content.length()
+            && isSameContent(attachment, new FileInputStream(content))) {
+            return false;
+        }
+
+        return attach(name, new FileInputStream(content));
+    }
+
+    /**
+     * Saves the target document, if at least one artifact has been attached.
+     *
+     * @throws XWikiException if saving the target document fails
+     */
+    public void save() throws XWikiException
+    {
+        if (this.count > 0) {
+            checkEditRight();
+            this.document.setAuthorReference(this.xcontext.getUserReference());
+            String comment = String.format("Attached %s artifacts from the imported office file.", this.count);
+            this.xcontext.getWiki().saveDocument(this.document, comment, true, this.xcontext);
+            this.count = 0;
+        }
+    }
+
+    /**
+     * Attaches the given content to the target document.
+     *
+     * @param name the attachment name
+     * @param content the attachment content, closed by this method
+     * @return {@code true}
+     * @throws IOException if reading the content fails
+     * @throws XWikiException if loading the target document fails
+     */
+    private boolean attach(String name, InputStream content) throws IOException, XWikiException
+    {
+        try {
+            getDocument().addAttachment(name, content, this.xcontext);
+        } finally {
+            IOUtils.closeQuietly(content);
+        }
+        this.count++;
+        return true;
+    }
+
+    /**
+     * @return the target document, cloned in order to not modify the cached instance
+     * @throws XWikiException if loading the target document fails
+     */
+    private XWikiDocument getDocument() throws XWikiException
+    {
+        if (this.document == null) {
+            checkEditRight();
+            this.document =
+                this.xcontext.getWiki().getDocument(this.targetDocumentReference, this.xcontext).clone();
+        }
+        return this.document;
+    }
+
+    /**
+     * @throws SecurityException if the current user is not allowed to modify the target document
+     */
+    private void checkEditRight()
+    {
+        if (!this.authorization.hasAccess(Right.EDIT, this.targetDocumentReference)) {
+            throw new SecurityException(
+                String.format("You are not allowed to attach files to [%s].", this.targetDocumentReference));
+        }
+    }
+
+    /**
+     * @param attachment an existing attachment
+     * @param content some content, closed by this method
+     * @return {@code true} if the given attachment has the given content, {@code false} otherwise
+     * @throws IOException if reading the content fails
+     * @throws XWikiException if reading the attachment content fails
+     */
+    private boolean isSameContent(XWikiAttachment attachment, InputStream content) throws IOException, XWikiException
+    {
+        InputStream attachmentContent = null;
+        try {
+            attachmentContent = attachment.getContentInputStream(this.xcontext);
+            return DigestUtils.sha256Hex(attachmentContent).equals(DigestUtils.sha256Hex(content));
+        } finally {
+            IOUtils.closeQuietly(attachmentContent);
+            IOUtils.closeQuietly(content);
+        }
+    }
+}
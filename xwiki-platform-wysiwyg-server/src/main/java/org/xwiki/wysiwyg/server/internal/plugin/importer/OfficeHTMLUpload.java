@@ -0,0 +1,208 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.plugin.importer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Holds the HTML content that is uploaded in chunks in order to be cleaned, and the result of the cleaning split in
+ * segments. Both the uploaded content and the cleaned content are stored in files so that they don't stay in memory
+ * between requests.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class OfficeHTMLUpload
+{
+    /**
+     * The name of the file that holds the uploaded content.
+     */
+    private static final String INPUT_FILE_NAME = "input.html";
+
+    /**
+     * The directory where the uploaded and cleaned content is stored.
+     */
+    private final File directory;
+
+    /**
+     * The user that uploaded the content.
+     */
+    private final DocumentReference owner;
+
+    /**
+     * The number of characters uploaded so far.
+     */
+    private long length;
+
+    /**
+     * The number of segments of the cleaned content.
+     */
+    private int segmentCount;
+
+    /**
+     * The last time this upload was accessed.
+     */
+    private long lastAccess = System.currentTimeMillis();
+
+    /**
+     * Creates a new upload.
+     *
+     * @param directory the directory where to store the uploaded and cleaned content
+     * @param owner the user that uploads the content
+     */
+    public OfficeHTMLUpload(File directory, DocumentReference owner)
+    {
+        this.directory = directory;
+        this.owner = owner;
+    }
+
+    /**
+     * @return the user that uploaded the content
+     */
+    public DocumentReference getOwner()
+    {
+        return owner;
+    }
+
+    /**
+     * @return the number of characters uploaded so far
+     */
+    public synchronized long getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Appends a chunk of content to the uploaded content.
+     *
+     * @param chunk the chunk of content to append
+     * @throws IOException if writing the content fails or if the uploaded content has already been cleaned
+     */
+    public synchronized void append(String chunk) throws IOException
+    {
+        if (isCleaned()) {
+            throw new IOException("The uploaded content has already been cleaned.");
+        }
+        lastAccess = System.currentTimeMillis();
+        FileUtils.writeStringToFile(new File(directory, INPUT_FILE_NAME), chunk, StandardCharsets.UTF_8, true);
+        length += chunk.length();
+    }
+
+    /**
+     * @return a reader for the uploaded content; the caller is responsible for closing it
+     * @throws IOException if opening the uploaded content fails
+     */
+    public Reader getInput() throws IOException
+    {
+        return new InputStreamReader(new FileInputStream(new File(directory, INPUT_FILE_NAME)),
+            StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stores the cleaned content, split in segments, and removes the uploaded content.
+     *
+     * @param output the cleaned content
+     * @param segmentSize the maximum number of characters per segment
+     * @return the number of segments
+     * @throws IOException if writing the cleaned content fails
+     */
+    public synchronized int setOutput(String output, int segmentSize) throws IOException
+    {
+        lastAccess = System.currentTimeMillis();
+        FileUtils.deleteQuietly(new File(directory, INPUT_FILE_NAME));
+        segmentCount = 0;
+        int offset = 0;
+        do {
+            int end = Math.min(offset + segmentSize, output.length());
+            if (end < output.length() && Character.isHighSurrogate(output.charAt(end - 1))) {
+                // Don't split a surrogate pair because the segments are stored and sent to the client separately.
+                end--;
+            }
+            FileUtils.writeStringToFile(getSegmentFile(segmentCount++), output.substring(offset, end),
+                StandardCharsets.UTF_8);
+            offset = end;
+        } while (offset < output.length());
+        return segmentCount;
+    }
+
+    /**
+     * @return {@code true} if the cleaned content has been stored, {@code false} otherwise
+     */
+    public synchronized boolean isCleaned()
+    {
+        return segmentCount > 0;
+    }
+
+    /**
+     * @return the number of segments of the cleaned content
+     */
+    public synchronized int getSegmentCount()
+    {
+        return segmentCount;
+    }
+
+    /**
+     * @param index the segment index
+     * @return the specified segment of the cleaned content
+     * @throws IOException if reading the segment fails
+     */
+    public synchronized String getSegment(int index) throws IOException
+    {
+        if (index < 0 || index >= segmentCount) {
+            throw new IOException(String.format("Invalid segment index [%s].", index));
+        }
+        lastAccess = System.currentTimeMillis();
+        return FileUtils.readFileToString(getSegmentFile(index), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param timeout the number of milliseconds after which an upload that is not accessed expires
+     * @return {@code true} if this upload wasn't accessed during the specified time, {@code false} otherwise
+     */
+    public synchronized boolean isExpired(long timeout)
+    {
+        return System.currentTimeMillis() - lastAccess > timeout;
+    }
+
+    /**
+     * Removes the uploaded and cleaned content.
+     */
+    public void dispose()
+    {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    /**
+     * @param index the segment index
+     * @return the file that holds the specified segment of the cleaned content
+     */
+    private File getSegmentFile(int index)
+    {
+        return new File(directory, "segment-" + index);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.plugin.importer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Caches the result of importing office files (the annotated XHTML and the list of extracted artifacts) on the local
+ * disk so that importing the same office file again, with the same parameters, doesn't require a new conversion. The
+ * least recently used entries are evicted when the total size of the cache exceeds the configured limit.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class OfficeImportCache
+{
+    /**
+     * The name of the file that holds the annotated XHTML obtained from the imported office file.
+     */
+    private static final String CONTENT_FILE_NAME = "content.xhtml";
+
+    /**
+     * The name of the file that lists the names of the artifacts extracted from the imported office file.
+     */
+    private static final String MANIFEST_FILE_NAME = "manifest.txt";
+
+    /**
+     * The name of the directory that holds the artifacts extracted from the imported office file.
+     */
+    private static final String ARTIFACTS_DIRECTORY_NAME = "artifacts";
+
+    /**
+     * The initial capacity of the cache index.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The load factor of the cache index.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The result of importing an office file, as stored in the cache.
+     */
+    public static class CachedImport
+    {
+        /**
+         * The directory where this entry is stored.
+         */
+        private final File directory;
+
+        /**
+         * The annotated XHTML obtained from the imported office file.
+         */
+        private final String content;
+
+        /**
+         * The names of the artifacts extracted from the imported office file.
+         */
+        private final List<String> artifactNames;
+
+        /**
+         * Creates a new cache entry.
+         *
+         * @param directory the directory where the entry is stored
+         * @param content the annotated XHTML obtained from the imported office file
+         * @param artifactNames the names of the artifacts extracted from the imported office file
+         */
+        CachedImport(File directory, String content, List<String> artifactNames)
+        {
+            this.directory = directory;
+            this.content = content;
+            this.artifactNames = artifactNames;
+        }
+
+        /**
+         * @return the annotated XHTML obtained from the imported office file
+         */
+        public String getContent()
+        {
+            return content;
+        }
+
+        /**
+         * @return the names of the artifacts extracted from the imported office file
+         */
+        public List<String> getArtifactNames()
+        {
+            return artifactNames;
+        }
+
+        /**
+         * NOTE: The returned file can be deleted at any time if the entry is evicted from the cache, so the caller
+         * should be prepared to handle {@link IOException}s when reading it.
+         *
+         * @param artifactName the name of an artifact extracted from the imported office file
+         * @return the file that holds the content of the specified artifact
+         */
+        public File getArtifact(String artifactName)
+        {
+            int index = artifactNames.indexOf(artifactName);
+            return new File(new File(directory, ARTIFACTS_DIRECTORY_NAME), String.valueOf(index));
+        }
+    }
+
+    /**
+     * The directory where the cache entries are stored.
+     */
+    private final File directory;
+
+    /**
+     * The maximum number of bytes the cache is allowed to use on the disk.
+     */
+    private final long maxSize;
+
+    /**
+     * Maps the cache keys to the size of the corresponding entries, from the least recently used to the most recently
+     * used entry.
+     */
+    private final Map<String, Long> entries = new LinkedHashMap<String, Long>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    /**
+     * The number of bytes currently used on the disk.
+     */
+    private long size;
+
+    /**
+     * Creates a new cache that stores its entries in the given directory. Any content left in the given directory is
+     * removed because it can't be indexed.
+     *
+     * @param directory the directory where to store the cache entries
+     * @param maxSize the maximum number of bytes the cache is allowed to use on the disk
+     */
+    public OfficeImportCache(File directory, long maxSize)
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        FileUtils.deleteQuietly(directory);
+        directory.mkdirs();
+    }
+
+    /**
+     * Computes the cache key for the given import parameters.
+     *
+     * @param attachmentReference the serialized reference of the imported office file
+     * @param attachmentVersion the version of the imported office file
+     * @param attachmentDate the date of the imported office file; the version alone is not enough because it restarts
+     *            when the attachment is deleted and uploaded again
+     * @param attachmentSize the size of the imported office file, in bytes
+     * @param filterStyles whether the styles are filtered or not
+     * @param useOfficeViewer whether the office viewer macro is used or not
+     * @return the cache key
+     */
+    public static String getKey(String attachmentReference, String attachmentVersion, Date attachmentDate,
+        long attachmentSize, boolean filterStyles, boolean useOfficeViewer)
+    {
+        return DigestUtils.sha256Hex(String.format("%s\n%s\n%s\n%s\n%s\n%s", attachmentReference, attachmentVersion,
+            attachmentDate != null ? attachmentDate.getTime() : null, attachmentSize, filterStyles, useOfficeViewer));
+    }
+
+    /**
+     * @param key the cache key
+     * @return the cached import result associated with the given key, or {@code null} if there's no such entry
+     * @throws IOException if reading the cached entry fails
+     */
+    public CachedImport get(String key) throws IOException
+    {
+        File entryDirectory = new File(directory, key);
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                return null;
+            }
+        }
+
+        String content =
+            FileUtils.readFileToString(new File(entryDirectory, CONTENT_FILE_NAME), StandardCharsets.UTF_8);
+        List<String> artifactNames =
+            FileUtils.readLines(new File(entryDirectory, MANIFEST_FILE_NAME), StandardCharsets.UTF_8);
+        return new CachedImport(entryDirectory, content, Collections.unmodifiableList(artifactNames));
+    }
+
+    /**
+     * Adds a new entry to the cache, evicting the least recently used entries if the cache is full.
+     *
+     * @param key the cache key
+     * @param content the annotated XHTML obtained from the imported office file
+     * @param artifacts the artifacts extracted from the imported office file
+     * @throws IOException if storing the entry fails
+     */
+    public void put(String key, String content, Map<String, byte[]> artifacts) throws IOException
+    {
+        // Write the entry in a staging directory first so that we don't block the cache while writing.
+        File stagingDirectory = new File(directory, key + '-' + Thread.currentThread().getId() + ".tmp");
+        List<String> artifactNames = new ArrayList<String>(artifacts.keySet());
+        long entrySize;
+        try {
+            FileUtils.writeStringToFile(new File(stagingDirectory, CONTENT_FILE_NAME), content,
+                StandardCharsets.UTF_8);
+            FileUtils.writeLines(new File(stagingDirectory, MANIFEST_FILE_NAME), StandardCharsets.UTF_8.name(),
+                artifactNames, "\n");
+            File artifactsDirectory = new File(stagingDirectory, ARTIFACTS_DIRECTORY_NAME);
+            for (int i = 0; i < artifactNames.size(); i++) {
+                FileUtils.writeByteArrayToFile(new File(artifactsDirectory, String.valueOf(i)),
+                    artifacts.get(artifactNames.get(i)));
+            }
+            entrySize = FileUtils.sizeOfDirectory(stagingDirectory);
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(stagingDirectory);
+            throw e;
+        }
+
+        synchronized (this) {
+            if (entrySize > maxSize || entries.containsKey(key)) {
+                FileUtils.deleteQuietly(stagingDirectory);
+                return;
+            }
+            File entryDirectory = new File(directory, key);
+            if (!stagingDirectory.renameTo(entryDirectory)) {
+                FileUtils.deleteQuietly(stagingDirectory);
+                throw new IOException(String.format("Failed to store the office import cache entry [%s].", key));
+            }
+            entries.put(key, entrySize);
+            size += entrySize;
+            evict();
+        }
+    }
+
+    /**
+     * Removes the specified entry from the cache.
+     *
+     * @param key the cache key
+     */
+    public synchronized void remove(String key)
+    {
+        Long entrySize = entries.remove(key);
+        if (entrySize != null) {
+            size -= entrySize;
+            FileUtils.deleteQuietly(new File(directory, key));
+        }
+    }
+
+    /**
+     * @return the number of bytes currently used on the disk
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache size goes below the limit.
+     */
+    private void evict()
+    {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            size -= entry.getValue();
+            FileUtils.deleteQuietly(new File(directory, entry.getKey()));
+        }
+    }
+}
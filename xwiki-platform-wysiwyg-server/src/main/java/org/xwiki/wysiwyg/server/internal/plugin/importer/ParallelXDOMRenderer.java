@@ -0,0 +1,149 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.plugin.importer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.MetaData;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+
+/**
+ * Renders the top level blocks of an XDOM (e.g. the slides of an imported office presentation) concurrently on a
+ * bounded fork-join pool and then concatenates the results in the original order. The top level blocks are split in
+ * one group of consecutive blocks per pool thread. Each group is rendered in a clone of the caller's execution context
+ * because the renderers may need to access the XWiki context (e.g. to compute attachment URLs), and cloning the
+ * execution context can take longer than rendering a block.
+ *
+ * @version $Id$
+ * @since 9.7RC1
+ */
+public class ParallelXDOMRenderer
+{
+    /**
+     * The component used to render the top level blocks.
+     */
+    private final BlockRenderer renderer;
+
+    /**
+     * Used to access the caller's execution context and to set the execution context of the worker threads.
+     */
+    private final Execution execution;
+
+    /**
+     * Used to clone the caller's execution context.
+     */
+    private final ExecutionContextManager executionContextManager;
+
+    /**
+     * The pool used to render the top level blocks.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a new renderer.
+     *
+     * @param renderer the component used to render the top level blocks
+     * @param execution used to access the execution context
+     * @param executionContextManager used to clone the execution context
+     * @param pool the pool used to render the top level blocks
+     */
+    public ParallelXDOMRenderer(BlockRenderer renderer, Execution execution,
+        ExecutionContextManager executionContextManager, ForkJoinPool pool)
+    {
+        this.renderer = renderer;
+        this.execution = execution;
+        this.executionContextManager = executionContextManager;
+        this.pool = pool;
+    }
+
+    /**
+     * Renders the given XDOM.
+     *
+     * @param xdom the XDOM to render
+     * @return the result of rendering the given XDOM
+     * @throws Exception if rendering one of the top level blocks fails
+     */
+    public String render(XDOM xdom) throws Exception
+    {
+        List<Block> blocks = xdom.getChildren();
+        int groupCount = Math.min(blocks.size(), this.pool.getParallelism());
+        ExecutionContext context = this.execution.getContext();
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>(groupCount);
+        int offset = 0;
+        for (int i = 1; i <= groupCount; i++) {
+            int end = (int) ((long) blocks.size() * i / groupCount);
+            tasks.add(createRenderTask(blocks.subList(offset, end), xdom.getMetaData(), context));
+            offset = end;
+        }
+
+        StringBuilder output = new StringBuilder();
+        for (Future<String> result : this.pool.invokeAll(tasks)) {
+            try {
+                output.append(result.get());
+            } catch (ExecutionException e) {
+                throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            }
+        }
+        return output.toString();
+    }
+
+    /**
+     * @param blocks the top level blocks to render
+     * @param metaData the XDOM meta data
+     * @param context the caller's execution context
+     * @return a task that renders the given blocks one by one, in a clone of the caller's execution context
+     */
+    private Callable<String> createRenderTask(final List<Block> blocks, final MetaData metaData,
+        ExecutionContext context)
+    {
+        final ExecutionContext taskContext = this.executionContextManager.clone(context);
+        return new Callable<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                execution.setContext(taskContext);
+                try {
+                    WikiPrinter printer = new DefaultWikiPrinter();
+                    for (Block block : blocks) {
+                        // Don't modify the given XDOM (e.g. the parent of its child blocks).
+                        renderer.render(new XDOM(Collections.singletonList(block.clone()), metaData), printer);
+                    }
+                    return printer.toString();
+                } finally {
+                    execution.removeContext();
+                }
+            }
+        };
+    }
+}
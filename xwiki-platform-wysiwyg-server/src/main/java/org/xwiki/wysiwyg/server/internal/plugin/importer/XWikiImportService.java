@@ -19,14 +19,27 @@
  */
 package org.xwiki.wysiwyg.server.internal.plugin.importer;
 
+import java.io.File;
 import java.io.InputStream;
+import java.io.Reader;
 import java.io.StringReader;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.artofsolving.jodconverter.document.DocumentFamily;
 import org.artofsolving.jodconverter.document.DocumentFormat;
 import org.slf4j.Logger;
@@ -34,19 +47,33 @@
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.environment.Environment;
 import org.xwiki.gwt.wysiwyg.client.plugin.importer.ImportService;
 import org.xwiki.gwt.wysiwyg.client.wiki.Attachment;
 import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.officeimporter.builder.PresentationBuilder;
 import org.xwiki.officeimporter.builder.XDOMOfficeDocumentBuilder;
 import org.xwiki.officeimporter.document.XDOMOfficeDocument;
 import org.xwiki.officeimporter.server.OfficeServer;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.wysiwyg.server.internal.plugin.importer.OfficeImportCache.CachedImport;
 import org.xwiki.wysiwyg.server.wiki.EntityReferenceConverter;
 import org.xwiki.xml.html.HTMLCleaner;
 import org.xwiki.xml.html.HTMLCleanerConfiguration;
 import org.xwiki.xml.html.HTMLUtils;
 
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiAttachment;
+
 /**
  * XWiki specific implementation of {@link ImportService}.
  * 
@@ -54,8 +81,61 @@
  */
 @Component
 @Singleton
-public class XWikiImportService implements ImportService
+public class XWikiImportService implements ImportService, Initializable, Disposable
 {
+    /**
+     * The configuration property that specifies the maximum number of bytes the office import cache is allowed to use
+     * on the disk. The cache is disabled if the value is not positive.
+     */
+    private static final String CACHE_MAX_SIZE_PROPERTY = "wysiwyg.officeImporter.cache.maxSize";
+
+    /**
+     * The default maximum number of bytes the office import cache is allowed to use on the disk (100MB).
+     */
+    private static final long DEFAULT_CACHE_MAX_SIZE = 100L * 1024 * 1024;
+
+    /**
+     * The configuration property that specifies the maximum number of slides that are rendered concurrently when
+     * importing an office presentation. The slides are rendered sequentially if the value is less than 2.
+     */
+    private static final String PRESENTATION_PARALLELISM_PROPERTY = "wysiwyg.officeImporter.presentation.parallelism";
+
+    /**
+     * The syntax of the import result.
+     */
+    private static final String ANNOTATED_XHTML = "annotatedxhtml/1.0";
+
+    /**
+     * The maximum number of characters of the cleaned content that are sent to the client with a single request.
+     */
+    private static final int CLEANED_SEGMENT_SIZE = 512 * 1024;
+
+    /**
+     * The maximum number of characters that can be uploaded to be cleaned (50M).
+     */
+    private static final long MAX_UPLOAD_LENGTH = 50L * 1024 * 1024;
+
+    /**
+     * The maximum number of uploads a user can have open at the same time.
+     */
+    private static final int MAX_UPLOADS_PER_USER = 5;
+
+    /**
+     * The number of milliseconds after which an upload that is not accessed is discarded (1 hour).
+     */
+    private static final long UPLOAD_TIMEOUT = 60L * 60 * 1000;
+
+    /**
+     * We wrap the paste content in a DIV element because the DIV element, unlike BODY for instance, accepts both
+     * in-line and block content. This way we prevent the creation of a paragraph when in-line content is pasted.
+     */
+    private static final String PASTE_WRAPPER_START = "<div>";
+
+    /**
+     * @see #PASTE_WRAPPER_START
+     */
+    private static final String PASTE_WRAPPER_END = "</div>";
+
     /**
      * Logger.
      */
@@ -98,33 +178,285 @@ public class XWikiImportService implements ImportService
     @Inject
     private EntityReferenceConverter entityReferenceConverter;
 
+    /**
+     * Used to serialize the reference of the imported office file when computing the cache key.
+     */
+    @Inject
+    private EntityReferenceSerializer<String> entityReferenceSerializer;
+
+    /**
+     * Used to get the temporary directory where the office import cache is stored.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * Used to read the office import cache configuration.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * Used to access the document where the artifacts extracted from the imported office file are attached.
+     */
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * Used to check if the current user is allowed to attach the imported artifacts to the target document.
+     */
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    /**
+     * Used to render the slides of an imported office presentation concurrently.
+     */
+    @Inject
+    @Named(ANNOTATED_XHTML)
+    private BlockRenderer xhtmlRenderer;
+
+    /**
+     * Used to propagate the execution context to the threads that render the slides of an office presentation.
+     */
+    @Inject
+    private Execution execution;
+
+    /**
+     * Used to clone the execution context for the threads that render the slides of an office presentation.
+     */
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
     /**
      * Used to import an office file using the office macro.
      */
     private OfficeMacroImporter officeMacroImporter;
 
+    /**
+     * Caches the result of importing office files, {@code null} if the cache is disabled.
+     */
+    private OfficeImportCache cache;
+
+    /**
+     * The pool used to render the slides of an imported office presentation, {@code null} if the slides are rendered
+     * sequentially.
+     */
+    private ForkJoinPool presentationPool;
+
+    /**
+     * The content uploaded in chunks in order to be cleaned, by upload identifier.
+     */
+    private final Map<String, OfficeHTMLUpload> uploads = new ConcurrentHashMap<String, OfficeHTMLUpload>();
+
+    @Override
+    public void initialize()
+    {
+        long cacheMaxSize = configuration.getProperty(CACHE_MAX_SIZE_PROPERTY, DEFAULT_CACHE_MAX_SIZE);
+        if (cacheMaxSize > 0) {
+            File cacheDirectory = new File(environment.getTemporaryDirectory(), "wysiwyg/officeImporter");
+            cache = new OfficeImportCache(cacheDirectory, cacheMaxSize);
+        }
+
+        FileUtils.deleteQuietly(getUploadDirectory());
+
+        int presentationParallelism = configuration.getProperty(PRESENTATION_PARALLELISM_PROPERTY, 1);
+        if (presentationParallelism > 1) {
+            presentationPool = new ForkJoinPool(presentationParallelism);
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (presentationPool != null) {
+            presentationPool.shutdownNow();
+        }
+        for (OfficeHTMLUpload upload : uploads.values()) {
+            upload.dispose();
+        }
+        uploads.clear();
+    }
+
     @Override
     public String cleanOfficeHTML(String htmlPaste, String cleanerHint, Map<String, String> cleaningParams)
     {
         try {
-            HTMLCleaner cleaner = componentManager.getInstance(HTMLCleaner.class, cleanerHint);
-            HTMLCleanerConfiguration configuration = cleaner.getDefaultConfiguration();
-            configuration.setParameters(cleaningParams);
-            // Wrap the paste content in a DIV element because the DIV element, unlike BODY for instance, accepts both
-            // in-line and block content. The way we prevent the creation of a paragraph when in-line content is pasted.
-            StringReader input = new StringReader("<div>" + htmlPaste + "</div>");
-            Document cleanedDocument = cleaner.clean(input, configuration);
-            HTMLUtils.stripFirstElementInside(cleanedDocument, "body", "div");
-            HTMLUtils.stripHTMLEnvelope(cleanedDocument);
-            // Remove the HTML wrapper and the new lines before/after it.
-            String output = HTMLUtils.toString(cleanedDocument, true, true).trim();
-            return StringUtils.removeEndIgnoreCase(StringUtils.removeStartIgnoreCase(output, "<html>"), "</html>");
+            StringReader input = new StringReader(PASTE_WRAPPER_START + htmlPaste + PASTE_WRAPPER_END);
+            return cleanOfficeHTML(input, cleanerHint, cleaningParams);
         } catch (Exception e) {
             this.logger.error("Exception while cleaning office HTML content.", e);
             throw new RuntimeException(e.getLocalizedMessage());
         }
     }
 
+    @Override
+    public String uploadOfficeHTML(String uploadId, String chunk)
+    {
+        try {
+            String id = uploadId;
+            OfficeHTMLUpload upload;
+            if (id == null) {
+                removeExpiredUploads();
+                checkUploadCount();
+                id = UUID.randomUUID().toString();
+                upload = new OfficeHTMLUpload(new File(getUploadDirectory(), id), getCurrentUser());
+                upload.append(PASTE_WRAPPER_START);
+                uploads.put(id, upload);
+            } else {
+                upload = getUpload(id);
+            }
+            if (upload.getLength() + chunk.length() > MAX_UPLOAD_LENGTH) {
+                discardUpload(id);
+                throw new IllegalArgumentException("The uploaded content is too large.");
+            }
+            upload.append(chunk);
+            return id;
+        } catch (Exception e) {
+            this.logger.error("Exception while uploading office HTML content.", e);
+            throw new RuntimeException(e.getLocalizedMessage());
+        }
+    }
+
+    @Override
+    public int cleanUploadedOfficeHTML(String uploadId, String cleanerHint, Map<String, String> cleaningParams)
+    {
+        try {
+            OfficeHTMLUpload upload = getUpload(uploadId);
+            synchronized (upload) {
+                // The client may retry the request.
+                if (upload.isCleaned()) {
+                    return upload.getSegmentCount();
+                }
+                upload.append(PASTE_WRAPPER_END);
+                Reader input = upload.getInput();
+                try {
+                    return upload.setOutput(cleanOfficeHTML(input, cleanerHint, cleaningParams),
+                        CLEANED_SEGMENT_SIZE);
+                } finally {
+                    IOUtils.closeQuietly(input);
+                }
+            }
+        } catch (Exception e) {
+            discardUpload(uploadId);
+            this.logger.error("Exception while cleaning uploaded office HTML content.", e);
+            throw new RuntimeException(e.getLocalizedMessage());
+        }
+    }
+
+    @Override
+    public String getCleanedOfficeHTML(String uploadId, int segment)
+    {
+        try {
+            OfficeHTMLUpload upload = getUpload(uploadId);
+            String output = upload.getSegment(segment);
+            if (segment == upload.getSegmentCount() - 1) {
+                discardUpload(uploadId);
+            }
+            return output;
+        } catch (Exception e) {
+            discardUpload(uploadId);
+            this.logger.error("Exception while retrieving cleaned office HTML content.", e);
+            throw new RuntimeException(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Cleans the given HTML content.
+     * 
+     * @param input the dirty HTML, wrapped in a DIV element
+     * @param cleanerHint role hint for which cleaner to be used
+     * @param cleaningParams additional parameters to be used when cleaning
+     * @return the cleaned HTML
+     * @throws Exception if cleaning the HTML content fails
+     */
+    private String cleanOfficeHTML(Reader input, String cleanerHint, Map<String, String> cleaningParams)
+        throws Exception
+    {
+        HTMLCleaner cleaner = componentManager.getInstance(HTMLCleaner.class, cleanerHint);
+        HTMLCleanerConfiguration configuration = cleaner.getDefaultConfiguration();
+        configuration.setParameters(cleaningParams);
+        Document cleanedDocument = cleaner.clean(input, configuration);
+        HTMLUtils.stripFirstElementInside(cleanedDocument, "body", "div");
+        HTMLUtils.stripHTMLEnvelope(cleanedDocument);
+        // Remove the HTML wrapper and the new lines before/after it.
+        String output = HTMLUtils.toString(cleanedDocument, true, true).trim();
+        return StringUtils.removeEndIgnoreCase(StringUtils.removeStartIgnoreCase(output, "<html>"), "</html>");
+    }
+
+    /**
+     * @param uploadId an upload identifier
+     * @return the specified upload
+     * @throws IllegalArgumentException if the specified upload doesn't exist or belongs to a different user
+     */
+    private OfficeHTMLUpload getUpload(String uploadId)
+    {
+        OfficeHTMLUpload upload = uploadId == null ? null : uploads.get(uploadId);
+        if (upload == null || !Objects.equals(upload.getOwner(), getCurrentUser())) {
+            throw new IllegalArgumentException(String.format("Unknown upload [%s].", uploadId));
+        }
+        return upload;
+    }
+
+    /**
+     * Discards the specified upload, if it belongs to the current user.
+     * 
+     * @param uploadId an upload identifier
+     */
+    private void discardUpload(String uploadId)
+    {
+        OfficeHTMLUpload upload = uploadId == null ? null : uploads.get(uploadId);
+        if (upload != null && Objects.equals(upload.getOwner(), getCurrentUser())) {
+            uploads.remove(uploadId);
+            upload.dispose();
+        }
+    }
+
+    /**
+     * Discards the uploads that were abandoned by the client.
+     */
+    private void removeExpiredUploads()
+    {
+        Iterator<OfficeHTMLUpload> iterator = uploads.values().iterator();
+        while (iterator.hasNext()) {
+            OfficeHTMLUpload upload = iterator.next();
+            if (upload.isExpired(UPLOAD_TIMEOUT)) {
+                iterator.remove();
+                upload.dispose();
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the current user has too many open uploads
+     */
+    private void checkUploadCount()
+    {
+        DocumentReference currentUser = getCurrentUser();
+        int count = 0;
+        for (OfficeHTMLUpload upload : uploads.values()) {
+            if (Objects.equals(upload.getOwner(), currentUser) && ++count >= MAX_UPLOADS_PER_USER) {
+                throw new IllegalStateException("Too many uploads in progress.");
+            }
+        }
+    }
+
+    /**
+     * @return the directory where the content uploaded in chunks is stored
+     */
+    private File getUploadDirectory()
+    {
+        return new File(environment.getTemporaryDirectory(), "wysiwyg/paste");
+    }
+
+    /**
+     * @return the current user
+     */
+    private DocumentReference getCurrentUser()
+    {
+        return xcontextProvider.get().getUserReference();
+    }
+
     @Override
     public String officeToXHTML(Attachment attachment, Map<String, String> cleaningParams)
     {
@@ -153,43 +485,154 @@ private String importAttachment(AttachmentReference attachmentReference, Map<Str
         throws Exception
     {
         boolean filterStyles = "strict".equals(parameters.get("filterStyles"));
-        if (Boolean.valueOf(parameters.get("useOfficeViewer"))) {
+        boolean useOfficeViewer = Boolean.valueOf(parameters.get("useOfficeViewer"));
+
+        String cacheKey = cache != null ? getCacheKey(attachmentReference, filterStyles, useOfficeViewer) : null;
+        if (cacheKey != null) {
+            String cachedContent = getCachedContent(cacheKey, attachmentReference.getDocumentReference());
+            if (cachedContent != null) {
+                return cachedContent;
+            }
+        }
+
+        String content;
+        Map<String, byte[]> artifacts;
+        if (useOfficeViewer) {
             if (officeMacroImporter == null) {
                 officeMacroImporter = new OfficeMacroImporter(componentManager);
             }
-            return officeMacroImporter.render(officeMacroImporter.buildXDOM(attachmentReference, filterStyles));
+            content = officeMacroImporter.render(officeMacroImporter.buildXDOM(attachmentReference, filterStyles));
+            artifacts = Collections.emptyMap();
         } else {
-            return convertAttachmentContent(attachmentReference, filterStyles);
+            boolean presentation = isPresentation(attachmentReference.getName());
+            XDOMOfficeDocument xdomOfficeDocument =
+                convertAttachmentContent(attachmentReference, presentation, filterStyles);
+            if (presentationPool != null && presentation) {
+                content = new ParallelXDOMRenderer(xhtmlRenderer, execution, executionContextManager,
+                    presentationPool).render(xdomOfficeDocument.getContentDocument());
+            } else {
+                content = xdomOfficeDocument.getContentAsString(ANNOTATED_XHTML);
+            }
+            artifacts = xdomOfficeDocument.getArtifacts();
+        }
+
+        if (cacheKey != null) {
+            try {
+                cache.put(cacheKey, content, artifacts);
+            } catch (Exception e) {
+                this.logger.warn("Failed to cache the result of importing [{}]. Root cause is [{}].",
+                    attachmentReference, ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+
+        // Attach the images extracted from the imported office document to the target wiki document. Use the artifacts
+        // we have in memory because the cached files can be evicted concurrently.
+        attachArtifacts(artifacts, attachmentReference.getDocumentReference());
+
+        return content;
+    }
+
+    /**
+     * @param attachmentReference the imported office file
+     * @param filterStyles whether the styles are filtered or not
+     * @param useOfficeViewer whether the office viewer macro is used or not
+     * @return the key used to cache the result of importing the specified office file, or {@code null} if the office
+     *         file doesn't exist
+     * @throws XWikiException if loading the document that holds the office file fails
+     */
+    private String getCacheKey(AttachmentReference attachmentReference, boolean filterStyles, boolean useOfficeViewer)
+        throws XWikiException
+    {
+        XWikiContext xcontext = xcontextProvider.get();
+        XWikiAttachment attachment = xcontext.getWiki().getDocument(attachmentReference.getDocumentReference(),
+            xcontext).getAttachment(attachmentReference.getName());
+        if (attachment == null) {
+            return null;
+        }
+        return OfficeImportCache.getKey(entityReferenceSerializer.serialize(attachmentReference),
+            attachment.getVersion(), attachment.getDate(), attachment.getLongSize(), filterStyles, useOfficeViewer);
+    }
+
+    /**
+     * Looks for the result of a previous import in the cache. The artifacts that have been removed or modified on the
+     * target document since the previous import are attached again.
+     * 
+     * @param cacheKey the cache key
+     * @param targetDocRef the document where the office file is imported
+     * @return the cached annotated XHTML, or {@code null} if the cache doesn't have an entry for the given key
+     */
+    private String getCachedContent(String cacheKey, DocumentReference targetDocRef)
+    {
+        try {
+            CachedImport cachedImport = cache.get(cacheKey);
+            if (cachedImport != null) {
+                attachArtifacts(cachedImport, targetDocRef);
+                return cachedImport.getContent();
+            }
+        } catch (SecurityException e) {
+            // The cached entry is fine, the current user is not allowed to attach the artifacts.
+            throw e;
+        } catch (Exception e) {
+            this.logger.warn("Failed to reuse the cached office import result. Root cause is [{}].",
+                ExceptionUtils.getRootCauseMessage(e));
+            cache.remove(cacheKey);
         }
+        return null;
+    }
+
+    /**
+     * Attaches the cached artifacts to the target document, using a single document save.
+     * 
+     * @param cachedImport the cached import result
+     * @param targetDocRef the document where the office file is imported
+     * @throws Exception if attaching the artifacts fails
+     */
+    private void attachArtifacts(CachedImport cachedImport, DocumentReference targetDocRef) throws Exception
+    {
+        OfficeArtifactBatch batch = new OfficeArtifactBatch(targetDocRef, authorization, xcontextProvider.get());
+        for (String artifactName : cachedImport.getArtifactNames()) {
+            batch.add(artifactName, cachedImport.getArtifact(artifactName));
+        }
+        batch.save();
+    }
+
+    /**
+     * Attaches the given artifacts to the target document, using a single document save.
+     * 
+     * @param artifacts the artifacts extracted from the imported office file
+     * @param targetDocRef the document where the office file is imported
+     * @throws Exception if attaching the artifacts fails
+     */
+    private void attachArtifacts(Map<String, byte[]> artifacts, DocumentReference targetDocRef) throws Exception
+    {
+        OfficeArtifactBatch batch = new OfficeArtifactBatch(targetDocRef, authorization, xcontextProvider.get());
+        for (Map.Entry<String, byte[]> artifact : artifacts.entrySet()) {
+            batch.add(artifact.getKey(), artifact.getValue());
+        }
+        batch.save();
     }
 
     /**
      * Converts the content of the specified office file to wiki syntax.
      * 
      * @param attachmentReference specifies the office file whose content should be converted
+     * @param presentation whether the specified office file is a presentation
      * @param filterStyles controls whether styles are filtered when converting the HTML produced by the office server
      *            to wiki syntax
-     * @return the annotated XHTML text obtained from the specified office document
+     * @return the office document obtained from the specified office file
      * @throws Exception if converting the content of the specified attachment fails
      */
-    private String convertAttachmentContent(AttachmentReference attachmentReference, boolean filterStyles)
-        throws Exception
+    private XDOMOfficeDocument convertAttachmentContent(AttachmentReference attachmentReference, boolean presentation,
+        boolean filterStyles) throws Exception
     {
         InputStream officeFileStream = documentAccessBridge.getAttachmentContent(attachmentReference);
         String officeFileName = attachmentReference.getName();
         DocumentReference targetDocRef = attachmentReference.getDocumentReference();
-        XDOMOfficeDocument xdomOfficeDocument;
-        if (isPresentation(attachmentReference.getName())) {
-            xdomOfficeDocument = presentationBuilder.build(officeFileStream, officeFileName, targetDocRef);
+        if (presentation) {
+            return presentationBuilder.build(officeFileStream, officeFileName, targetDocRef);
         } else {
-            xdomOfficeDocument = documentBuilder.build(officeFileStream, officeFileName, targetDocRef, filterStyles);
-        }
-        // Attach the images extracted from the imported office document to the target wiki document.
-        for (Map.Entry<String, byte[]> artifact : xdomOfficeDocument.getArtifacts().entrySet()) {
-            AttachmentReference artifactReference = new AttachmentReference(artifact.getKey(), targetDocRef);
-            documentAccessBridge.setAttachmentContent(artifactReference, artifact.getValue());
+            return documentBuilder.build(officeFileStream, officeFileName, targetDocRef, filterStyles);
         }
-        return xdomOfficeDocument.getContentAsString("annotatedxhtml/1.0");
     }
 
     /**
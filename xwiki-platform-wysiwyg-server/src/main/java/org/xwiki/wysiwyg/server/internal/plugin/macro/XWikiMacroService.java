@@ -33,19 +33,32 @@
 
 import org.apache.commons.lang3.StringUtils;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.gwt.wysiwyg.client.converter.HTMLConverter;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroDescriptor;
+import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroDisplayer;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroService;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.ParameterDescriptor;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.ParameterType;
+import org.xwiki.gwt.wysiwyg.client.wiki.WikiPageReference;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.rendering.macro.Macro;
 import org.xwiki.rendering.macro.MacroCategoryManager;
 import org.xwiki.rendering.macro.MacroId;
 import org.xwiki.rendering.macro.MacroManager;
 import org.xwiki.rendering.syntax.Syntax;
 import org.xwiki.rendering.syntax.SyntaxFactory;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.wysiwyg.server.internal.converter.CollapsedMacroPreferences;
+import org.xwiki.wysiwyg.server.internal.converter.DefaultHTMLConverter;
 import org.xwiki.wysiwyg.server.plugin.macro.MacroDescriptorTranslator;
+import org.xwiki.wysiwyg.server.wiki.EntityReferenceConverter;
 
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
  * XWiki specific implementation of {@link MacroService}.
@@ -56,6 +69,21 @@
 @Singleton
 public class XWikiMacroService implements MacroService
 {
+    /**
+     * The context property that tells the display methods that they are called from within the rendering engine.
+     */
+    private static final String IS_IN_RENDERING_ENGINE = "isInRenderingEngine";
+
+    /**
+     * The start tag of the paragraph used to render in-line macro calls.
+     */
+    private static final String PARAGRAPH_START = "<p>";
+
+    /**
+     * The end tag of the paragraph used to render in-line macro calls.
+     */
+    private static final String PARAGRAPH_END = "</p>";
+
     /**
      * The syntax factory used to create {@link Syntax} instances from string syntax identifiers.
      */
@@ -86,6 +114,36 @@ public class XWikiMacroService implements MacroService
     @Inject
     private Provider<XWikiContext> xcontextProvider;
 
+    /**
+     * The component used to render macro calls.
+     */
+    @Inject
+    private HTMLConverter htmlConverter;
+
+    /**
+     * Used to convert the reference of the edited page.
+     */
+    @Inject
+    private EntityReferenceConverter entityReferenceConverter;
+
+    /**
+     * Used to check if the current user can view the edited page.
+     */
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    /**
+     * Used to remember the macro calls collapsed by the user.
+     */
+    @Inject
+    private CollapsedMacroPreferences collapsedMacroPreferences;
+
+    /**
+     * Used to disable the deferred rendering of the slow macros while rendering a macro call.
+     */
+    @Inject
+    private Execution execution;
+
     @Override
     public MacroDescriptor getMacroDescriptor(String macroId, String syntaxId, String wikiId)
     {
@@ -267,4 +325,98 @@ public List<MacroDescriptor> getMacroDescriptors(String syntaxId)
     {
         return getMacroDescriptors(syntaxId, null);
     }
+
+    @Override
+    public String render(String macroCall, boolean inline, String syntaxId, WikiPageReference documentReference)
+    {
+        if (macroCall == null || !macroCall.startsWith(MacroDisplayer.START_MACRO_COMMENT_PREFIX)
+            || macroCall.contains("-->")) {
+            throw new IllegalArgumentException(String.format("Invalid macro call [%s].", macroCall));
+        }
+
+        DocumentReference reference = entityReferenceConverter.convert(documentReference);
+        if (!authorization.hasAccess(Right.VIEW, reference)) {
+            throw new SecurityException(String.format("You are not allowed to view [%s].", reference));
+        }
+
+        XWikiContext xcontext = xcontextProvider.get();
+        String oldWikiId = xcontext.getWikiId();
+        XWikiDocument oldDocument = xcontext.getDoc();
+        Object oldSecurityDocument = xcontext.get(XWikiDocument.CKEY_SDOC);
+        Object isInRenderingEngine = xcontext.get(IS_IN_RENDERING_ENGINE);
+        ExecutionContext context = execution.getContext();
+        Object deferredMacrosDisabled = context.getProperty(DefaultHTMLConverter.DISABLE_DEFERRED_MACROS);
+        try {
+            // Execute the macro in the context of the edited page.
+            xcontext.setWikiId(reference.getWikiReference().getName());
+            XWikiDocument document = xcontext.getWiki().getDocument(reference, xcontext);
+            xcontext.setDoc(document);
+            // The macro call comes from the client so it must be executed with the rights of the current user.
+            XWikiDocument securityDocument = new XWikiDocument(reference, document.getLocale());
+            securityDocument.setContentAuthorReference(xcontext.getUserReference());
+            xcontext.put(XWikiDocument.CKEY_SDOC, securityDocument);
+            xcontext.put(IS_IN_RENDERING_ENGINE, true);
+            // The output of the macro is requested so we must execute it even if it's slow.
+            context.setProperty(DefaultHTMLConverter.DISABLE_DEFERRED_MACROS, Boolean.TRUE);
+
+            String html = String.format("<!--%s--><!--%s-->", macroCall, MacroDisplayer.STOP_MACRO_COMMENT_VALUE);
+            if (inline) {
+                // An in-line macro call must be inside a paragraph, otherwise it is rendered as a standalone call.
+                return unwrapParagraph(htmlConverter.parseAndRender(PARAGRAPH_START + html + PARAGRAPH_END, syntaxId));
+            } else {
+                return htmlConverter.parseAndRender(html, syntaxId);
+            }
+        } catch (XWikiException e) {
+            throw new RuntimeException(String.format("Failed to load [%s].", reference), e);
+        } finally {
+            if (deferredMacrosDisabled != null) {
+                context.setProperty(DefaultHTMLConverter.DISABLE_DEFERRED_MACROS, deferredMacrosDisabled);
+            } else {
+                context.removeProperty(DefaultHTMLConverter.DISABLE_DEFERRED_MACROS);
+            }
+            restore(xcontext, IS_IN_RENDERING_ENGINE, isInRenderingEngine);
+            restore(xcontext, XWikiDocument.CKEY_SDOC, oldSecurityDocument);
+            xcontext.setDoc(oldDocument);
+            xcontext.setWikiId(oldWikiId);
+        }
+    }
+
+    @Override
+    public void setCollapsed(List<String> macroCalls, boolean collapsed, WikiPageReference documentReference)
+    {
+        collapsedMacroPreferences.setCollapsed(entityReferenceConverter.convert(documentReference), macroCalls,
+            collapsed);
+    }
+
+    /**
+     * @param html the result of rendering an in-line macro call wrapped in a paragraph
+     * @return the given HTML without the paragraph
+     */
+    private String unwrapParagraph(String html)
+    {
+        if (html != null && html.startsWith(PARAGRAPH_START) && html.endsWith(PARAGRAPH_END)) {
+            String content = html.substring(PARAGRAPH_START.length(), html.length() - PARAGRAPH_END.length());
+            // Make sure the macro output was not rendered as multiple paragraphs.
+            if (!content.contains(PARAGRAPH_END)) {
+                return content;
+            }
+        }
+        return html;
+    }
+
+    /**
+     * Restores the value of a context property.
+     * 
+     * @param xcontext the XWiki context
+     * @param key the property key
+     * @param value the previous value of the property, {@code null} if the property was not set
+     */
+    private void restore(XWikiContext xcontext, String key, Object value)
+    {
+        if (value != null) {
+            xcontext.put(key, value);
+        } else {
+            xcontext.remove(key);
+        }
+    }
 }
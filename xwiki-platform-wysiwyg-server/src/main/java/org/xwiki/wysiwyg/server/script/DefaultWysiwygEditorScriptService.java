@@ -19,16 +19,44 @@
  */
 package org.xwiki.wysiwyg.server.script;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
 import org.xwiki.gwt.wysiwyg.client.converter.HTMLConverter;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.MacroBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.block.match.ClassBlockMatcher;
 import org.xwiki.rendering.parser.Parser;
 import org.xwiki.rendering.renderer.PrintRendererFactory;
 import org.xwiki.rendering.syntax.Syntax;
@@ -36,6 +64,7 @@
 import org.xwiki.security.authorization.Right;
 import org.xwiki.wysiwyg.server.WysiwygEditorConfiguration;
 import org.xwiki.wysiwyg.server.WysiwygEditorScriptService;
+import org.xwiki.wysiwyg.server.internal.converter.DefaultHTMLConverter;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
@@ -49,7 +78,7 @@
 @Component
 @Named("wysiwyg")
 @Singleton
-public class DefaultWysiwygEditorScriptService implements WysiwygEditorScriptService
+public class DefaultWysiwygEditorScriptService implements WysiwygEditorScriptService, Initializable, Disposable
 {
     /**
      * The context property which indicates if the current code was called from a template (only Velocity execution) or
@@ -59,6 +88,38 @@ public class DefaultWysiwygEditorScriptService implements WysiwygEditorScriptSer
      */
     private static final String IS_IN_RENDERING_ENGINE = "isInRenderingEngine";
 
+    /**
+     * The configuration property that lists the templates whose rendering result is cached by
+     * {@link #render(DocumentReference)}.
+     */
+    private static final String CACHED_TEMPLATES_PROPERTY = "wysiwyg.cachedTemplates";
+
+    /**
+     * The macros that include other documents, which the cached template rendering results depend on.
+     */
+    private static final List<String> INCLUDE_MACROS = Arrays.asList("include", "display");
+
+    /**
+     * The parameters of the {@link #INCLUDE_MACROS} that specify the included document.
+     */
+    private static final List<String> INCLUDE_MACRO_PARAMETERS = Arrays.asList("reference", "document", "page");
+
+    /**
+     * The name of the listener that removes the cached template rendering results when a document they depend on is
+     * created, modified or deleted.
+     */
+    private static final String LISTENER_NAME = "WysiwygEditorTemplateListener";
+
+    /**
+     * The maximum number of cached template rendering results.
+     */
+    private static final int MAX_RENDERED_TEMPLATES = 100;
+
+    /**
+     * The load factor of the map that holds the cached template rendering results.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
     @Inject
     private Logger logger;
 
@@ -87,6 +148,97 @@ public class DefaultWysiwygEditorScriptService implements WysiwygEditorScriptSer
     @Inject
     private Provider<XWikiContext> xcontextProvider;
 
+    /**
+     * Used to read the list of cached templates.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * Used to resolve the cached templates and the documents included by the templates.
+     */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    /**
+     * Used to pass the editing session token to the HTML converter.
+     */
+    @Inject
+    private Execution execution;
+
+    /**
+     * Used to remove the cached template rendering results when a document they depend on is modified.
+     */
+    @Inject
+    private ObservationManager observationManager;
+
+    /**
+     * The cached template rendering results. The key is made of the template reference, the template version, the
+     * current document reference, the current document version, the locale, the skin and the user.
+     */
+    private final Map<List<Object>, RenderedTemplate> renderedTemplates = Collections.synchronizedMap(
+        new LinkedHashMap<List<Object>, RenderedTemplate>(MAX_RENDERED_TEMPLATES, LOAD_FACTOR, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, RenderedTemplate> eldest)
+            {
+                return size() > MAX_RENDERED_TEMPLATES;
+            }
+        });
+
+    /**
+     * A cached template rendering result.
+     */
+    private static final class RenderedTemplate
+    {
+        /**
+         * The result of rendering the template.
+         */
+        private final String output;
+
+        /**
+         * The documents the rendering result depends on: the template, the current document and the documents
+         * included by the template. They don't need to exist.
+         */
+        private final Set<DocumentReference> dependencies;
+
+        /**
+         * Creates a new cached template rendering result.
+         * 
+         * @param output the result of rendering the template
+         * @param dependencies the documents the rendering result depends on
+         */
+        RenderedTemplate(String output, Set<DocumentReference> dependencies)
+        {
+            this.output = output;
+            this.dependencies = dependencies;
+        }
+    }
+
+    @Override
+    public void initialize()
+    {
+        this.observationManager.addListener(new AbstractEventListener(LISTENER_NAME, new DocumentCreatedEvent(),
+            new DocumentUpdatedEvent(), new DocumentDeletedEvent())
+        {
+            @Override
+            public void onEvent(Event event, Object source, Object data)
+            {
+                discardRenderedTemplates(((DocumentModelBridge) source).getDocumentReference());
+            }
+        });
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.observationManager.removeListener(LISTENER_NAME);
+    }
+
     @Override
     public boolean isSyntaxSupported(String syntaxId)
     {
@@ -109,35 +261,39 @@ public boolean isSyntaxSupported(String syntaxId)
     @Override
     public String parseAndRender(String html, String syntax)
     {
-        XWikiDocument originalSecurityDocument = setSecurityDocument(createSecurityDocument());
+        return parseAndRender(html, syntax, null);
+    }
 
-        // Save the value of the "is in rendering engine" context property.
-        Object isInRenderingEngine = this.xcontextProvider.get().get(IS_IN_RENDERING_ENGINE);
+    @Override
+    public String parseAndRender(String html, String syntax, String sessionToken)
+    {
+        ExecutionContext executionContext = this.execution.getContext();
+        if (sessionToken != null) {
+            executionContext.setProperty(DefaultHTMLConverter.REFRESH_SESSION, sessionToken);
+        }
 
+        Map<String, Object> originalContext = setUpConversionContext();
         try {
-            // This tells display() methods that we are inside the rendering engine and thus that they can return wiki
-            // syntax and not HTML syntax (which is needed when outside the rendering engine, i.e. when we're inside
-            // templates using only Velocity for example).
-            this.xcontextProvider.get().put(IS_IN_RENDERING_ENGINE, true);
-
             return this.htmlConverter.parseAndRender(html, syntax);
         } catch (Exception e) {
             // Leave the previous HTML in case of an exception.
             return html;
         } finally {
-            // Restore the value of the value of the "is in rendering engine" context property.
-            if (isInRenderingEngine != null) {
-                this.xcontextProvider.get().put(IS_IN_RENDERING_ENGINE, isInRenderingEngine);
-            } else {
-                this.xcontextProvider.get().remove(IS_IN_RENDERING_ENGINE);
+            if (sessionToken != null) {
+                executionContext.removeProperty(DefaultHTMLConverter.REFRESH_SESSION);
             }
-
-            setSecurityDocument(originalSecurityDocument);
+            restoreConversionContext(originalContext);
         }
     }
 
     @Override
     public String render(DocumentReference templateReference)
+    {
+        return render(templateReference, isCachedTemplate(templateReference));
+    }
+
+    @Override
+    public String render(DocumentReference templateReference, boolean cached)
     {
         if (!this.authorization.hasAccess(Right.VIEW, templateReference)) {
             return null;
@@ -146,43 +302,136 @@ public String render(DocumentReference templateReference)
         XWikiContext xcontext = this.xcontextProvider.get();
         try {
             XWikiDocument template = xcontext.getWiki().getDocument(templateReference, xcontext);
+            List<Object> cacheKey = null;
+            if (cached) {
+                // The template is rendered in the context of the current document.
+                XWikiDocument currentDocument = xcontext.getDoc();
+                cacheKey = Arrays.<Object>asList(templateReference, template.getVersion(),
+                    currentDocument.getDocumentReferenceWithLocale(), currentDocument.getVersion(),
+                    xcontext.getLocale(), xcontext.getWiki().getSkin(xcontext), xcontext.getUserReference());
+                RenderedTemplate renderedTemplate = this.renderedTemplates.get(cacheKey);
+                if (renderedTemplate != null) {
+                    return renderedTemplate.output;
+                }
+            }
+
             String templateSyntax = template.getSyntax().toIdString();
             String output = xcontext.getDoc().getRenderedContent(template.getContent(), templateSyntax, xcontext);
             // Make sure the skin extension hooks are properly replaced with style sheets includes.
-            return xcontext.getWiki().getPluginManager().endParsing(output, xcontext);
+            output = xcontext.getWiki().getPluginManager().endParsing(output, xcontext);
+
+            if (cacheKey != null && output != null) {
+                this.renderedTemplates.put(cacheKey, new RenderedTemplate(output, getDependencies(template)));
+            }
+            return output;
         } catch (XWikiException e) {
             this.logger.debug("Failed to render [{}].", templateReference, e);
             return null;
         }
     }
 
-    @Override
-    public String toAnnotatedXHTML(String source, String syntaxId)
+    /**
+     * @param templateReference a template reference
+     * @return {@code true} if the specified template is listed in the {@link #CACHED_TEMPLATES_PROPERTY} configuration
+     *         property, {@code false} otherwise
+     */
+    private boolean isCachedTemplate(DocumentReference templateReference)
     {
-        XWikiDocument originalSecurityDocument = setSecurityDocument(createSecurityDocument());
+        List<?> cachedTemplates = this.configuration.getProperty(CACHED_TEMPLATES_PROPERTY, List.class);
+        if (cachedTemplates != null) {
+            for (Object cachedTemplate : cachedTemplates) {
+                String value = StringUtils.trim(String.valueOf(cachedTemplate));
+                if (!StringUtils.isEmpty(value)
+                    && templateReference.equals(this.documentReferenceResolver.resolve(value))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 
-        // Save the value of the "is in rendering engine" context property.
-        Object isInRenderingEngine = this.xcontextProvider.get().get(IS_IN_RENDERING_ENGINE);
+    /**
+     * The rendering result of a template depends on the template, on the current document and on the documents
+     * included by the template using the include and display macros. The documents loaded by the scripts from the
+     * template are not detected, so don't cache such templates.
+     * 
+     * @param template the rendered template
+     * @return the documents the rendering result of the given template depends on
+     */
+    private Set<DocumentReference> getDependencies(XWikiDocument template)
+    {
+        Set<DocumentReference> dependencies = new HashSet<DocumentReference>();
+        dependencies.add(template.getDocumentReference());
+        dependencies.add(this.xcontextProvider.get().getDoc().getDocumentReference());
+        XDOM xdom = template.getXDOM();
+        if (xdom != null) {
+            for (Block block : xdom.getBlocks(new ClassBlockMatcher(MacroBlock.class), Block.Axes.DESCENDANT)) {
+                MacroBlock macroBlock = (MacroBlock) block;
+                if (INCLUDE_MACROS.contains(macroBlock.getId())) {
+                    for (String parameter : INCLUDE_MACRO_PARAMETERS) {
+                        String reference = macroBlock.getParameter(parameter);
+                        if (!StringUtils.isEmpty(reference)) {
+                            dependencies.add(this.documentReferenceResolver.resolve(reference,
+                                template.getDocumentReference()));
+                        }
+                    }
+                }
+            }
+        }
+        return dependencies;
+    }
 
-        try {
-            // This tells display() methods that we are inside the rendering engine and thus that they can return wiki
-            // syntax and not HTML syntax (which is needed when outside the rendering engine, i.e. when we're inside
-            // templates using only Velocity for example).
-            this.xcontextProvider.get().put(IS_IN_RENDERING_ENGINE, true);
+    /**
+     * Removes the cached template rendering results that depend on the specified document.
+     * 
+     * @param documentReference the document that has been created, modified or deleted
+     */
+    private void discardRenderedTemplates(DocumentReference documentReference)
+    {
+        synchronized (this.renderedTemplates) {
+            Iterator<RenderedTemplate> iterator = this.renderedTemplates.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().dependencies.contains(documentReference)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
 
+    @Override
+    public String toAnnotatedXHTML(String source, String syntaxId)
+    {
+        Map<String, Object> originalContext = setUpConversionContext();
+        try {
             return this.htmlConverter.toHTML(source, syntaxId);
         } catch (Exception e) {
             // Return the source text in case of an exception.
             return source;
         } finally {
-            // Restore the value of the value of the "is in rendering engine" context property.
-            if (isInRenderingEngine != null) {
-                this.xcontextProvider.get().put(IS_IN_RENDERING_ENGINE, isInRenderingEngine);
-            } else {
-                this.xcontextProvider.get().remove(IS_IN_RENDERING_ENGINE);
-            }
+            restoreConversionContext(originalContext);
+        }
+    }
 
-            setSecurityDocument(originalSecurityDocument);
+    @Override
+    public Map<String, String> toAnnotatedXHTML(Map<String, String> sources, String syntaxId)
+    {
+        Map<String, String> results = new LinkedHashMap<String, String>();
+        Map<String, Object> originalContext = setUpConversionContext();
+        try {
+            // The fields are converted one after another in the current thread because the macros they contain share
+            // the same transformation context (e.g. the Velocity macros can see what is defined by previous fields).
+            for (Map.Entry<String, String> entry : sources.entrySet()) {
+                String source = entry.getValue();
+                try {
+                    results.put(entry.getKey(), this.htmlConverter.toHTML(source, syntaxId));
+                } catch (Exception e) {
+                    // Return the source text in case of an exception.
+                    results.put(entry.getKey(), source);
+                }
+            }
+            return results;
+        } finally {
+            restoreConversionContext(originalContext);
         }
     }
 
@@ -195,26 +444,59 @@ public WysiwygEditorConfiguration getConfig()
     /**
      * When the user switches to the Source tab he'll be able to make modifications and when he switches back to the
      * WYSIWYG tab his changes will be rendered. If the document had PR, then we need to be sure that if the user
-     * doesn't have PR he won't be able to execute the code. We do this by setting as security document a clone of the
-     * current document that has the current user as content author (because the content author is used to check PR).
+     * doesn't have PR he won't be able to execute the code. We do this by setting as security document a document that
+     * has the same reference as the current document but the current user as content author (because the content
+     * author is used to check PR).
+     * <p>
+     * Only the reference and the content author of the security document are used so we don't clone the current
+     * document, which would copy all its objects and attachments, but create an empty document with the same reference
+     * instead. This also ensures the environment (the document cache for example) is not impacted.
      */
     private XWikiDocument createSecurityDocument()
     {
         XWikiContext xwikiContext = this.xcontextProvider.get();
-        // We clone the document in order to not impact the environment (the document cache for example).
-        XWikiDocument clonedDocument = xwikiContext.getDoc().clone();
-        clonedDocument.setContentAuthorReference(xwikiContext.getUserReference());
-        return clonedDocument;
+        XWikiDocument currentDocument = xwikiContext.getDoc();
+        XWikiDocument securityDocument =
+            new XWikiDocument(currentDocument.getDocumentReference(), currentDocument.getLocale());
+        securityDocument.setContentAuthorReference(xwikiContext.getUserReference());
+        return securityDocument;
+    }
+
+    /**
+     * Prepares the XWiki context for converting content that comes from the current user: sets the security document
+     * (see {@link #createSecurityDocument()}) and tells the display() methods that we are inside the rendering engine
+     * and thus that they can return wiki syntax and not HTML syntax (which is needed when outside the rendering engine,
+     * i.e. when we're inside templates using only Velocity for example).
+     * 
+     * @return the previous values of the modified XWiki context properties
+     * @see #restoreConversionContext(Map)
+     */
+    private Map<String, Object> setUpConversionContext()
+    {
+        XWikiDocument securityDocument = createSecurityDocument();
+        XWikiContext xcontext = this.xcontextProvider.get();
+        Map<String, Object> originalContext = new HashMap<String, Object>();
+        originalContext.put(XWikiDocument.CKEY_SDOC, xcontext.get(XWikiDocument.CKEY_SDOC));
+        originalContext.put(IS_IN_RENDERING_ENGINE, xcontext.get(IS_IN_RENDERING_ENGINE));
+        xcontext.put(XWikiDocument.CKEY_SDOC, securityDocument);
+        xcontext.put(IS_IN_RENDERING_ENGINE, true);
+        return originalContext;
     }
 
     /**
-     * Sets the document that is going to be used to check for programming rights.
+     * Restores the XWiki context properties modified by {@link #setUpConversionContext()}.
      * 
-     * @param document the document that is going to be used to check for programming rights
-     * @return the previous security document
+     * @param originalContext the previous values of the modified XWiki context properties
      */
-    private XWikiDocument setSecurityDocument(XWikiDocument document)
+    private void restoreConversionContext(Map<String, Object> originalContext)
     {
-        return (XWikiDocument) this.xcontextProvider.get().put(XWikiDocument.CKEY_SDOC, document);
+        XWikiContext xcontext = this.xcontextProvider.get();
+        for (Map.Entry<String, Object> entry : originalContext.entrySet()) {
+            if (entry.getValue() != null) {
+                xcontext.put(entry.getKey(), entry.getValue());
+            } else {
+                xcontext.remove(entry.getKey());
+            }
+        }
     }
 }
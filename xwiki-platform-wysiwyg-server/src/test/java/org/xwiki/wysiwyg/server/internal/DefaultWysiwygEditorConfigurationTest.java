@@ -22,16 +22,26 @@
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.bridge.DocumentModelBridge;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.ModelContext;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.wysiwyg.server.WysiwygEditorConfiguration;
 
@@ -77,4 +87,57 @@ public void getPropertyWithFallBack() throws Exception
 
         assertEquals("foo bar", mocker.getComponentUnderTest().getPlugins());
     }
+
+    @Test
+    public void getPropertyFromSnapshot() throws Exception
+    {
+        ModelContext modelContext = mocker.getInstance(ModelContext.class);
+        when(modelContext.getCurrentEntityReference()).thenReturn(new EntityReference("chess", EntityType.WIKI));
+
+        DocumentReference configReference = new DocumentReference("chess", "XWiki", "WysiwygEditorConfig");
+        DocumentReference classReference = new DocumentReference("chess", "XWiki", "WysiwygEditorConfigClass");
+        DocumentAccessBridge dab = mocker.getInstance(DocumentAccessBridge.class);
+        when(dab.getProperty(configReference, classReference, "plugins")).thenReturn("foo bar");
+
+        WysiwygEditorConfiguration configuration = mocker.getComponentUnderTest();
+        assertEquals("foo bar", configuration.getPlugins());
+        assertEquals("foo bar", configuration.getPlugins());
+        verify(dab, times(1)).getProperty(configReference, classReference, "plugins");
+
+        // Modify an unrelated document.
+        ArgumentCaptor<EventListener> listenerCaptor = ArgumentCaptor.forClass(EventListener.class);
+        verify(mocker.<ObservationManager>getInstance(ObservationManager.class)).addListener(listenerCaptor.capture());
+        EventListener listener = listenerCaptor.getValue();
+        DocumentModelBridge document = mock(DocumentModelBridge.class);
+        when(document.getDocumentReference()).thenReturn(new DocumentReference("chess", "Main", "WebHome"));
+        listener.onEvent(new DocumentUpdatedEvent(), document, null);
+
+        assertEquals("foo bar", configuration.getPlugins());
+        verify(dab, times(1)).getProperty(configReference, classReference, "plugins");
+
+        // Modify the configuration document.
+        when(document.getDocumentReference()).thenReturn(configReference);
+        when(dab.getProperty(configReference, classReference, "plugins")).thenReturn("bar");
+        listener.onEvent(new DocumentUpdatedEvent(), document, null);
+
+        assertEquals("bar", configuration.getPlugins());
+    }
+
+    @Test
+    public void getStatefulMacros() throws Exception
+    {
+        WysiwygEditorConfiguration configuration = mocker.getComponentUnderTest();
+        assertTrue(configuration.getStatefulMacros().contains("velocity"));
+        assertTrue(configuration.getStatefulMacros().contains("toc"));
+
+        ConfigurationSource xwikiProperties = mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(xwikiProperties.getProperty("wysiwyg.converter.refresh.statefulMacros", List.class))
+            .thenReturn(Arrays.asList(" groovy", "chart "));
+        assertEquals(Arrays.asList("groovy", "chart"), configuration.getStatefulMacros());
+
+        // Fall back on the default stateful macros.
+        when(xwikiProperties.getProperty("wysiwyg.converter.refresh.statefulMacros", List.class))
+            .thenReturn(Collections.emptyList());
+        assertTrue(configuration.getStatefulMacros().contains("velocity"));
+    }
 }
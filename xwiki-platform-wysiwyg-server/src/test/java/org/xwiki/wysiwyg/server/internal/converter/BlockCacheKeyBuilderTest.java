@@ -0,0 +1,115 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.GroupBlock;
+import org.xwiki.rendering.block.LinkBlock;
+import org.xwiki.rendering.block.MacroBlock;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.SpaceBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceType;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link BlockCacheKeyBuilder}.
+ *
+ * @version $Id$
+ */
+public class BlockCacheKeyBuilderTest
+{
+    private BlockCacheKeyBuilder keyBuilder = new BlockCacheKeyBuilder(Collections.singleton("info"));
+
+    @Test
+    public void sameContentSameKey()
+    {
+        assertEquals(this.keyBuilder.getKey(createParagraph("one", "two")),
+            this.keyBuilder.getKey(createParagraph("one", "two")));
+        assertFalse(this.keyBuilder.getKey(createParagraph("one", "two"))
+            .equals(this.keyBuilder.getKey(createParagraph("one", "three"))));
+        assertFalse(this.keyBuilder.getKey(createParagraph("one", "two"))
+            .equals(this.keyBuilder.getKey(createParagraph("onetwo"))));
+    }
+
+    @Test
+    public void blockTypeIsPartOfTheKey()
+    {
+        List<Block> words = Collections.<Block>singletonList(new WordBlock("one"));
+        assertFalse(this.keyBuilder.getKey(new ParagraphBlock(words))
+            .equals(this.keyBuilder.getKey(new GroupBlock(words))));
+    }
+
+    @Test
+    public void keyIsNotModifiedByTheTransformation()
+    {
+        ParagraphBlock paragraph = createParagraph("one");
+        paragraph.setParameter("class", "before");
+        List<Object> key = this.keyBuilder.getKey(paragraph);
+
+        // The transformation can modify the blocks after the key is computed.
+        paragraph.setParameter("class", "after");
+        paragraph.addChild(new WordBlock("two"));
+
+        paragraph = createParagraph("one");
+        paragraph.setParameter("class", "before");
+        assertEquals(key, this.keyBuilder.getKey(paragraph));
+    }
+
+    @Test
+    public void contextFreeMacros()
+    {
+        Block info = new MacroBlock("info", Collections.singletonMap("title", "Note"), "Hello", false);
+        assertNotNull(this.keyBuilder.getKey(info));
+        assertFalse(this.keyBuilder.getKey(info).equals(this.keyBuilder.getKey(
+            new MacroBlock("info", Collections.singletonMap("title", "Note"), "Bye", false))));
+
+        assertNull(this.keyBuilder.getKey(new GroupBlock(Arrays.<Block>asList(createParagraph("one"),
+            new MacroBlock("toc", Collections.<String, String>emptyMap(), false)))));
+    }
+
+    @Test
+    public void linksCantBeMemoized()
+    {
+        // The rendering of a link depends on whether its target exists or not.
+        Block link = new LinkBlock(Collections.<Block>emptyList(), new ResourceReference("Page", ResourceType.DOCUMENT),
+            false);
+        assertNull(this.keyBuilder.getKey(new ParagraphBlock(Collections.singletonList(link))));
+    }
+
+    private ParagraphBlock createParagraph(String... words)
+    {
+        ParagraphBlock paragraph = new ParagraphBlock(Collections.<Block>emptyList());
+        for (String word : words) {
+            if (!paragraph.getChildren().isEmpty()) {
+                paragraph.addChild(new SpaceBlock());
+            }
+            paragraph.addChild(new WordBlock(word));
+        }
+        return paragraph;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link BlockConversionCache}.
+ *
+ * @version $Id$
+ */
+public class BlockConversionCacheTest
+{
+    @Test
+    public void putAndGet()
+    {
+        BlockConversionCache cache = new BlockConversionCache(1000);
+        List<Object> key = Collections.<Object>singletonList("paragraph");
+        assertNull(cache.get(key));
+        assertEquals(0, cache.getHitRate(), 0);
+
+        cache.put(key, "<p>one</p>");
+        assertEquals("<p>one</p>", cache.get(key));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0);
+
+        // Replace the cached output.
+        cache.put(key, "<p>two</p>");
+        assertEquals("<p>two</p>", cache.get(key));
+        assertEquals(64 + 10, cache.getSize());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed()
+    {
+        // Each entry uses 64 characters for the key digest plus the output length.
+        BlockConversionCache cache = new BlockConversionCache(150);
+        List<Object> alice = Collections.<Object>singletonList("alice");
+        List<Object> bob = Collections.<Object>singletonList("bob");
+        List<Object> carol = Collections.<Object>singletonList("carol");
+
+        cache.put(alice, "a");
+        cache.put(bob, "b");
+        // Access the first entry so that the second one becomes the least recently used.
+        assertNotNull(cache.get(alice));
+
+        cache.put(carol, "c");
+
+        assertNotNull(cache.get(alice));
+        assertNull(cache.get(bob));
+        assertNotNull(cache.get(carol));
+        assertEquals(2 * 65, cache.getSize());
+    }
+
+    @Test
+    public void putTooLarge()
+    {
+        BlockConversionCache cache = new BlockConversionCache(150);
+        List<Object> key = Collections.<Object>singletonList("large");
+        cache.put(key, String.format("%0100d", 0));
+
+        assertNull(cache.get(key));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void keysAreComparedByContent()
+    {
+        BlockConversionCache cache = new BlockConversionCache(1000);
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        parameters.put("class", "box");
+        parameters.put("style", "color:red");
+        List<Object> previousKey = Arrays.<Object>asList(String.class, parameters, "one", 1);
+        cache.put(Arrays.<Object>asList("separator", previousKey, Arrays.<Object>asList("two")), "\n\n");
+
+        // The map entries are added in a different order.
+        Map<String, String> sameParameters = new HashMap<String, String>();
+        sameParameters.put("style", "color:red");
+        sameParameters.put("class", "box");
+        assertEquals("\n\n", cache.get(Arrays.<Object>asList("separator",
+            Arrays.<Object>asList(String.class, sameParameters, "one", 1), Arrays.<Object>asList("two"))));
+
+        // The values are not concatenated.
+        assertNull(cache.get(Arrays.<Object>asList("separator", Arrays.<Object>asList(String.class, parameters, "one1"),
+            Arrays.<Object>asList("two"))));
+        // The type of the values matters.
+        assertNull(cache.get(Arrays.<Object>asList("separator",
+            Arrays.<Object>asList(String.class, parameters, "one", "1"), Arrays.<Object>asList("two"))));
+        assertEquals(64 + 2, cache.getSize());
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.SpaceBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.WrappingListener;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.test.ComponentManagerRule;
+import org.xwiki.test.annotation.AllComponents;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link ChunkedXDOMRenderer}.
+ *
+ * @version $Id$
+ */
+@AllComponents
+public class ChunkedXDOMRendererTest
+{
+    /**
+     * Mixed content, as produced by the editor, that is repeated in order to obtain a large document.
+     */
+    private static final String MIXED_CONTENT = "<h2>Section %1$s</h2>"
+        + "<p>one<br/>two<br/><br/>three</p>"
+        + "<ul><li>item %1$s<ul><li>nested</li></ul></li><li>second</li></ul>"
+        + "<ol><li>first</li></ol>"
+        + "<div class=\"box\"><p>group</p><ul><li>list in group</li></ul></div>"
+        + "<!--startmacro:toc|-||-|--><!--stopmacro-->"
+        + "<p>before <!--startmacro:info|-||-|inline--><!--stopmacro--> after</p>"
+        + "<!--startmacro:code|-|language=\"java\"|-|int i = %1$s;--><!--stopmacro-->"
+        + "<table><tbody><tr><th>head</th></tr><tr><td>cell</td></tr></tbody></table>"
+        + "<hr/><pre>  verbatim\n  text</pre><p>last</p>";
+
+    @Rule
+    public ComponentManagerRule componentManager = new ComponentManagerRule();
+
+    /**
+     * The number of paragraphs of the synthetic document.
+     */
+    private static final int PARAGRAPH_COUNT = 1000;
+
+    private ForkJoinPool pool;
+
+    private Execution execution;
+
+    private ExecutionContextManager executionContextManager;
+
+    /**
+     * Renders paragraphs separated by an empty line, like the wiki syntax renderers.
+     */
+    private PrintRendererFactory rendererFactory = new PrintRendererFactory()
+    {
+        @Override
+        public Syntax getSyntax()
+        {
+            return Syntax.PLAIN_1_0;
+        }
+
+        @Override
+        public PrintRenderer createRenderer(WikiPrinter printer)
+        {
+            return new ParagraphRenderer(printer);
+        }
+    };
+
+    @Before
+    public void configure() throws Exception
+    {
+        this.pool = new ForkJoinPool(4);
+        this.execution = mock(Execution.class);
+        this.executionContextManager = mock(ExecutionContextManager.class);
+        when(this.executionContextManager.clone(any(ExecutionContext.class))).thenReturn(new ExecutionContext());
+        when(this.execution.getContext()).thenReturn(new ExecutionContext());
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.pool.shutdownNow();
+    }
+
+    @Test
+    public void renderMatchesSequentialRendering() throws Exception
+    {
+        List<Block> paragraphs = new ArrayList<Block>();
+        for (int i = 0; i < PARAGRAPH_COUNT; i++) {
+            paragraphs.add(new ParagraphBlock(
+                Arrays.<Block>asList(new WordBlock("paragraph"), new SpaceBlock(), new WordBlock(String.valueOf(i)))));
+        }
+        XDOM xdom = new XDOM(paragraphs);
+
+        WikiPrinter printer = new DefaultWikiPrinter();
+        xdom.traverse(this.rendererFactory.createRenderer(printer));
+        String sequentialOutput = printer.toString();
+
+        assertEquals(sequentialOutput, new ChunkedXDOMRenderer(this.rendererFactory, this.execution,
+            this.executionContextManager, this.pool).render(xdom));
+
+        // The given XDOM should not be modified.
+        assertEquals(PARAGRAPH_COUNT, xdom.getChildren().size());
+        assertSame(xdom, xdom.getChildren().get(0).getParent());
+    }
+
+    /**
+     * Verifies that the concurrent conversion of the edited HTML to wiki syntax matches the sequential conversion.
+     */
+    @Test
+    public void renderWikiSyntaxMatchesSequentialRendering() throws Exception
+    {
+        StringBuilder html = new StringBuilder("<html><body>");
+        for (int i = 0; i < 100; i++) {
+            html.append(String.format(MIXED_CONTENT, i));
+        }
+        html.append("</body></html>");
+        Parser xhtmlParser = this.componentManager.getInstance(Parser.class, "xhtml/1.0");
+        XDOM xdom = xhtmlParser.parse(new StringReader(html.toString()));
+        PrintRendererFactory xwikiRendererFactory =
+            this.componentManager.getInstance(PrintRendererFactory.class, Syntax.XWIKI_2_1.toIdString());
+
+        WikiPrinter printer = new DefaultWikiPrinter();
+        xdom.traverse(xwikiRendererFactory.createRenderer(printer));
+        String sequentialOutput = printer.toString();
+
+        assertEquals(sequentialOutput, new ChunkedXDOMRenderer(xwikiRendererFactory, this.execution,
+            this.executionContextManager, this.pool).render(xdom));
+        verify(this.executionContextManager, atLeastOnce()).clone(any(ExecutionContext.class));
+    }
+
+    @Test
+    public void renderSmallDocument() throws Exception
+    {
+        XDOM xdom = new XDOM(Arrays.<Block>asList(new ParagraphBlock(Arrays.<Block>asList(new WordBlock("one")))));
+
+        assertEquals("one", new ChunkedXDOMRenderer(this.rendererFactory, this.execution,
+            this.executionContextManager, this.pool).render(xdom));
+        verify(this.executionContextManager, never()).clone(any(ExecutionContext.class));
+    }
+
+    /**
+     * Renders the words and spaces of the paragraphs, separating the paragraphs with an empty line.
+     */
+    private static final class ParagraphRenderer extends WrappingListener implements PrintRenderer
+    {
+        private final WikiPrinter printer;
+
+        private boolean firstParagraph = true;
+
+        ParagraphRenderer(WikiPrinter printer)
+        {
+            this.printer = printer;
+        }
+
+        @Override
+        public WikiPrinter getPrinter()
+        {
+            return this.printer;
+        }
+
+        @Override
+        public void beginParagraph(Map<String, String> parameters)
+        {
+            if (!this.firstParagraph) {
+                this.printer.print("\n\n");
+            }
+            this.firstParagraph = false;
+        }
+
+        @Override
+        public void onWord(String word)
+        {
+            this.printer.print(word);
+        }
+
+        @Override
+        public void onSpace()
+        {
+            this.printer.print(" ");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Provider;
+import javax.servlet.http.HttpSession;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.XWikiRequest;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link CollapsedMacroPreferences}.
+ *
+ * @version $Id$
+ */
+public class CollapsedMacroPreferencesTest
+{
+    @Rule
+    public MockitoComponentMockingRule<CollapsedMacroPreferences> mocker =
+        new MockitoComponentMockingRule<CollapsedMacroPreferences>(CollapsedMacroPreferences.class);
+
+    private DocumentReference page = new DocumentReference("wiki", "Space", "Page");
+
+    @Before
+    public void configure() throws Exception
+    {
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        HttpSession session = mock(HttpSession.class);
+        when(session.getAttribute(anyString())).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return attributes.get(invocation.getArgument(0));
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                attributes.put(invocation.<String>getArgument(0), invocation.getArgument(1));
+                return null;
+            }
+        }).when(session).setAttribute(anyString(), any());
+
+        XWikiRequest request = mock(XWikiRequest.class);
+        when(request.getSession(anyBoolean())).thenReturn(session);
+
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(xcontext.getRequest()).thenReturn(request);
+
+        Provider<XWikiContext> xcontextProvider = this.mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        when(xcontextProvider.get()).thenReturn(xcontext);
+    }
+
+    @Test
+    public void collapseAndExpand() throws Exception
+    {
+        CollapsedMacroPreferences preferences = this.mocker.getComponentUnderTest();
+        assertTrue(preferences.getCollapsedMacros(this.page).isEmpty());
+
+        preferences.setCollapsed(this.page, Arrays.asList("startmacro:a|-||-|", "startmacro:b|-||-|"), true);
+        assertEquals(2, preferences.getCollapsedMacros(this.page).size());
+        assertTrue(preferences.getCollapsedMacros(new DocumentReference("wiki", "Space", "Other")).isEmpty());
+
+        preferences.setCollapsed(this.page, Collections.singletonList("startmacro:a|-||-|"), false);
+        assertEquals(Collections.singleton("startmacro:b|-||-|"), preferences.getCollapsedMacros(this.page));
+    }
+
+    @Test
+    public void rememberOnlyTheMostRecentlyEditedPages() throws Exception
+    {
+        CollapsedMacroPreferences preferences = this.mocker.getComponentUnderTest();
+        preferences.setCollapsed(this.page, Collections.singletonList("startmacro:a|-||-|"), true);
+        for (int i = 0; i < 50; i++) {
+            preferences.setCollapsed(new DocumentReference("wiki", "Space", "Page" + i),
+                Collections.singletonList("startmacro:a|-||-|"), true);
+        }
+
+        assertTrue(preferences.getCollapsedMacros(this.page).isEmpty());
+        assertFalse(preferences.getCollapsedMacros(new DocumentReference("wiki", "Space", "Page0")).isEmpty());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Provider;
+import javax.servlet.http.HttpSession;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.XWikiRequest;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link ConversionSessions}.
+ *
+ * @version $Id$
+ */
+public class ConversionSessionsTest
+{
+    @Rule
+    public MockitoComponentMockingRule<ConversionSessions> mocker =
+        new MockitoComponentMockingRule<ConversionSessions>(ConversionSessions.class);
+
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+    @Before
+    public void configure() throws Exception
+    {
+        HttpSession session = mock(HttpSession.class);
+        when(session.getAttribute(anyString())).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return attributes.get(invocation.getArgument(0));
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                attributes.put(invocation.<String>getArgument(0), invocation.getArgument(1));
+                return null;
+            }
+        }).when(session).setAttribute(anyString(), any());
+
+        XWikiRequest request = mock(XWikiRequest.class);
+        when(request.getSession(anyBoolean())).thenReturn(session);
+
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(xcontext.getRequest()).thenReturn(request);
+
+        Provider<XWikiContext> xcontextProvider = this.mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        when(xcontextProvider.get()).thenReturn(xcontext);
+    }
+
+    @Test
+    public void addAndGet() throws Exception
+    {
+        ConversionSessions sessions = this.mocker.getComponentUnderTest();
+        assertEquals("", sessions.get("editor", 0).getHTML());
+        assertEquals("", sessions.get("editor", 0).getSource());
+        assertNull(sessions.get("editor", 1));
+
+        assertEquals(1, sessions.add("editor", "<p>one</p>", "one"));
+        assertEquals(2, sessions.add("editor", "<p>two</p>", "two"));
+        assertEquals(1, sessions.add("other", "<p>three</p>", "three"));
+
+        assertEquals("<p>one</p>", sessions.get("editor", 1).getHTML());
+        assertEquals("two", sessions.get("editor", 2).getSource());
+        assertEquals("three", sessions.get("other", 1).getSource());
+    }
+
+    @Test
+    public void oldRevisionsAreForgotten() throws Exception
+    {
+        ConversionSessions sessions = this.mocker.getComponentUnderTest();
+        for (int i = 0; i < 5; i++) {
+            sessions.add("editor", "<p>" + i + "</p>", String.valueOf(i));
+        }
+        assertNull(sessions.get("editor", 1));
+        assertNull(sessions.get("editor", 2));
+        assertEquals("4", sessions.get("editor", 5).getSource());
+    }
+
+    @Test
+    public void largeRevisionsAreForgotten() throws Exception
+    {
+        ConversionSessions sessions = this.mocker.getComponentUnderTest();
+        String large = new String(new char[1 << 19]);
+
+        assertEquals(1, sessions.add("editor", "<p>one</p>", "one"));
+        assertEquals(2, sessions.add("editor", large, ""));
+        // The previous revisions are forgotten when the size limit is exceeded.
+        assertEquals(3, sessions.add("editor", large, "three"));
+        assertNull(sessions.get("editor", 1));
+        assertNull(sessions.get("editor", 2));
+        assertEquals("three", sessions.get("editor", 3).getSource());
+
+        // A revision that exceeds the size limit on its own is not kept.
+        assertEquals(0, sessions.add("editor", large, large + ' '));
+        assertEquals("three", sessions.get("editor", 3).getSource());
+    }
+
+    @Test
+    public void sessionsAreSerializable() throws Exception
+    {
+        ConversionSessions sessions = this.mocker.getComponentUnderTest();
+        sessions.add("editor", "<p>one</p>", "one");
+        sessions.add("other", "<p>two</p>", "two");
+
+        ObjectOutputStream output = new ObjectOutputStream(new ByteArrayOutputStream());
+        for (Object value : this.attributes.values()) {
+            output.writeObject(value);
+        }
+        output.close();
+    }
+}
@@ -29,6 +29,7 @@
 import org.mockito.ArgumentCaptor;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.gwt.wysiwyg.client.cleaner.HTMLCleaner;
+import org.xwiki.gwt.wysiwyg.client.converter.ContentChange;
 import org.xwiki.gwt.wysiwyg.client.converter.HTMLConverter;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.block.XDOM;
@@ -49,9 +50,12 @@
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -106,6 +110,91 @@ public void fromHTML() throws Exception
         verify(xhtmlStreamParser).parse(any(StringReader.class), same(printRenderer));
     }
 
+    /**
+     * Unit test for {@link DefaultHTMLConverter#fromHTML(String, ContentChange, String)}.
+     */
+    @Test
+    public void fromHTMLChange() throws Exception
+    {
+        String previousHTML = "<p>one</p>";
+        String html = "<p>two</p>";
+        String syntaxId = "syntax/x.y";
+
+        ConversionSessions conversionSessions = mocker.getInstance(ConversionSessions.class);
+        when(conversionSessions.get("editor", 2)).thenReturn(new ConversionSessions.Revision(previousHTML, "one"));
+        when(conversionSessions.add("editor", html, "")).thenReturn(3);
+
+        HTMLCleaner cleaner = mocker.getInstance(HTMLCleaner.class);
+        when(cleaner.clean(html)).thenReturn(html);
+        PrintRendererFactory printRendererFactory =
+            this.mocker.registerMockComponent(PrintRendererFactory.class, syntaxId);
+        when(printRendererFactory.createRenderer(any(WikiPrinter.class))).thenReturn(mock(PrintRenderer.class));
+
+        ContentChange sourceChange = mocker.getComponentUnderTest().fromHTML("editor",
+            new ContentChange(2, previousHTML, html), syntaxId);
+        assertEquals(3, sourceChange.getRevision());
+        assertEquals("", sourceChange.apply("one"));
+
+        // The client has to send the full HTML if the revision is not available anymore.
+        assertNull(mocker.getComponentUnderTest().fromHTML("editor", new ContentChange(1, previousHTML, html),
+            syntaxId));
+    }
+
+    /**
+     * Verifies that a change is not applied to a revision that has the same number but a different content than the
+     * revision the change is based on, like when the server forgets the conversion session and starts a new one.
+     */
+    @Test
+    public void fromHTMLChangeWithDifferentBase() throws Exception
+    {
+        ConversionSessions conversionSessions = mocker.getInstance(ConversionSessions.class);
+        when(conversionSessions.get("editor", 2)).thenReturn(new ConversionSessions.Revision("<p>six</p>", "six"));
+
+        assertNull(mocker.getComponentUnderTest().fromHTML("editor", new ContentChange(2, "<p>one</p>", "<p>two</p>"),
+            "syntax/x.y"));
+        verify(conversionSessions, never()).add(anyString(), anyString(), anyString());
+    }
+
+    /**
+     * Verifies that a {@link ContentChange} doesn't split surrogate pairs, because a lone surrogate is replaced by the
+     * browser before the change reaches the server.
+     */
+    @Test
+    public void contentChangeDoesNotSplitSurrogatePairs() throws Exception
+    {
+        // The emoticons share the high surrogate.
+        String previousHTML = "<p>\uD83D\uDE00</p>";
+        String html = "<p>\uD83D\uDE01</p>";
+        ContentChange change = new ContentChange(2, previousHTML, html);
+        assertEquals(3, change.getPrefixLength());
+        assertEquals(4, change.getSuffixLength());
+        assertEquals("\uD83D\uDE01", change.getText());
+        assertEquals(html, change.apply(previousHTML));
+
+        // The emoticons share the low surrogate.
+        previousHTML = "<p>\uD83D\uDE00</p>";
+        html = "<p>\uD83E\uDE00</p>";
+        change = new ContentChange(2, previousHTML, html);
+        assertEquals(3, change.getPrefixLength());
+        assertEquals(4, change.getSuffixLength());
+        assertEquals("\uD83E\uDE00", change.getText());
+        assertEquals(html, change.apply(previousHTML));
+
+        // The change is applied on the server without corrupting the emoticon.
+        ConversionSessions conversionSessions = mocker.getInstance(ConversionSessions.class);
+        when(conversionSessions.get("editor", 2)).thenReturn(new ConversionSessions.Revision(previousHTML, ""));
+        HTMLCleaner cleaner = mocker.getInstance(HTMLCleaner.class);
+        when(cleaner.clean(html)).thenReturn(html);
+        String syntaxId = "syntax/x.y";
+        PrintRendererFactory printRendererFactory =
+            this.mocker.registerMockComponent(PrintRendererFactory.class, syntaxId);
+        when(printRendererFactory.createRenderer(any(WikiPrinter.class))).thenReturn(mock(PrintRenderer.class));
+
+        mocker.getComponentUnderTest().fromHTML("editor", change, syntaxId);
+
+        verify(cleaner).clean(html);
+    }
+
     /**
      * Unit test for {@link DefaultHTMLConverter#toHTML(String, String)}.
      */
@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.WordBlock;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link MacroOutputCache}.
+ *
+ * @version $Id$
+ */
+public class MacroOutputCacheTest
+{
+    @Test
+    public void putAndGet()
+    {
+        MacroOutputCache cache = new MacroOutputCache(10);
+        List<Object> key = Arrays.<Object>asList("toc", Collections.emptyMap(), null, false);
+        assertNull(cache.get(key));
+
+        List<Block> output = Collections.<Block>singletonList(new WordBlock("toc"));
+        cache.put(key, output);
+        assertEquals(1, cache.getSize());
+
+        List<Block> cachedOutput = cache.get(key);
+        assertEquals(output, cachedOutput);
+        // The cached output should be copied.
+        assertNotSame(output.get(0), cachedOutput.get(0));
+        assertNotSame(cachedOutput.get(0), cache.get(key).get(0));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed()
+    {
+        MacroOutputCache cache = new MacroOutputCache(5);
+        List<Object> alice = Collections.<Object>singletonList("alice");
+        List<Object> bob = Collections.<Object>singletonList("bob");
+        List<Object> carol = Collections.<Object>singletonList("carol");
+
+        // Each output has 2 blocks.
+        cache.put(alice, createOutput("a"));
+        cache.put(bob, createOutput("b"));
+        // Access the first entry so that the second one becomes the least recently used.
+        assertNotNull(cache.get(alice));
+
+        cache.put(carol, createOutput("c"));
+
+        assertTrue(cache.contains(alice));
+        assertFalse(cache.contains(bob));
+        assertTrue(cache.contains(carol));
+        assertEquals(4, cache.getSize());
+    }
+
+    @Test
+    public void putOutputLargerThanCache()
+    {
+        MacroOutputCache cache = new MacroOutputCache(1);
+        List<Object> key = Collections.<Object>singletonList("key");
+        cache.put(key, Arrays.<Block>asList(new WordBlock("a"), new WordBlock("b")));
+
+        assertFalse(cache.contains(key));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void clear()
+    {
+        MacroOutputCache cache = new MacroOutputCache(10);
+        List<Object> key = Collections.<Object>singletonList("key");
+        cache.put(key, createOutput("a"));
+
+        cache.clear();
+
+        assertFalse(cache.contains(key));
+        assertEquals(0, cache.getSize());
+    }
+
+    private List<Block> createOutput(String word)
+    {
+        return Collections.<Block>singletonList(new ParagraphBlock(Arrays.<Block>asList(new WordBlock(word))));
+    }
+}
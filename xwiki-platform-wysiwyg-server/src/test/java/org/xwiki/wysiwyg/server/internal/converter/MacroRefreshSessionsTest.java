@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.MacroBlock;
+import org.xwiki.rendering.block.MacroMarkerBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.block.match.BlockMatcher;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link MacroRefreshSessions}.
+ *
+ * @version $Id$
+ */
+public class MacroRefreshSessionsTest
+{
+    private static final List<Object> SESSION = Collections.<Object>singletonList("session");
+
+    private static final Set<String> STATEFUL_MACROS = Collections.singleton("velocity");
+
+    private static final BlockMatcher NOTHING = new BlockMatcher()
+    {
+        @Override
+        public boolean match(Block block)
+        {
+            return false;
+        }
+    };
+
+    private MacroRefreshSessions sessions = new MacroRefreshSessions(10);
+
+    @Test
+    public void reuseUnchangedMacroCalls()
+    {
+        this.sessions.store(SESSION, new XDOM(Arrays.<Block>asList(marker("info", "one"), marker("chart", "two"))),
+            STATEFUL_MACROS, NOTHING);
+
+        XDOM xdom = new XDOM(Arrays.<Block>asList(macro("info", "one"), macro("chart", "changed")));
+        assertEquals(1, this.sessions.reuse(SESSION, xdom, STATEFUL_MACROS));
+
+        // The unchanged macro call is replaced by its previous output.
+        MacroMarkerBlock reused = (MacroMarkerBlock) xdom.getChildren().get(0);
+        assertEquals("info", reused.getId());
+        assertEquals("output of one", ((WordBlock) reused.getChildren().get(0)).getWord());
+        // The modified macro call must be executed.
+        assertTrue(xdom.getChildren().get(1) instanceof MacroBlock);
+    }
+
+    @Test
+    public void reuseNothingWhenStatefulMacroCallChanged()
+    {
+        this.sessions.store(SESSION, new XDOM(Arrays.<Block>asList(marker("velocity", "#set ($a = 1)"),
+            marker("info", "one"))), STATEFUL_MACROS, NOTHING);
+
+        XDOM xdom = new XDOM(Arrays.<Block>asList(macro("velocity", "#set ($a = 2)"), macro("info", "one")));
+        assertEquals(0, this.sessions.reuse(SESSION, xdom, STATEFUL_MACROS));
+
+        xdom = new XDOM(Arrays.<Block>asList(macro("velocity", "#set ($a = 1)"), macro("info", "one")));
+        assertEquals(1, this.sessions.reuse(SESSION, xdom, STATEFUL_MACROS));
+        // Stateful macros are always executed.
+        assertTrue(xdom.getChildren().get(0) instanceof MacroBlock);
+    }
+
+    @Test
+    public void reuseNothingForUnknownSession()
+    {
+        this.sessions.store(SESSION, new XDOM(Arrays.<Block>asList(marker("info", "one"))), STATEFUL_MACROS, NOTHING);
+
+        XDOM xdom = new XDOM(Arrays.<Block>asList(macro("info", "one")));
+        assertEquals(0, this.sessions.reuse(Collections.<Object>singletonList("other"), xdom, STATEFUL_MACROS));
+    }
+
+    private MacroBlock macro(String id, String content)
+    {
+        return new MacroBlock(id, Collections.<String, String>emptyMap(), content, false);
+    }
+
+    private MacroMarkerBlock marker(String id, String content)
+    {
+        return new MacroMarkerBlock(id, Collections.<String, String>emptyMap(), content,
+            Collections.<Block>singletonList(new WordBlock("output of " + content)), false);
+    }
+}
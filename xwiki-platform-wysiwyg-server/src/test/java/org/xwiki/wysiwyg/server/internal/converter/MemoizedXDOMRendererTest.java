@@ -0,0 +1,253 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.ParagraphBlock;
+import org.xwiki.rendering.block.SpaceBlock;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.listener.WrappingListener;
+import org.xwiki.rendering.renderer.PrintRenderer;
+import org.xwiki.rendering.renderer.PrintRendererFactory;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.rendering.renderer.printer.WrappingWikiPrinter;
+import org.xwiki.rendering.syntax.Syntax;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link MemoizedXDOMRenderer}.
+ *
+ * @version $Id$
+ */
+public class MemoizedXDOMRendererTest
+{
+    /**
+     * The number of paragraphs of the synthetic document.
+     */
+    private static final int PARAGRAPH_COUNT = 100;
+
+    /**
+     * The number of renderers created.
+     */
+    private int rendererCount;
+
+    /**
+     * The number of characters written by the created renderers.
+     */
+    private int renderedLength;
+
+    /**
+     * Renders paragraphs separated by an empty line, like the wiki syntax renderers.
+     */
+    private PrintRendererFactory rendererFactory = new PrintRendererFactory()
+    {
+        @Override
+        public Syntax getSyntax()
+        {
+            return Syntax.PLAIN_1_0;
+        }
+
+        @Override
+        public PrintRenderer createRenderer(WikiPrinter printer)
+        {
+            rendererCount++;
+            return new ParagraphRenderer(new WrappingWikiPrinter(printer)
+            {
+                @Override
+                public void print(String text)
+                {
+                    renderedLength += text.length();
+                    super.print(text);
+                }
+            });
+        }
+    };
+
+    @Test
+    public void renderMatchesSequentialRendering()
+    {
+        XDOM xdom = createXDOM(PARAGRAPH_COUNT);
+        String sequentialOutput = renderSequentially(xdom);
+        BlockConversionCache cache = new BlockConversionCache(Integer.MAX_VALUE);
+
+        assertEquals(sequentialOutput,
+            new MemoizedXDOMRenderer(this.rendererFactory, cache).render(xdom, getKeys(PARAGRAPH_COUNT)));
+
+        // The given XDOM should not be modified.
+        assertEquals(PARAGRAPH_COUNT, xdom.getChildren().size());
+        assertSame(xdom, xdom.getChildren().get(0).getParent());
+    }
+
+    @Test
+    public void renderOnlyChangedBlocks()
+    {
+        BlockConversionCache cache = new BlockConversionCache(Integer.MAX_VALUE);
+        MemoizedXDOMRenderer renderer = new MemoizedXDOMRenderer(this.rendererFactory, cache);
+        XDOM xdom = createXDOM(PARAGRAPH_COUNT);
+        renderer.render(xdom, getKeys(PARAGRAPH_COUNT));
+
+        // Nothing is rendered again, except the empty document, if the content didn't change.
+        this.rendererCount = 0;
+        assertEquals(renderSequentially(xdom), renderer.render(xdom, getKeys(PARAGRAPH_COUNT)));
+        assertEquals(1, this.rendererCount);
+
+        // Change the last paragraph.
+        xdom.getChildren().get(PARAGRAPH_COUNT - 1).setChildren(Collections.<Block>singletonList(new WordBlock("changed")));
+        List<List<Object>> keys = getKeys(PARAGRAPH_COUNT);
+        keys.set(PARAGRAPH_COUNT - 1, Collections.<Object>singletonList("changed"));
+        this.rendererCount = 0;
+        String output = renderer.render(xdom, keys);
+        // The empty document, the changed paragraph and the changed paragraph together with the previous paragraph.
+        assertEquals(3, this.rendererCount);
+        assertEquals(renderSequentially(xdom), output);
+    }
+
+    /**
+     * Measures the rendering work saved when a single top level block changes, including the work needed to compute
+     * the cache keys.
+     */
+    @Test
+    public void memoizedRenderingDoesLessWork()
+    {
+        BlockConversionCache cache = new BlockConversionCache(Integer.MAX_VALUE);
+        MemoizedXDOMRenderer renderer = new MemoizedXDOMRenderer(this.rendererFactory, cache);
+        BlockCacheKeyBuilder keyBuilder = new BlockCacheKeyBuilder(Collections.<String>emptySet());
+        XDOM xdom = createXDOM(PARAGRAPH_COUNT);
+        renderer.render(xdom, getKeys(xdom, keyBuilder));
+
+        // Change one paragraph.
+        xdom.getChildren().get(PARAGRAPH_COUNT / 2)
+            .setChildren(Collections.<Block>singletonList(new WordBlock("changed")));
+        this.rendererCount = 0;
+        this.renderedLength = 0;
+        List<List<Object>> keys = getKeys(xdom, keyBuilder);
+        // The keys are computed without rendering the blocks.
+        assertEquals(0, this.rendererCount);
+        String output = renderer.render(xdom, keys);
+
+        String sequentialOutput = renderSequentially(xdom);
+        assertEquals(sequentialOutput, output);
+        // The changed paragraph is rendered alone and together with each of its neighbours.
+        assertEquals("changed".length() * 3 + "paragraph 49\n\n".length() + "\n\nparagraph 51".length(),
+            this.renderedLength);
+        assertTrue(this.renderedLength * 20 < sequentialOutput.length());
+    }
+
+    @Test
+    public void renderBlocksThatCantBeMemoized()
+    {
+        BlockConversionCache cache = new BlockConversionCache(Integer.MAX_VALUE);
+        XDOM xdom = createXDOM(PARAGRAPH_COUNT);
+        List<List<Object>> keys = getKeys(PARAGRAPH_COUNT);
+        for (int i = 1; i < PARAGRAPH_COUNT - 1; i++) {
+            keys.set(i, null);
+        }
+
+        assertEquals(renderSequentially(xdom),
+            new MemoizedXDOMRenderer(this.rendererFactory, cache).render(xdom, keys));
+    }
+
+    private XDOM createXDOM(int paragraphCount)
+    {
+        List<Block> paragraphs = new ArrayList<Block>();
+        for (int i = 0; i < paragraphCount; i++) {
+            paragraphs.add(new ParagraphBlock(
+                Arrays.<Block>asList(new WordBlock("paragraph"), new SpaceBlock(), new WordBlock(String.valueOf(i)))));
+        }
+        return new XDOM(paragraphs);
+    }
+
+    private List<List<Object>> getKeys(int paragraphCount)
+    {
+        List<List<Object>> keys = new ArrayList<List<Object>>();
+        for (int i = 0; i < paragraphCount; i++) {
+            keys.add(Collections.<Object>singletonList(i));
+        }
+        return keys;
+    }
+
+    private List<List<Object>> getKeys(XDOM xdom, BlockCacheKeyBuilder keyBuilder)
+    {
+        List<List<Object>> keys = new ArrayList<List<Object>>();
+        for (Block block : xdom.getChildren()) {
+            keys.add(keyBuilder.getKey(block));
+        }
+        return keys;
+    }
+
+    private String renderSequentially(XDOM xdom)
+    {
+        WikiPrinter printer = new DefaultWikiPrinter();
+        xdom.traverse(new ParagraphRenderer(printer));
+        return printer.toString();
+    }
+
+    /**
+     * Renders the words and spaces of the paragraphs, separating the paragraphs with an empty line.
+     */
+    private static final class ParagraphRenderer extends WrappingListener implements PrintRenderer
+    {
+        private final WikiPrinter printer;
+
+        private boolean firstParagraph = true;
+
+        ParagraphRenderer(WikiPrinter printer)
+        {
+            this.printer = printer;
+        }
+
+        @Override
+        public WikiPrinter getPrinter()
+        {
+            return this.printer;
+        }
+
+        @Override
+        public void beginParagraph(Map<String, String> parameters)
+        {
+            if (!this.firstParagraph) {
+                this.printer.print("\n\n");
+            }
+            this.firstParagraph = false;
+        }
+
+        @Override
+        public void onWord(String word)
+        {
+            this.printer.print(word);
+        }
+
+        @Override
+        public void onSpace()
+        {
+            this.printer.print(" ");
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.plugin.importer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link OfficeArtifactBatch}.
+ *
+ * @version $Id$
+ */
+public class OfficeArtifactBatchTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DocumentReference targetReference = new DocumentReference("wiki", "Space", "Page");
+
+    private ContextualAuthorizationManager authorization = mock(ContextualAuthorizationManager.class);
+
+    private XWikiContext xcontext = mock(XWikiContext.class);
+
+    private XWiki xwiki = mock(XWiki.class);
+
+    private XWikiDocument targetDocument = mock(XWikiDocument.class);
+
+    private XWikiDocument clonedDocument = mock(XWikiDocument.class);
+
+    private OfficeArtifactBatch batch;
+
+    @Before
+    public void configure() throws Exception
+    {
+        when(this.xcontext.getWiki()).thenReturn(this.xwiki);
+        when(this.xwiki.getDocument(this.targetReference, this.xcontext)).thenReturn(this.targetDocument);
+        when(this.targetDocument.clone()).thenReturn(this.clonedDocument);
+        when(this.authorization.hasAccess(Right.EDIT, this.targetReference)).thenReturn(true);
+
+        this.batch = new OfficeArtifactBatch(this.targetReference, this.authorization, this.xcontext);
+    }
+
+    @Test
+    public void addAndSave() throws Exception
+    {
+        assertTrue(this.batch.add("one.png", new byte[] {1, 2, 3}));
+        File file = this.folder.newFile("two.png");
+        FileUtils.writeByteArrayToFile(file, new byte[] {4, 5});
+        assertTrue(this.batch.add("two.png", file));
+
+        this.batch.save();
+
+        verify(this.clonedDocument).addAttachment(eq("one.png"), any(InputStream.class), eq(this.xcontext));
+        verify(this.clonedDocument).addAttachment(eq("two.png"), any(InputStream.class), eq(this.xcontext));
+        verify(this.xwiki).saveDocument(this.clonedDocument, "Attached 2 artifacts from the imported office file.",
+            true, this.xcontext);
+        // The cached document instance must not be modified.
+        verify(this.targetDocument, never()).addAttachment(anyString(), any(InputStream.class), any());
+    }
+
+    @Test
+    public void skipIdenticalAttachments() throws Exception
+    {
+        mockAttachment("same.png", new byte[] {1, 2, 3});
+        mockAttachment("sameSize.png", new byte[] {1, 2, 4});
+        mockAttachment("otherSize.png", new byte[] {1, 2});
+
+        File file = this.folder.newFile("same.png");
+        FileUtils.writeByteArrayToFile(file, new byte[] {1, 2, 3});
+
+        assertFalse(this.batch.add("same.png", new byte[] {1, 2, 3}));
+        assertFalse(this.batch.add("same.png", file));
+        assertTrue(this.batch.add("sameSize.png", new byte[] {1, 2, 3}));
+        assertTrue(this.batch.add("otherSize.png", file));
+
+        this.batch.save();
+
+        verify(this.clonedDocument, never()).addAttachment(eq("same.png"), any(InputStream.class), any());
+        verify(this.xwiki).saveDocument(this.clonedDocument, "Attached 2 artifacts from the imported office file.",
+            true, this.xcontext);
+    }
+
+    @Test
+    public void saveWithoutChanges() throws Exception
+    {
+        mockAttachment("same.png", new byte[] {1, 2, 3});
+
+        assertFalse(this.batch.add("same.png", new byte[] {1, 2, 3}));
+        this.batch.save();
+
+        verify(this.xwiki, never()).saveDocument(any(XWikiDocument.class), anyString(), anyBoolean(), any());
+    }
+
+    @Test
+    public void addWithoutEditRight() throws Exception
+    {
+        when(this.authorization.hasAccess(Right.EDIT, this.targetReference)).thenReturn(false);
+
+        try {
+            this.batch.add("image.png", new byte[] {1, 2, 3});
+            fail();
+        } catch (SecurityException expected) {
+            assertEquals("You are not allowed to attach files to [wiki:Space.Page].", expected.getMessage());
+        }
+
+        this.batch.save();
+
+        verify(this.xwiki, never()).getDocument(any(DocumentReference.class), any(XWikiContext.class));
+        verify(this.xwiki, never()).saveDocument(any(XWikiDocument.class), anyString(), anyBoolean(), any());
+    }
+
+    @Test
+    public void saveWithoutEditRight() throws Exception
+    {
+        assertTrue(this.batch.add("image.png", new byte[] {1, 2, 3}));
+
+        // The rights have been revoked in the mean time.
+        when(this.authorization.hasAccess(Right.EDIT, this.targetReference)).thenReturn(false);
+
+        try {
+            this.batch.save();
+            fail();
+        } catch (SecurityException expected) {
+            // Expected.
+        }
+
+        verify(this.xwiki, never()).saveDocument(any(XWikiDocument.class), anyString(), anyBoolean(), any());
+    }
+
+    private void mockAttachment(String name, byte[] content) throws Exception
+    {
+        XWikiAttachment attachment = mock(XWikiAttachment.class, name);
+        when(attachment.getLongSize()).thenReturn((long) content.length);
+        when(attachment.getContentInputStream(this.xcontext)).thenReturn(new ByteArrayInputStream(content),
+            new ByteArrayInputStream(content));
+        when(this.clonedDocument.getAttachment(name)).thenReturn(attachment);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.plugin.importer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xwiki.model.reference.DocumentReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link OfficeHTMLUpload}.
+ *
+ * @version $Id$
+ */
+public class OfficeHTMLUploadTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OfficeHTMLUpload upload;
+
+    @Before
+    public void configure() throws Exception
+    {
+        this.upload =
+            new OfficeHTMLUpload(new File(this.folder.getRoot(), "upload"), new DocumentReference("wiki", "XWiki", "u"));
+    }
+
+    @Test
+    public void appendAndGetInput() throws Exception
+    {
+        this.upload.append("<p>a\uD83D\uDE00");
+        this.upload.append("b</p>");
+
+        assertEquals(11, this.upload.getLength());
+        Reader input = this.upload.getInput();
+        try {
+            assertEquals("<p>a\uD83D\uDE00b</p>", IOUtils.toString(input));
+        } finally {
+            input.close();
+        }
+    }
+
+    @Test
+    public void setOutputDoesNotSplitSurrogatePairs() throws Exception
+    {
+        // The emoji starts at the end of the first segment.
+        String output = "abc\uD83D\uDE00def\uD83D\uDE01";
+
+        assertEquals(3, this.upload.setOutput(output, 4));
+        assertTrue(this.upload.isCleaned());
+        assertEquals("abc", this.upload.getSegment(0));
+        assertEquals("\uD83D\uDE00de", this.upload.getSegment(1));
+        assertEquals("f\uD83D\uDE01", this.upload.getSegment(2));
+    }
+
+    @Test
+    public void setEmptyOutput() throws Exception
+    {
+        assertEquals(1, this.upload.setOutput("", 4));
+        assertEquals("", this.upload.getSegment(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void getInvalidSegment() throws Exception
+    {
+        this.upload.setOutput("abc", 4);
+        this.upload.getSegment(1);
+    }
+
+    @Test(expected = IOException.class)
+    public void appendAfterClean() throws Exception
+    {
+        this.upload.setOutput("abc", 4);
+        this.upload.append("def");
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.plugin.importer;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xwiki.wysiwyg.server.internal.plugin.importer.OfficeImportCache.CachedImport;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link OfficeImportCache}.
+ *
+ * @version $Id$
+ */
+public class OfficeImportCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OfficeImportCache cache;
+
+    @Before
+    public void configure() throws Exception
+    {
+        this.cache = new OfficeImportCache(new File(this.folder.getRoot(), "cache"), 100);
+    }
+
+    @Test
+    public void getKey()
+    {
+        Date date = new Date(1000);
+        String key = OfficeImportCache.getKey("wiki:Space.Page@file.odt", "1.1", date, 10, true, false);
+        assertEquals(key, OfficeImportCache.getKey("wiki:Space.Page@file.odt", "1.1", new Date(1000), 10, true, false));
+        assertFalse(key.equals(OfficeImportCache.getKey("wiki:Space.Page@file.odt", "1.2", date, 10, true, false)));
+        assertFalse(key.equals(OfficeImportCache.getKey("wiki:Space.Page@file.odt", "1.1", date, 10, false, false)));
+        assertFalse(key.equals(OfficeImportCache.getKey("wiki:Space.Page@file.odt", "1.1", date, 10, true, true)));
+        // The attachment version restarts when the attachment is deleted and uploaded again.
+        assertFalse(key.equals(OfficeImportCache.getKey("wiki:Space.Page@file.odt", "1.1", new Date(2000), 10, true,
+            false)));
+        assertFalse(key.equals(OfficeImportCache.getKey("wiki:Space.Page@file.odt", "1.1", date, 11, true, false)));
+    }
+
+    @Test
+    public void putAndGet() throws Exception
+    {
+        assertNull(this.cache.get("key"));
+
+        Map<String, byte[]> artifacts = Collections.singletonMap("image.png", new byte[] {1, 2, 3});
+        this.cache.put("key", "<p>content</p>", artifacts);
+
+        CachedImport cachedImport = this.cache.get("key");
+        assertEquals("<p>content</p>", cachedImport.getContent());
+        assertEquals(Collections.singletonList("image.png"), cachedImport.getArtifactNames());
+        assertArrayEquals(new byte[] {1, 2, 3}, FileUtils.readFileToByteArray(cachedImport.getArtifact("image.png")));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws Exception
+    {
+        Map<String, byte[]> artifacts = Collections.singletonMap("image.png", new byte[30]);
+        this.cache.put("alice", "a", artifacts);
+        this.cache.put("bob", "b", artifacts);
+        // Access the first entry so that the second one becomes the least recently used.
+        assertNotNull(this.cache.get("alice"));
+
+        this.cache.put("carol", "c", artifacts);
+
+        assertNotNull(this.cache.get("alice"));
+        assertNull(this.cache.get("bob"));
+        assertNotNull(this.cache.get("carol"));
+        assertTrue(this.cache.getSize() <= 100);
+    }
+
+    @Test
+    public void putEntryLargerThanCache() throws Exception
+    {
+        this.cache.put("key", "content", Collections.singletonMap("image.png", new byte[200]));
+
+        assertNull(this.cache.get("key"));
+        assertEquals(0, this.cache.getSize());
+    }
+}
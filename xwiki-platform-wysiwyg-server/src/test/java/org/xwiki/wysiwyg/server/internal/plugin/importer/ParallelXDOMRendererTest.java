@@ -0,0 +1,188 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.plugin.importer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.WordBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link ParallelXDOMRenderer}.
+ *
+ * @version $Id$
+ */
+public class ParallelXDOMRendererTest
+{
+    /**
+     * The number of slides of the synthetic presentation.
+     */
+    private static final int SLIDE_COUNT = 300;
+
+    /**
+     * The number of pool threads.
+     */
+    private static final int PARALLELISM = 4;
+
+    private ForkJoinPool pool;
+
+    private Execution execution;
+
+    private ExecutionContextManager executionContextManager;
+
+    /**
+     * Released when {@link #PARALLELISM} slides are being rendered at the same time.
+     */
+    private CountDownLatch allThreadsRendering = new CountDownLatch(PARALLELISM);
+
+    /**
+     * Set if a slide has waited in vain for the other pool threads to render a slide.
+     */
+    private AtomicBoolean timedOut = new AtomicBoolean();
+
+    /**
+     * Renders each slide as its text, after waiting for all the pool threads to render a slide.
+     */
+    private BlockRenderer renderer = new BlockRenderer()
+    {
+        @Override
+        public void render(Block block, WikiPrinter printer)
+        {
+            waitForOtherThreads();
+            Block slide = block instanceof XDOM ? block.getChildren().get(0) : block;
+            printer.print(((WordBlock) slide).getWord());
+        }
+
+        @Override
+        public void render(Collection<Block> blocks, WikiPrinter printer)
+        {
+            for (Block block : blocks) {
+                render(block, printer);
+            }
+        }
+    };
+
+    @Before
+    public void configure() throws Exception
+    {
+        this.pool = new ForkJoinPool(PARALLELISM);
+        this.execution = mock(Execution.class);
+        this.executionContextManager = mock(ExecutionContextManager.class);
+        when(this.executionContextManager.clone(any(ExecutionContext.class))).thenReturn(new ExecutionContext());
+        when(this.execution.getContext()).thenReturn(new ExecutionContext());
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.pool.shutdownNow();
+    }
+
+    @Test
+    public void renderPreservesSlideOrder() throws Exception
+    {
+        XDOM presentation = createPresentation();
+
+        String output = new ParallelXDOMRenderer(this.renderer, this.execution, this.executionContextManager,
+            this.pool).render(presentation);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < SLIDE_COUNT; i++) {
+            expected.append("slide").append(i);
+        }
+        assertEquals(expected.toString(), output);
+
+        // The given XDOM should not be modified.
+        assertEquals(SLIDE_COUNT, presentation.getChildren().size());
+        assertSame(presentation, presentation.getChildren().get(0).getParent());
+
+        // The execution context should be cloned once per group of slides, not for each slide.
+        verify(this.executionContextManager, times(PARALLELISM)).clone(any(ExecutionContext.class));
+        verify(this.execution, times(PARALLELISM)).setContext(any(ExecutionContext.class));
+        verify(this.execution, times(PARALLELISM)).removeContext();
+    }
+
+    /**
+     * Verifies that the slides are rendered concurrently, without relying on the time needed to render them.
+     */
+    @Test
+    public void renderConcurrently() throws Exception
+    {
+        new ParallelXDOMRenderer(this.renderer, this.execution, this.executionContextManager, this.pool)
+            .render(createPresentation());
+
+        // The slides can't wait for each other if they are rendered sequentially.
+        assertFalse(this.timedOut.get());
+    }
+
+    @Test
+    public void renderFewerSlidesThanThreads() throws Exception
+    {
+        XDOM presentation = new XDOM(new ArrayList<Block>(Arrays.asList(new WordBlock("one"), new WordBlock("two"))));
+        // Don't wait for the threads that have nothing to render.
+        this.allThreadsRendering = new CountDownLatch(0);
+
+        assertEquals("onetwo", new ParallelXDOMRenderer(this.renderer, this.execution, this.executionContextManager,
+            this.pool).render(presentation));
+        verify(this.executionContextManager, times(2)).clone(any(ExecutionContext.class));
+    }
+
+    private XDOM createPresentation()
+    {
+        List<Block> slides = new ArrayList<Block>();
+        for (int i = 0; i < SLIDE_COUNT; i++) {
+            slides.add(new WordBlock("slide" + i));
+        }
+        return new XDOM(slides);
+    }
+
+    private void waitForOtherThreads()
+    {
+        this.allThreadsRendering.countDown();
+        try {
+            // The timeout only prevents the test from hanging if the slides are rendered sequentially.
+            if (!this.allThreadsRendering.await(10, TimeUnit.SECONDS)) {
+                this.timedOut.set(true);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.internal.plugin.importer;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Provider;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+import org.xwiki.gwt.wysiwyg.client.plugin.importer.ImportService;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.xml.html.HTMLCleaner;
+import org.xwiki.xml.html.HTMLCleanerConfiguration;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the paste cleaning methods of {@link XWikiImportService}.
+ *
+ * @version $Id$
+ */
+public class XWikiImportServiceTest
+{
+    private static final String CLEANER_HINT = "openoffice";
+
+    private static final Map<String, String> CLEANING_PARAMETERS = Collections.emptyMap();
+
+    @Rule
+    public MockitoComponentMockingRule<ImportService> mocker =
+        new MockitoComponentMockingRule<ImportService>(XWikiImportService.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private XWikiContext xcontext = mock(XWikiContext.class);
+
+    private HTMLCleaner cleaner = mock(HTMLCleaner.class);
+
+    /**
+     * The content received by the HTML cleaner.
+     */
+    private List<String> cleanerInputs = new ArrayList<String>();
+
+    @Before
+    public void configure() throws Exception
+    {
+        Environment environment = this.mocker.getInstance(Environment.class);
+        when(environment.getTemporaryDirectory()).thenReturn(this.folder.getRoot());
+
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty("wysiwyg.officeImporter.cache.maxSize", 100L * 1024 * 1024)).thenReturn(0L);
+        when(configuration.getProperty("wysiwyg.officeImporter.presentation.parallelism", 1)).thenReturn(1);
+
+        Provider<XWikiContext> xcontextProvider = this.mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        when(xcontextProvider.get()).thenReturn(this.xcontext);
+        setCurrentUser("alice");
+
+        ComponentManager componentManager = this.mocker.getInstance(ComponentManager.class);
+        when(componentManager.getInstance(HTMLCleaner.class, CLEANER_HINT)).thenReturn(this.cleaner);
+        when(this.cleaner.getDefaultConfiguration()).thenReturn(mock(HTMLCleanerConfiguration.class));
+        // Parse the input as XML, wrapped in the HTML envelope, without cleaning it.
+        when(this.cleaner.clean(any(Reader.class), any(HTMLCleanerConfiguration.class))).thenAnswer(
+            new Answer<Document>()
+            {
+                @Override
+                public Document answer(InvocationOnMock invocation) throws Throwable
+                {
+                    String input = IOUtils.toString((Reader) invocation.getArgument(0));
+                    cleanerInputs.add(input);
+                    String html = "<html><body>" + input + "</body></html>";
+                    return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                        .parse(new InputSource(new StringReader(html)));
+                }
+            });
+    }
+
+    @Test
+    public void uploadCleanAndGetSegments() throws Exception
+    {
+        StringBuilder emoticons = new StringBuilder();
+        for (int i = 0; i < 300000; i++) {
+            emoticons.append("\uD83D\uDE00");
+        }
+        String firstChunk = "<p>" + emoticons;
+        String secondChunk = emoticons + "</p>";
+        String expectedOutput =
+            this.mocker.getComponentUnderTest().cleanOfficeHTML(firstChunk + secondChunk, CLEANER_HINT,
+                CLEANING_PARAMETERS);
+
+        String uploadId = this.mocker.getComponentUnderTest().uploadOfficeHTML(null, firstChunk);
+        assertEquals(uploadId, this.mocker.getComponentUnderTest().uploadOfficeHTML(uploadId, secondChunk));
+
+        int segmentCount = this.mocker.getComponentUnderTest().cleanUploadedOfficeHTML(uploadId, CLEANER_HINT,
+            CLEANING_PARAMETERS);
+        assertTrue(segmentCount > 1);
+        assertEquals(this.cleanerInputs.get(0), this.cleanerInputs.get(1));
+
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < segmentCount; i++) {
+            output.append(this.mocker.getComponentUnderTest().getCleanedOfficeHTML(uploadId, i));
+        }
+        // The segments must not split the emoticons.
+        assertEquals(expectedOutput, output.toString());
+
+        // The upload is discarded after the last segment is retrieved.
+        try {
+            this.mocker.getComponentUnderTest().getCleanedOfficeHTML(uploadId, 0);
+            fail();
+        } catch (RuntimeException expected) {
+            assertEquals(String.format("Unknown upload [%s].", uploadId), expected.getMessage());
+        }
+    }
+
+    @Test
+    public void cleanUploadedContentTwice() throws Exception
+    {
+        String uploadId = this.mocker.getComponentUnderTest().uploadOfficeHTML(null, "<p>a</p>");
+
+        assertEquals(1, this.mocker.getComponentUnderTest().cleanUploadedOfficeHTML(uploadId, CLEANER_HINT,
+            CLEANING_PARAMETERS));
+        assertEquals(1, this.mocker.getComponentUnderTest().cleanUploadedOfficeHTML(uploadId, CLEANER_HINT,
+            CLEANING_PARAMETERS));
+
+        // The content is cleaned only once and the wrapper is closed only once.
+        assertEquals(Collections.singletonList("<div><p>a</p></div>"), this.cleanerInputs);
+    }
+
+    @Test
+    public void uploadAfterClean() throws Exception
+    {
+        String uploadId = this.mocker.getComponentUnderTest().uploadOfficeHTML(null, "<p>a</p>");
+        this.mocker.getComponentUnderTest().cleanUploadedOfficeHTML(uploadId, CLEANER_HINT, CLEANING_PARAMETERS);
+
+        try {
+            this.mocker.getComponentUnderTest().uploadOfficeHTML(uploadId, "<p>b</p>");
+            fail();
+        } catch (RuntimeException expected) {
+            assertEquals("The uploaded content has already been cleaned.", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void tooManyUploads() throws Exception
+    {
+        for (int i = 0; i < 5; i++) {
+            this.mocker.getComponentUnderTest().uploadOfficeHTML(null, "<p>a</p>");
+        }
+
+        try {
+            this.mocker.getComponentUnderTest().uploadOfficeHTML(null, "<p>a</p>");
+            fail();
+        } catch (RuntimeException expected) {
+            assertEquals("Too many uploads in progress.", expected.getMessage());
+        }
+
+        // The limit applies per user.
+        setCurrentUser("bob");
+        assertNotNull(this.mocker.getComponentUnderTest().uploadOfficeHTML(null, "<p>a</p>"));
+    }
+
+    @Test
+    public void accessUploadOfAnotherUser() throws Exception
+    {
+        String uploadId = this.mocker.getComponentUnderTest().uploadOfficeHTML(null, "<p>a</p>");
+
+        setCurrentUser("bob");
+        try {
+            this.mocker.getComponentUnderTest().cleanUploadedOfficeHTML(uploadId, CLEANER_HINT, CLEANING_PARAMETERS);
+            fail();
+        } catch (RuntimeException expected) {
+            assertEquals(String.format("Unknown upload [%s].", uploadId), expected.getMessage());
+        }
+
+        // The upload is not discarded by another user.
+        setCurrentUser("alice");
+        assertEquals(1, this.mocker.getComponentUnderTest().cleanUploadedOfficeHTML(uploadId, CLEANER_HINT,
+            CLEANING_PARAMETERS));
+    }
+
+    private void setCurrentUser(String userName)
+    {
+        when(this.xcontext.getUserReference()).thenReturn(new DocumentReference("wiki", "XWiki", userName));
+    }
+}
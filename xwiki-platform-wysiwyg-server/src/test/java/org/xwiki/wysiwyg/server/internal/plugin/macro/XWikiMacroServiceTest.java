@@ -20,11 +20,13 @@
 package org.xwiki.wysiwyg.server.internal.plugin.macro;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Collections;
+import java.util.Locale;
 
 import javax.inject.Provider;
 
@@ -32,7 +34,12 @@
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.gwt.wysiwyg.client.converter.HTMLConverter;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroService;
+import org.xwiki.gwt.wysiwyg.client.wiki.WikiPageReference;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.rendering.macro.Macro;
 import org.xwiki.rendering.macro.MacroId;
 import org.xwiki.rendering.macro.MacroManager;
@@ -42,10 +49,15 @@
 import org.xwiki.rendering.syntax.Syntax;
 import org.xwiki.rendering.syntax.SyntaxFactory;
 import org.xwiki.rendering.syntax.SyntaxType;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 import org.xwiki.wysiwyg.server.plugin.macro.MacroDescriptorTranslator;
+import org.xwiki.wysiwyg.server.wiki.EntityReferenceConverter;
 
+import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
  * Unit tests for {@link XWikiMacroService}.
@@ -146,4 +158,121 @@ public void getMacroDescriptor() throws Exception
         Assert.assertEquals(parameterDescriptor.isMandatory(), actualParamDescriptor.isMandatory());
         Assert.assertEquals("java.lang.Integer", actualParamDescriptor.getType().getName());
     }
+
+    /**
+     * Verifies that a macro call can't be rendered in the context of a page that the current user can't view.
+     */
+    @Test(expected = SecurityException.class)
+    public void renderWithoutViewRight() throws Exception
+    {
+        WikiPageReference clientReference = new WikiPageReference("wiki", "Space", "Page");
+        DocumentReference reference = new DocumentReference("wiki", "Space", "Page");
+        EntityReferenceConverter entityReferenceConverter = mocker.getInstance(EntityReferenceConverter.class);
+        when(entityReferenceConverter.convert(clientReference)).thenReturn(reference);
+
+        ContextualAuthorizationManager authorization = mocker.getInstance(ContextualAuthorizationManager.class);
+        when(authorization.hasAccess(Right.VIEW, reference)).thenReturn(false);
+
+        mocker.getComponentUnderTest().render("startmacro:foo|-||-|", false, "xwiki/2.0", clientReference);
+    }
+
+    /**
+     * Verifies that a macro call sent by the client is executed in the context of the edited page, with the rights of
+     * the current user, and that the context is restored afterwards.
+     */
+    @Test
+    public void renderWithCurrentUserAsContentAuthor() throws Exception
+    {
+        WikiPageReference clientReference = new WikiPageReference("wiki", "Space", "Page");
+        DocumentReference reference = new DocumentReference("wiki", "Space", "Page");
+        EntityReferenceConverter entityReferenceConverter = mocker.getInstance(EntityReferenceConverter.class);
+        when(entityReferenceConverter.convert(clientReference)).thenReturn(reference);
+
+        ContextualAuthorizationManager authorization = mocker.getInstance(ContextualAuthorizationManager.class);
+        when(authorization.hasAccess(Right.VIEW, reference)).thenReturn(true);
+
+        Execution execution = mocker.getInstance(Execution.class);
+        when(execution.getContext()).thenReturn(new ExecutionContext());
+
+        DocumentReference currentUser = new DocumentReference("wiki", "XWiki", "alice");
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(xcontext.getWikiId()).thenReturn("xwiki");
+        when(xcontext.getUserReference()).thenReturn(currentUser);
+        XWikiDocument currentDocument = mock(XWikiDocument.class, "current");
+        when(xcontext.getDoc()).thenReturn(currentDocument);
+        XWiki xwiki = mock(XWiki.class);
+        when(xcontext.getWiki()).thenReturn(xwiki);
+        XWikiDocument editedDocument = mock(XWikiDocument.class, "edited");
+        when(editedDocument.getLocale()).thenReturn(Locale.ROOT);
+        when(xwiki.getDocument(reference, xcontext)).thenReturn(editedDocument);
+
+        Provider<XWikiContext> contextProvider = mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        when(contextProvider.get()).thenReturn(xcontext);
+
+        HTMLConverter htmlConverter = mocker.getInstance(HTMLConverter.class);
+        when(htmlConverter.parseAndRender("<!--startmacro:groovy|-||-|println 1--><!--stopmacro-->", "xwiki/2.1"))
+            .thenReturn("output");
+
+        Assert.assertEquals("output",
+            mocker.getComponentUnderTest().render("startmacro:groovy|-||-|println 1", false, "xwiki/2.1",
+                clientReference));
+
+        // The macro call comes from the client so it must not be executed with the rights of the content author of the
+        // edited page.
+        ArgumentCaptor<Object> securityDocumentCaptor = ArgumentCaptor.forClass(Object.class);
+        verify(xcontext).put(eq(XWikiDocument.CKEY_SDOC), securityDocumentCaptor.capture());
+        XWikiDocument securityDocument = (XWikiDocument) securityDocumentCaptor.getValue();
+        Assert.assertEquals(reference, securityDocument.getDocumentReference());
+        Assert.assertEquals(currentUser, securityDocument.getContentAuthorReference());
+        verify(xcontext).setDoc(editedDocument);
+
+        // The context is restored.
+        verify(xcontext).remove(XWikiDocument.CKEY_SDOC);
+        verify(xcontext).setDoc(currentDocument);
+        verify(xcontext).setWikiId("xwiki");
+    }
+
+    /**
+     * Verifies that an in-line macro call is rendered inside a paragraph, so that it's not rendered as a standalone
+     * macro call.
+     */
+    @Test
+    public void renderInlineMacroCall() throws Exception
+    {
+        WikiPageReference clientReference = new WikiPageReference("wiki", "Space", "Page");
+        DocumentReference reference = new DocumentReference("wiki", "Space", "Page");
+        EntityReferenceConverter entityReferenceConverter = mocker.getInstance(EntityReferenceConverter.class);
+        when(entityReferenceConverter.convert(clientReference)).thenReturn(reference);
+
+        ContextualAuthorizationManager authorization = mocker.getInstance(ContextualAuthorizationManager.class);
+        when(authorization.hasAccess(Right.VIEW, reference)).thenReturn(true);
+
+        Execution execution = mocker.getInstance(Execution.class);
+        when(execution.getContext()).thenReturn(new ExecutionContext());
+
+        XWikiContext xcontext = mock(XWikiContext.class);
+        XWiki xwiki = mock(XWiki.class);
+        when(xcontext.getWiki()).thenReturn(xwiki);
+        XWikiDocument editedDocument = mock(XWikiDocument.class);
+        when(xwiki.getDocument(reference, xcontext)).thenReturn(editedDocument);
+        Provider<XWikiContext> contextProvider = mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        when(contextProvider.get()).thenReturn(xcontext);
+
+        HTMLConverter htmlConverter = mocker.getInstance(HTMLConverter.class);
+        when(htmlConverter.parseAndRender("<p><!--startmacro:foo|-||-|--><!--stopmacro--></p>", "xwiki/2.1"))
+            .thenReturn("<p><!--startmacro:foo|-||-|--><em>output</em><!--stopmacro--></p>");
+
+        Assert.assertEquals("<!--startmacro:foo|-||-|--><em>output</em><!--stopmacro-->",
+            mocker.getComponentUnderTest().render("startmacro:foo|-||-|", true, "xwiki/2.1", clientReference));
+    }
+
+    /**
+     * Verifies that only macro calls can be rendered.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void renderInvalidMacroCall() throws Exception
+    {
+        mocker.getComponentUnderTest().render("startmacro:foo|-||-|--><script>", false, "xwiki/2.1",
+            new WikiPageReference("wiki", "Space", "Page"));
+    }
 }
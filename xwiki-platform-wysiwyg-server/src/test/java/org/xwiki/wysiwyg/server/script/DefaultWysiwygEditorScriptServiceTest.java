@@ -0,0 +1,255 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.wysiwyg.server.script;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.gwt.wysiwyg.client.converter.HTMLConverter;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.MacroBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+import org.xwiki.wysiwyg.server.WysiwygEditorScriptService;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.plugin.XWikiPluginManager;
+
+import static org.junit.Assert.*;
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link DefaultWysiwygEditorScriptService}.
+ *
+ * @version $Id$
+ */
+public class DefaultWysiwygEditorScriptServiceTest
+{
+    @Rule
+    public MockitoComponentMockingRule<WysiwygEditorScriptService> mocker =
+        new MockitoComponentMockingRule<WysiwygEditorScriptService>(DefaultWysiwygEditorScriptService.class);
+
+    private DocumentReference templateReference = new DocumentReference("wiki", "Space", "Template");
+
+    private XWikiContext xcontext = mock(XWikiContext.class);
+
+    private XWiki xwiki = mock(XWiki.class);
+
+    private XWikiDocument template = mock(XWikiDocument.class);
+
+    @Before
+    public void configure() throws Exception
+    {
+        Provider<XWikiContext> xcontextProvider = this.mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        when(xcontextProvider.get()).thenReturn(this.xcontext);
+        when(this.xcontext.getWiki()).thenReturn(this.xwiki);
+        when(this.xcontext.getLocale()).thenReturn(Locale.ENGLISH);
+        when(this.xcontext.getUserReference()).thenReturn(new DocumentReference("wiki", "XWiki", "alice"));
+        when(this.xwiki.getSkin(this.xcontext)).thenReturn("flamingo");
+
+        XWikiPluginManager pluginManager = mock(XWikiPluginManager.class);
+        when(this.xwiki.getPluginManager()).thenReturn(pluginManager);
+        when(pluginManager.endParsing(anyString(), same(this.xcontext))).then(returnsFirstArg());
+
+        when(this.xwiki.getDocument(this.templateReference, this.xcontext)).thenReturn(this.template);
+        when(this.template.getDocumentReference()).thenReturn(this.templateReference);
+        when(this.template.getVersion()).thenReturn("1.1");
+        when(this.template.getSyntax()).thenReturn(Syntax.XWIKI_2_1);
+        when(this.template.getContent()).thenReturn("template content");
+
+        ContextualAuthorizationManager authorization = this.mocker.getInstance(ContextualAuthorizationManager.class);
+        when(authorization.hasAccess(Right.VIEW, this.templateReference)).thenReturn(true);
+    }
+
+    @Test
+    public void renderIsNotCachedByDefault() throws Exception
+    {
+        XWikiDocument currentDocument = setCurrentDocument("Page", "rendered template");
+
+        assertEquals("rendered template", this.mocker.getComponentUnderTest().render(this.templateReference));
+        assertEquals("rendered template", this.mocker.getComponentUnderTest().render(this.templateReference));
+
+        verify(currentDocument, times(2)).getRenderedContent("template content", "xwiki/2.1", this.xcontext);
+    }
+
+    @Test
+    public void renderCached() throws Exception
+    {
+        XWikiDocument alice = setCurrentDocument("Alice", "rendered for Alice");
+        assertEquals("rendered for Alice", this.mocker.getComponentUnderTest().render(this.templateReference, true));
+        assertEquals("rendered for Alice", this.mocker.getComponentUnderTest().render(this.templateReference, true));
+        verify(alice).getRenderedContent("template content", "xwiki/2.1", this.xcontext);
+
+        // The template is rendered in the context of the current document.
+        XWikiDocument bob = setCurrentDocument("Bob", "rendered for Bob");
+        assertEquals("rendered for Bob", this.mocker.getComponentUnderTest().render(this.templateReference, true));
+        verify(bob).getRenderedContent("template content", "xwiki/2.1", this.xcontext);
+
+        // A new version of the template is rendered again.
+        when(this.template.getVersion()).thenReturn("1.2");
+        assertEquals("rendered for Bob", this.mocker.getComponentUnderTest().render(this.templateReference, true));
+        verify(bob, times(2)).getRenderedContent("template content", "xwiki/2.1", this.xcontext);
+    }
+
+    @Test
+    public void renderCachedTemplateFromConfiguration() throws Exception
+    {
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty("wysiwyg.cachedTemplates", List.class))
+            .thenReturn(Collections.singletonList("Space.Template"));
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        when(resolver.resolve("Space.Template")).thenReturn(this.templateReference);
+
+        XWikiDocument currentDocument = setCurrentDocument("Page", "rendered template");
+        assertEquals("rendered template", this.mocker.getComponentUnderTest().render(this.templateReference));
+        assertEquals("rendered template", this.mocker.getComponentUnderTest().render(this.templateReference));
+
+        verify(currentDocument).getRenderedContent("template content", "xwiki/2.1", this.xcontext);
+    }
+
+    @Test
+    public void renderCachedAfterDocumentChange() throws Exception
+    {
+        DocumentReference includedReference = new DocumentReference("wiki", "Space", "Included");
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        when(resolver.resolve("Included", this.templateReference)).thenReturn(includedReference);
+        MacroBlock include = new MacroBlock("include", Collections.singletonMap("reference", "Included"), false);
+        when(this.template.getXDOM()).thenReturn(new XDOM(Collections.<Block>singletonList(include)));
+
+        XWikiDocument currentDocument = setCurrentDocument("Page", "rendered template");
+        assertEquals("rendered template", this.mocker.getComponentUnderTest().render(this.templateReference, true));
+
+        ObservationManager observationManager = this.mocker.getInstance(ObservationManager.class);
+        ArgumentCaptor<EventListener> listenerCaptor = ArgumentCaptor.forClass(EventListener.class);
+        verify(observationManager).addListener(listenerCaptor.capture());
+        EventListener listener = listenerCaptor.getValue();
+
+        // The cached result doesn't depend on the other documents.
+        listener.onEvent(new DocumentUpdatedEvent(), mockDocument("Other"), null);
+        assertEquals("rendered template", this.mocker.getComponentUnderTest().render(this.templateReference, true));
+        verify(currentDocument).getRenderedContent("template content", "xwiki/2.1", this.xcontext);
+
+        // The cached result depends on the documents included by the template, even if they don't exist yet.
+        listener.onEvent(new DocumentCreatedEvent(), mockDocument("Included"), null);
+        assertEquals("rendered template", this.mocker.getComponentUnderTest().render(this.templateReference, true));
+        verify(currentDocument, times(2)).getRenderedContent("template content", "xwiki/2.1", this.xcontext);
+
+        // The cached result depends on the current document.
+        listener.onEvent(new DocumentUpdatedEvent(), mockDocument("Page"), null);
+        assertEquals("rendered template", this.mocker.getComponentUnderTest().render(this.templateReference, true));
+        verify(currentDocument, times(3)).getRenderedContent("template content", "xwiki/2.1", this.xcontext);
+    }
+
+    @Test
+    public void renderWithoutViewRight() throws Exception
+    {
+        ContextualAuthorizationManager authorization = this.mocker.getInstance(ContextualAuthorizationManager.class);
+        when(authorization.hasAccess(Right.VIEW, this.templateReference)).thenReturn(false);
+
+        assertNull(this.mocker.getComponentUnderTest().render(this.templateReference, true));
+        verify(this.xwiki, never()).getDocument(any(DocumentReference.class), any(XWikiContext.class));
+    }
+
+    @Test
+    public void toAnnotatedXHTMLMap() throws Exception
+    {
+        setCurrentDocument("Page", "");
+        XWikiDocument originalSecurityDocument = mock(XWikiDocument.class, "security");
+        when(this.xcontext.get(XWikiDocument.CKEY_SDOC)).thenReturn(originalSecurityDocument);
+
+        HTMLConverter htmlConverter = this.mocker.getInstance(HTMLConverter.class);
+        when(htmlConverter.toHTML("first", "xwiki/2.1")).thenReturn("<p>first</p>");
+        when(htmlConverter.toHTML("second", "xwiki/2.1")).thenThrow(new RuntimeException("conversion failed"));
+        when(htmlConverter.toHTML("third", "xwiki/2.1")).thenReturn("<p>third</p>");
+
+        Map<String, String> sources = new LinkedHashMap<String, String>();
+        sources.put("a", "first");
+        sources.put("b", "second");
+        sources.put("c", "third");
+        Map<String, String> results = this.mocker.getComponentUnderTest().toAnnotatedXHTML(sources, "xwiki/2.1");
+
+        // The order of the fields is preserved and the source is returned for the field that couldn't be converted.
+        assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<String>(results.keySet()));
+        assertEquals("<p>first</p>", results.get("a"));
+        assertEquals("second", results.get("b"));
+        assertEquals("<p>third</p>", results.get("c"));
+
+        // The conversion context is set up once, with the current user as content author, and then restored.
+        ArgumentCaptor<Object> securityDocumentCaptor = ArgumentCaptor.forClass(Object.class);
+        verify(this.xcontext, times(2)).put(eq(XWikiDocument.CKEY_SDOC), securityDocumentCaptor.capture());
+        XWikiDocument securityDocument = (XWikiDocument) securityDocumentCaptor.getAllValues().get(0);
+        assertEquals(new DocumentReference("wiki", "Space", "Page"), securityDocument.getDocumentReference());
+        assertEquals(this.xcontext.getUserReference(), securityDocument.getContentAuthorReference());
+        assertSame(originalSecurityDocument, securityDocumentCaptor.getAllValues().get(1));
+        verify(this.xcontext).put("isInRenderingEngine", true);
+        verify(this.xcontext).remove("isInRenderingEngine");
+    }
+
+    private XWikiDocument mockDocument(String name)
+    {
+        XWikiDocument document = mock(XWikiDocument.class, "source" + name);
+        when(document.getDocumentReference()).thenReturn(new DocumentReference("wiki", "Space", name));
+        return document;
+    }
+
+    private XWikiDocument setCurrentDocument(String name, String renderedTemplate) throws Exception
+    {
+        XWikiDocument currentDocument = mock(XWikiDocument.class, name);
+        when(currentDocument.getDocumentReference()).thenReturn(new DocumentReference("wiki", "Space", name));
+        when(currentDocument.getLocale()).thenReturn(Locale.ROOT);
+        when(currentDocument.getDocumentReferenceWithLocale())
+            .thenReturn(new DocumentReference("wiki", "Space", name, Locale.ENGLISH));
+        when(currentDocument.getVersion()).thenReturn("1.1");
+        when(currentDocument.getRenderedContent("template content", "xwiki/2.1", this.xcontext))
+            .thenReturn(renderedTemplate);
+        when(this.xcontext.getDoc()).thenReturn(currentDocument);
+        return currentDocument;
+    }
+}